@@ -40,6 +40,11 @@ public @interface CacheNamespace {
 
   int size() default 1024;
 
+  /**
+   * Upper bound of the estimated heap size of the cached entries in bytes, 0 means no bound.
+   */
+  long maxBytes() default 0;
+
   boolean readWrite() default true;
   
   boolean blocking() default false;
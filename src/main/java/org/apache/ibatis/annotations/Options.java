@@ -21,6 +21,7 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+import org.apache.ibatis.mapping.FlushScope;
 import org.apache.ibatis.mapping.ResultSetType;
 import org.apache.ibatis.mapping.StatementType;
 
@@ -63,4 +64,8 @@ public @interface Options {
   String keyColumn() default "";
   
   String resultSets() default "";
+
+  FlushScope flushScope() default FlushScope.NAMESPACE;
+
+  String tables() default "";
 }
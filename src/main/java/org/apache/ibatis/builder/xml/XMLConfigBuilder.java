@@ -22,6 +22,7 @@ import javax.sql.DataSource;
 
 import org.apache.ibatis.builder.BaseBuilder;
 import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.cache.InvalidationBus;
 import org.apache.ibatis.datasource.DataSourceFactory;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.loader.ProxyFactory;
@@ -43,6 +44,7 @@ import org.apache.ibatis.session.AutoMappingUnknownColumnBehavior;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.LocalCacheScope;
+import org.apache.ibatis.session.QueryCoalescing;
 import org.apache.ibatis.transaction.TransactionFactory;
 import org.apache.ibatis.type.JdbcType;
 import org.apache.ibatis.type.TypeHandler;
@@ -251,6 +253,9 @@ public class XMLConfigBuilder extends BaseBuilder {
     configuration.setMapUnderscoreToCamelCase(booleanValueOf(props.getProperty("mapUnderscoreToCamelCase"), false));
     configuration.setSafeRowBoundsEnabled(booleanValueOf(props.getProperty("safeRowBoundsEnabled"), false));
     configuration.setLocalCacheScope(LocalCacheScope.valueOf(props.getProperty("localCacheScope", "SESSION")));
+    configuration.setLocalCacheSize(integerValueOf(props.getProperty("localCacheSize"), null));
+    configuration.setLocalCacheMaxBytes(longValueOf(props.getProperty("localCacheMaxBytes"), null));
+    configuration.setQueryCoalescing(QueryCoalescing.valueOf(props.getProperty("queryCoalescing", "NONE")));
     configuration.setJdbcTypeForNull(JdbcType.valueOf(props.getProperty("jdbcTypeForNull", "OTHER")));
     configuration.setLazyLoadTriggerMethods(stringSetValueOf(props.getProperty("lazyLoadTriggerMethods"), "equals,clone,hashCode,toString"));
     configuration.setSafeResultHandlerEnabled(booleanValueOf(props.getProperty("safeResultHandlerEnabled"), true));
@@ -261,6 +266,13 @@ public class XMLConfigBuilder extends BaseBuilder {
     configuration.setCallSettersOnNulls(booleanValueOf(props.getProperty("callSettersOnNulls"), false));
     configuration.setUseActualParamName(booleanValueOf(props.getProperty("useActualParamName"), true));
     configuration.setReturnInstanceForEmptyRow(booleanValueOf(props.getProperty("returnInstanceForEmptyRow"), false));
+    configuration.setCompactCacheKeys(booleanValueOf(props.getProperty("compactCacheKeys"), false));
+    configuration.setVerifyCacheKeys(booleanValueOf(props.getProperty("verifyCacheKeys"), false));
+    configuration.setCacheStatisticsEnabled(booleanValueOf(props.getProperty("cacheStatisticsEnabled"), false));
+    configuration.setInvalidationBus(invalidationBus(props.getProperty("invalidationBus")));
+    configuration.setCacheSnapshotDirectory(props.getProperty("cacheSnapshotDirectory"));
+    configuration.setCacheSnapshotMaxAge(longValueOf(props.getProperty("cacheSnapshotMaxAge"), 0L));
+    configuration.setCacheWarmUpThreads(integerValueOf(props.getProperty("cacheWarmUpThreads"), 4));
     configuration.setLogPrefix(props.getProperty("logPrefix"));
     @SuppressWarnings("unchecked")
     Class<? extends Log> logImpl = (Class<? extends Log>)resolveClass(props.getProperty("logImpl"));
@@ -268,6 +280,23 @@ public class XMLConfigBuilder extends BaseBuilder {
     configuration.setConfigurationFactory(resolveClass(props.getProperty("configurationFactory")));
   }
 
+  private InvalidationBus invalidationBus(String type) {
+    InvalidationBus bus = (InvalidationBus) createInstance(type);
+    if (bus != null) {
+      Properties busProperties = new Properties();
+      Properties vars = configuration.getVariables();
+      if (vars != null) {
+        for (String name : vars.stringPropertyNames()) {
+          if (name.startsWith("invalidationBus.")) { //例如 invalidationBus.timeToLive
+            busProperties.setProperty(name.substring("invalidationBus.".length()), vars.getProperty(name));
+          }
+        }
+      }
+      bus.setProperties(busProperties);
+    }
+    return bus;
+  }
+
   private void environmentsElement(XNode context) throws Exception {
     if (context != null) {
       if (environment == null) { //未指定environment 字段，使用默认值
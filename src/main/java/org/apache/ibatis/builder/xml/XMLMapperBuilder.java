@@ -204,10 +204,15 @@ public class XMLMapperBuilder extends BaseBuilder {
       Class<? extends Cache> evictionClass = typeAliasRegistry.resolveAlias(eviction); //获取缓存实现类
       Long flushInterval = context.getLongAttribute("flushInterval"); //缓存刷新周期默认值null
       Integer size = context.getIntAttribute("size"); //大小
+      Long maxBytes = context.getLongAttribute("maxBytes"); //字节数上限
       boolean readWrite = !context.getBooleanAttribute("readOnly", false); //是否只读默认false
       boolean blocking = context.getBooleanAttribute("blocking", false); //是否堵塞
       Properties props = context.getChildrenAsProperties(); //获取cache的properties子节点
-      builderAssistant.useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, props); //创建cache对象，并添加到集合中
+      builderAssistant.useNewCache(typeClass, evictionClass, flushInterval, size, maxBytes, readWrite, blocking, props); //创建cache对象，并添加到集合中
+      for (XNode warmUp : context.evalNodes("warm-up")) { //启动时运行的预热select，解析完所有映射文件后才查找
+        configuration.addCacheWarmUp(builderAssistant.applyCurrentNamespace(warmUp.getStringAttribute("select"), true),
+            warmUp.getStringAttribute("parameter"));
+      }
     }
   }
 
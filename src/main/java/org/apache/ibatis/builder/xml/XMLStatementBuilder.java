@@ -24,6 +24,7 @@ import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
 import org.apache.ibatis.executor.keygen.SelectKeyGenerator;
+import org.apache.ibatis.mapping.FlushScope;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ResultSetType;
 import org.apache.ibatis.mapping.SqlCommandType;
@@ -82,6 +83,8 @@ public class XMLStatementBuilder extends BaseBuilder { //XML语句建造者
     boolean flushCache = context.getBooleanAttribute("flushCache", !isSelect); //是否需要刷新缓存
     boolean useCache = context.getBooleanAttribute("useCache", isSelect);//是否使用缓存
     boolean resultOrdered = context.getBooleanAttribute("resultOrdered", false);
+    FlushScope flushScope = FlushScope.valueOf(context.getStringAttribute("flushScope", FlushScope.NAMESPACE.toString()).toUpperCase(Locale.ENGLISH)); //清空二级缓存的范围
+    String tables = context.getStringAttribute("tables"); //读或写的表
 
     // Include Fragments before parsing
     XMLIncludeTransformer includeParser = new XMLIncludeTransformer(configuration, builderAssistant);//处理Include节点
@@ -109,7 +112,7 @@ public class XMLStatementBuilder extends BaseBuilder { //XML语句建造者
     builderAssistant.addMappedStatement(id, sqlSource, statementType, sqlCommandType,
         fetchSize, timeout, parameterMap, parameterTypeClass, resultMap, resultTypeClass,
         resultSetTypeEnum, flushCache, useCache, resultOrdered, 
-        keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets);
+        keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets, flushScope, tables);
   }
 
   private void processSelectKeyNodes(String id, Class<?> parameterTypeClass, LanguageDriver langDriver) {
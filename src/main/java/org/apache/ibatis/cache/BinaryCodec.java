@@ -0,0 +1,463 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.io.Resources;
+
+/**
+ * {@link CacheCodec} that writes mapped beans property by property into a compact binary form.
+ * <p>
+ * Unlike Java serialization no class descriptors are written: each class name is written once per value and the
+ * properties of a bean are written in the order of its {@link org.apache.ibatis.reflection.Reflector}, which is the
+ * same for the encoding and the decoding side since the bytes never leave the JVM. Beans need a no-arg constructor but
+ * do not have to be {@link Serializable}. Collections, maps, arrays and the common JDBC value types are written from
+ * their content, objects reachable twice are written once and decoded as one instance, and any other object,
+ * including lazy loading proxies, is embedded as Java serialization bytes.
+ */
+public class BinaryCodec implements CacheCodec {
+
+  private static final byte NULL = 0;
+  private static final byte REFERENCE = 1;
+  private static final byte STRING = 2;
+  private static final byte INTEGER = 3;
+  private static final byte LONG = 4;
+  private static final byte DOUBLE = 5;
+  private static final byte FLOAT = 6;
+  private static final byte SHORT = 7;
+  private static final byte BYTE = 8;
+  private static final byte BOOLEAN = 9;
+  private static final byte CHARACTER = 10;
+  private static final byte BIG_DECIMAL = 11;
+  private static final byte BIG_INTEGER = 12;
+  private static final byte DATE = 13;
+  private static final byte SQL_DATE = 14;
+  private static final byte SQL_TIME = 15;
+  private static final byte SQL_TIMESTAMP = 16;
+  private static final byte BYTES = 17;
+  private static final byte ENUM = 18;
+  private static final byte ARRAY = 19;
+  private static final byte COLLECTION = 20;
+  private static final byte MAP = 21;
+  private static final byte BEAN = 22;
+  private static final byte SERIALIZED = 23;
+
+  @Override
+  public Object encode(Object value) {
+    Writer writer = new Writer();
+    writer.write(value);
+    return writer.toByteArray();
+  }
+
+  @Override
+  public Object decode(Object encoded) {
+    return new Reader((byte[]) encoded).read();
+  }
+
+  private static class Writer {
+    private byte[] buffer = new byte[256];
+    private int position;
+    private final Map<Class<?>, Integer> classes = new HashMap<Class<?>, Integer>(); //已写出的类
+    private final Map<Object, Integer> objects = new IdentityHashMap<Object, Integer>(); //已写出的对象
+
+    void write(Object value) {
+      if (value == null) {
+        writeByte(NULL);
+      } else if (value instanceof String) {
+        writeByte(STRING);
+        writeString((String) value);
+      } else if (value instanceof Integer) {
+        writeByte(INTEGER);
+        writeInt((Integer) value);
+      } else if (value instanceof Long) {
+        writeByte(LONG);
+        writeLong((Long) value);
+      } else if (value instanceof Double) {
+        writeByte(DOUBLE);
+        writeLong(Double.doubleToRawLongBits((Double) value));
+      } else if (value instanceof Float) {
+        writeByte(FLOAT);
+        writeInt(Float.floatToRawIntBits((Float) value));
+      } else if (value instanceof Short) {
+        writeByte(SHORT);
+        writeInt((Short) value);
+      } else if (value instanceof Byte) {
+        writeByte(BYTE);
+        writeByte((Byte) value);
+      } else if (value instanceof Boolean) {
+        writeByte(BOOLEAN);
+        writeByte((Boolean) value ? 1 : 0);
+      } else if (value instanceof Character) {
+        writeByte(CHARACTER);
+        writeInt((Character) value);
+      } else if (value.getClass() == BigDecimal.class) {
+        writeByte(BIG_DECIMAL);
+        writeInt(((BigDecimal) value).scale());
+        writeBytes(((BigDecimal) value).unscaledValue().toByteArray());
+      } else if (value.getClass() == BigInteger.class) {
+        writeByte(BIG_INTEGER);
+        writeBytes(((BigInteger) value).toByteArray());
+      } else if (value instanceof byte[]) {
+        writeByte(BYTES);
+        writeBytes((byte[]) value);
+      } else if (!writeDate(value)) {
+        writeObject(value);
+      }
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buffer, position);
+    }
+
+    private boolean writeDate(Object value) {
+      Class<?> type = value.getClass();
+      if (type == Date.class) {
+        writeByte(DATE);
+      } else if (type == java.sql.Date.class) {
+        writeByte(SQL_DATE);
+      } else if (type == java.sql.Time.class) {
+        writeByte(SQL_TIME);
+      } else if (type == java.sql.Timestamp.class) {
+        writeByte(SQL_TIMESTAMP);
+        writeInt(((java.sql.Timestamp) value).getNanos());
+      } else {
+        return false;
+      }
+      writeLong(((Date) value).getTime());
+      return true;
+    }
+
+    private void writeObject(Object value) {
+      Integer index = objects.get(value);
+      if (index != null) { //同一个对象只写一次
+        writeByte(REFERENCE);
+        writeLength(index);
+        return;
+      }
+      objects.put(value, objects.size());
+      Class<?> type = value.getClass();
+      if (value instanceof Enum) {
+        writeByte(ENUM);
+        writeClass(((Enum<?>) value).getDeclaringClass());
+        writeString(((Enum<?>) value).name());
+      } else if (type.isArray() && !type.getComponentType().isPrimitive()) {
+        Object[] array = (Object[]) value;
+        writeByte(ARRAY);
+        writeClass(type.getComponentType());
+        writeLength(array.length);
+        for (Object element : array) {
+          write(element);
+        }
+      } else if (value instanceof Collection && (type = CodecSupport.containerType(value)) != null) {
+        Collection<?> collection = (Collection<?>) value;
+        writeByte(COLLECTION);
+        writeClass(type);
+        writeLength(collection.size());
+        for (Object element : collection) {
+          write(element);
+        }
+      } else if (value instanceof Map && (type = CodecSupport.containerType(value)) != null) {
+        Map<?, ?> map = (Map<?, ?>) value;
+        writeByte(MAP);
+        writeClass(type);
+        writeLength(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+          write(entry.getKey());
+          write(entry.getValue());
+        }
+      } else if (CodecSupport.isBean(value)) {
+        writeByte(BEAN);
+        writeClass(type);
+        for (CodecSupport.Property property : CodecSupport.properties(type)) {
+          write(property.get(value));
+        }
+      } else if (value instanceof Serializable) {
+        writeByte(SERIALIZED);
+        writeBytes(SerializationCodec.serialize((Serializable) value));
+      } else {
+        throw new CacheException("BinaryCodec cannot encode object of " + value.getClass()
+            + ": it is neither a bean with a no-arg constructor nor serializable");
+      }
+    }
+
+    private void writeClass(Class<?> type) {
+      Integer index = classes.get(type);
+      if (index != null) {
+        writeLength(index + 1);
+      } else { //第一次出现时写出类名
+        classes.put(type, classes.size());
+        writeLength(0);
+        writeString(type.getName());
+      }
+    }
+
+    private void writeString(String value) {
+      int length = value.length();
+      writeLength(length);
+      ensureCapacity(length * 3);
+      for (int i = 0; i < length; i++) { //与UTF-8相同的变长编码
+        char c = value.charAt(i);
+        if (c < 0x80) {
+          buffer[position++] = (byte) c;
+        } else if (c < 0x800) {
+          buffer[position++] = (byte) (0xC0 | c >> 6);
+          buffer[position++] = (byte) (0x80 | c & 0x3F);
+        } else {
+          buffer[position++] = (byte) (0xE0 | c >> 12);
+          buffer[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+          buffer[position++] = (byte) (0x80 | c & 0x3F);
+        }
+      }
+    }
+
+    private void writeBytes(byte[] value) {
+      writeLength(value.length);
+      ensureCapacity(value.length);
+      System.arraycopy(value, 0, buffer, position, value.length);
+      position += value.length;
+    }
+
+    private void writeLength(int value) {
+      ensureCapacity(5);
+      while ((value & ~0x7F) != 0) { //每个字节7位，高位表示后面还有
+        buffer[position++] = (byte) (value & 0x7F | 0x80);
+        value >>>= 7;
+      }
+      buffer[position++] = (byte) value;
+    }
+
+    private void writeInt(int value) {
+      writeLength(value << 1 ^ value >> 31); //负数也用较少的字节
+    }
+
+    private void writeLong(long value) {
+      ensureCapacity(8);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        buffer[position++] = (byte) (value >>> shift);
+      }
+    }
+
+    private void writeByte(int value) {
+      ensureCapacity(1);
+      buffer[position++] = (byte) value;
+    }
+
+    private void ensureCapacity(int length) {
+      if (position + length > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + length));
+      }
+    }
+  }
+
+  private static class Reader {
+    private final byte[] buffer;
+    private int position;
+    private final List<Class<?>> classes = new ArrayList<Class<?>>();
+    private final List<Object> objects = new ArrayList<Object>();
+
+    Reader(byte[] buffer) {
+      this.buffer = buffer;
+    }
+
+    Object read() {
+      byte tag = buffer[position++];
+      switch (tag) {
+        case NULL:
+          return null;
+        case REFERENCE:
+          return objects.get(readLength());
+        case STRING:
+          return readString();
+        case INTEGER:
+          return readInt();
+        case LONG:
+          return readLong();
+        case DOUBLE:
+          return Double.longBitsToDouble(readLong());
+        case FLOAT:
+          return Float.intBitsToFloat(readInt());
+        case SHORT:
+          return (short) readInt();
+        case BYTE:
+          return buffer[position++];
+        case BOOLEAN:
+          return buffer[position++] != 0;
+        case CHARACTER:
+          return (char) readInt();
+        case BIG_DECIMAL:
+          int scale = readInt();
+          return new BigDecimal(new BigInteger(readBytes()), scale);
+        case BIG_INTEGER:
+          return new BigInteger(readBytes());
+        case DATE:
+          return new Date(readLong());
+        case SQL_DATE:
+          return new java.sql.Date(readLong());
+        case SQL_TIME:
+          return new java.sql.Time(readLong());
+        case SQL_TIMESTAMP:
+          int nanos = readInt();
+          java.sql.Timestamp timestamp = new java.sql.Timestamp(readLong());
+          timestamp.setNanos(nanos);
+          return timestamp;
+        case BYTES:
+          return readBytes();
+        case ENUM:
+          return readEnum();
+        case ARRAY:
+          return readArray();
+        case COLLECTION:
+          return readCollection();
+        case MAP:
+          return readMap();
+        case BEAN:
+          return readBean();
+        case SERIALIZED:
+          Object object = SerializationCodec.deserialize(readBytes());
+          objects.add(object);
+          return object;
+        default:
+          throw new CacheException("Unknown tag " + tag + " in encoded object");
+      }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Object readEnum() {
+      Class type = readClass();
+      Object constant = Enum.valueOf(type, readString());
+      objects.add(constant);
+      return constant;
+    }
+
+    private Object readArray() {
+      Class<?> componentType = readClass();
+      Object[] array = (Object[]) Array.newInstance(componentType, readLength());
+      objects.add(array);
+      for (int i = 0; i < array.length; i++) {
+        array[i] = read();
+      }
+      return array;
+    }
+
+    private Object readCollection() {
+      Collection<Object> collection = CodecSupport.newCollection(readClass());
+      objects.add(collection);
+      int size = readLength();
+      if (collection instanceof ArrayList) {
+        ((ArrayList<Object>) collection).ensureCapacity(size);
+      }
+      for (int i = 0; i < size; i++) {
+        collection.add(read());
+      }
+      return collection;
+    }
+
+    private Object readMap() {
+      Map<Object, Object> map = CodecSupport.newMap(readClass());
+      objects.add(map);
+      int size = readLength();
+      for (int i = 0; i < size; i++) {
+        Object key = read();
+        map.put(key, read());
+      }
+      return map;
+    }
+
+    private Object readBean() {
+      Class<?> type = readClass();
+      Object bean = CodecSupport.newInstance(type);
+      objects.add(bean);
+      for (CodecSupport.Property property : CodecSupport.properties(type)) {
+        property.set(bean, read());
+      }
+      return bean;
+    }
+
+    private Class<?> readClass() {
+      int index = readLength();
+      if (index > 0) {
+        return classes.get(index - 1);
+      }
+      String name = readString();
+      try {
+        Class<?> type = Resources.classForName(name);
+        classes.add(type);
+        return type;
+      } catch (ClassNotFoundException e) {
+        throw new CacheException("Error decoding object of class " + name + ".  Cause: " + e, e);
+      }
+    }
+
+    private String readString() {
+      char[] chars = new char[readLength()];
+      for (int i = 0; i < chars.length; i++) {
+        int b = buffer[position++] & 0xFF;
+        if (b < 0x80) {
+          chars[i] = (char) b;
+        } else if (b < 0xE0) {
+          chars[i] = (char) ((b & 0x1F) << 6 | buffer[position++] & 0x3F);
+        } else {
+          chars[i] = (char) ((b & 0x0F) << 12 | (buffer[position++] & 0x3F) << 6 | buffer[position++] & 0x3F);
+        }
+      }
+      return new String(chars);
+    }
+
+    private byte[] readBytes() {
+      int length = readLength();
+      byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+      position += length;
+      return bytes;
+    }
+
+    private int readLength() {
+      int value = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = buffer[position++];
+        value |= (b & 0x7F) << shift;
+        if (b >= 0) {
+          return value;
+        }
+      }
+    }
+
+    private int readInt() {
+      int value = readLength();
+      return value >>> 1 ^ -(value & 1);
+    }
+
+    private long readLong() {
+      long value = 0;
+      for (int i = 0; i < 8; i++) {
+        value = value << 8 | buffer[position++] & 0xFF;
+      }
+      return value;
+    }
+  }
+
+}
@@ -0,0 +1,47 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A cache that reads, writes and removes many entries with one call, so that every decorator of the chain is
+ * entered, and every lock taken, once per batch instead of once per entry.
+ * <p>
+ * {@link org.apache.ibatis.cache.impl.PerpetualCache} and the built-in decorators implement it. Use
+ * {@link BulkCacheSupport} to call these operations on any cache, custom ones included.
+ */
+public interface BulkCache extends Cache {
+
+  /**
+   * Has the same effect as calling {@link #getObject(Object)} for each key.
+   *
+   * @return The cached values of the keys that were hit
+   */
+  Map<Object, Object> getAll(Collection<?> keys);
+
+  /**
+   * Has the same effect as calling {@link #putObject(Object, Object)} for each entry. Values may be null.
+   */
+  void putAll(Map<?, ?> entries);
+
+  /**
+   * Has the same effect as calling {@link #removeObject(Object)} for each key.
+   */
+  void removeAll(Collection<?> keys);
+
+}
@@ -0,0 +1,65 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bulk operations on any cache: delegated to {@link BulkCache} implementations, applied entry by entry otherwise.
+ */
+public final class BulkCacheSupport {
+
+  private BulkCacheSupport() {
+    // Prevent Instantiation of Static Class
+  }
+
+  public static Map<Object, Object> getAll(Cache cache, Collection<?> keys) {
+    if (cache instanceof BulkCache) {
+      return ((BulkCache) cache).getAll(keys);
+    }
+    Map<Object, Object> values = new HashMap<Object, Object>();
+    for (Object key : keys) {
+      Object value = cache.getObject(key);
+      if (value != null) {
+        values.put(key, value);
+      }
+    }
+    return values;
+  }
+
+  public static void putAll(Cache cache, Map<?, ?> entries) {
+    if (cache instanceof BulkCache) {
+      ((BulkCache) cache).putAll(entries);
+      return;
+    }
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      cache.putObject(entry.getKey(), entry.getValue());
+    }
+  }
+
+  public static void removeAll(Cache cache, Collection<?> keys) {
+    if (cache instanceof BulkCache) {
+      ((BulkCache) cache).removeAll(keys);
+      return;
+    }
+    for (Object key : keys) {
+      cache.removeObject(key);
+    }
+  }
+
+}
@@ -0,0 +1,39 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * Makes the copies a read-write cache hands out.
+ * <p>
+ * Used by {@link org.apache.ibatis.cache.decorators.SerializedCache}, which keeps the encoded form of every value and
+ * decodes it on each hit so that callers never share an instance. Implementations must have a public no-arg
+ * constructor and be thread safe.
+ */
+public interface CacheCodec {
+
+  /**
+   * @param value The value to cache, usually the result list of a select. Never null.
+   * @return The form kept in the cache
+   */
+  Object encode(Object value);
+
+  /**
+   * @param encoded A value returned by {@link #encode(Object)}
+   * @return A copy of the original value that is not shared with other callers
+   */
+  Object decode(Object encoded);
+
+}
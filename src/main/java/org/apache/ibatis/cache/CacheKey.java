@@ -17,6 +17,7 @@ package org.apache.ibatis.cache;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.ibatis.reflection.ArrayUtil;
@@ -37,13 +38,17 @@ public class CacheKey implements Cloneable, Serializable { //保证key的唯一
   private int hashcode; //CacheKey的hashcode
   private long checksum; //校验和
   private int count;//集合个数
-  private transient List<Object> updateList; //由该集合中的所有对象共同决定两个CacheKey 是否相同
+  private List<Object> updateList; //由该集合中的所有对象共同决定两个CacheKey 是否相同 随key一起序列化 快照恢复的key仍能比较
 
   public CacheKey() {
+    this(new ArrayList<Object>());
+  }
+
+  CacheKey(List<Object> updateList) {
     this.hashcode = DEFAULT_HASHCODE;
     this.multiplier = DEFAULT_MULTIPLYER;
     this.count = 0;
-    this.updateList = new ArrayList<Object>();
+    this.updateList = updateList;
   }
 
   public CacheKey(Object[] objects) {
@@ -55,6 +60,16 @@ public class CacheKey implements Cloneable, Serializable { //保证key的唯一
     return updateList.size();
   }
 
+  /**
+   * @return the objects this key was updated with, in order
+   */
+  public List<Object> getUpdateList() {
+    if (updateList == null) {
+      return Collections.emptyList();
+    }
+    return Collections.unmodifiableList(updateList);
+  }
+
   public void update(Object object) {
     int baseHashCode = object == null ? 1 : ArrayUtil.hashCode(object);  //添加数组或者集合类型
 
@@ -67,6 +82,14 @@ public class CacheKey implements Cloneable, Serializable { //保证key的唯一
     updateList.add(object);
   }
 
+  public void update(int value) {
+    update((Object) value);
+  }
+
+  public void update(long value) {
+    update((Object) value);
+  }
+
   public void updateAll(Object[] objects) {
     for (Object o : objects) {
       update(o);
@@ -78,7 +101,7 @@ public class CacheKey implements Cloneable, Serializable { //保证key的唯一
     if (this == object) { //
       return true;
     }
-    if (!(object instanceof CacheKey)) {
+    if (!(object instanceof CacheKey) || object instanceof CompactCacheKey) {
       return false;
     }
 
@@ -93,6 +116,9 @@ public class CacheKey implements Cloneable, Serializable { //保证key的唯一
     if (count != cacheKey.count) {
       return false;
     }
+    if (updateList == null || cacheKey.updateList == null) { //旧格式反序列化得到的key没有元素
+      return false;
+    }
 
     for (int i = 0; i < updateList.size(); i++) {
       Object thisObject = updateList.get(i);
@@ -121,7 +147,9 @@ public class CacheKey implements Cloneable, Serializable { //保证key的唯一
   @Override
   public CacheKey clone() throws CloneNotSupportedException {
     CacheKey clonedCacheKey = (CacheKey) super.clone();
-    clonedCacheKey.updateList = new ArrayList<Object>(updateList);
+    if (updateList != null) {
+      clonedCacheKey.updateList = new ArrayList<Object>(updateList);
+    }
     return clonedCacheKey;
   }
 
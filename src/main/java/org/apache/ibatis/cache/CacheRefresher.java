@@ -0,0 +1,130 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Reloads second level cache entries in the background for the refresh-ahead and stale-while-revalidate modes.
+ * <p>
+ * Owned by a {@link org.apache.ibatis.session.Configuration}, which shuts it down on close. At most
+ * {@code queueSize} refreshes wait for a thread and a key is queued only once; further refreshes are dropped, as
+ * the entry is still served and simply reloaded by a reader once it expires.
+ */
+public class CacheRefresher { //后台刷新二级缓存
+
+  private static final Log log = LogFactory.getLog(CacheRefresher.class);
+
+  private final ConcurrentMap<Object, Boolean> pending = new ConcurrentHashMap<Object, Boolean>(); //已提交尚未完成的key
+  private int threads = Runtime.getRuntime().availableProcessors(); //刷新线程数
+  private int queueSize = 1024; //最多排队的刷新数
+  private ThreadPoolExecutor executor; //首次刷新时创建
+  private boolean shutdown;
+
+  public int getThreads() {
+    return threads;
+  }
+
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  public int getQueueSize() {
+    return queueSize;
+  }
+
+  public void setQueueSize(int queueSize) {
+    this.queueSize = queueSize;
+  }
+
+  /**
+   * @param key Identifies the entry, a task for a key that is already queued or running is dropped
+   * @return false if the refresh was dropped
+   */
+  public boolean submit(final Object key, final Runnable task) {
+    if (pending.putIfAbsent(key, Boolean.TRUE) != null) {
+      return false; //同一个key已在刷新
+    }
+    try {
+      getExecutor().execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            task.run();
+          } finally {
+            pending.remove(key);
+          }
+        }
+      });
+      return true;
+    } catch (RejectedExecutionException e) { //队列已满或已关闭
+      pending.remove(key);
+      if (log.isDebugEnabled()) {
+        log.debug("Dropped the background refresh of cache entry " + key + ".");
+      }
+      return false;
+    }
+  }
+
+  /**
+   * @return The number of refreshes queued or running
+   */
+  public int getPendingCount() {
+    return pending.size();
+  }
+
+  /**
+   * Stops the refresh threads. Refreshes submitted afterwards are dropped.
+   */
+  public synchronized void shutdown() {
+    shutdown = true;
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  private synchronized ThreadPoolExecutor getExecutor() {
+    if (shutdown) {
+      throw new RejectedExecutionException("The cache refresher is shut down");
+    }
+    if (executor == null) {
+      executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "mybatis-cache-refresh-" + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+      executor.allowCoreThreadTimeOut(true);
+    }
+    return executor;
+  }
+
+}
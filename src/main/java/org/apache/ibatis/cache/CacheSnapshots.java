@@ -0,0 +1,269 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Saves the contents of the second level caches of a configuration to files and restores them, so that a restarted
+ * application does not start with cold caches.
+ * <p>
+ * Only caches that keep their entries in an {@link EnumerableCache}, which is the case of the default
+ * implementation, can be saved. Keys and values are written with Java serialization, and entries that are not
+ * serializable are skipped. Restored entries are put through the whole decorator chain. Their tables and the keys of
+ * the objects they hold are unknown, so any table or key scoped flush of their namespace removes them.
+ * Snapshots are best taken when the application is idle, e.g. on shutdown. A snapshot older than {@code maxAge}
+ * milliseconds (0, the default, means no limit) is not restored, so that a long stopped application does not start
+ * with stale entries.
+ */
+public class CacheSnapshots {
+
+  private static final Log log = LogFactory.getLog(CacheSnapshots.class);
+
+  public static final String FILE_SUFFIX = ".cache";
+  private static final int MAGIC = 0x4d424353; //MBCS
+  private static final int FORMAT = 2; //版本2开始保存快照时间
+  private static final int ATTEMPTS = 3;
+  private static final SerializationCodec SERIALIZATION = new SerializationCodec();
+
+  private final TableDependencies tableDependencies;
+  private final EntityKeyIndex entityKeyIndex;
+  private final ConcurrentMap<String, Registration> caches = new ConcurrentHashMap<String, Registration>(); //命名空间 -> 缓存
+  private volatile long maxAge; //超过该毫秒数的快照不恢复，0表示不限制
+
+  public CacheSnapshots() {
+    this(null, null);
+  }
+
+  public CacheSnapshots(TableDependencies tableDependencies, EntityKeyIndex entityKeyIndex) {
+    this.tableDependencies = tableDependencies;
+    this.entityKeyIndex = entityKeyIndex;
+  }
+
+  /**
+   * @param cache The cache of a namespace, with all its decorators
+   * @param store The cache of the chain that holds the entries
+   */
+  public void register(Cache cache, EnumerableCache store) {
+    caches.put(cache.getId(), new Registration(cache, store));
+  }
+
+  public long getMaxAge() {
+    return maxAge;
+  }
+
+  public void setMaxAge(long maxAge) {
+    this.maxAge = maxAge;
+  }
+
+  /**
+   * @return The namespaces whose caches can be saved
+   */
+  public Set<String> getIds() {
+    return Collections.unmodifiableSet(caches.keySet());
+  }
+
+  /**
+   * @return The number of entries saved
+   */
+  public int save(String id, File file) {
+    Registration registration = getRegistration(id);
+    Cache cache = registration.cache instanceof BlockingCache
+        ? ((BlockingCache) registration.cache).getDelegate() : registration.cache; //读取时不登记加载
+    Map<Object, Object> entries = BulkCacheSupport.getAll(cache, keys(registration.store));
+    List<byte[]> records = new ArrayList<byte[]>(entries.size());
+    for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+      try {
+        records.add((byte[]) SERIALIZATION.encode(new Object[] { entry.getKey(), entry.getValue() }));
+      } catch (CacheException e) { //不可序列化的条目不保存
+        if (log.isDebugEnabled()) {
+          log.debug("Skipped cache entry of " + id + " from snapshot.  Cause: " + e);
+        }
+      }
+    }
+    File temporary = new File(file.getPath() + ".tmp");
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+      try {
+        out.writeInt(MAGIC);
+        out.writeByte(FORMAT);
+        out.writeUTF(id);
+        out.writeLong(System.currentTimeMillis()); //快照时间
+        out.writeInt(records.size());
+        for (byte[] record : records) {
+          out.writeInt(record.length);
+          out.write(record);
+        }
+      } finally {
+        out.close();
+      }
+      if (file.exists() && !file.delete() || !temporary.renameTo(file)) {
+        throw new IOException("Could not replace " + file);
+      }
+    } catch (IOException e) {
+      temporary.delete();
+      throw new CacheException("Error saving snapshot of cache " + id + " to " + file + ".  Cause: " + e, e);
+    }
+    return records.size();
+  }
+
+  /**
+   * @return The number of entries restored
+   * @throws CacheException If the file is not a snapshot of the cache, cannot be read or is older than
+   *     {@code maxAge}
+   */
+  public int restore(String id, File file) {
+    Registration registration = getRegistration(id);
+    Map<Object, Object> entries = new LinkedHashMap<Object, Object>();
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try {
+        if (in.readInt() != MAGIC || in.readByte() != FORMAT || !id.equals(in.readUTF())) {
+          throw new CacheException("File " + file + " is not a snapshot of cache " + id);
+        }
+        long age = System.currentTimeMillis() - in.readLong();
+        if (maxAge > 0 && age > maxAge) { //旧快照中的数据可能已经过时
+          throw new CacheException("Snapshot " + file + " of cache " + id + " is " + age
+              + " ms old, older than the maximum of " + maxAge + " ms");
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+          byte[] record = new byte[in.readInt()];
+          in.readFully(record);
+          try {
+            Object[] entry = (Object[]) SERIALIZATION.decode(record);
+            entries.put(entry[0], entry[1]);
+          } catch (CacheException e) { //例如类已经改变
+            if (log.isDebugEnabled()) {
+              log.debug("Skipped cache entry of " + id + " from snapshot.  Cause: " + e);
+            }
+          }
+        }
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      throw new CacheException("Error restoring snapshot of cache " + id + " from " + file + ".  Cause: " + e, e);
+    }
+    Cache cache = registration.cache;
+    BulkCacheSupport.putAll(cache, entries);
+    for (Object key : entries.keySet()) { //读过的表和包含的主键未知
+      if (tableDependencies != null && tableDependencies.isEnabled()) {
+        tableDependencies.register(cache, key, Collections.<String>emptySet());
+      }
+      if (entityKeyIndex != null && entityKeyIndex.getKeyProperties(cache) != null) {
+        entityKeyIndex.register(cache, key, null);
+      }
+    }
+    return entries.size();
+  }
+
+  /**
+   * Saves every cache that can be saved to a file named after its namespace.
+   *
+   * @return The number of entries saved
+   */
+  public int saveAll(File directory) {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new CacheException("Could not create cache snapshot directory " + directory);
+    }
+    int count = 0;
+    for (String id : caches.keySet()) {
+      count += save(id, getFile(directory, id));
+    }
+    return count;
+  }
+
+  /**
+   * Restores every cache that has a snapshot in the directory.
+   *
+   * @return The namespaces restored
+   */
+  public Set<String> restoreAll(File directory) {
+    Set<String> restored = new HashSet<String>();
+    for (String id : caches.keySet()) {
+      File file = getFile(directory, id);
+      if (file.isFile()) {
+        try {
+          int count = restore(id, file);
+          restored.add(id);
+          if (log.isDebugEnabled()) {
+            log.debug("Restored " + count + " entries of cache " + id + " from " + file);
+          }
+        } catch (CacheException e) { //快照损坏或过旧时缓存照常冷启动
+          log.warn(e.getMessage());
+        }
+      }
+    }
+    return restored;
+  }
+
+  public static File getFile(File directory, String id) {
+    return new File(directory, id.replaceAll("[^A-Za-z0-9._-]", "_") + FILE_SUFFIX);
+  }
+
+  private Registration getRegistration(String id) {
+    Registration registration = caches.get(id);
+    if (registration == null) {
+      throw new CacheException("Cache " + id + " does not exist or cannot list its entries");
+    }
+    return registration;
+  }
+
+  private Set<Object> keys(EnumerableCache store) {
+    for (int attempt = 1; ; attempt++) {
+      try {
+        return store.keys();
+      } catch (ConcurrentModificationException e) { //复制时有其他线程写入
+        if (attempt == ATTEMPTS) {
+          throw new CacheException("Cache " + store.getId() + " kept changing while listing its entries", e);
+        }
+      }
+    }
+  }
+
+  private static class Registration {
+    private final Cache cache;
+    private final EnumerableCache store;
+
+    Registration(Cache cache, EnumerableCache store) {
+      this.cache = cache;
+      this.store = store;
+    }
+  }
+
+}
@@ -0,0 +1,132 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * Statistics of a second level cache at the time they were taken.
+ */
+public class CacheStats {
+
+  private final String id;
+  private final long hits;
+  private final long misses;
+  private final long puts;
+  private final long removals;
+  private final long evictions;
+  private final long clears;
+  private final long loads;
+  private final long loadTime;
+  private final int size;
+  private final long estimatedBytes;
+
+  public CacheStats(String id, long hits, long misses, long puts, long removals, long evictions, long clears,
+      long loads, long loadTime, int size, long estimatedBytes) {
+    this.id = id;
+    this.hits = hits;
+    this.misses = misses;
+    this.puts = puts;
+    this.removals = removals;
+    this.evictions = evictions;
+    this.clears = clears;
+    this.loads = loads;
+    this.loadTime = loadTime;
+    this.size = size;
+    this.estimatedBytes = estimatedBytes;
+  }
+
+  /**
+   * @return The id of the cache, its namespace
+   */
+  public String getId() {
+    return id;
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
+
+  public double getHitRatio() {
+    long requests = hits + misses;
+    return requests == 0 ? 0 : (double) hits / requests;
+  }
+
+  public long getPuts() {
+    return puts;
+  }
+
+  /**
+   * @return The entries removed by flushes scoped to tables or keys
+   */
+  public long getRemovals() {
+    return removals;
+  }
+
+  /**
+   * @return The entries removed by the eviction policy or because they expired
+   */
+  public long getEvictions() {
+    return evictions;
+  }
+
+  /**
+   * @return The flushes of the whole cache
+   */
+  public long getClears() {
+    return clears;
+  }
+
+  /**
+   * @return The queries run because of a miss
+   */
+  public long getLoads() {
+    return loads;
+  }
+
+  /**
+   * @return The total time spent in those queries in nanoseconds
+   */
+  public long getLoadTime() {
+    return loadTime;
+  }
+
+  public double getAverageLoadMillis() {
+    return loads == 0 ? 0 : loadTime / 1000000.0 / loads;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * @return The heap size of the cached objects, estimated from a sample of them
+   */
+  public long getEstimatedBytes() {
+    return estimatedBytes;
+  }
+
+  @Override
+  public String toString() {
+    return "CacheStats[" + id + "] hits=" + hits + ", misses=" + misses + ", hitRatio=" + getHitRatio()
+        + ", puts=" + puts + ", removals=" + removals + ", evictions=" + evictions + ", clears=" + clears
+        + ", loads=" + loads + ", averageLoadMillis=" + getAverageLoadMillis() + ", size=" + size
+        + ", estimatedBytes=" + estimatedBytes;
+  }
+
+}
@@ -0,0 +1,210 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.ibatis.cache.decorators.StatisticsCache;
+import org.apache.ibatis.cache.decorators.StatisticsCacheMBean;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * The {@link StatisticsCache} of every namespace of a configuration. The statistics of each one are also registered
+ * in the platform MBean server as {@code org.apache.ibatis:type=CacheStatistics,name="<namespace>"}. When another
+ * configuration already registered the namespace, an {@code instance} key numbering the registrations is added to the
+ * name. The MBean only holds a weak reference to the cache; {@link #unregisterMBeans()}, which
+ * {@link org.apache.ibatis.session.Configuration#close()} calls, removes it.
+ */
+public class CacheStatsRegistry {
+
+  private static final Log log = LogFactory.getLog(CacheStatsRegistry.class);
+  private static final int MAX_INSTANCES = 100;
+
+  private final ConcurrentMap<String, StatisticsCache> caches = new ConcurrentHashMap<String, StatisticsCache>(); //命名空间 -> 统计
+  private final ConcurrentMap<String, ObjectName> mbeanNames = new ConcurrentHashMap<String, ObjectName>(); //命名空间 -> 注册的JMX名称
+
+  public void register(StatisticsCache cache) {
+    caches.put(cache.getId(), cache);
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName previous = mbeanNames.remove(cache.getId());
+      if (previous != null) { //同一配置重复注册
+        server.unregisterMBean(previous);
+      }
+      StandardMBean mbean = new StandardMBean(new StatisticsView(cache), StatisticsCacheMBean.class, true);
+      for (int instance = 1; instance <= MAX_INSTANCES; instance++) {
+        ObjectName name = objectName(cache.getId(), instance);
+        try {
+          server.registerMBean(mbean, name);
+          mbeanNames.put(cache.getId(), name);
+          return;
+        } catch (InstanceAlreadyExistsException e) { //其他配置已注册同名的命名空间
+          // try the next instance
+        }
+      }
+      log.warn("Could not register the statistics of cache " + cache.getId() + " in JMX: too many instances.");
+    } catch (Exception e) {
+      log.warn("Error registering the statistics of cache " + cache.getId() + " in JMX.  Cause: " + e);
+    }
+  }
+
+  /**
+   * Removes the MBeans of this configuration from the platform MBean server.
+   */
+  public void unregisterMBeans() {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    for (String id : mbeanNames.keySet()) {
+      ObjectName name = mbeanNames.remove(id);
+      try {
+        server.unregisterMBean(name);
+      } catch (Exception e) {
+        // already unregistered
+      }
+    }
+  }
+
+  /**
+   * @return The JMX name the statistics of the cache are registered under, or null if they are not
+   */
+  public ObjectName getMBeanName(String id) {
+    return mbeanNames.get(id);
+  }
+
+  /**
+   * Records the time spent in a query run because the cache missed.
+   */
+  public void recordLoad(String id, long nanos) {
+    StatisticsCache cache = caches.get(id);
+    if (cache != null) {
+      cache.recordLoad(nanos);
+    }
+  }
+
+  /**
+   * @return The statistics of the cache of the namespace, or null if it has none
+   */
+  public CacheStats getStats(String id) {
+    StatisticsCache cache = caches.get(id);
+    return cache == null ? null : cache.getStats();
+  }
+
+  public List<CacheStats> getAllStats() {
+    List<CacheStats> stats = new ArrayList<CacheStats>();
+    for (Map.Entry<String, StatisticsCache> entry : caches.entrySet()) {
+      stats.add(entry.getValue().getStats());
+    }
+    return stats;
+  }
+
+  private static ObjectName objectName(String id, int instance) throws Exception {
+    String name = "org.apache.ibatis:type=CacheStatistics,name=" + ObjectName.quote(id);
+    return new ObjectName(instance == 1 ? name : name + ",instance=" + instance);
+  }
+
+  /*
+   * What is registered in JMX, so that the MBean server does not keep the decorator chain and the cached objects
+   * reachable
+   */
+  private static class StatisticsView implements StatisticsCacheMBean {
+
+    private final WeakReference<StatisticsCache> cache;
+
+    StatisticsView(StatisticsCache cache) {
+      this.cache = new WeakReference<StatisticsCache>(cache);
+    }
+
+    private CacheStats stats() {
+      StatisticsCache statisticsCache = cache.get();
+      return statisticsCache == null ? new CacheStats("", 0, 0, 0, 0, 0, 0, 0, 0, 0, 0) : statisticsCache.getStats();
+    }
+
+    @Override
+    public long getHits() {
+      return stats().getHits();
+    }
+
+    @Override
+    public long getMisses() {
+      return stats().getMisses();
+    }
+
+    @Override
+    public double getHitRatio() {
+      return stats().getHitRatio();
+    }
+
+    @Override
+    public long getPuts() {
+      return stats().getPuts();
+    }
+
+    @Override
+    public long getRemovals() {
+      return stats().getRemovals();
+    }
+
+    @Override
+    public long getEvictions() {
+      return stats().getEvictions();
+    }
+
+    @Override
+    public long getClears() {
+      return stats().getClears();
+    }
+
+    @Override
+    public long getLoads() {
+      return stats().getLoads();
+    }
+
+    @Override
+    public double getAverageLoadMillis() {
+      return stats().getAverageLoadMillis();
+    }
+
+    @Override
+    public int getSize() {
+      return stats().getSize();
+    }
+
+    @Override
+    public long getEstimatedBytes() {
+      return stats().getEstimatedBytes();
+    }
+
+    @Override
+    public void resetStatistics() {
+      StatisticsCache statisticsCache = cache.get();
+      if (statisticsCache != null) {
+        statisticsCache.resetStatistics();
+      }
+    }
+  }
+
+}
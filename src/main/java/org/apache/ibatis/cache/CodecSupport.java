@@ -0,0 +1,179 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ibatis.executor.loader.WriteReplaceInterface;
+import org.apache.ibatis.reflection.DefaultReflectorFactory;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.reflection.ReflectorFactory;
+import org.apache.ibatis.reflection.factory.DefaultObjectFactory;
+import org.apache.ibatis.reflection.factory.ObjectFactory;
+import org.apache.ibatis.reflection.invoker.Invoker;
+
+/**
+ * Class metadata shared by the codecs that copy mapped beans property by property.
+ */
+final class CodecSupport {
+
+  private static final Object[] NO_ARGUMENTS = new Object[0];
+  private static final ReflectorFactory reflectorFactory = new DefaultReflectorFactory();
+  private static final ObjectFactory objectFactory = new DefaultObjectFactory();
+  private static final Map<Class<?>, Property[]> properties = new ConcurrentHashMap<Class<?>, Property[]>();
+  private static final Map<Class<?>, Boolean> instantiable = new ConcurrentHashMap<Class<?>, Boolean>();
+
+  private CodecSupport() {
+    // Prevent Instantiation of Static Class
+  }
+
+  static boolean isImmutable(Object value) {
+    return value instanceof String || value instanceof Integer || value instanceof Long
+        || value instanceof Boolean || value instanceof Double || value instanceof Float
+        || value instanceof Short || value instanceof Byte || value instanceof Character
+        || value instanceof BigDecimal || value instanceof BigInteger || value instanceof Enum
+        || value instanceof Class;
+  }
+
+  /**
+   * A mapped bean is copied through its properties: an application class with a no-arg constructor that is not a
+   * lazy loading proxy, whose properties cannot be read without triggering a query.
+   */
+  static boolean isBean(Object value) {
+    Class<?> type = value.getClass();
+    String name = type.getName();
+    return !(value instanceof WriteReplaceInterface) && !type.isArray()
+        && !name.startsWith("java.") && !name.startsWith("javax.") && isInstantiable(type);
+  }
+
+  /**
+   * @return The class of an empty copy of the collection or map, or null if it cannot be copied element by element
+   */
+  static Class<?> containerType(Object container) {
+    Class<?> type = container.getClass();
+    if (container instanceof SortedSet && ((SortedSet<?>) container).comparator() != null
+        || container instanceof SortedMap && ((SortedMap<?, ?>) container).comparator() != null) {
+      return null; //比较器无法复制
+    }
+    if (isInstantiable(type)) {
+      return type;
+    }
+    if (container instanceof List) {
+      return ArrayList.class;
+    }
+    if (container instanceof Set) {
+      return LinkedHashSet.class;
+    }
+    if (container instanceof Map) {
+      return LinkedHashMap.class;
+    }
+    return null;
+  }
+
+  static Object newInstance(Class<?> type) {
+    return objectFactory.create(type);
+  }
+
+  @SuppressWarnings("unchecked")
+  static Collection<Object> newCollection(Class<?> type) {
+    return (Collection<Object>) objectFactory.create(type);
+  }
+
+  @SuppressWarnings("unchecked")
+  static Map<Object, Object> newMap(Class<?> type) {
+    return (Map<Object, Object>) objectFactory.create(type);
+  }
+
+  /**
+   * @return The properties of the class that can be both read and written, in a fixed order
+   */
+  static Property[] properties(Class<?> type) {
+    Property[] result = properties.get(type);
+    if (result == null) {
+      Reflector reflector = reflectorFactory.findForClass(type);
+      List<Property> list = new ArrayList<Property>();
+      for (String name : reflector.getGetablePropertyNames()) {
+        if (reflector.hasSetter(name)) {
+          list.add(new Property(name, reflector.getGetterType(name).isPrimitive(),
+              reflector.getGetInvoker(name), reflector.getSetInvoker(name)));
+        }
+      }
+      result = list.toArray(new Property[list.size()]);
+      properties.put(type, result);
+    }
+    return result;
+  }
+
+  private static boolean isInstantiable(Class<?> type) {
+    Boolean result = instantiable.get(type);
+    if (result == null) {
+      try {
+        type.getDeclaredConstructor();
+        result = !type.isInterface() && !Modifier.isAbstract(type.getModifiers());
+      } catch (NoSuchMethodException e) {
+        result = false;
+      }
+      instantiable.put(type, result);
+    }
+    return result;
+  }
+
+  static final class Property {
+    private final String name;
+    private final boolean primitive;
+    private final Invoker getter;
+    private final Invoker setter;
+
+    Property(String name, boolean primitive, Invoker getter, Invoker setter) {
+      this.name = name;
+      this.primitive = primitive;
+      this.getter = getter;
+      this.setter = setter;
+    }
+
+    Object get(Object bean) {
+      try {
+        return getter.invoke(bean, NO_ARGUMENTS);
+      } catch (Exception e) {
+        throw new CacheException("Error reading property '" + name + "' of " + bean.getClass() + ".  Cause: " + e, e);
+      }
+    }
+
+    void set(Object bean, Object value) {
+      if (value == null && primitive) {
+        return;
+      }
+      try {
+        setter.invoke(bean, new Object[] { value });
+      } catch (Exception e) {
+        throw new CacheException("Error writing property '" + name + "' of " + bean.getClass() + ".  Cause: " + e, e);
+      }
+    }
+  }
+
+}
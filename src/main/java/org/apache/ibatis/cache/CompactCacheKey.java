@@ -0,0 +1,363 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.ibatis.reflection.ArrayUtil;
+
+/**
+ * {@link CacheKey} that keeps a 128-bit fingerprint of its elements instead of the elements themselves.
+ * <p>
+ * Strings, boxed primitives, dates, enums, big numbers and arrays of them are hashed from their content, so two keys
+ * are equal when their fingerprints are, without retaining or comparing the parameters of the query. Any other
+ * element is only known by its {@code hashCode()} and is kept, like every element when {@code verify} is true, to be
+ * compared with {@code equals} as {@link CacheKey} does. The kept elements are serialized with the key, so a
+ * deserialized key, e.g. restored from a snapshot, still compares them. Elements of different classes (e.g. {@code 1} and
+ * {@code 1L}) never match, as with {@link CacheKey}.
+ */
+public class CompactCacheKey extends CacheKey { //只保存128位指纹的CacheKey
+
+  private static final long serialVersionUID = -5265046234512093563L;
+
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  private static final int NULL = 1;
+  private static final int STRING = 2;
+  private static final int INTEGER = 3;
+  private static final int LONG = 4;
+  private static final int SHORT = 5;
+  private static final int BYTE = 6;
+  private static final int DOUBLE = 7;
+  private static final int FLOAT = 8;
+  private static final int BOOLEAN = 9;
+  private static final int CHARACTER = 10;
+  private static final int ARRAY = 11;
+  private static final int OTHER = 12;
+
+  // fingerprints of the last long strings seen, statement ids and static SQL are the same instance on every call
+  private static final int MEMO_MIN_LENGTH = 32;
+  private static final StringFingerprint[] MEMO = new StringFingerprint[1024];
+
+  private final boolean verify; //是否保存所有元素用于比较
+  private long high; //指纹高64位
+  private long low; //指纹低64位
+  private int count; //元素个数
+  private Object[] values; //需要用equals比较的元素 随key一起序列化 反序列化后仍能比较
+  private int valueCount;
+
+  public CompactCacheKey() {
+    this(false);
+  }
+
+  public CompactCacheKey(boolean verify) {
+    super((List<Object>) null);
+    this.verify = verify;
+  }
+
+  public CompactCacheKey(Object[] objects) {
+    this(false);
+    updateAll(objects);
+  }
+
+  @Override
+  public int getUpdateCount() {
+    return count;
+  }
+
+  /**
+   * @return the objects kept to be compared with equals, in order; the others are only part of the fingerprint
+   */
+  @Override
+  public List<Object> getUpdateList() {
+    if (valueCount == 0) {
+      return Collections.emptyList();
+    }
+    return Collections.unmodifiableList(Arrays.asList(values).subList(0, valueCount));
+  }
+
+  @Override
+  public void update(Object object) {
+    count++;
+    if (!hash(object, 0) || verify) { //只有hashCode的元素需要保留
+      keep(object);
+    }
+  }
+
+  @Override
+  public void update(int value) {
+    count++;
+    mix(tagged(INTEGER, value));
+    if (verify) {
+      keep(value);
+    }
+  }
+
+  @Override
+  public void update(long value) {
+    count++;
+    mix(LONG);
+    mix(value);
+    if (verify) {
+      keep(value);
+    }
+  }
+
+  @Override
+  public void updateAll(Object[] objects) {
+    for (Object o : objects) {
+      update(o);
+    }
+  }
+
+  /**
+   * @return true if the fingerprint identifies the value
+   */
+  private boolean hash(Object object, int depth) {
+    if (object == null) {
+      mix(NULL);
+    } else if (object instanceof String) {
+      mixString((String) object);
+    } else if (object instanceof Integer) {
+      mix(tagged(INTEGER, (Integer) object));
+    } else if (object instanceof Long) {
+      mix(LONG);
+      mix((Long) object);
+    } else if (object instanceof Short) {
+      mix(tagged(SHORT, (Short) object));
+    } else if (object instanceof Byte) {
+      mix(tagged(BYTE, (Byte) object));
+    } else if (object instanceof Double) {
+      mix(DOUBLE);
+      mix(Double.doubleToLongBits((Double) object));
+    } else if (object instanceof Float) {
+      mix(tagged(FLOAT, Float.floatToIntBits((Float) object)));
+    } else if (object instanceof Boolean) {
+      mix(tagged(BOOLEAN, (Boolean) object ? 1 : 0));
+    } else if (object instanceof Character) {
+      mix(tagged(CHARACTER, (Character) object));
+    } else if (object instanceof Date) {
+      mixClass(object);
+      mix(((Date) object).getTime());
+      if (object instanceof Timestamp) {
+        mix(((Timestamp) object).getNanos());
+      }
+    } else if (object instanceof Enum) {
+      mixClass(object);
+      mixChars(((Enum<?>) object).name());
+    } else if (object instanceof BigDecimal || object instanceof BigInteger) {
+      mixClass(object);
+      mixChars(object.toString()); //BigDecimal的equals区分精度
+    } else if (object.getClass().isArray() && depth < 8) {
+      return hashArray(object, depth);
+    } else {
+      mix(OTHER);
+      mixClass(object);
+      mix(ArrayUtil.hashCode(object));
+      return false;
+    }
+    return true;
+  }
+
+  private boolean hashArray(Object array, int depth) {
+    mix(ARRAY);
+    mixClass(array);
+    boolean exact = true;
+    if (array instanceof byte[]) {
+      byte[] bytes = (byte[]) array;
+      mix(bytes.length);
+      for (byte b : bytes) {
+        mix(b);
+      }
+    } else if (array instanceof int[]) {
+      int[] ints = (int[]) array;
+      mix(ints.length);
+      for (int i : ints) {
+        mix(i);
+      }
+    } else if (array instanceof long[]) {
+      long[] longs = (long[]) array;
+      mix(longs.length);
+      for (long l : longs) {
+        mix(l);
+      }
+    } else if (array instanceof char[]) {
+      char[] chars = (char[]) array;
+      mix(chars.length);
+      for (char c : chars) {
+        mix(c);
+      }
+    } else if (array instanceof Object[]) {
+      Object[] objects = (Object[]) array;
+      mix(objects.length);
+      for (Object o : objects) {
+        exact &= hash(o, depth + 1);
+      }
+    } else { //其他基本类型数组
+      mix(ArrayUtil.hashCode(array));
+      exact = false;
+    }
+    return exact;
+  }
+
+  // the type and a 32-bit value in one block
+  private static long tagged(int type, int value) {
+    return ((long) type << 32) | (value & 0xffffffffL);
+  }
+
+  private void mixClass(Object object) {
+    mix(object.getClass().getName().hashCode());
+  }
+
+  private void mixString(String string) {
+    if (string.length() < MEMO_MIN_LENGTH) {
+      mixChars(string);
+      return;
+    }
+    int slot = string.hashCode() & (MEMO.length - 1);
+    StringFingerprint fingerprint = MEMO[slot];
+    if (fingerprint == null || fingerprint.string != string) { //只认同一个实例
+      CompactCacheKey key = new CompactCacheKey();
+      key.mixChars(string);
+      fingerprint = new StringFingerprint(string, key.high, key.low);
+      MEMO[slot] = fingerprint;
+    }
+    mix(fingerprint.high);
+    mix(fingerprint.low);
+  }
+
+  private void mixChars(String string) {
+    int length = string.length();
+    mix(tagged(STRING, length));
+    int i = 0;
+    for (; i + 4 <= length; i += 4) { //每次混入4个字符
+      mix(((long) string.charAt(i) << 48) | ((long) string.charAt(i + 1) << 32)
+          | ((long) string.charAt(i + 2) << 16) | string.charAt(i + 3));
+    }
+    long tail = 0;
+    for (; i < length; i++) {
+      tail = (tail << 16) | string.charAt(i);
+    }
+    if (length % 4 != 0) {
+      mix(tail);
+    }
+  }
+
+  // MurmurHash3 x64 128 round over one 64-bit block fed to both lanes
+  private void mix(long value) {
+    long k1 = value * C1;
+    k1 = Long.rotateLeft(k1, 31);
+    k1 *= C2;
+    high ^= k1;
+    high = Long.rotateLeft(high, 27);
+    high += low;
+    high = high * 5 + 0x52dce729;
+
+    long k2 = value * C2;
+    k2 = Long.rotateLeft(k2, 33);
+    k2 *= C1;
+    low ^= k2;
+    low = Long.rotateLeft(low, 31);
+    low += high;
+    low = low * 5 + 0x38495ab5;
+  }
+
+  private void keep(Object object) {
+    if (values == null) {
+      values = new Object[8];
+    } else if (valueCount == values.length) {
+      values = Arrays.copyOf(values, valueCount * 2);
+    }
+    values[valueCount++] = object;
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (this == object) {
+      return true;
+    }
+    if (!(object instanceof CompactCacheKey)) {
+      return false;
+    }
+    final CompactCacheKey cacheKey = (CompactCacheKey) object;
+    if (high != cacheKey.high || low != cacheKey.low || count != cacheKey.count) {
+      return false;
+    }
+    if (valueCount != cacheKey.valueCount) { //一方缺少需要比较的元素时不相等
+      return false;
+    }
+    for (int i = 0; i < valueCount; i++) {
+      if (!ArrayUtil.equals(values[i], cacheKey.values[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    long h = fmix(high + count) ^ fmix(low);
+    return (int) (h ^ (h >>> 32));
+  }
+
+  private static long fmix(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder returnValue = new StringBuilder().append(Long.toHexString(high)).append(Long.toHexString(low))
+        .append(':').append(count);
+    for (int i = 0; i < valueCount; i++) {
+      returnValue.append(':').append(ArrayUtil.toString(values[i]));
+    }
+    return returnValue.toString();
+  }
+
+  @Override
+  public CompactCacheKey clone() throws CloneNotSupportedException {
+    CompactCacheKey clonedCacheKey = (CompactCacheKey) super.clone();
+    if (values != null) {
+      clonedCacheKey.values = values.clone();
+    }
+    return clonedCacheKey;
+  }
+
+  private static final class StringFingerprint {
+    private final String string;
+    private final long high;
+    private final long low;
+
+    StringFingerprint(String string, long high, long low) {
+      this.string = string;
+      this.high = high;
+      this.low = low;
+    }
+  }
+
+}
@@ -0,0 +1,38 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * Compresses the values kept by a {@link org.apache.ibatis.cache.decorators.CompressedCache}.
+ * <p>
+ * Implementations must have a public no-arg constructor and be thread safe.
+ */
+public interface Compressor {
+
+  /**
+   * @param data The serialized value. Never null.
+   * @return The compressed bytes
+   */
+  byte[] compress(byte[] data);
+
+  /**
+   * @param compressed Bytes returned by {@link #compress(byte[])}
+   * @param length The length of the original data
+   * @return The original data
+   */
+  byte[] decompress(byte[] compressed, int length);
+
+}
@@ -0,0 +1,100 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * {@link CacheCodec} that keeps a private copy of each value and hands out deep copies of it, without serializing.
+ * <p>
+ * Mapped beans are copied through the cached getter and setter invokers of their
+ * {@link org.apache.ibatis.reflection.Reflector}, collections, maps and arrays element by element. Immutable values
+ * are shared, objects reachable twice are copied once, and any other object, including lazy loading proxies, is copied
+ * through Java serialization.
+ */
+public class DeepCopyCodec implements CacheCodec {
+
+  @Override
+  public Object encode(Object value) {
+    return copy(value, new IdentityHashMap<Object, Object>());
+  }
+
+  @Override
+  public Object decode(Object encoded) {
+    return copy(encoded, new IdentityHashMap<Object, Object>());
+  }
+
+  private Object copy(Object value, Map<Object, Object> copies) {
+    if (value == null || CodecSupport.isImmutable(value)) {
+      return value;
+    }
+    Object copy = copies.get(value);
+    if (copy != null) { //已经复制过
+      return copy;
+    }
+    Class<?> type = value.getClass();
+    if (value instanceof Date) {
+      copy = ((Date) value).clone();
+      copies.put(value, copy);
+    } else if (type.isArray()) {
+      int length = Array.getLength(value);
+      copy = Array.newInstance(type.getComponentType(), length);
+      copies.put(value, copy);
+      if (type.getComponentType().isPrimitive()) {
+        System.arraycopy(value, 0, copy, 0, length);
+      } else {
+        Object[] source = (Object[]) value;
+        Object[] target = (Object[]) copy;
+        for (int i = 0; i < length; i++) {
+          target[i] = copy(source[i], copies);
+        }
+      }
+    } else if (value instanceof Collection && (type = CodecSupport.containerType(value)) != null) {
+      Collection<Object> collection = CodecSupport.newCollection(type);
+      copies.put(value, collection);
+      for (Object element : (Collection<?>) value) {
+        collection.add(copy(element, copies));
+      }
+      copy = collection;
+    } else if (value instanceof Map && (type = CodecSupport.containerType(value)) != null) {
+      Map<Object, Object> map = CodecSupport.newMap(type);
+      copies.put(value, map);
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        map.put(copy(entry.getKey(), copies), copy(entry.getValue(), copies));
+      }
+      copy = map;
+    } else if (CodecSupport.isBean(value)) {
+      copy = CodecSupport.newInstance(type);
+      copies.put(value, copy);
+      for (CodecSupport.Property property : CodecSupport.properties(type)) {
+        property.set(copy, copy(property.get(value), copies));
+      }
+    } else if (value instanceof Serializable) {
+      copy = SerializationCodec.deserialize(SerializationCodec.serialize((Serializable) value));
+      copies.put(value, copy);
+    } else {
+      throw new CacheException("DeepCopyCodec cannot copy object of " + value.getClass()
+          + ": it is neither a bean with a no-arg constructor nor serializable");
+    }
+    return copy;
+  }
+
+}
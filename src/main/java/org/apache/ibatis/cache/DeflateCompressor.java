@@ -0,0 +1,82 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Default {@link Compressor}, using the DEFLATE algorithm of the JDK. It favors speed over ratio by default, since it
+ * runs on every put of a compressed cache.
+ */
+public class DeflateCompressor implements Compressor {
+
+  private final int level;
+
+  public DeflateCompressor() {
+    this(Deflater.BEST_SPEED);
+  }
+
+  public DeflateCompressor(int level) {
+    this.level = level;
+  }
+
+  @Override
+  public byte[] compress(byte[] data) {
+    Deflater deflater = new Deflater(level);
+    try {
+      deflater.setInput(data);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+      byte[] buffer = new byte[4096];
+      while (!deflater.finished()) {
+        int count = deflater.deflate(buffer);
+        out.write(buffer, 0, count);
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end(); //释放本地内存
+    }
+  }
+
+  @Override
+  public byte[] decompress(byte[] compressed, int length) {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(compressed);
+      byte[] data = new byte[length];
+      int offset = 0;
+      while (offset < length && !inflater.finished()) {
+        int count = inflater.inflate(data, offset, length - offset);
+        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        offset += count;
+      }
+      if (offset != length) {
+        throw new CacheException("Compressed cache entry is truncated: expected " + length + " bytes, got " + offset);
+      }
+      return data;
+    } catch (DataFormatException e) {
+      throw new CacheException("Error decompressing cache entry.  Cause: " + e, e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+}
@@ -0,0 +1,307 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.reflection.MetaObject;
+
+/**
+ * Reverse index from entity keys to the second level cache entries that contain them, so that a statement with
+ * {@link org.apache.ibatis.mapping.FlushScope#KEY} removes from the cache of its namespace only the entries holding
+ * the rows it modifies.
+ * <p>
+ * The key properties of the key scoped statements of a namespace are read from every object mapped while a select of
+ * the namespace is loaded into the cache, and from the parameter of the modifying statement. Entries of which no key
+ * could be read are removed by any key scoped statement. When a cache holds more than {@code maxKeys} indexed entries,
+ * the next key scoped statement clears that whole cache instead.
+ */
+public class EntityKeyIndex {
+
+  private volatile boolean enabled;
+  private int maxKeys = 100000;
+  private final ConcurrentMap<Cache, String[]> keyProperties = new ConcurrentHashMap<Cache, String[]>(); //缓存 -> 主键属性
+  private final ConcurrentMap<Cache, Index> indexes = new ConcurrentHashMap<Cache, Index>();
+  private final ThreadLocal<Collector> collector = new ThreadLocal<Collector>(); //当前线程正在加载的条目
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public int getMaxKeys() {
+    return maxKeys;
+  }
+
+  public void setMaxKeys(int maxKeys) {
+    this.maxKeys = maxKeys;
+  }
+
+  public void addKeyProperties(Cache cache, String[] properties) {
+    String[] previous = keyProperties.get(cache);
+    Set<String> merged = new HashSet<String>();
+    if (previous != null) {
+      merged.addAll(Arrays.asList(previous));
+    }
+    for (String property : properties) {
+      merged.add(property.trim());
+    }
+    keyProperties.put(cache, merged.toArray(new String[merged.size()]));
+    enabled = true;
+  }
+
+  /**
+   * @return The properties that identify the objects cached in the cache, or null if it is not indexed
+   */
+  public String[] getKeyProperties(Cache cache) {
+    return enabled ? keyProperties.get(cache) : null;
+  }
+
+  /**
+   * Starts collecting the keys of the objects mapped by the current thread.
+   */
+  public Collector startCollecting(String[] properties) {
+    Collector current = new Collector(properties, collector.get());
+    collector.set(current);
+    return current;
+  }
+
+  public void stopCollecting(Collector current) {
+    if (current.parent == null) {
+      collector.remove();
+    } else {
+      current.parent.keys.addAll(current.keys); //嵌套查询的对象也属于外层条目
+      collector.set(current.parent);
+    }
+  }
+
+  /**
+   * Called for every object mapped from a row.
+   */
+  public void collect(MetaObject row) {
+    if (!enabled) {
+      return;
+    }
+    Collector current = collector.get();
+    if (current != null) {
+      for (String property : current.properties) {
+        if (row.hasGetter(property)) {
+          addKey(current.keys, row.getValue(property));
+        }
+      }
+    }
+  }
+
+  /**
+   * @return The keys of the rows a key scoped statement modifies, or null if they cannot be read from the parameter
+   */
+  public Set<Object> getModifiedKeys(MappedStatement ms, Object parameterObject) {
+    String[] properties = ms.getKeyProperties();
+    if (properties == null || parameterObject == null) {
+      return null;
+    }
+    Set<Object> keys = new HashSet<Object>();
+    if (ms.getConfiguration().getTypeHandlerRegistry().hasTypeHandler(parameterObject.getClass())) { //参数本身就是主键
+      addKey(keys, parameterObject);
+      return properties.length == 1 ? keys : null;
+    }
+    MetaObject metaObject = ms.getConfiguration().newMetaObject(parameterObject);
+    for (String property : properties) {
+      try {
+        Object value = metaObject.hasGetter(property) ? metaObject.getValue(property) : null;
+        if (value == null) {
+          return null;
+        }
+        addKey(keys, value);
+      } catch (RuntimeException e) {
+        return null;
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Records the keys of the objects an entry holds, null if they are unknown. Must be called after the entry was put.
+   */
+  public void register(Cache cache, Object key, Set<Object> entityKeys) {
+    getIndex(cache).register(key, entityKeys, maxKeys);
+  }
+
+  /**
+   * @return true if the entry of the key may hold any of the objects
+   */
+  public boolean contains(Cache cache, Object key, Set<Object> entityKeys) {
+    return getIndex(cache).contains(key, entityKeys);
+  }
+
+  /**
+   * Removes the entries holding any of the objects from the cache.
+   */
+  public void remove(Cache cache, Set<Object> entityKeys) {
+    getIndex(cache).remove(cache instanceof BlockingCache ? ((BlockingCache) cache).getDelegate() : cache, entityKeys); //BlockingCache的removeObject只释放锁
+  }
+
+  /**
+   * Forgets the entries of a cache that was cleared.
+   */
+  public void clear(Cache cache) {
+    getIndex(cache).clear();
+  }
+
+  private Index getIndex(Cache cache) {
+    Index index = indexes.get(cache);
+    if (index == null) {
+      index = new Index();
+      Index previous = indexes.putIfAbsent(cache, index);
+      index = previous == null ? index : previous;
+    }
+    return index;
+  }
+
+  private static void addKey(Set<Object> keys, Object value) {
+    if (value instanceof Collection) { //例如 where id in (...)
+      for (Object element : (Collection<?>) value) {
+        addKey(keys, element);
+      }
+    } else if (value instanceof Object[]) {
+      for (Object element : (Object[]) value) {
+        addKey(keys, element);
+      }
+    } else if (value != null) {
+      keys.add(normalize(value));
+    }
+  }
+
+  /**
+   * Integer 1, Long 1 and BigDecimal 1.0 are the same key.
+   */
+  private static Object normalize(Object value) {
+    if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+      return ((Number) value).longValue();
+    }
+    if (value instanceof BigInteger || value instanceof BigDecimal) {
+      BigDecimal decimal = new BigDecimal(value.toString()).stripTrailingZeros();
+      try {
+        return decimal.longValueExact();
+      } catch (ArithmeticException e) {
+        return decimal;
+      }
+    }
+    return value;
+  }
+
+  public static class Collector {
+    private final String[] properties;
+    private final Collector parent;
+    private final Set<Object> keys = new HashSet<Object>();
+
+    Collector(String[] properties, Collector parent) {
+      this.properties = properties;
+      this.parent = parent;
+    }
+
+    /**
+     * @return The keys of the objects mapped, or null if a result was loaded without them being read
+     */
+    public Set<Object> getEntityKeys(Collection<?> result) {
+      return keys.isEmpty() && !result.isEmpty() ? null : keys;
+    }
+  }
+
+  private static class Index {
+    private final Map<Object, Set<Object>> keysByEntity = new HashMap<Object, Set<Object>>(); //实体主键 -> CacheKey
+    private final Set<Object> unknown = new HashSet<Object>(); //不知道包含哪些实体的CacheKey
+    private int size;
+    private boolean overflow; //超过上限时清空整个缓存
+
+    synchronized void register(Object key, Set<Object> entityKeys, int maxKeys) {
+      if (overflow) {
+        return;
+      }
+      if (entityKeys == null) {
+        unknown.add(key);
+        size++;
+      } else {
+        for (Object entityKey : entityKeys) {
+          Set<Object> keys = keysByEntity.get(entityKey);
+          if (keys == null) {
+            keys = new HashSet<Object>();
+            keysByEntity.put(entityKey, keys);
+          }
+          keys.add(key);
+          size++;
+        }
+      }
+      if (size > maxKeys) {
+        clear();
+        overflow = true;
+      }
+    }
+
+    synchronized boolean contains(Object key, Set<Object> entityKeys) {
+      if (overflow || unknown.contains(key)) {
+        return true;
+      }
+      for (Object entityKey : entityKeys) {
+        Set<Object> keys = keysByEntity.get(entityKey);
+        if (keys != null && keys.contains(key)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    synchronized void remove(Cache cache, Set<Object> entityKeys) {
+      if (overflow) {
+        cache.clear();
+        clear();
+        return;
+      }
+      for (Object entityKey : entityKeys) {
+        Set<Object> keys = keysByEntity.remove(entityKey);
+        if (keys != null) {
+          size -= keys.size();
+          for (Object key : keys) {
+            cache.removeObject(key);
+          }
+        }
+      }
+      for (Object key : unknown) {
+        cache.removeObject(key);
+      }
+      size -= unknown.size();
+      unknown.clear();
+    }
+
+    synchronized void clear() {
+      keysByEntity.clear();
+      unknown.clear();
+      size = 0;
+      overflow = false;
+    }
+  }
+
+}
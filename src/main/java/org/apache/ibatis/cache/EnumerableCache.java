@@ -0,0 +1,33 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.Set;
+
+/**
+ * A cache that can list the keys of its entries, so that its contents can be saved by {@link CacheSnapshots}.
+ * <p>
+ * {@link org.apache.ibatis.cache.impl.PerpetualCache} and {@link org.apache.ibatis.cache.decorators.TinyLfuCache},
+ * which keeps the entries itself, implement it.
+ */
+public interface EnumerableCache extends Cache {
+
+  /**
+   * @return A copy of the keys of the cached entries. May include keys put with a null value.
+   */
+  Set<Object> keys();
+
+}
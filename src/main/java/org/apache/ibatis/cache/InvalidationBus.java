@@ -0,0 +1,48 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.Properties;
+
+/**
+ * Broadcasts the second level cache invalidations of committed transactions to the other
+ * {@link org.apache.ibatis.session.SqlSessionFactory} instances, in this or other JVMs, that cache the same data.
+ * <p>
+ * Every commit that cleared caches, removed entities or wrote tables publishes one {@link Invalidations} batch.
+ * Implementations must have a public no-arg constructor, must be thread safe and should not block the committing
+ * thread for long. Messages published by an instance must not be delivered back to its own listener.
+ * @see MulticastInvalidationBus
+ */
+public interface InvalidationBus {
+
+  void setProperties(Properties properties);
+
+  /**
+   * Starts receiving the invalidations published by the other instances.
+   */
+  void start(Listener listener);
+
+  void publish(Invalidations invalidations);
+
+  void close();
+
+  interface Listener {
+
+    void onInvalidations(Invalidations invalidations);
+
+  }
+
+}
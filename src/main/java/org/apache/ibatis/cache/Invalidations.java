@@ -0,0 +1,220 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The second level cache invalidations of one committed transaction, as broadcast by an {@link InvalidationBus}.
+ * <p>
+ * {@link #toBytes()} and {@link #fromBytes(byte[], int, int)} give bus implementations a compact wire format that
+ * only carries strings and numbers, so receiving a message never instantiates classes chosen by the sender.
+ * Entity keys of other types cannot be encoded: their cache is cleared instead.
+ */
+public class Invalidations {
+
+  private static final int MAGIC = 0x4d424956;
+  private static final byte LONG = 1;
+  private static final byte STRING = 2;
+  private static final byte DECIMAL = 3;
+  private static final byte UUID_KEY = 4;
+
+  private String origin; //发送方标识，用于忽略自己发出的消息
+  private final Set<String> clearedCaches = new HashSet<String>(); //清空的缓存id
+  private final Map<String, Set<Object>> removedEntities = new HashMap<String, Set<Object>>(); //缓存id -> 修改过的实体主键
+  private final Set<String> writtenTables = new HashSet<String>(); //写过的表
+
+  public String getOrigin() {
+    return origin;
+  }
+
+  public void setOrigin(String origin) {
+    this.origin = origin;
+  }
+
+  public void clear(String cacheId) {
+    clearedCaches.add(cacheId);
+    removedEntities.remove(cacheId);
+  }
+
+  public void removeEntities(String cacheId, Set<Object> entityKeys) {
+    if (clearedCaches.contains(cacheId)) {
+      return;
+    }
+    Set<Object> keys = removedEntities.get(cacheId);
+    if (keys == null) {
+      keys = new HashSet<Object>();
+      removedEntities.put(cacheId, keys);
+    }
+    keys.addAll(entityKeys);
+  }
+
+  public void invalidate(Set<String> tables) {
+    writtenTables.addAll(tables);
+  }
+
+  public Set<String> getClearedCaches() {
+    return Collections.unmodifiableSet(clearedCaches);
+  }
+
+  public Map<String, Set<Object>> getRemovedEntities() {
+    return Collections.unmodifiableMap(removedEntities);
+  }
+
+  public Set<String> getWrittenTables() {
+    return Collections.unmodifiableSet(writtenTables);
+  }
+
+  public boolean isEmpty() {
+    return clearedCaches.isEmpty() && removedEntities.isEmpty() && writtenTables.isEmpty();
+  }
+
+  /**
+   * Replaces the entity removals by clears of their caches, to make the message smaller.
+   */
+  public void clearInsteadOfRemoving() {
+    clearedCaches.addAll(removedEntities.keySet());
+    removedEntities.clear();
+  }
+
+  public byte[] toBytes() {
+    for (Map.Entry<String, Set<Object>> entry : new HashMap<String, Set<Object>>(removedEntities).entrySet()) {
+      for (Object key : entry.getValue()) {
+        if (!isEncodable(key)) { //无法编码的主键改为清空整个缓存
+          clear(entry.getKey());
+          break;
+        }
+      }
+    }
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(MAGIC);
+      out.writeUTF(origin == null ? "" : origin);
+      writeStrings(out, clearedCaches);
+      out.writeInt(removedEntities.size());
+      for (Map.Entry<String, Set<Object>> entry : removedEntities.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeInt(entry.getValue().size());
+        for (Object key : entry.getValue()) {
+          writeKey(out, key);
+        }
+      }
+      writeStrings(out, writtenTables);
+      out.flush();
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      throw new CacheException("Error encoding cache invalidations.  Cause: " + e, e);
+    }
+  }
+
+  public static Invalidations fromBytes(byte[] data, int offset, int length) {
+    try {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, offset, length));
+      if (in.readInt() != MAGIC) {
+        throw new CacheException("Not a cache invalidation message");
+      }
+      Invalidations invalidations = new Invalidations();
+      String origin = in.readUTF();
+      invalidations.setOrigin(origin.length() == 0 ? null : origin);
+      invalidations.clearedCaches.addAll(readStrings(in));
+      int caches = in.readInt();
+      for (int i = 0; i < caches; i++) {
+        String cacheId = in.readUTF();
+        int count = in.readInt();
+        Set<Object> keys = new HashSet<Object>();
+        for (int j = 0; j < count; j++) {
+          keys.add(readKey(in));
+        }
+        invalidations.removedEntities.put(cacheId, keys);
+      }
+      invalidations.writtenTables.addAll(readStrings(in));
+      return invalidations;
+    } catch (IOException e) {
+      throw new CacheException("Error decoding cache invalidations.  Cause: " + e, e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "cleared=" + clearedCaches + ", removed=" + removedEntities + ", tables=" + writtenTables;
+  }
+
+  private static boolean isEncodable(Object key) {
+    return key instanceof Long || key instanceof String || key instanceof BigDecimal || key instanceof UUID;
+  }
+
+  private static void writeKey(DataOutputStream out, Object key) throws IOException {
+    if (key instanceof Long) {
+      out.writeByte(LONG);
+      out.writeLong((Long) key);
+    } else if (key instanceof String) {
+      out.writeByte(STRING);
+      out.writeUTF((String) key);
+    } else if (key instanceof BigDecimal) {
+      out.writeByte(DECIMAL);
+      out.writeUTF(key.toString());
+    } else {
+      out.writeByte(UUID_KEY);
+      out.writeLong(((UUID) key).getMostSignificantBits());
+      out.writeLong(((UUID) key).getLeastSignificantBits());
+    }
+  }
+
+  private static Object readKey(DataInputStream in) throws IOException {
+    byte type = in.readByte();
+    switch (type) {
+      case LONG:
+        return in.readLong();
+      case STRING:
+        return in.readUTF();
+      case DECIMAL:
+        return new BigDecimal(in.readUTF());
+      case UUID_KEY:
+        return new UUID(in.readLong(), in.readLong());
+      default:
+        throw new CacheException("Unknown entity key type " + type + " in cache invalidation message");
+    }
+  }
+
+  private static void writeStrings(DataOutputStream out, Set<String> strings) throws IOException {
+    out.writeInt(strings.size());
+    for (String string : strings) {
+      out.writeUTF(string);
+    }
+  }
+
+  private static Set<String> readStrings(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    Set<String> strings = new HashSet<String>();
+    for (int i = 0; i < count; i++) {
+      strings.add(in.readUTF());
+    }
+    return strings;
+  }
+
+}
@@ -0,0 +1,136 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Invalidation bus over UDP multicast.
+ * <p>
+ * By default messages are sent to group {@code 239.255.27.1} port {@code 45588} with a time to live of 0, so they
+ * reach the instances on the same host only. Set {@code timeToLive} (and {@code networkInterface} if needed) to reach
+ * other hosts of the network. Delivery is not guaranteed: bound the staleness a lost message may cause with the
+ * {@code nearTimeToLive} of the near caches. Batches whose entity keys would not fit in one datagram clear the
+ * caches instead.
+ */
+public class MulticastInvalidationBus implements InvalidationBus {
+
+  private static final Log log = LogFactory.getLog(MulticastInvalidationBus.class);
+  private static final int MAX_MESSAGE_SIZE = 60000;
+
+  private final String origin = UUID.randomUUID().toString(); //本实例标识
+  private String group = "239.255.27.1";
+  private int port = 45588;
+  private int timeToLive = 0; //0表示只发送到本机
+  private String networkInterface;
+  private InetAddress groupAddress;
+  private MulticastSocket socket;
+  private Thread receiver;
+  private volatile boolean closed;
+
+  @Override
+  public void setProperties(Properties properties) {
+    group = properties.getProperty("group", group);
+    port = Integer.parseInt(properties.getProperty("port", String.valueOf(port)));
+    timeToLive = Integer.parseInt(properties.getProperty("timeToLive", String.valueOf(timeToLive)));
+    networkInterface = properties.getProperty("networkInterface", networkInterface);
+  }
+
+  @Override
+  public synchronized void start(final Listener listener) {
+    try {
+      groupAddress = InetAddress.getByName(group);
+      socket = new MulticastSocket(port);
+      socket.setTimeToLive(timeToLive);
+      socket.setLoopbackMode(false); //false表示本机的其他实例也能收到
+      if (networkInterface != null) {
+        socket.setNetworkInterface(NetworkInterface.getByName(networkInterface));
+      }
+      socket.joinGroup(groupAddress);
+    } catch (IOException e) {
+      throw new CacheException("Error joining cache invalidation group " + group + ":" + port + ".  Cause: " + e, e);
+    }
+    receiver = new Thread("mybatis-invalidation-" + group + ":" + port) {
+      @Override
+      public void run() {
+        receive(listener);
+      }
+    };
+    receiver.setDaemon(true);
+    receiver.start();
+  }
+
+  @Override
+  public void publish(Invalidations invalidations) {
+    invalidations.setOrigin(origin);
+    byte[] data = invalidations.toBytes();
+    if (data.length > MAX_MESSAGE_SIZE) { //超过一个数据报时改为清空缓存
+      invalidations.clearInsteadOfRemoving();
+      data = invalidations.toBytes();
+    }
+    try {
+      socket.send(new DatagramPacket(data, data.length, groupAddress, port));
+    } catch (IOException e) {
+      log.warn("Error publishing cache invalidations " + invalidations + ".  Cause: " + e);
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    closed = true;
+    if (socket != null) {
+      try {
+        socket.leaveGroup(groupAddress);
+      } catch (IOException e) {
+        // ignore
+      }
+      socket.close();
+    }
+  }
+
+  private void receive(Listener listener) {
+    byte[] buffer = new byte[65536];
+    while (!closed) {
+      DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+      try {
+        socket.receive(packet);
+      } catch (IOException e) {
+        if (!closed) {
+          log.warn("Error receiving cache invalidations.  Cause: " + e);
+        }
+        continue;
+      }
+      try {
+        Invalidations invalidations = Invalidations.fromBytes(packet.getData(), packet.getOffset(), packet.getLength());
+        if (!origin.equals(invalidations.getOrigin())) { //忽略自己发出的消息
+          listener.onInvalidations(invalidations);
+        }
+      } catch (RuntimeException e) {
+        log.warn("Error applying cache invalidations from " + packet.getSocketAddress() + ".  Cause: " + e);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,169 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.ibatis.executor.loader.WriteReplaceInterface;
+import org.apache.ibatis.reflection.DefaultReflectorFactory;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.reflection.ReflectorFactory;
+
+/**
+ * Default {@link Weigher} that walks the cached value.
+ * <p>
+ * Collections, maps, arrays and the common JDBC value types are sized from their content. Any other class is treated
+ * as a mapped bean and sized from the properties its {@link Reflector} exposes. Sizes assume a 64-bit JVM with
+ * compressed references. Objects reachable twice are counted once, lazy loading proxies are not traversed so that
+ * weighing never triggers a query, and the walk stops at {@code maxDepth}.
+ */
+public class ReflectiveWeigher implements Weigher {
+
+  private static final int HEADER = 12;
+  private static final int REFERENCE = 4;
+  private static final int ARRAY_HEADER = 16;
+  // map entry, key and bookkeeping of the cache holding the value
+  private static final int ENTRY_OVERHEAD = 128;
+  private static final Object[] NO_ARGUMENTS = new Object[0];
+
+  private final ReflectorFactory reflectorFactory = new DefaultReflectorFactory();
+  private int maxDepth = 8;
+
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
+  public void setMaxDepth(int maxDepth) {
+    this.maxDepth = maxDepth;
+  }
+
+  @Override
+  public long weigh(Object key, Object value) {
+    return ENTRY_OVERHEAD + sizeOf(value, new IdentityHashMap<Object, Object>(), 0);
+  }
+
+  private long sizeOf(Object object, Map<Object, Object> visited, int depth) {
+    if (object == null || object instanceof Class || object instanceof Enum) {
+      return 0; //共享对象不计算
+    }
+    if (visited.put(object, object) != null) {
+      return 0; //已经计算过
+    }
+    Class<?> type = object.getClass();
+    if (object instanceof String) {
+      return align(HEADER + 8) + align(ARRAY_HEADER + 2L * ((String) object).length());
+    }
+    if (object instanceof BigDecimal || object instanceof BigInteger) {
+      return 64;
+    }
+    if (object instanceof Number || object instanceof Boolean || object instanceof Character) {
+      return 16;
+    }
+    if (object instanceof Date) {
+      return 32;
+    }
+    if (type.isArray()) {
+      return sizeOfArray(object, visited, depth);
+    }
+    if (object instanceof Collection) {
+      Collection<?> collection = (Collection<?>) object;
+      long size = align(HEADER + 16) + align(ARRAY_HEADER + (long) REFERENCE * collection.size());
+      if (depth < maxDepth) {
+        for (Object element : collection) {
+          size += sizeOf(element, visited, depth + 1);
+        }
+      }
+      return size;
+    }
+    if (object instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) object;
+      long size = align(HEADER + 32) + align(ARRAY_HEADER + (long) REFERENCE * map.size() * 4 / 3)
+          + (long) map.size() * align(HEADER + 16);
+      if (depth < maxDepth) {
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+          size += sizeOf(entry.getKey(), visited, depth + 1) + sizeOf(entry.getValue(), visited, depth + 1);
+        }
+      }
+      return size;
+    }
+    if (type.getName().startsWith("java.")) {
+      return align(HEADER + 16); //其他JDK对象无法通过属性估算
+    }
+    return sizeOfBean(object, visited, depth);
+  }
+
+  private long sizeOfArray(Object array, Map<Object, Object> visited, int depth) {
+    int length = Array.getLength(array);
+    Class<?> componentType = array.getClass().getComponentType();
+    if (componentType.isPrimitive()) {
+      return align(ARRAY_HEADER + (long) primitiveSize(componentType) * length);
+    }
+    long size = align(ARRAY_HEADER + (long) REFERENCE * length);
+    if (depth < maxDepth) {
+      for (int i = 0; i < length; i++) {
+        size += sizeOf(Array.get(array, i), visited, depth + 1);
+      }
+    }
+    return size;
+  }
+
+  private long sizeOfBean(Object bean, Map<Object, Object> visited, int depth) {
+    Reflector reflector = reflectorFactory.findForClass(bean.getClass());
+    boolean traverse = depth < maxDepth && !(bean instanceof WriteReplaceInterface); //延迟加载代理不能调用getter
+    long shallow = HEADER;
+    long retained = 0;
+    for (String property : reflector.getGetablePropertyNames()) {
+      Class<?> propertyType = reflector.getGetterType(property);
+      if (propertyType.isPrimitive()) {
+        shallow += primitiveSize(propertyType);
+        continue;
+      }
+      shallow += REFERENCE;
+      if (traverse) {
+        try {
+          retained += sizeOf(reflector.getGetInvoker(property).invoke(bean, NO_ARGUMENTS), visited, depth + 1);
+        } catch (Exception e) {
+          // a failing getter only makes the estimate lower
+        }
+      }
+    }
+    return align(shallow) + retained;
+  }
+
+  private static int primitiveSize(Class<?> type) {
+    if (type == long.class || type == double.class) {
+      return 8;
+    }
+    if (type == int.class || type == float.class) {
+      return 4;
+    }
+    if (type == short.class || type == char.class) {
+      return 2;
+    }
+    return 1;
+  }
+
+  private static long align(long size) {
+    return (size + 7) & ~7L;
+  }
+
+}
@@ -0,0 +1,227 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The tables a SQL statement reads and writes.
+ * <p>
+ * The SQL is not fully parsed: tables are the names following {@code FROM}, {@code JOIN} and {@code USING} for reads
+ * and the target of {@code INSERT INTO}, {@code UPDATE}, {@code DELETE FROM}, {@code MERGE INTO} and
+ * {@code TRUNCATE} for writes. Names are lower cased and stripped of quotes and of their schema. A name that is not
+ * a table, like the column of {@code EXTRACT(YEAR FROM column)}, only makes invalidation broader.
+ */
+public final class SqlTables {
+
+  private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList(
+      "select", "where", "join", "inner", "left", "right", "full", "outer", "cross", "natural", "straight_join",
+      "on", "using", "group", "order", "having", "limit", "offset", "union", "intersect", "except", "minus", "set",
+      "values", "for", "window", "fetch", "lateral", "only", "as", "with", "when", "connect", "start", "into",
+      "partition", "sample", "tablesample", "pivot", "unpivot", "returning", "default", "lock"));
+
+  private static final String[] CLAUSES = { "select", "where", "group", "order", "having", "limit", "offset",
+      "union", "intersect", "except", "minus", "set", "values", "window", "fetch", "for", "returning", "connect",
+      "start", "into" };
+
+  private final Set<String> readTables;
+  private final Set<String> writtenTables;
+
+  private SqlTables(Set<String> readTables, Set<String> writtenTables) {
+    this.readTables = Collections.unmodifiableSet(readTables);
+    this.writtenTables = Collections.unmodifiableSet(writtenTables);
+  }
+
+  public Set<String> getReadTables() {
+    return readTables;
+  }
+
+  public Set<String> getWrittenTables() {
+    return writtenTables;
+  }
+
+  public static SqlTables parse(String sql) {
+    List<Token> tokens = tokenize(sql);
+    Set<String> read = new HashSet<String>();
+    Set<String> written = new HashSet<String>();
+    boolean statementStart = true;
+    boolean[] fromClause = new boolean[8]; //每层括号是否在FROM子句中
+    int depth = 0;
+    for (int i = 0; i < tokens.size(); i++) {
+      Token token = tokens.get(i);
+      if (token.is(";")) {
+        statementStart = true;
+        depth = 0;
+        fromClause[0] = false;
+        continue;
+      }
+      if (statementStart) { //语句的第一个关键字决定写哪张表
+        statementStart = false;
+        if (token.is("update")) {
+          addTable(tokens, skip(tokens, i + 1, "low_priority", "ignore", "only"), written);
+        } else if (token.is("delete")) {
+          addTable(tokens, skip(tokens, i + 1, "low_priority", "quick", "ignore", "from", "only"), written);
+        } else if (token.is("truncate")) {
+          addTable(tokens, skip(tokens, i + 1, "table", "only"), written);
+        } else if (token.is("insert") || token.is("replace") || token.is("merge") || token.is("upsert")) {
+          int into = i + 1;
+          while (into < tokens.size() && !tokens.get(into).is("into") && !tokens.get(into).is(";")) {
+            into++;
+          }
+          addTable(tokens, into + 1, written);
+        }
+      }
+      if (token.is("(")) {
+        depth++;
+        if (depth == fromClause.length) {
+          fromClause = Arrays.copyOf(fromClause, depth * 2);
+        }
+        fromClause[depth] = false;
+      } else if (token.is(")")) {
+        depth = Math.max(0, depth - 1);
+      } else if (token.is("from") || token.is("using")) {
+        fromClause[depth] = true;
+        addTable(tokens, skip(tokens, i + 1, "only", "lateral"), read);
+      } else if (token.is("join") || token.is("straight_join")) {
+        addTable(tokens, skip(tokens, i + 1, "only", "lateral"), read);
+      } else if (token.is(",") && fromClause[depth]) { //FROM a, b
+        addTable(tokens, skip(tokens, i + 1, "only", "lateral"), read);
+      } else if (token.isAny(CLAUSES)) {
+        fromClause[depth] = false;
+      }
+    }
+    return new SqlTables(read, written);
+  }
+
+  private static int skip(List<Token> tokens, int index, String... words) {
+    while (index < tokens.size() && tokens.get(index).isAny(words)) {
+      index++;
+    }
+    return index;
+  }
+
+  private static void addTable(List<Token> tokens, int index, Set<String> tables) {
+    if (index < tokens.size() && tokens.get(index).isName()) { //子查询中的表由外层循环处理
+      String name = tokens.get(index).text;
+      tables.add(name.substring(name.lastIndexOf('.') + 1));
+    }
+  }
+
+  private static List<Token> tokenize(String sql) {
+    List<Token> tokens = new ArrayList<Token>();
+    int length = sql.length();
+    int i = 0;
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+      } else if (c == '\'') { //字符串
+        i++;
+        while (i < length) {
+          if (sql.charAt(i) == '\'') {
+            if (!sql.startsWith("''", i)) {
+              break;
+            }
+            i++; //转义的引号
+          }
+          i++;
+        }
+        i++;
+      } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') { //行注释
+        while (i < length && sql.charAt(i) != '\n') {
+          i++;
+        }
+      } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') { //块注释
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? length : end + 2;
+      } else if (isNameStart(c) || isQuote(c)) {
+        StringBuilder name = new StringBuilder();
+        boolean quoted = false;
+        while (i < length) {
+          c = sql.charAt(i);
+          if (isQuote(c)) {
+            char close = c == '[' ? ']' : c;
+            int end = sql.indexOf(close, i + 1);
+            end = end < 0 ? length : end;
+            name.append(sql, i + 1, end);
+            quoted = true;
+            i = end + 1;
+          } else if (isNamePart(c)) {
+            name.append(c);
+            i++;
+          } else {
+            break;
+          }
+        }
+        tokens.add(new Token(name.toString().toLowerCase(Locale.ENGLISH), quoted ? Token.QUOTED : Token.WORD));
+      } else {
+        tokens.add(new Token(String.valueOf(c), Token.SYMBOL));
+        i++;
+      }
+    }
+    return tokens;
+  }
+
+  private static boolean isQuote(char c) {
+    return c == '"' || c == '`' || c == '[';
+  }
+
+  private static boolean isNameStart(char c) {
+    return Character.isLetter(c) || c == '_';
+  }
+
+  private static boolean isNamePart(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#' || c == '.';
+  }
+
+  private static class Token {
+    static final int WORD = 0;
+    static final int QUOTED = 1;
+    static final int SYMBOL = 2;
+
+    final String text;
+    final int kind;
+
+    Token(String text, int kind) {
+      this.text = text;
+      this.kind = kind;
+    }
+
+    boolean is(String keyword) {
+      return kind != QUOTED && text.equals(keyword);
+    }
+
+    boolean isAny(String... keywords) {
+      for (String keyword : keywords) {
+        if (is(keyword)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    boolean isName() {
+      return kind == QUOTED || kind == WORD && !KEYWORDS.contains(text);
+    }
+  }
+
+}
@@ -0,0 +1,159 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+
+/**
+ * Tracks which second level cache entries were read from which tables, so that a statement with
+ * {@link org.apache.ibatis.mapping.FlushScope#TABLE} removes from the caches of all namespaces only the entries read
+ * from the tables it writes.
+ * <p>
+ * The tables of a statement are the ones declared in its {@code tables} attribute or else the ones found in the SQL
+ * of each execution. Entries whose tables are unknown are removed by any table write. When a table was read by more
+ * than {@code maxKeysPerTable} entries of a cache, writing it clears that whole cache instead.
+ * Tracking starts when the first table scoped statement is added to the configuration.
+ */
+public class TableDependencies {
+
+  private static final String ANY_TABLE = "*";
+  private static final int MAX_PARSED_SQL = 1024;
+
+  private volatile boolean enabled;
+  private int maxKeysPerTable = 10000;
+  private final ConcurrentMap<String, ConcurrentMap<Cache, Readers>> readers = new ConcurrentHashMap<String, ConcurrentMap<Cache, Readers>>(); //表 -> 缓存 -> 读过该表的key
+  private final ConcurrentMap<String, SqlTables> parsedSql = new ConcurrentHashMap<String, SqlTables>(); //已解析的SQL
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public int getMaxKeysPerTable() {
+    return maxKeysPerTable;
+  }
+
+  public void setMaxKeysPerTable(int maxKeysPerTable) {
+    this.maxKeysPerTable = maxKeysPerTable;
+  }
+
+  public Set<String> getReadTables(MappedStatement ms, BoundSql boundSql) {
+    return ms.getTables() != null ? ms.getTables() : parse(boundSql.getSql()).getReadTables();
+  }
+
+  public Set<String> getWrittenTables(MappedStatement ms, BoundSql boundSql) {
+    return ms.getTables() != null ? ms.getTables() : parse(boundSql.getSql()).getWrittenTables();
+  }
+
+  /**
+   * Records that the entry of the key was read from the tables. Must be called after the entry was put.
+   */
+  public void register(Cache cache, Object key, Set<String> tables) {
+    for (String table : tables.isEmpty() ? Collections.singleton(ANY_TABLE) : tables) {
+      ConcurrentMap<Cache, Readers> tableReaders = readers.get(table);
+      if (tableReaders == null) {
+        tableReaders = new ConcurrentHashMap<Cache, Readers>();
+        ConcurrentMap<Cache, Readers> previous = readers.putIfAbsent(table, tableReaders);
+        tableReaders = previous == null ? tableReaders : previous;
+      }
+      Readers cacheReaders;
+      do {
+        cacheReaders = tableReaders.get(cache);
+        if (cacheReaders == null) {
+          cacheReaders = new Readers();
+          Readers previous = tableReaders.putIfAbsent(cache, cacheReaders);
+          cacheReaders = previous == null ? cacheReaders : previous;
+        }
+      } while (!cacheReaders.add(key, maxKeysPerTable)); //已被失效时重新登记
+    }
+  }
+
+  /**
+   * Removes the entries read from the tables from every cache.
+   */
+  public void invalidate(Set<String> tables) {
+    Set<String> invalidated = new HashSet<String>(tables);
+    invalidated.add(ANY_TABLE);
+    for (String table : invalidated) {
+      ConcurrentMap<Cache, Readers> tableReaders = readers.get(table);
+      if (tableReaders == null) {
+        continue;
+      }
+      for (Map.Entry<Cache, Readers> entry : tableReaders.entrySet()) {
+        if (tableReaders.remove(entry.getKey(), entry.getValue())) {
+          entry.getValue().invalidate(entry.getKey());
+        }
+      }
+    }
+  }
+
+  private SqlTables parse(String sql) {
+    SqlTables tables = parsedSql.get(sql);
+    if (tables == null) {
+      if (parsedSql.size() >= MAX_PARSED_SQL) { //动态SQL太多时重新开始
+        parsedSql.clear();
+      }
+      tables = SqlTables.parse(sql);
+      parsedSql.put(sql, tables);
+    }
+    return tables;
+  }
+
+  private static class Readers {
+    private Set<Object> keys = new HashSet<Object>(); //为null表示超过上限，需要清空整个缓存
+    private boolean invalidated;
+
+    synchronized boolean add(Object key, int maxKeys) {
+      if (invalidated) {
+        return false;
+      }
+      if (keys != null) {
+        keys.add(key);
+        if (keys.size() > maxKeys) {
+          keys = null;
+        }
+      }
+      return true;
+    }
+
+    synchronized void invalidate(Cache cache) {
+      invalidated = true;
+      if (cache instanceof BlockingCache) { //BlockingCache的removeObject只释放锁
+        cache = ((BlockingCache) cache).getDelegate();
+      }
+      if (keys == null) {
+        cache.clear();
+        return;
+      }
+      for (Object key : keys) {
+        cache.removeObject(key);
+      }
+    }
+  }
+
+}
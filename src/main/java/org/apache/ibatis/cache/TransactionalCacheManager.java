@@ -16,16 +16,41 @@
 package org.apache.ibatis.cache;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
 
 /**
  * @author Clinton Begin
  */
 public class TransactionalCacheManager {
 
+  private static final Log log = LogFactory.getLog(TransactionalCacheManager.class);
+
   private final Map<Cache, TransactionalCache> transactionalCaches = new HashMap<Cache, TransactionalCache>(); //记录二级缓存和TransactionalCache的映射
+  private final TableDependencies tableDependencies;
+  private final EntityKeyIndex entityKeyIndex;
+  private final InvalidationBus invalidationBus; //向其他实例广播提交的失效，为null时不广播
+  private final Map<Cache, Map<Object, Set<String>>> readTablesOnCommit = new HashMap<Cache, Map<Object, Set<String>>>(); //提交时登记每个条目读的表
+  private final Set<String> tablesToInvalidateOnCommit = new HashSet<String>(); //提交时失效的表
+
+  public TransactionalCacheManager() {
+    this(null, null);
+  }
+
+  public TransactionalCacheManager(TableDependencies tableDependencies, EntityKeyIndex entityKeyIndex) {
+    this(tableDependencies, entityKeyIndex, null);
+  }
+
+  public TransactionalCacheManager(TableDependencies tableDependencies, EntityKeyIndex entityKeyIndex, InvalidationBus invalidationBus) {
+    this.tableDependencies = tableDependencies;
+    this.entityKeyIndex = entityKeyIndex;
+    this.invalidationBus = invalidationBus;
+  }
 
   public void clear(Cache cache) {
     getTransactionalCache(cache).clear();
@@ -39,22 +64,101 @@ public class TransactionalCacheManager {
     getTransactionalCache(cache).putObject(key, value);
   }
 
+  /**
+   * Puts the value and registers on commit the tables it was read from.
+   */
+  public void putObject(Cache cache, CacheKey key, Object value, Set<String> readTables) {
+    putObject(cache, key, value);
+    Map<Object, Set<String>> tables = readTablesOnCommit.get(cache);
+    if (tables == null) {
+      tables = new HashMap<Object, Set<String>>();
+      readTablesOnCommit.put(cache, tables);
+    }
+    tables.put(key, readTables);
+  }
+
+  public void releaseMissedEntry(Cache cache, CacheKey key) {
+    getTransactionalCache(cache).releaseMissedEntry(key);
+  }
+
+  public void putEntityKeys(Cache cache, CacheKey key, Set<Object> entityKeys) {
+    getTransactionalCache(cache).putEntityKeys(key, entityKeys);
+  }
+
+  public void removeEntities(Cache cache, Set<Object> entityKeys) {
+    getTransactionalCache(cache).removeEntities(entityKeys);
+  }
+
+  /**
+   * Removes on commit the entries of every cache read from the tables.
+   */
+  public void invalidate(Set<String> tables) {
+    tablesToInvalidateOnCommit.addAll(tables);
+  }
+
+  /**
+   * @return true if this transaction has written any of the tables, so entries read from them must not be used
+   */
+  public boolean isInvalidated(Set<String> readTables) {
+    if (tablesToInvalidateOnCommit.isEmpty()) {
+      return false;
+    }
+    if (readTables.isEmpty()) { //读的表未知
+      return true;
+    }
+    for (String table : readTables) {
+      if (tablesToInvalidateOnCommit.contains(table)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   public void commit() {
+    Invalidations invalidations = invalidationBus != null ? new Invalidations() : null; //本次提交的失效合并为一条消息
     for (TransactionalCache txCache : transactionalCaches.values()) {
+      if (invalidations != null) {
+        txCache.collectInvalidations(invalidations);
+      }
       txCache.commit();
     }
+    for (Map.Entry<Cache, Map<Object, Set<String>>> cacheTables : readTablesOnCommit.entrySet()) { //条目放入缓存之后再登记
+      for (Map.Entry<Object, Set<String>> entry : cacheTables.getValue().entrySet()) {
+        tableDependencies.register(cacheTables.getKey(), entry.getKey(), entry.getValue());
+      }
+    }
+    if (!tablesToInvalidateOnCommit.isEmpty()) {
+      tableDependencies.invalidate(tablesToInvalidateOnCommit);
+      if (invalidations != null) {
+        invalidations.invalidate(tablesToInvalidateOnCommit);
+      }
+    }
+    resetTables();
+    if (invalidations != null && !invalidations.isEmpty()) { //本地生效之后再广播
+      try {
+        invalidationBus.publish(invalidations);
+      } catch (RuntimeException e) { //数据库已提交，不能因广播失败而报错
+        log.warn("Error publishing cache invalidations " + invalidations + ".  Cause: " + e);
+      }
+    }
   }
 
   public void rollback() {
     for (TransactionalCache txCache : transactionalCaches.values()) {
       txCache.rollback();
     }
+    resetTables();
+  }
+
+  private void resetTables() {
+    readTablesOnCommit.clear();
+    tablesToInvalidateOnCommit.clear();
   }
 
   private TransactionalCache getTransactionalCache(Cache cache) {
     TransactionalCache txCache = transactionalCaches.get(cache); //通过cache获取TransactionalCache
     if (txCache == null) { //如果txCache为空
-      txCache = new TransactionalCache(cache);//添加二级缓存装饰类
+      txCache = new TransactionalCache(cache, entityKeyIndex);//添加二级缓存装饰类
       transactionalCaches.put(cache, txCache);
     }
     return txCache;
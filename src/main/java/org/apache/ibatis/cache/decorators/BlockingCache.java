@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2015 the original author or authors.
+ *    Copyright 2009-2017 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -15,34 +15,48 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.BulkCacheSupport;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
 
 /**
  * Simple blocking decorator 
  * 
- * Simple and inefficient version of EhCache's BlockingCache decorator.
- * It sets a lock over a cache key when the element is not found in cache.
- * This way, other threads will wait until this element is filled instead of hitting the database.
+ * Simple version of EhCache's BlockingCache decorator.
+ * When an element is not found in cache, the first thread asking for it registers a load for its key and returns null
+ * so that it reads the database. Other threads asking for the same key wait until that thread puts the element, and
+ * then receive it directly instead of hitting the database. A load is forgotten once completed, so only keys being
+ * loaded are tracked.
+ * <p>
+ * The load completes when the loading thread puts the element, or calls {@link #removeObject(Object)} because the
+ * query failed or the transaction was rolled back, in which case one of the waiting threads loads it instead. A
+ * thread waiting longer than {@code timeout} milliseconds reads the database on its own.
+ * <p>
+ * When {@code shareValues} is false (read-write caches) waiting threads read the element from the cache once loaded,
+ * so that each one gets its own copy.
  * 
  * @author Eduardo Macarron
  *
  */
-public class BlockingCache implements Cache { //阻塞版缓存
+public class BlockingCache implements BulkCache { //阻塞版缓存
 
-  private long timeout; //超时时间
+  private long timeout; //等待其他线程加载的超时时间，0表示一直等待
+  private boolean shareValues = true; //是否把加载的对象直接交给等待的线程
   private final Cache delegate; //被装饰类
-  private final ConcurrentHashMap<Object, ReentrantLock> locks; //读写锁集合
+  private final ConcurrentHashMap<Object, Load> loads; //正在加载的key，加载完成后移除
 
   public BlockingCache(Cache delegate) {
     this.delegate = delegate;
-    this.locks = new ConcurrentHashMap<Object, ReentrantLock>();
+    this.loads = new ConcurrentHashMap<Object, Load>();
   }
 
   @Override
@@ -55,29 +69,52 @@ public class BlockingCache implements Cache { //阻塞版缓存
     return delegate.getSize();
   }
 
+  public Cache getDelegate() {
+    return delegate;
+  }
+
   @Override
   public void putObject(Object key, Object value) { //存储数据至缓存
     try {
       delegate.putObject(key, value);
     } finally {
-      releaseLock(key); //释放锁
+      complete(key, value); //唤醒等待的线程
     }
   }
 
   @Override
   public Object getObject(Object key) { //获取数据
-    acquireLock(key); //锁定资源
-    Object value = delegate.getObject(key); //获取数据
-    if (value != null) { //值不为null释放？？？
-      releaseLock(key); //释放锁
-    }        
-    return value;
+    while (true) {
+      Object value = delegate.getObject(key);
+      if (value != null) {
+        return value;
+      }
+      Load load = new Load();
+      Load current = loads.putIfAbsent(key, load);
+      if (current == null) { //由当前线程加载
+        value = delegate.getObject(key); //其他线程可能刚刚加载完成
+        if (value != null) {
+          complete(key, value);
+        }
+        return value;
+      }
+      if (current.owner == Thread.currentThread()) { //当前线程正在加载
+        return null;
+      }
+      if (!current.await(timeout, key)) { //等待超时，自己查询数据库
+        return null;
+      }
+      if (current.value != null && shareValues) {
+        return current.value;
+      }
+      //加载失败，或者需要从缓存中读取副本，重新读取
+    }
   }
 
   @Override
   public Object removeObject(Object key) {
     // despite of its name, this method is called only to release locks
-    releaseLock(key);
+    complete(key, null);
     return null;
   }
 
@@ -87,36 +124,52 @@ public class BlockingCache implements Cache { //阻塞版缓存
   }
 
   @Override
-  public ReadWriteLock getReadWriteLock() {
-    return null;
-  }
-  
-  private ReentrantLock getLockForKey(Object key) { //获取锁
-    ReentrantLock lock = new ReentrantLock();
-    ReentrantLock previous = locks.putIfAbsent(key, lock); //添加锁进入Map中
-    return previous == null ? lock : previous;
+  public Map<Object, Object> getAll(Collection<?> keys) {
+    Map<Object, Object> values = new HashMap<Object, Object>();
+    for (Object key : keys) { //每个未命中的key都要登记加载
+      Object value = getObject(key);
+      if (value != null) {
+        values.put(key, value);
+      }
+    }
+    return values;
   }
-  
-  private void acquireLock(Object key) {
-    Lock lock = getLockForKey(key); //获取锁
-    if (timeout > 0) { //超时时间大于0
-      try {
-        boolean acquired = lock.tryLock(timeout, TimeUnit.MILLISECONDS); //带超时参数获取锁
-        if (!acquired) {
-          throw new CacheException("Couldn't get a lock in " + timeout + " for the key " +  key + " at the cache " + delegate.getId());  
-        }
-      } catch (InterruptedException e) {
-        throw new CacheException("Got interrupted while trying to acquire lock for key " + key, e);
+
+  @Override
+  public void putAll(Map<?, ?> entries) {
+    try {
+      BulkCacheSupport.putAll(delegate, entries);
+    } finally {
+      for (Map.Entry<?, ?> entry : entries.entrySet()) {
+        complete(entry.getKey(), entry.getValue()); //唤醒等待的线程
       }
-    } else {
-      lock.lock(); //锁定
     }
   }
-  
-  private void releaseLock(Object key) {
-    ReentrantLock lock = locks.get(key); //从Map中获取锁
-    if (lock.isHeldByCurrentThread()) {//如果锁属于当前线程进行释放
-      lock.unlock();
+
+  @Override
+  public void removeAll(Collection<?> keys) {
+    for (Object key : keys) {
+      complete(key, null);
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  /**
+   * @return The number of keys being loaded
+   */
+  public int getLoadCount() {
+    return loads.size();
+  }
+
+  private void complete(Object key, Object value) {
+    Load load = loads.get(key);
+    if (load != null && load.owner == Thread.currentThread()) { //只有加载的线程可以完成
+      loads.remove(key, load);
+      load.complete(value);
     }
   }
 
@@ -126,5 +179,37 @@ public class BlockingCache implements Cache { //阻塞版缓存
 
   public void setTimeout(long timeout) {
     this.timeout = timeout;
-  }  
-}
\ No newline at end of file
+  }
+
+  public boolean isShareValues() {
+    return shareValues;
+  }
+
+  public void setShareValues(boolean shareValues) {
+    this.shareValues = shareValues;
+  }
+
+  private static class Load {
+    private final Thread owner = Thread.currentThread(); //加载的线程
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Object value; //加载的对象，失败时为null
+
+    void complete(Object value) {
+      this.value = value;
+      done.countDown();
+    }
+
+    boolean await(long timeout, Object key) {
+      try {
+        if (timeout > 0) {
+          return done.await(timeout, TimeUnit.MILLISECONDS);
+        }
+        done.await();
+        return true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CacheException("Got interrupted while waiting for the load of key " + key, e);
+      }
+    }
+  }
+}
@@ -0,0 +1,240 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.BulkCacheSupport;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.Compressor;
+import org.apache.ibatis.cache.DeflateCompressor;
+import org.apache.ibatis.cache.ReflectiveWeigher;
+import org.apache.ibatis.cache.SerializationCodec;
+import org.apache.ibatis.cache.Weigher;
+import org.apache.ibatis.io.Resources;
+
+/**
+ * Cache decorator that keeps large values compressed and decompresses them on every hit.
+ * <p>
+ * Byte arrays, which is what a {@link SerializedCache} above this decorator puts, are compressed as they are. Other
+ * {@link Serializable} values are serialized first, so a hit on them returns a copy. They are only serialized when
+ * their size estimated by a {@link ReflectiveWeigher} reaches the threshold, and values that fail to serialize, e.g.
+ * lists of non-serializable objects, are kept as they were put. Values smaller than {@code compressionThreshold}
+ * bytes, or that do not shrink, are kept as they were put.
+ */
+public class CompressedCache implements BulkCache { //压缩较大的缓存值
+
+  private static final SerializationCodec SERIALIZATION = new SerializationCodec();
+  private static final Weigher WEIGHER = new ReflectiveWeigher(); //序列化之前先廉价估算大小
+
+  private final Cache delegate;
+  private Compressor compressor = new DeflateCompressor();
+  private int compressionThreshold = 1024; //小于该字节数的值不压缩
+  private final AtomicLong compressions = new AtomicLong();
+  private final AtomicLong decompressions = new AtomicLong();
+  private final AtomicLong uncompressedBytes = new AtomicLong();
+  private final AtomicLong compressedBytes = new AtomicLong();
+  private final AtomicLong compressionTime = new AtomicLong(); //纳秒
+  private final AtomicLong decompressionTime = new AtomicLong(); //纳秒
+
+  public CompressedCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  public void setCompressor(String compressorClassName) {
+    try {
+      this.compressor = (Compressor) Resources.classForName(compressorClassName).newInstance();
+    } catch (Exception e) {
+      throw new CacheException("Error creating compressor " + compressorClassName + ".  Cause: " + e, e);
+    }
+  }
+
+  public void setCompressionThreshold(int compressionThreshold) {
+    this.compressionThreshold = compressionThreshold;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, compress(value));
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    return decompress(delegate.getObject(key));
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  @Override
+  public Map<Object, Object> getAll(Collection<?> keys) {
+    Map<Object, Object> values = new HashMap<Object, Object>();
+    for (Map.Entry<Object, Object> entry : BulkCacheSupport.getAll(delegate, keys).entrySet()) {
+      values.put(entry.getKey(), decompress(entry.getValue()));
+    }
+    return values;
+  }
+
+  @Override
+  public void putAll(Map<?, ?> entries) {
+    Map<Object, Object> compressed = new LinkedHashMap<Object, Object>();
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      compressed.put(entry.getKey(), compress(entry.getValue()));
+    }
+    BulkCacheSupport.putAll(delegate, compressed);
+  }
+
+  @Override
+  public void removeAll(Collection<?> keys) {
+    BulkCacheSupport.removeAll(delegate, keys);
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  public long getCompressions() {
+    return compressions.get();
+  }
+
+  public long getDecompressions() {
+    return decompressions.get();
+  }
+
+  public long getUncompressedBytes() {
+    return uncompressedBytes.get();
+  }
+
+  public long getCompressedBytes() {
+    return compressedBytes.get();
+  }
+
+  /**
+   * @return How many times smaller the compressed values put so far are, or 1 when none was compressed
+   */
+  public double getCompressionRatio() {
+    long compressed = compressedBytes.get();
+    return compressed == 0 ? 1.0 : (double) uncompressedBytes.get() / compressed;
+  }
+
+  public double getAverageCompressionMillis() {
+    long count = compressions.get();
+    return count == 0 ? 0.0 : compressionTime.get() / 1000000.0 / count;
+  }
+
+  public double getAverageDecompressionMillis() {
+    long count = decompressions.get();
+    return count == 0 ? 0.0 : decompressionTime.get() / 1000000.0 / count;
+  }
+
+  private Object compress(Object value) {
+    byte[] data;
+    boolean serialized;
+    if (value instanceof byte[]) {
+      data = (byte[]) value;
+      serialized = false;
+    } else if (value instanceof Serializable) {
+      if (WEIGHER.weigh(null, value) < compressionThreshold) { //估算已小于阈值的值不必序列化
+        return value;
+      }
+      try {
+        data = (byte[]) SERIALIZATION.encode(value);
+      } catch (CacheException e) { //例如包含不可序列化对象的ArrayList
+        return value;
+      }
+      serialized = true;
+    } else {
+      return value;
+    }
+    if (data.length < compressionThreshold) {
+      return value;
+    }
+    long start = System.nanoTime();
+    byte[] compressed = compressor.compress(data);
+    compressionTime.addAndGet(System.nanoTime() - start);
+    if (compressed.length >= data.length) { //不可压缩的数据保持原样
+      return value;
+    }
+    compressions.incrementAndGet();
+    uncompressedBytes.addAndGet(data.length);
+    compressedBytes.addAndGet(compressed.length);
+    return new Compressed(compressed, data.length, serialized);
+  }
+
+  private Object decompress(Object value) {
+    if (!(value instanceof Compressed)) {
+      return value;
+    }
+    Compressed compressed = (Compressed) value;
+    long start = System.nanoTime();
+    byte[] data = compressor.decompress(compressed.data, compressed.length);
+    decompressionTime.addAndGet(System.nanoTime() - start);
+    decompressions.incrementAndGet();
+    return compressed.serialized ? SERIALIZATION.decode(data) : data;
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  private static final class Compressed implements Serializable { //持久化的缓存实现也能保存
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] data;
+    private final int length;
+    private final boolean serialized;
+
+    Compressed(byte[] data, int length, boolean serialized) {
+      this.data = data;
+      this.length = length;
+      this.serialized = serialized;
+    }
+  }
+
+}
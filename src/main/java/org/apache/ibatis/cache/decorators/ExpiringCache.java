@@ -0,0 +1,232 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.BulkCacheSupport;
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * Per entry expiration cache decorator.
+ * <p>
+ * Unlike {@link ScheduledCache}, which clears the whole cache at once, every entry expires on its own
+ * {@code timeToLive} milliseconds after it was put and/or {@code timeToIdle} milliseconds after it was last read.
+ * The time to live of each entry is shortened by a random amount of up to {@code jitter} percent so that entries
+ * loaded together do not expire together.
+ * <p>
+ * When {@code refreshAhead} is set, the first hit on an entry that expires within that many milliseconds is
+ * reported to the calling thread through {@link #takeRefreshRequest(Object)}. The
+ * {@link org.apache.ibatis.executor.CachingExecutor} uses it to reload the entry in the background while the
+ * current value keeps being served.
+ */
+public class ExpiringCache implements BulkCache { //按条目过期
+
+  private static final Random RANDOM = new Random();
+  private static final ThreadLocal<Object> REFRESH_REQUEST = new ThreadLocal<Object>(); //需要提前刷新的key
+
+  private final Cache delegate; //被装饰的Cache对象
+  private long timeToLive; //写入后存活时间，0表示不限
+  private long timeToIdle; //未访问的存活时间，0表示不限
+  private int jitter; //存活时间随机缩短的百分比
+  private long refreshAhead; //过期前多久触发刷新，0表示不刷新
+
+  public ExpiringCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  public long getTimeToLive() {
+    return timeToLive;
+  }
+
+  public void setTimeToLive(long timeToLive) {
+    this.timeToLive = timeToLive;
+  }
+
+  public long getTimeToIdle() {
+    return timeToIdle;
+  }
+
+  public void setTimeToIdle(long timeToIdle) {
+    this.timeToIdle = timeToIdle;
+  }
+
+  public int getJitter() {
+    return jitter;
+  }
+
+  public void setJitter(int jitter) {
+    this.jitter = Math.max(0, Math.min(100, jitter));
+  }
+
+  public long getRefreshAhead() {
+    return refreshAhead;
+  }
+
+  public void setRefreshAhead(long refreshAhead) {
+    this.refreshAhead = refreshAhead;
+  }
+
+  /**
+   * Returns and resets the refresh request the last hit of the current thread raised for the given key.
+   *
+   * @param key The key that was just read
+   * @return true when the entry is about to expire and the caller should reload it
+   */
+  public static boolean takeRefreshRequest(Object key) {
+    Object requested = REFRESH_REQUEST.get();
+    if (requested == null) {
+      return false;
+    }
+    REFRESH_REQUEST.remove();
+    return requested.equals(key);
+  }
+
+  /**
+   * Asks the calling thread to reload the key it is reading.
+   */
+  static void requestRefresh(Object key) {
+    REFRESH_REQUEST.set(key);
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, newEntry(value, System.currentTimeMillis()));
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Entry entry = (Entry) delegate.getObject(key);
+    if (entry == null) {
+      return null;
+    }
+    long now = System.currentTimeMillis();
+    if (isExpired(entry, now)) { //不移除 其他线程可能刚放入新值 过期条目由重新加载覆盖或被淘汰
+      return null;
+    }
+    return hit(key, entry, now);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Entry entry = (Entry) delegate.removeObject(key);
+    return entry == null ? null : entry.value;
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  @Override
+  public Map<Object, Object> getAll(Collection<?> keys) {
+    Map<Object, Object> values = new HashMap<Object, Object>();
+    long now = System.currentTimeMillis();
+    for (Map.Entry<Object, Object> cached : BulkCacheSupport.getAll(delegate, keys).entrySet()) {
+      Entry entry = (Entry) cached.getValue();
+      if (!isExpired(entry, now) && entry.value != null) {
+        values.put(cached.getKey(), hit(cached.getKey(), entry, now));
+      }
+    }
+    return values;
+  }
+
+  @Override
+  public void putAll(Map<?, ?> entries) {
+    long now = System.currentTimeMillis();
+    Map<Object, Object> wrapped = new LinkedHashMap<Object, Object>();
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      wrapped.put(entry.getKey(), newEntry(entry.getValue(), now));
+    }
+    BulkCacheSupport.putAll(delegate, wrapped);
+  }
+
+  @Override
+  public void removeAll(Collection<?> keys) {
+    BulkCacheSupport.removeAll(delegate, keys);
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  private Entry newEntry(Object value, long now) {
+    long expiresAt = Long.MAX_VALUE;
+    if (timeToLive > 0) {
+      long ttl = timeToLive;
+      if (jitter > 0) {
+        ttl -= (long) (ttl * jitter / 100.0 * RANDOM.nextDouble());
+      }
+      expiresAt = now + ttl;
+    }
+    return new Entry(value, expiresAt, now);
+  }
+
+  private boolean isExpired(Entry entry, long now) {
+    return now >= entry.expiresAt || (timeToIdle > 0 && now - entry.lastAccess >= timeToIdle);
+  }
+
+  private Object hit(Object key, Entry entry, long now) {
+    entry.lastAccess = now;
+    if (refreshAhead > 0 && entry.value != null && entry.expiresAt - now <= refreshAhead
+        && entry.refreshRequested.compareAndSet(false, true)) { //即将过期，只触发一次刷新
+      requestRefresh(key);
+    }
+    return entry.value;
+  }
+
+  private static class Entry {
+    private final Object value;
+    private final long expiresAt;
+    private volatile long lastAccess;
+    private final AtomicBoolean refreshRequested = new AtomicBoolean();
+
+    Entry(Object value, long expiresAt, long lastAccess) {
+      this.value = value;
+      this.expiresAt = expiresAt;
+      this.lastAccess = lastAccess;
+    }
+  }
+
+}
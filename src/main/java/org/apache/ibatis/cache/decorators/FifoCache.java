@@ -15,10 +15,18 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Deque;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.BulkCacheSupport;
 import org.apache.ibatis.cache.Cache;
 
 /**
@@ -26,7 +34,7 @@ import org.apache.ibatis.cache.Cache;
  *
  * @author Clinton Begin
  */
-public class FifoCache implements Cache { //先进先出缓存
+public class FifoCache implements BulkCache { //先进先出缓存
 
   private final Cache delegate; //被装饰的Cache对象
   private final Deque<Object> keyList;// 记录Key进入缓存的记录，先进先出记录
@@ -74,6 +82,36 @@ public class FifoCache implements Cache { //先进先出缓存
     keyList.clear();
   }
 
+  @Override
+  public Map<Object, Object> getAll(Collection<?> keys) {
+    return BulkCacheSupport.getAll(delegate, keys);
+  }
+
+  @Override
+  public void putAll(Map<?, ?> entries) {
+    List<Object> oldestKeys = new ArrayList<Object>();
+    Set<Object> cycled = new HashSet<Object>();
+    for (Object key : entries.keySet()) {
+      keyList.addLast(key);
+      cycled.add(key);
+      if (keyList.size() > size) {
+        Object oldestKey = keyList.removeFirst();
+        if (!entries.containsKey(oldestKey) || cycled.contains(oldestKey)) { //稍后放入的key不需要移除
+          oldestKeys.add(oldestKey);
+        }
+      }
+    }
+    BulkCacheSupport.putAll(delegate, entries);
+    if (!oldestKeys.isEmpty()) {
+      BulkCacheSupport.removeAll(delegate, oldestKeys);
+    }
+  }
+
+  @Override
+  public void removeAll(Collection<?> keys) {
+    BulkCacheSupport.removeAll(delegate, keys);
+  }
+
   @Override
   public ReadWriteLock getReadWriteLock() {
     return null;
@@ -15,8 +15,13 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReadWriteLock;
 
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.BulkCacheSupport;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
@@ -24,12 +29,12 @@ import org.apache.ibatis.logging.LogFactory;
 /**
  * @author Clinton Begin
  */
-public class LoggingCache implements Cache { //提供日志功能
+public class LoggingCache implements BulkCache { //提供日志功能
 
   private final Log log;
   private final Cache delegate;
-  protected int requests = 0; //访问次数
-  protected int hits = 0; //命中次数
+  protected final AtomicInteger requests = new AtomicInteger(); //访问次数 并发安全的淘汰策略下不加同步
+  protected final AtomicInteger hits = new AtomicInteger(); //命中次数
 
   public LoggingCache(Cache delegate) {
     this.delegate = delegate;
@@ -53,10 +58,10 @@ public class LoggingCache implements Cache { //提供日志功能
 
   @Override
   public Object getObject(Object key) {
-    requests++; //访问次数
+    requests.incrementAndGet(); //访问次数
     final Object value = delegate.getObject(key);
     if (value != null) {
-      hits++; //命中次数
+      hits.incrementAndGet(); //命中次数
     }
     if (log.isDebugEnabled()) {
       log.debug("Cache Hit Ratio [" + getId() + "]: " + getHitRatio());
@@ -74,6 +79,27 @@ public class LoggingCache implements Cache { //提供日志功能
     delegate.clear();
   }
 
+  @Override
+  public Map<Object, Object> getAll(Collection<?> keys) {
+    requests.addAndGet(keys.size());
+    Map<Object, Object> values = BulkCacheSupport.getAll(delegate, keys);
+    hits.addAndGet(values.size());
+    if (log.isDebugEnabled()) {
+      log.debug("Cache Hit Ratio [" + getId() + "]: " + getHitRatio());
+    }
+    return values;
+  }
+
+  @Override
+  public void putAll(Map<?, ?> entries) {
+    BulkCacheSupport.putAll(delegate, entries);
+  }
+
+  @Override
+  public void removeAll(Collection<?> keys) {
+    BulkCacheSupport.removeAll(delegate, keys);
+  }
+
   @Override
   public ReadWriteLock getReadWriteLock() {
     return null;
@@ -90,7 +116,7 @@ public class LoggingCache implements Cache { //提供日志功能
   }
 
   private double getHitRatio() { //计算命中率
-    return (double) hits / (double) requests;
+    return (double) hits.get() / (double) requests.get();
   }
 
 }
@@ -15,10 +15,17 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.BulkCacheSupport;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 
@@ -27,7 +34,7 @@ import org.apache.ibatis.cache.impl.PerpetualCache;
  *
  * @author Clinton Begin
  */
-public class LruCache implements Cache { //最近最少使用
+public class LruCache implements BulkCache { //最近最少使用
 
   private final Cache delegate; //被装饰的Cache对象
   private Map<Object, Object> keyMap; //是一个有序的HashMap ，用于记录key 最近的使用情况
@@ -87,6 +94,39 @@ public class LruCache implements Cache { //最近最少使用
     keyMap.clear();
   }
 
+  @Override
+  public Map<Object, Object> getAll(Collection<?> keys) {
+    for (Object key : keys) {
+      keyMap.get(key); //touch
+    }
+    return BulkCacheSupport.getAll(delegate, keys);
+  }
+
+  @Override
+  public void putAll(Map<?, ?> entries) {
+    List<Object> eldestKeys = new ArrayList<Object>();
+    Set<Object> cycled = new HashSet<Object>();
+    for (Object key : entries.keySet()) {
+      keyMap.put(key, key);
+      cycled.add(key);
+      if (eldestKey != null) {
+        if (!entries.containsKey(eldestKey) || cycled.contains(eldestKey)) { //稍后放入的key不需要移除
+          eldestKeys.add(eldestKey);
+        }
+        eldestKey = null;
+      }
+    }
+    BulkCacheSupport.putAll(delegate, entries);
+    if (!eldestKeys.isEmpty()) {
+      BulkCacheSupport.removeAll(delegate, eldestKeys);
+    }
+  }
+
+  @Override
+  public void removeAll(Collection<?> keys) {
+    BulkCacheSupport.removeAll(delegate, keys);
+  }
+
   @Override
   public ReadWriteLock getReadWriteLock() {
     return null;
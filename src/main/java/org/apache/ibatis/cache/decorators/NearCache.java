@@ -0,0 +1,262 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.BulkCacheSupport;
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * Two tier cache decorator: keeps the most recently used entries of a shared (usually remote) cache in a small
+ * local near tier.
+ * <p>
+ * Hits of the shared tier are copied to the near tier, which holds at most {@code nearSize} entries for at most
+ * {@code nearTimeToLive} milliseconds (0 keeps them until evicted). Puts, removals and clears go to both tiers.
+ * The clears an {@link org.apache.ibatis.cache.InvalidationBus} receives from other instances only apply to the
+ * near tier, as the instance that committed them already cleared the shared one.
+ * <p>
+ * A value read from the shared tier is only copied to the near tier if the near tier was not changed during the
+ * read, so that a removal or clear running meanwhile is not undone by the copy.
+ */
+public class NearCache implements BulkCache { //本地近缓存 + 共享缓存
+
+  private static final ThreadLocal<Boolean> NEAR_ONLY = new ThreadLocal<Boolean>(); //只失效本地层
+
+  private final Cache delegate; //共享层
+  private final Map<Object, NearEntry> near; //本地层，按访问顺序
+  private int nearSize = 1024;
+  private long nearTimeToLive;
+  private long generation; //本地层修改的次数，由this保护
+
+  public NearCache(Cache delegate) {
+    this.delegate = delegate;
+    this.near = new LinkedHashMap<Object, NearEntry>(16, .75F, true) {
+      private static final long serialVersionUID = -1462342339413934231L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Object, NearEntry> eldest) {
+        return size() > nearSize;
+      }
+    };
+  }
+
+  /**
+   * Makes the removals and clears of the current thread apply to the near tier only, until called with false.
+   */
+  public static void setNearOnly(boolean nearOnly) {
+    if (nearOnly) {
+      NEAR_ONLY.set(Boolean.TRUE);
+    } else {
+      NEAR_ONLY.remove();
+    }
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  public int getNearSize() {
+    return nearSize;
+  }
+
+  public void setNearSize(int nearSize) {
+    this.nearSize = nearSize;
+  }
+
+  public long getNearTimeToLive() {
+    return nearTimeToLive;
+  }
+
+  public void setNearTimeToLive(long nearTimeToLive) {
+    this.nearTimeToLive = nearTimeToLive;
+  }
+
+  /**
+   * @return The number of entries in the near tier
+   */
+  public synchronized int getNearCount() {
+    return near.size();
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    long stamp;
+    synchronized (this) {
+      NearEntry entry = near.get(key);
+      if (entry != null) {
+        if (entry.expiresAt > System.currentTimeMillis()) {
+          return entry.value;
+        }
+        near.remove(key);
+      }
+      stamp = generation; //读共享层之前的修改次数
+    }
+    Object value = delegate.getObject(key);
+    if (value != null) {
+      synchronized (this) {
+        if (generation == stamp) { //读取期间没有失效或写入
+          putNear(key, value);
+        }
+      }
+    }
+    return value;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+    synchronized (this) {
+      generation++;
+      if (value != null) {
+        putNear(key, value);
+      } else {
+        near.remove(key);
+      }
+    }
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    NearEntry entry = removeNear(key);
+    if (NEAR_ONLY.get() != null) {
+      return entry == null ? null : entry.value;
+    }
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    synchronized (this) {
+      generation++;
+      near.clear();
+    }
+    if (NEAR_ONLY.get() == null) {
+      delegate.clear();
+    }
+  }
+
+  @Override
+  public Map<Object, Object> getAll(Collection<?> keys) {
+    Map<Object, Object> values = new HashMap<Object, Object>();
+    List<Object> missed = new ArrayList<Object>();
+    long stamp;
+    synchronized (this) {
+      stamp = generation;
+      long now = System.currentTimeMillis();
+      for (Object key : keys) {
+        NearEntry entry = near.get(key);
+        if (entry != null && entry.expiresAt > now) {
+          values.put(key, entry.value);
+        } else {
+          if (entry != null) {
+            near.remove(key);
+          }
+          missed.add(key);
+        }
+      }
+    }
+    if (!missed.isEmpty()) { //本地层未命中的一次从共享层读取
+      Map<Object, Object> shared = BulkCacheSupport.getAll(delegate, missed);
+      synchronized (this) {
+        if (generation == stamp) {
+          for (Map.Entry<Object, Object> entry : shared.entrySet()) {
+            putNear(entry.getKey(), entry.getValue());
+          }
+        }
+      }
+      values.putAll(shared);
+    }
+    return values;
+  }
+
+  @Override
+  public void putAll(Map<?, ?> entries) {
+    BulkCacheSupport.putAll(delegate, entries);
+    synchronized (this) {
+      generation++;
+      for (Map.Entry<?, ?> entry : entries.entrySet()) {
+        if (entry.getValue() != null) {
+          putNear(entry.getKey(), entry.getValue());
+        } else {
+          near.remove(entry.getKey());
+        }
+      }
+    }
+  }
+
+  @Override
+  public void removeAll(Collection<?> keys) {
+    synchronized (this) {
+      generation++;
+      for (Object key : keys) {
+        near.remove(key);
+      }
+    }
+    if (NEAR_ONLY.get() == null) {
+      BulkCacheSupport.removeAll(delegate, keys);
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  private synchronized void putNear(Object key, Object value) {
+    long expiresAt = nearTimeToLive > 0 ? System.currentTimeMillis() + nearTimeToLive : Long.MAX_VALUE;
+    near.put(key, new NearEntry(value, expiresAt));
+  }
+
+  private synchronized NearEntry removeNear(Object key) {
+    generation++;
+    return near.remove(key);
+  }
+
+  private static class NearEntry {
+    private final Object value;
+    private final long expiresAt;
+
+    NearEntry(Object value, long expiresAt) {
+      this.value = value;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+}
@@ -0,0 +1,230 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.EnumerableCache;
+import org.apache.ibatis.cache.EvictionListener;
+
+/**
+ * Base of the concurrent {@link SoftCache} and {@link WeakCache}: values are held through references the garbage
+ * collector may clear.
+ * <p>
+ * Entries are kept in a {@link ConcurrentHashMap} owned by this decorator, the decorated cache only provides the id and
+ * is cleared together with this one. The values of the last {@code size} hits are strongly held in a fixed ring, so
+ * recently used values are not collected. Cleared references are drained from the reference queue by at most one
+ * thread at a time and {@code DRAIN_MAX} at a time, on writes and size reads.
+ */
+public abstract class ReferenceCache implements BulkCache, EnumerableCache {
+
+  private static final int DRAIN_MAX = 256;
+
+  private final Cache delegate; //被装饰的Cache对象，只提供id
+  private final ConcurrentMap<Object, Reference<Object>> entries = new ConcurrentHashMap<Object, Reference<Object>>();
+  private final ReferenceQueue<Object> queueOfGarbageCollectedEntries = new ReferenceQueue<Object>();
+  private final AtomicBoolean draining = new AtomicBoolean(); //同一时间只有一个线程清理引用队列
+  private volatile HardLinks hardLinks; //最近命中的值不会被GC
+  private volatile EvictionListener evictionListener; //被GC回收的条目通知给统计
+
+  ReferenceCache(Cache delegate) {
+    this.delegate = delegate;
+    this.hardLinks = new HardLinks(256);
+  }
+
+  /**
+   * @return A reference to the value that is enqueued when cleared and returns the key from {@link KeyedReference}
+   */
+  abstract Reference<Object> newReference(Object key, Object value, ReferenceQueue<Object> queue);
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    removeGarbageCollectedItems();
+    return entries.size();
+  }
+
+  public void setSize(int size) {
+    this.hardLinks = new HardLinks(size);
+  }
+
+  public void setEvictionListener(EvictionListener evictionListener) {
+    this.evictionListener = evictionListener;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    removeGarbageCollectedItems();
+    if (value == null) { //被回收的值与null无法区分
+      entries.remove(key);
+    } else {
+      entries.put(key, newReference(key, value, queueOfGarbageCollectedEntries));
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Reference<Object> reference = entries.get(key);
+    if (reference == null) {
+      return null;
+    }
+    Object value = reference.get();
+    if (value == null) { //已被GC回收
+      if (entries.remove(key, reference)) {
+        evicted(key);
+      }
+    } else {
+      hardLinks.add(value);
+    }
+    return value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    removeGarbageCollectedItems();
+    Reference<Object> reference = entries.remove(key);
+    return reference == null ? null : reference.get();
+  }
+
+  @Override
+  public void clear() {
+    hardLinks.clear();
+    entries.clear();
+    delegate.clear();
+    removeGarbageCollectedItems();
+  }
+
+  @Override
+  public Map<Object, Object> getAll(Collection<?> keys) {
+    Map<Object, Object> values = new HashMap<Object, Object>();
+    for (Object key : keys) {
+      Object value = getObject(key);
+      if (value != null) {
+        values.put(key, value);
+      }
+    }
+    return values;
+  }
+
+  @Override
+  public void putAll(Map<?, ?> entries) {
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      putObject(entry.getKey(), entry.getValue());
+    }
+  }
+
+  @Override
+  public void removeAll(Collection<?> keys) {
+    for (Object key : keys) {
+      removeObject(key);
+    }
+  }
+
+  @Override
+  public Set<Object> keys() {
+    return new HashSet<Object>(entries.keySet());
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  private void removeGarbageCollectedItems() {
+    if (!draining.compareAndSet(false, true)) { //其他线程正在清理
+      return;
+    }
+    try {
+      for (int i = 0; i < DRAIN_MAX; i++) {
+        Reference<?> reference = queueOfGarbageCollectedEntries.poll();
+        if (reference == null) {
+          break;
+        }
+        Object key = ((KeyedReference) reference).getKey();
+        if (entries.remove(key, reference)) { //key可能已经放入了新值
+          evicted(key);
+        }
+      }
+    } finally {
+      draining.set(false);
+    }
+  }
+
+  private void evicted(Object key) {
+    EvictionListener listener = evictionListener;
+    if (listener != null) {
+      listener.onEviction(key);
+    }
+  }
+
+  interface KeyedReference {
+    Object getKey();
+  }
+
+  /**
+   * Ring of the last hit values. A hit overwrites the slot of the oldest one, without locking.
+   */
+  private static final class HardLinks {
+    private final AtomicReferenceArray<Object> slots;
+    private final AtomicLong cursor = new AtomicLong();
+
+    HardLinks(int size) {
+      this.slots = new AtomicReferenceArray<Object>(Math.max(0, size));
+    }
+
+    void add(Object value) {
+      int length = slots.length();
+      if (length > 0) {
+        slots.lazySet((int) ((cursor.getAndIncrement() & Long.MAX_VALUE) % length), value);
+      }
+    }
+
+    void clear() {
+      for (int i = 0; i < slots.length(); i++) {
+        slots.set(i, null);
+      }
+    }
+  }
+
+}
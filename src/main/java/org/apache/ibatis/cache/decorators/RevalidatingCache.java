@@ -0,0 +1,173 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.BulkCacheSupport;
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * Stale-while-revalidate cache decorator.
+ * <p>
+ * {@link #clear()} does not remove the entries but marks them stale. For {@code staleWindow} milliseconds after that
+ * a stale entry is still returned, and the first hit on it asks the calling thread, through
+ * {@link ExpiringCache#takeRefreshRequest(Object)}, to reload it in the background. Once the window is over a stale
+ * entry reads as a miss, so no reader gets data older than that, and is replaced by the reload or evicted. Entries
+ * removed one by one, e.g. by table or key scoped flushes, are removed at once.
+ */
+public class RevalidatingCache implements BulkCache { //清空后在一段时间内继续返回旧数据并后台刷新
+
+  private static final int CLEARS = 64; //记录最近几次清空的时间
+
+  private final Cache delegate; //被装饰的Cache对象
+  private long staleWindow; //清空后继续返回旧数据的时间，0表示直接清空
+  private final long[] clearedAt = new long[CLEARS]; //第n次清空的时间
+  private volatile long generation; //清空的次数
+
+  public RevalidatingCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  public long getStaleWindow() {
+    return staleWindow;
+  }
+
+  public void setStaleWindow(long staleWindow) {
+    this.staleWindow = staleWindow;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, new Entry(value, generation));
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Entry entry = (Entry) delegate.getObject(key);
+    if (entry == null) {
+      return null;
+    }
+    long current = generation;
+    if (isExpired(entry, current)) { //不移除 其他线程可能刚放入新值 过期条目由重新加载覆盖或被淘汰
+      return null;
+    }
+    return hit(key, entry, current);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Entry entry = (Entry) delegate.removeObject(key);
+    return entry == null ? null : entry.value;
+  }
+
+  @Override
+  public synchronized void clear() {
+    if (staleWindow <= 0) {
+      delegate.clear();
+      return;
+    }
+    long next = generation + 1;
+    clearedAt[(int) (next % CLEARS)] = System.currentTimeMillis();
+    generation = next; //之前放入的条目都变为旧数据
+  }
+
+  @Override
+  public Map<Object, Object> getAll(Collection<?> keys) {
+    Map<Object, Object> values = new HashMap<Object, Object>();
+    long current = generation;
+    for (Map.Entry<Object, Object> cached : BulkCacheSupport.getAll(delegate, keys).entrySet()) {
+      Entry entry = (Entry) cached.getValue();
+      if (!isExpired(entry, current) && entry.value != null) {
+        values.put(cached.getKey(), hit(cached.getKey(), entry, current));
+      }
+    }
+    return values;
+  }
+
+  @Override
+  public void putAll(Map<?, ?> entries) {
+    long current = generation;
+    Map<Object, Object> wrapped = new LinkedHashMap<Object, Object>();
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      wrapped.put(entry.getKey(), new Entry(entry.getValue(), current));
+    }
+    BulkCacheSupport.putAll(delegate, wrapped);
+  }
+
+  @Override
+  public void removeAll(Collection<?> keys) {
+    BulkCacheSupport.removeAll(delegate, keys);
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  private boolean isExpired(Entry entry, long current) {
+    if (entry.generation == current) {
+      return false;
+    }
+    long staleSince = current - entry.generation < CLEARS ? clearedAt[(int) ((entry.generation + 1) % CLEARS)] : 0;
+    return System.currentTimeMillis() - staleSince >= staleWindow || entry.value == null; //超出容忍时间
+  }
+
+  private Object hit(Object key, Entry entry, long current) {
+    if (entry.generation != current && entry.refreshRequested.compareAndSet(false, true)) { //第一次读到旧数据时触发刷新
+      ExpiringCache.requestRefresh(key);
+    }
+    return entry.value;
+  }
+
+  private static class Entry {
+    private final Object value;
+    private final long generation; //放入时的清空次数
+    private final AtomicBoolean refreshRequested = new AtomicBoolean();
+
+    Entry(Object value, long generation) {
+      this.value = value;
+      this.generation = generation;
+    }
+  }
+
+}
@@ -15,18 +15,23 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.BulkCacheSupport;
 import org.apache.ibatis.cache.Cache;
 
 /**
  * @author Clinton Begin
  */
-public class ScheduledCache implements Cache { //定时清理缓存
+public class ScheduledCache implements BulkCache { //定时清理缓存
 
   private final Cache delegate; //被装饰Cache
   protected long clearInterval; //清理间隔
-  protected long lastClear; //上次清理时间
+  protected volatile long lastClear; //上次清理时间 并发安全的淘汰策略下不加同步
 
   public ScheduledCache(Cache delegate) {
     this.delegate = delegate;
@@ -72,6 +77,23 @@ public class ScheduledCache implements Cache { //定时清理缓存
     delegate.clear();
   }
 
+  @Override
+  public Map<Object, Object> getAll(Collection<?> keys) {
+    return clearWhenStale() ? new HashMap<Object, Object>() : BulkCacheSupport.getAll(delegate, keys);
+  }
+
+  @Override
+  public void putAll(Map<?, ?> entries) {
+    clearWhenStale();
+    BulkCacheSupport.putAll(delegate, entries);
+  }
+
+  @Override
+  public void removeAll(Collection<?> keys) {
+    clearWhenStale();
+    BulkCacheSupport.removeAll(delegate, keys);
+  }
+
   @Override
   public ReadWriteLock getReadWriteLock() {
     return null;
@@ -89,7 +111,11 @@ public class ScheduledCache implements Cache { //定时清理缓存
 
   private boolean clearWhenStale() {
     if (System.currentTimeMillis() - lastClear > clearInterval) {
-      clear();
+      synchronized (this) {
+        if (System.currentTimeMillis() - lastClear > clearInterval) { //只由一个线程清理
+          clear();
+        }
+      }
       return true;
     }
     return false;
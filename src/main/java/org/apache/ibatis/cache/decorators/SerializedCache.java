@@ -15,29 +15,38 @@
  */
 package org.apache.ibatis.cache.decorators;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
-import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.BulkCacheSupport;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheCodec;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.SerializationCodec;
 import org.apache.ibatis.io.Resources;
 
 /**
+ * Read-write cache decorator: values are kept encoded by a {@link CacheCodec} and every hit returns a new copy.
+ * Java serialization unless the {@code codec} property names another implementation.
+ *
  * @author Clinton Begin
  */
-public class SerializedCache implements Cache { //可以将value进行序列化
+public class SerializedCache implements BulkCache { //可以将value进行序列化
 
   private final Cache delegate;
+  private CacheCodec codec; //负责编码和复制
 
   public SerializedCache(Cache delegate) {
     this.delegate = delegate;
+    this.codec = new SerializationCodec();
   }
 
   @Override
@@ -50,19 +59,23 @@ public class SerializedCache implements Cache { //可以将value进行序列化
     return delegate.getSize();
   }
 
+  public void setCodec(String codecClassName) {
+    try {
+      this.codec = (CacheCodec) Resources.classForName(codecClassName).newInstance();
+    } catch (Exception e) {
+      throw new CacheException("Error creating codec " + codecClassName + ".  Cause: " + e, e);
+    }
+  }
+
   @Override
   public void putObject(Object key, Object object) {
-    if (object == null || object instanceof Serializable) {
-      delegate.putObject(key, serialize((Serializable) object));
-    } else {
-      throw new CacheException("SharedCache failed to make a copy of a non-serializable object: " + object);
-    }
+    delegate.putObject(key, object == null ? null : codec.encode(object));
   }
 
   @Override
   public Object getObject(Object key) {
     Object object = delegate.getObject(key);
-    return object == null ? null : deserialize((byte[]) object);
+    return object == null ? null : codec.decode(object);
   }
 
   @Override
@@ -75,6 +88,29 @@ public class SerializedCache implements Cache { //可以将value进行序列化
     delegate.clear();
   }
 
+  @Override
+  public Map<Object, Object> getAll(Collection<?> keys) {
+    Map<Object, Object> values = new HashMap<Object, Object>();
+    for (Map.Entry<Object, Object> entry : BulkCacheSupport.getAll(delegate, keys).entrySet()) {
+      values.put(entry.getKey(), codec.decode(entry.getValue()));
+    }
+    return values;
+  }
+
+  @Override
+  public void putAll(Map<?, ?> entries) {
+    Map<Object, Object> encoded = new LinkedHashMap<Object, Object>();
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      encoded.put(entry.getKey(), entry.getValue() == null ? null : codec.encode(entry.getValue()));
+    }
+    BulkCacheSupport.putAll(delegate, encoded);
+  }
+
+  @Override
+  public void removeAll(Collection<?> keys) {
+    BulkCacheSupport.removeAll(delegate, keys);
+  }
+
   @Override
   public ReadWriteLock getReadWriteLock() {
     return null;
@@ -90,32 +126,6 @@ public class SerializedCache implements Cache { //可以将value进行序列化
     return delegate.equals(obj);
   }
 
-  private byte[] serialize(Serializable value) {
-    try {
-      ByteArrayOutputStream bos = new ByteArrayOutputStream();
-      ObjectOutputStream oos = new ObjectOutputStream(bos);
-      oos.writeObject(value);
-      oos.flush();
-      oos.close();
-      return bos.toByteArray();
-    } catch (Exception e) {
-      throw new CacheException("Error serializing object.  Cause: " + e, e);
-    }
-  }
-
-  private Serializable deserialize(byte[] value) {
-    Serializable result;
-    try {
-      ByteArrayInputStream bis = new ByteArrayInputStream(value);
-      ObjectInputStream ois = new CustomObjectInputStream(bis);
-      result = (Serializable) ois.readObject();
-      ois.close();
-    } catch (Exception e) {
-      throw new CacheException("Error deserializing object.  Cause: " + e, e);
-    }
-    return result;
-  }
-
   public static class CustomObjectInputStream extends ObjectInputStream {
 
     public CustomObjectInputStream(InputStream in) throws IOException {
@@ -0,0 +1,334 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.BulkCacheSupport;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStats;
+import org.apache.ibatis.cache.EvictionListener;
+import org.apache.ibatis.cache.ReflectiveWeigher;
+import org.apache.ibatis.cache.Weigher;
+
+/**
+ * Cache decorator that counts what happens to the cache, see {@link CacheStats}.
+ * <p>
+ * Evictions are only told apart from removals when the base cache is wrapped by an {@link Evictions} decorator
+ * passed to the constructor, since eviction policies remove entries from the cache they decorate without going
+ * through this one. Policies that keep their entries themselves must be given it as their {@code evictionListener}. The estimated size in bytes is extrapolated from one put out of
+ * {@code SAMPLE_INTERVAL}.
+ */
+public class StatisticsCache implements BulkCache, StatisticsCacheMBean { //统计缓存的使用情况
+
+  private static final int SAMPLE_INTERVAL = 16;
+  private static final ThreadLocal<Boolean> REMOVING = new ThreadLocal<Boolean>(); //当前线程正在显式移除
+
+  private final Cache delegate; //被装饰的Cache对象
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong puts = new AtomicLong();
+  private final AtomicLong removals = new AtomicLong();
+  private final AtomicLong clears = new AtomicLong();
+  private final AtomicLong loads = new AtomicLong();
+  private final AtomicLong loadTime = new AtomicLong();
+  private final Weigher weigher = new ReflectiveWeigher();
+  private volatile long averageWeight; //抽样得到的平均字节数
+  private final Evictions evictionCounter; //为null时不区分淘汰和移除
+
+  public StatisticsCache(Cache delegate) {
+    this(delegate, null);
+  }
+
+  public StatisticsCache(Cache delegate, Evictions evictionCounter) {
+    this.delegate = delegate;
+    this.evictionCounter = evictionCounter;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+    recordPut(key, value);
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Object value = delegate.getObject(key);
+    if (value != null) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+    }
+    return value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    if (evictionCounter == null) {
+      Object value = delegate.removeObject(key);
+      if (value != null) {
+        removals.incrementAndGet();
+      }
+      return value;
+    }
+    REMOVING.set(Boolean.TRUE);
+    try {
+      return delegate.removeObject(key);
+    } finally {
+      REMOVING.remove();
+    }
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+    clears.incrementAndGet();
+  }
+
+  @Override
+  public Map<Object, Object> getAll(Collection<?> keys) {
+    Map<Object, Object> values = BulkCacheSupport.getAll(delegate, keys);
+    hits.addAndGet(values.size());
+    misses.addAndGet(keys.size() - values.size());
+    return values;
+  }
+
+  @Override
+  public void putAll(Map<?, ?> entries) {
+    BulkCacheSupport.putAll(delegate, entries);
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      recordPut(entry.getKey(), entry.getValue());
+    }
+  }
+
+  @Override
+  public void removeAll(Collection<?> keys) {
+    if (evictionCounter == null) { //需要移除的值才能计数
+      for (Object key : keys) {
+        removeObject(key);
+      }
+      return;
+    }
+    REMOVING.set(Boolean.TRUE);
+    try {
+      BulkCacheSupport.removeAll(delegate, keys);
+    } finally {
+      REMOVING.remove();
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  private void recordPut(Object key, Object value) {
+    if (value != null && puts.incrementAndGet() % SAMPLE_INTERVAL == 1) { //抽样估算字节数
+      long weight = weigher.weigh(key, value);
+      long average = averageWeight;
+      averageWeight = average == 0 ? weight : average + (weight - average) / 8;
+    }
+  }
+
+  /**
+   * Records a query run because of a miss.
+   */
+  public void recordLoad(long nanos) {
+    loads.incrementAndGet();
+    loadTime.addAndGet(nanos);
+  }
+
+  public CacheStats getStats() {
+    return new CacheStats(getId(), hits.get(), misses.get(), puts.get(), getRemovals(), getEvictions(),
+        clears.get(), loads.get(), loadTime.get(), getSize(), getEstimatedBytes());
+  }
+
+  @Override
+  public long getHits() {
+    return hits.get();
+  }
+
+  @Override
+  public long getMisses() {
+    return misses.get();
+  }
+
+  @Override
+  public double getHitRatio() {
+    return getStats().getHitRatio();
+  }
+
+  @Override
+  public long getPuts() {
+    return puts.get();
+  }
+
+  @Override
+  public long getRemovals() {
+    return evictionCounter != null ? evictionCounter.removals.get() : removals.get();
+  }
+
+  @Override
+  public long getEvictions() {
+    return evictionCounter != null ? evictionCounter.evictions.get() : 0;
+  }
+
+  @Override
+  public long getClears() {
+    return clears.get();
+  }
+
+  @Override
+  public long getLoads() {
+    return loads.get();
+  }
+
+  @Override
+  public double getAverageLoadMillis() {
+    return getStats().getAverageLoadMillis();
+  }
+
+  @Override
+  public long getEstimatedBytes() {
+    return averageWeight * getSize();
+  }
+
+  @Override
+  public void resetStatistics() {
+    hits.set(0);
+    misses.set(0);
+    puts.set(0);
+    removals.set(0);
+    if (evictionCounter != null) {
+      evictionCounter.removals.set(0);
+      evictionCounter.evictions.set(0);
+    }
+    clears.set(0);
+    loads.set(0);
+    loadTime.set(0);
+  }
+
+  /**
+   * Wraps the base cache, below the eviction policies, to count the entries removed from it as evictions unless the
+   * removal came through {@link StatisticsCache#removeObject(Object)}. Policies that keep their entries themselves
+   * report their evictions to it as an {@link EvictionListener}.
+   */
+  public static class Evictions implements BulkCache, EvictionListener {
+    private final Cache delegate;
+    private final AtomicLong removals = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public Evictions(Cache delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public String getId() {
+      return delegate.getId();
+    }
+
+    @Override
+    public int getSize() {
+      return delegate.getSize();
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+      delegate.putObject(key, value);
+    }
+
+    @Override
+    public Object getObject(Object key) {
+      return delegate.getObject(key);
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+      Object value = delegate.removeObject(key);
+      if (value != null) {
+        (REMOVING.get() != null ? removals : evictions).incrementAndGet();
+      }
+      return value;
+    }
+
+    @Override
+    public void onEviction(Object key) {
+      evictions.incrementAndGet();
+    }
+
+    @Override
+    public Map<Object, Object> getAll(Collection<?> keys) {
+      return BulkCacheSupport.getAll(delegate, keys);
+    }
+
+    @Override
+    public void putAll(Map<?, ?> entries) {
+      BulkCacheSupport.putAll(delegate, entries);
+    }
+
+    @Override
+    public void removeAll(Collection<?> keys) {
+      for (Object key : keys) { //需要移除的值区分淘汰和移除
+        removeObject(key);
+      }
+    }
+
+    @Override
+    public void clear() {
+      delegate.clear();
+    }
+
+    @Override
+    public ReadWriteLock getReadWriteLock() {
+      return null;
+    }
+
+    @Override
+    public int hashCode() {
+      return delegate.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return delegate.equals(obj);
+    }
+  }
+
+}
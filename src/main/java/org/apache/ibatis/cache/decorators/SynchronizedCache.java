@@ -15,14 +15,18 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.BulkCacheSupport;
 import org.apache.ibatis.cache.Cache;
 
 /**
  * @author Clinton Begin
  */
-public class SynchronizedCache implements Cache { //加了同步器
+public class SynchronizedCache implements BulkCache { //加了同步器
 
   private final Cache delegate;
   
@@ -70,6 +74,21 @@ public class SynchronizedCache implements Cache { //加了同步器
     return delegate.equals(obj);
   }
 
+  @Override
+  public synchronized Map<Object, Object> getAll(Collection<?> keys) {
+    return BulkCacheSupport.getAll(delegate, keys);
+  }
+
+  @Override
+  public synchronized void putAll(Map<?, ?> entries) { //整批只加一次锁
+    BulkCacheSupport.putAll(delegate, entries);
+  }
+
+  @Override
+  public synchronized void removeAll(Collection<?> keys) {
+    BulkCacheSupport.removeAll(delegate, keys);
+  }
+
   @Override
   public ReadWriteLock getReadWriteLock() {
     return null;
@@ -0,0 +1,577 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.EnumerableCache;
+import org.apache.ibatis.cache.EvictionListener;
+
+/**
+ * Concurrent W-TinyLFU (window tiny least frequently used) cache decorator.
+ * <p>
+ * Entries are kept in a {@link ConcurrentHashMap} owned by this decorator so that hits never take a lock.
+ * Accesses are recorded in lossy striped read buffers and writes in a write buffer, both replayed against the
+ * eviction policy by whichever thread manages to acquire the eviction lock. The policy is a small LRU admission
+ * window in front of a segmented LRU main space; an entry leaving the window only displaces a main space entry
+ * when a count-min frequency sketch says it is used more often.
+ * <p>
+ * As the decorator is thread safe by itself, {@link org.apache.ibatis.mapping.CacheBuilder} does not wrap it
+ * in a {@link SynchronizedCache}. The decorated cache only provides the id and is cleared together with this one.
+ */
+public class TinyLfuCache implements BulkCache, EnumerableCache { //并发的W-TinyLFU淘汰策略
+
+  private static final int NCPU = Runtime.getRuntime().availableProcessors();
+  private static final int READ_BUFFER_STRIPES = ceilingPowerOfTwo(NCPU);
+  private static final int READ_BUFFER_SIZE = 16;
+  private static final int WRITE_BUFFER_MAX = 128 * ceilingPowerOfTwo(NCPU);
+  private static final int WINDOW_PERCENT = 1;
+  private static final int PROTECTED_PERCENT = 80;
+
+  private static final int WINDOW = 0;
+  private static final int PROBATION = 1;
+  private static final int PROTECTED = 2;
+
+  // TransactionalCache puts null for the keys it missed, ConcurrentHashMap does not accept null values
+  private static final Object NULL_VALUE = new Object();
+
+  private final Cache delegate; //被装饰的Cache对象，只提供id
+  private final ConcurrentMap<Object, Node> data; //缓存数据
+  private final ReadBuffer[] readBuffers; //记录读操作的环形缓冲区
+  private final Queue<Node> writeBuffer; //记录写操作的队列
+  private final AtomicInteger pendingWrites;
+  private final ReentrantLock evictionLock;
+  private volatile EvictionListener evictionListener; //被淘汰的条目通知给统计
+
+  // guarded by evictionLock
+  private final FrequencySketch sketch; //访问频率
+  private final AccessOrderDeque window;
+  private final AccessOrderDeque probation;
+  private final AccessOrderDeque protectedDeque;
+  private int maximumSize;
+  private int windowMaximum;
+  private int protectedMaximum;
+  private int windowSize;
+  private int protectedSize;
+  private int linkedSize;
+
+  public TinyLfuCache(Cache delegate) {
+    this.delegate = delegate;
+    this.data = new ConcurrentHashMap<Object, Node>(16, 0.75f, READ_BUFFER_STRIPES);
+    this.readBuffers = new ReadBuffer[READ_BUFFER_STRIPES];
+    for (int i = 0; i < readBuffers.length; i++) {
+      readBuffers[i] = new ReadBuffer();
+    }
+    this.writeBuffer = new ConcurrentLinkedQueue<Node>();
+    this.pendingWrites = new AtomicInteger();
+    this.evictionLock = new ReentrantLock();
+    this.sketch = new FrequencySketch();
+    this.window = new AccessOrderDeque();
+    this.probation = new AccessOrderDeque();
+    this.protectedDeque = new AccessOrderDeque();
+    setSize(1024);
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return data.size();
+  }
+
+  public void setEvictionListener(EvictionListener evictionListener) {
+    this.evictionListener = evictionListener;
+  }
+
+  public void setSize(final int size) {
+    if (size < 1) {
+      throw new IllegalArgumentException("TinyLfuCache size must be positive but was " + size);
+    }
+    evictionLock.lock();
+    try {
+      maximumSize = size;
+      windowMaximum = Math.max(1, size * WINDOW_PERCENT / 100);
+      protectedMaximum = (size - windowMaximum) * PROTECTED_PERCENT / 100;
+      sketch.ensureCapacity(size);
+      maintenance();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    Object stored = value == null ? NULL_VALUE : value;
+    for (;;) {
+      Node node = data.get(key);
+      if (node == null) {
+        Node created = new Node(key, stored);
+        node = data.putIfAbsent(key, created);
+        if (node == null) { //新增的数据需要交给淘汰策略处理
+          afterWrite(created);
+          return;
+        }
+      }
+      node.value = stored; //已存在的数据直接替换，视为一次访问
+      if (data.get(key) == node) {
+        afterRead(node);
+        return;
+      }
+      // the node was evicted or removed concurrently, insert the value again
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Node node = data.get(key);
+    if (node == null) {
+      return null;
+    }
+    afterRead(node);
+    Object value = node.value;
+    return value == NULL_VALUE ? null : value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Node node = data.remove(key);
+    if (node == null) {
+      return null;
+    }
+    afterWrite(node);
+    Object value = node.value;
+    return value == NULL_VALUE ? null : value;
+  }
+
+  @Override
+  public void clear() {
+    evictionLock.lock();
+    try {
+      maintenance();
+      for (Node node : data.values()) {
+        if (data.remove(node.key, node)) {
+          unlink(node);
+        }
+      }
+      delegate.clear();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  // hits and writes do not take a lock, so a batch is simply applied entry by entry
+
+  @Override
+  public Map<Object, Object> getAll(Collection<?> keys) {
+    Map<Object, Object> values = new HashMap<Object, Object>();
+    for (Object key : keys) {
+      Object value = getObject(key);
+      if (value != null) {
+        values.put(key, value);
+      }
+    }
+    return values;
+  }
+
+  @Override
+  public void putAll(Map<?, ?> entries) {
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      putObject(entry.getKey(), entry.getValue());
+    }
+  }
+
+  @Override
+  public void removeAll(Collection<?> keys) {
+    for (Object key : keys) {
+      removeObject(key);
+    }
+  }
+
+  @Override
+  public Set<Object> keys() {
+    return new HashSet<Object>(data.keySet());
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  private void afterRead(Node node) {
+    ReadBuffer buffer = readBuffers[stripe()];
+    if (!buffer.offer(node)) { //缓冲区已满时尝试回放，拿不到锁则直接丢弃本次访问记录
+      drain(false);
+    }
+  }
+
+  private void afterWrite(Node node) {
+    writeBuffer.add(node);
+    // writes must reach the policy to keep the size bound, so block once too many of them are pending
+    drain(pendingWrites.incrementAndGet() > WRITE_BUFFER_MAX);
+  }
+
+  private void drain(boolean force) {
+    do {
+      if (force) {
+        evictionLock.lock();
+      } else if (!evictionLock.tryLock()) {
+        return; //持有锁的线程会处理缓冲区
+      }
+      try {
+        maintenance();
+      } finally {
+        evictionLock.unlock();
+      }
+      force = false;
+      // a writer that failed tryLock while we were draining relies on us to pick up its task
+    } while (!writeBuffer.isEmpty());
+  }
+
+  private void maintenance() {
+    for (ReadBuffer buffer : readBuffers) {
+      buffer.drainTo(this);
+    }
+    Node node;
+    while ((node = writeBuffer.poll()) != null) {
+      pendingWrites.decrementAndGet();
+      if (data.get(node.key) == node) {
+        onAdd(node);
+      } else {
+        unlink(node);
+      }
+    }
+    evict();
+  }
+
+  private void onAdd(Node node) {
+    if (node.queue >= 0) {
+      return; //已经在淘汰队列中
+    }
+    sketch.increment(node.key);
+    node.queue = WINDOW;
+    window.addLast(node);
+    windowSize++;
+    linkedSize++;
+  }
+
+  private void onAccess(Node node) {
+    if (node.queue < 0) {
+      return; //已被移除或尚未回放写操作
+    }
+    sketch.increment(node.key);
+    if (node.queue == WINDOW) {
+      window.moveToBack(node);
+    } else if (node.queue == PROBATION) { //再次访问，晋升到保护区
+      probation.remove(node);
+      node.queue = PROTECTED;
+      protectedDeque.addLast(node);
+      protectedSize++;
+      while (protectedSize > protectedMaximum) { //保护区溢出的数据降级到试用区
+        Node demoted = protectedDeque.pollFirst();
+        protectedSize--;
+        demoted.queue = PROBATION;
+        probation.addLast(demoted);
+      }
+    } else {
+      protectedDeque.moveToBack(node);
+    }
+  }
+
+  private void evict() {
+    Node candidate = null;
+    while (windowSize > windowMaximum) { //窗口溢出的数据作为候选进入试用区
+      Node node = window.pollFirst();
+      windowSize--;
+      node.queue = PROBATION;
+      probation.addLast(node);
+      if (candidate == null) {
+        candidate = node;
+      }
+    }
+    Node victim = probation.first;
+    while (linkedSize > maximumSize) {
+      if (victim == null) {
+        // the probation space is exhausted, fall back to plain LRU order
+        Node node = protectedDeque.first != null ? protectedDeque.first : window.first;
+        evictEntry(node);
+        continue;
+      }
+      if (candidate == null || candidate == victim) {
+        Node next = victim.next;
+        evictEntry(victim);
+        if (candidate == victim) {
+          candidate = next;
+        }
+        victim = next;
+        continue;
+      }
+      if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) { //候选访问更频繁时淘汰受害者
+        Node next = victim.next;
+        evictEntry(victim);
+        victim = next;
+      } else {
+        Node next = candidate.next;
+        evictEntry(candidate);
+        candidate = next;
+      }
+    }
+  }
+
+  private void evictEntry(Node node) {
+    EvictionListener listener = evictionListener;
+    if (data.remove(node.key, node) && listener != null) {
+      listener.onEviction(node.key);
+    }
+    unlink(node);
+  }
+
+  private void unlink(Node node) {
+    if (node.queue == WINDOW) {
+      window.remove(node);
+      windowSize--;
+    } else if (node.queue == PROBATION) {
+      probation.remove(node);
+    } else if (node.queue == PROTECTED) {
+      protectedDeque.remove(node);
+      protectedSize--;
+    } else {
+      return;
+    }
+    node.queue = -1;
+    linkedSize--;
+  }
+
+  private static int stripe() {
+    long id = Thread.currentThread().getId();
+    int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+    return (hash >>> 16) & (READ_BUFFER_STRIPES - 1);
+  }
+
+  private static int ceilingPowerOfTwo(int x) {
+    return 1 << (32 - Integer.numberOfLeadingZeros(Math.max(1, x) - 1));
+  }
+
+  static final class Node {
+    final Object key;
+    volatile Object value;
+
+    // guarded by evictionLock
+    int queue = -1;
+    Node prev;
+    Node next;
+
+    Node(Object key, Object value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  /**
+   * Intrusive doubly linked list of nodes, head is the least recently used.
+   */
+  static final class AccessOrderDeque {
+    Node first;
+    Node last;
+
+    void addLast(Node node) {
+      node.prev = last;
+      node.next = null;
+      if (last == null) {
+        first = node;
+      } else {
+        last.next = node;
+      }
+      last = node;
+    }
+
+    Node pollFirst() {
+      Node node = first;
+      if (node != null) {
+        remove(node);
+      }
+      return node;
+    }
+
+    void remove(Node node) {
+      if (node.prev == null) {
+        first = node.next;
+      } else {
+        node.prev.next = node.next;
+      }
+      if (node.next == null) {
+        last = node.prev;
+      } else {
+        node.next.prev = node.prev;
+      }
+      node.prev = null;
+      node.next = null;
+    }
+
+    void moveToBack(Node node) {
+      if (node != last) {
+        remove(node);
+        addLast(node);
+      }
+    }
+  }
+
+  /**
+   * Bounded lossy ring buffer; producers publish with a CAS, the eviction lock holder consumes.
+   */
+  static final class ReadBuffer {
+    private final AtomicReferenceArray<Node> buffer = new AtomicReferenceArray<Node>(READ_BUFFER_SIZE);
+    private final AtomicLong writeCounter = new AtomicLong();
+    private volatile long readCounter;
+
+    boolean offer(Node node) {
+      long head = readCounter;
+      long tail = writeCounter.get();
+      if (tail - head >= READ_BUFFER_SIZE) {
+        return false;
+      }
+      if (writeCounter.compareAndSet(tail, tail + 1)) {
+        buffer.lazySet((int) (tail & (READ_BUFFER_SIZE - 1)), node);
+      }
+      return true;
+    }
+
+    void drainTo(TinyLfuCache cache) {
+      long head = readCounter;
+      long tail = writeCounter.get();
+      while (head < tail) {
+        int index = (int) (head & (READ_BUFFER_SIZE - 1));
+        Node node = buffer.get(index);
+        if (node == null) {
+          break; //生产者还未发布
+        }
+        buffer.lazySet(index, null);
+        cache.onAccess(node);
+        head++;
+      }
+      readCounter = head;
+    }
+  }
+
+  /**
+   * Count-min sketch with four 4-bit counters per entry that are halved periodically so that the history ages.
+   */
+  static final class FrequencySketch {
+    private static final long[] SEED = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private long[] table;
+    private int tableMask;
+    private int sampleSize;
+    private int additions;
+
+    void ensureCapacity(int maximumSize) {
+      int length = ceilingPowerOfTwo(maximumSize);
+      if (table != null && table.length >= length) {
+        return;
+      }
+      table = new long[length];
+      tableMask = length - 1;
+      sampleSize = 10 * maximumSize;
+      additions = 0;
+    }
+
+    int frequency(Object key) {
+      int hash = spread(key.hashCode());
+      int start = (hash & 3) << 2;
+      int frequency = Integer.MAX_VALUE;
+      for (int i = 0; i < 4; i++) {
+        int index = indexOf(hash, i);
+        int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+        frequency = Math.min(frequency, count);
+      }
+      return frequency;
+    }
+
+    void increment(Object key) {
+      int hash = spread(key.hashCode());
+      int start = (hash & 3) << 2;
+      boolean added = false;
+      for (int i = 0; i < 4; i++) {
+        added |= incrementAt(indexOf(hash, i), start + i);
+      }
+      if (added && ++additions == sampleSize) {
+        reset();
+      }
+    }
+
+    private boolean incrementAt(int i, int j) {
+      int offset = j << 2;
+      long mask = 0xfL << offset;
+      if ((table[i] & mask) != mask) {
+        table[i] += 1L << offset;
+        return true;
+      }
+      return false;
+    }
+
+    private void reset() {
+      int count = 0;
+      for (int i = 0; i < table.length; i++) {
+        count += Long.bitCount(table[i] & ONE_MASK);
+        table[i] = (table[i] >>> 1) & RESET_MASK;
+      }
+      additions = (additions >>> 1) - (count >>> 2);
+    }
+
+    private int indexOf(int item, int i) {
+      long hash = (item + SEED[i]) * SEED[i];
+      hash += hash >>> 32;
+      return ((int) hash) & tableMask;
+    }
+
+    private static int spread(int x) {
+      x = ((x >>> 16) ^ x) * 0x45d9f3b;
+      x = ((x >>> 16) ^ x) * 0x45d9f3b;
+      return (x >>> 16) ^ x;
+    }
+  }
+
+}
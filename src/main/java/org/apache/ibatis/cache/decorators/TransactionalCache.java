@@ -21,7 +21,10 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 
+import org.apache.ibatis.cache.BulkCacheSupport;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.EntityKeyIndex;
+import org.apache.ibatis.cache.Invalidations;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
@@ -44,12 +47,22 @@ public class TransactionalCache implements Cache {
   private boolean clearOnCommit;//当该字段为true 时，则表示当前TransactionalCache 不可查询， 且提交事务时会将底层Cache 清空
   private final Map<Object, Object> entriesToAddOnCommit; //暂时记录添加到TransactionalCache 中的数据。在事务提交时，会将其中的数据添加到二级後存中
   private final Set<Object> entriesMissedInCache; //记录缓存未命中的CacheKey对象
+  private final EntityKeyIndex entityKeyIndex; //实体主键到CacheKey的索引，为null时不支持
+  private final Map<Object, Set<Object>> entityKeysToAddOnCommit; //提交时登记每个条目包含的实体主键
+  private final Set<Object> entityKeysToRemoveOnCommit; //提交时移除包含这些实体的条目
 
   public TransactionalCache(Cache delegate) {
+    this(delegate, null);
+  }
+
+  public TransactionalCache(Cache delegate, EntityKeyIndex entityKeyIndex) {
     this.delegate = delegate;
     this.clearOnCommit = false;
     this.entriesToAddOnCommit = new HashMap<Object, Object>();
     this.entriesMissedInCache = new HashSet<Object>();
+    this.entityKeyIndex = entityKeyIndex;
+    this.entityKeysToAddOnCommit = new HashMap<Object, Set<Object>>();
+    this.entityKeysToRemoveOnCommit = new HashSet<Object>();
   }
 
   @Override
@@ -72,6 +85,9 @@ public class TransactionalCache implements Cache {
     // issue #146
     if (clearOnCommit) {//如采clearOnCommit 为true ，则当前TransactionalCache 不可查询，始终返回null
       return null;
+    } else if (object != null && !entityKeysToRemoveOnCommit.isEmpty()
+        && entityKeyIndex.contains(delegate, key, entityKeysToRemoveOnCommit)) { //包含本事务修改过的实体
+      return null;
     } else {
       return object; //返回查询的对象
     }
@@ -87,25 +103,73 @@ public class TransactionalCache implements Cache {
     entriesToAddOnCommit.put(key, object);
   }
 
+  /**
+   * Records the keys of the objects the entry put for the key holds, null if they are unknown.
+   */
+  public void putEntityKeys(Object key, Set<Object> entityKeys) {
+    entityKeysToAddOnCommit.put(key, entityKeys);
+  }
+
   @Override
   public Object removeObject(Object key) {
     return null;
   }
 
+  /**
+   * Removes on commit the entries holding any of the objects.
+   */
+  public void removeEntities(Set<Object> entityKeys) {
+    entityKeysToRemoveOnCommit.addAll(entityKeys);
+  }
+
   @Override
   public void clear() {
     clearOnCommit = true;
     entriesToAddOnCommit.clear();
   }
 
+  /**
+   * Adds the clear and the entity removals the next commit applies to the batch broadcast to other instances.
+   */
+  public void collectInvalidations(Invalidations invalidations) {
+    if (clearOnCommit) {
+      invalidations.clear(delegate.getId());
+    } else if (!entityKeysToRemoveOnCommit.isEmpty()) {
+      invalidations.removeEntities(delegate.getId(), entityKeysToRemoveOnCommit);
+    }
+  }
+
   public void commit() {
     if (clearOnCommit) {//是否清空二级缓存
       delegate.clear();//
+      if (entityKeyIndex != null) {
+        entityKeyIndex.clear(delegate);
+      }
     }
     flushPendingEntries(); //将暂存的数据放入二级缓存中
+    if (entityKeyIndex != null) {
+      for (Map.Entry<Object, Set<Object>> entry : entityKeysToAddOnCommit.entrySet()) { //条目放入缓存之后再登记
+        if (entriesToAddOnCommit.containsKey(entry.getKey())) {
+          entityKeyIndex.register(delegate, entry.getKey(), entry.getValue());
+        }
+      }
+      if (!entityKeysToRemoveOnCommit.isEmpty()) {
+        entityKeyIndex.remove(delegate, entityKeysToRemoveOnCommit);
+      }
+    }
     reset();//重直clearOnCommit 为false ，并清空entriesToAddOnCommit 、entriesMissedinCache 集合
   }
 
+  /**
+   * Called when loading a key missed in the cache failed, so that a blocking cache lets other sessions load it
+   * instead of waiting for this one to commit or roll back.
+   */
+  public void releaseMissedEntry(Object key) {
+    if (entriesMissedInCache.remove(key)) {
+      delegate.removeObject(key);
+    }
+  }
+
   public void rollback() {
     unlockMissedEntries();
     reset(); //重置
@@ -115,27 +179,34 @@ public class TransactionalCache implements Cache {
     clearOnCommit = false;
     entriesToAddOnCommit.clear();
     entriesMissedInCache.clear();
+    entityKeysToAddOnCommit.clear();
+    entityKeysToRemoveOnCommit.clear();
   }
 
   private void flushPendingEntries() {
-    for (Map.Entry<Object, Object> entry : entriesToAddOnCommit.entrySet()) { //查询暂存的二级缓存
-      delegate.putObject(entry.getKey(), entry.getValue());
-    }
-    for (Object entry : entriesMissedInCache) { //查询没有查到的key
-      if (!entriesToAddOnCommit.containsKey(entry)) { //如果暂存的二级缓存中不包含 将其存入二级缓存 返回值为null
-        delegate.putObject(entry, null);
+    Map<Object, Object> entries = entriesToAddOnCommit; //查询暂存的二级缓存
+    if (!entriesMissedInCache.isEmpty()) {
+      entries = new HashMap<Object, Object>(entriesToAddOnCommit);
+      for (Object entry : entriesMissedInCache) { //查询没有查到的key
+        if (!entries.containsKey(entry)) { //如果暂存的二级缓存中不包含 将其存入二级缓存 返回值为null
+          entries.put(entry, null);
+        }
       }
     }
+    if (!entries.isEmpty()) {
+      BulkCacheSupport.putAll(delegate, entries); //整批放入，装饰器链只经过一次
+    }
   }
 
   private void unlockMissedEntries() {
-    for (Object entry : entriesMissedInCache) { //
-      try {
-        delegate.removeObject(entry); //移除entriesMissedInCache中的记录
-      } catch (Exception e) {
-        log.warn("Unexpected exception while notifiying a rollback to the cache adapter."
-            + "Consider upgrading your cache adapter to the latest version.  Cause: " + e);
-      }
+    if (entriesMissedInCache.isEmpty()) {
+      return;
+    }
+    try {
+      BulkCacheSupport.removeAll(delegate, entriesMissedInCache); //移除entriesMissedInCache中的记录
+    } catch (Exception e) {
+      log.warn("Unexpected exception while notifiying a rollback to the cache adapter."
+          + "Consider upgrading your cache adapter to the latest version.  Cause: " + e);
     }
   }
 
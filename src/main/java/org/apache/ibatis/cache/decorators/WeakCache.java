@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2015 the original author or authors.
+ *    Copyright 2009-2017 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -15,105 +15,44 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
-import java.util.Deque;
-import java.util.LinkedList;
-import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
 
 /**
  * Weak Reference cache decorator.
  * Thanks to Dr. Heinz Kabutz for his guidance here.
- * 
+ * <p>
+ * Thread safe, see {@link ReferenceCache}, so {@link org.apache.ibatis.mapping.CacheBuilder} does not wrap it in a
+ * {@link SynchronizedCache}.
+ *
  * @author Clinton Begin
  */
-public class WeakCache implements Cache { //虚引用缓存
-  private final Deque<Object> hardLinksToAvoidGarbageCollection;
-  private final ReferenceQueue<Object> queueOfGarbageCollectedEntries;
-  private final Cache delegate;
-  private int numberOfHardLinks;
+public class WeakCache extends ReferenceCache { //虚引用缓存
 
   public WeakCache(Cache delegate) {
-    this.delegate = delegate;
-    this.numberOfHardLinks = 256;
-    this.hardLinksToAvoidGarbageCollection = new LinkedList<Object>();
-    this.queueOfGarbageCollectedEntries = new ReferenceQueue<Object>();
-  }
-
-  @Override
-  public String getId() {
-    return delegate.getId();
-  }
-
-  @Override
-  public int getSize() {
-    removeGarbageCollectedItems();
-    return delegate.getSize();
-  }
-
-  public void setSize(int size) {
-    this.numberOfHardLinks = size;
+    super(delegate);
   }
 
   @Override
-  public void putObject(Object key, Object value) {
-    removeGarbageCollectedItems();
-    delegate.putObject(key, new WeakEntry(key, value, queueOfGarbageCollectedEntries));
+  Reference<Object> newReference(Object key, Object value, ReferenceQueue<Object> queue) {
+    return new WeakEntry(key, value, queue);
   }
 
-  @Override
-  public Object getObject(Object key) {
-    Object result = null;
-    @SuppressWarnings("unchecked") // assumed delegate cache is totally managed by this cache
-    WeakReference<Object> weakReference = (WeakReference<Object>) delegate.getObject(key);
-    if (weakReference != null) {
-      result = weakReference.get();
-      if (result == null) {
-        delegate.removeObject(key);
-      } else {
-        hardLinksToAvoidGarbageCollection.addFirst(result);
-        if (hardLinksToAvoidGarbageCollection.size() > numberOfHardLinks) {
-          hardLinksToAvoidGarbageCollection.removeLast();
-        }
-      }
-    }
-    return result;
-  }
-
-  @Override
-  public Object removeObject(Object key) {
-    removeGarbageCollectedItems();
-    return delegate.removeObject(key);
-  }
-
-  @Override
-  public void clear() {
-    hardLinksToAvoidGarbageCollection.clear();
-    removeGarbageCollectedItems();
-    delegate.clear();
-  }
-
-  @Override
-  public ReadWriteLock getReadWriteLock() {
-    return null;
-  }
-
-  private void removeGarbageCollectedItems() {
-    WeakEntry sv;
-    while ((sv = (WeakEntry) queueOfGarbageCollectedEntries.poll()) != null) {
-      delegate.removeObject(sv.key);
-    }
-  }
-
-  private static class WeakEntry extends WeakReference<Object> {
+  private static class WeakEntry extends WeakReference<Object> implements KeyedReference {
     private final Object key;
 
     private WeakEntry(Object key, Object value, ReferenceQueue<Object> garbageCollectionQueue) {
       super(value, garbageCollectionQueue);
       this.key = key;
     }
+
+    @Override
+    public Object getKey() {
+      return key;
+    }
   }
 
 }
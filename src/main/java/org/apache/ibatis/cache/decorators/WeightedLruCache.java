@@ -0,0 +1,194 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.BulkCacheSupport;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.EvictionListener;
+import org.apache.ibatis.cache.ReflectiveWeigher;
+import org.apache.ibatis.cache.Weigher;
+import org.apache.ibatis.io.Resources;
+
+/**
+ * Lru (least recently used) cache decorator bounded by the estimated size of the entries instead of their number.
+ * <p>
+ * The size of each entry is estimated once when it is put by a {@link Weigher}, a {@link ReflectiveWeigher} unless
+ * the {@code weigher} property names another implementation.
+ * <p>
+ * Placed above an eviction policy that drops entries by itself, it must be that policy's {@link EvictionListener} so
+ * that it stops counting the entries dropped below it. The evictions it is told about are passed on to its own
+ * {@code evictionListener}, if any.
+ */
+public class WeightedLruCache implements BulkCache, EvictionListener { //按字节数淘汰的最近最少使用
+
+  private final Cache delegate; //被装饰的Cache对象
+  private final Map<Object, Long> weights; //按访问顺序记录每个key的字节数
+  private Weigher weigher; //估算字节数
+  private long maxBytes; //字节数上限
+  private long totalWeight; //当前字节数
+  private EvictionListener evictionListener; //下层淘汰的条目继续通知给统计
+
+  public WeightedLruCache(Cache delegate) {
+    this.delegate = delegate;
+    this.weights = new LinkedHashMap<Object, Long>(16, .75F, true);
+    this.weigher = new ReflectiveWeigher();
+    this.maxBytes = 64L * 1024 * 1024;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+    evict();
+  }
+
+  /**
+   * @return The estimated size of all entries in bytes
+   */
+  public long getWeight() {
+    return totalWeight;
+  }
+
+  public void setEvictionListener(EvictionListener evictionListener) {
+    this.evictionListener = evictionListener;
+  }
+
+  public void setWeigher(String weigherClassName) {
+    try {
+      this.weigher = (Weigher) Resources.classForName(weigherClassName).newInstance();
+    } catch (Exception e) {
+      throw new CacheException("Error creating weigher " + weigherClassName + ".  Cause: " + e, e);
+    }
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+    long weight = weigher.weigh(key, value);
+    Long previous = weights.put(key, weight);
+    totalWeight += previous == null ? weight : weight - previous;
+    evict();
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    weights.get(key); //touch
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Long weight = weights.remove(key);
+    if (weight != null) {
+      totalWeight -= weight;
+    }
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+    weights.clear();
+    totalWeight = 0;
+  }
+
+  @Override
+  public void onEviction(Object key) { //下层策略已经移除了该条目
+    Long weight = weights.remove(key);
+    if (weight != null) {
+      totalWeight -= weight;
+    }
+    if (evictionListener != null) {
+      evictionListener.onEviction(key);
+    }
+  }
+
+  @Override
+  public Map<Object, Object> getAll(Collection<?> keys) {
+    for (Object key : keys) {
+      weights.get(key); //touch
+    }
+    return BulkCacheSupport.getAll(delegate, keys);
+  }
+
+  @Override
+  public void putAll(Map<?, ?> entries) {
+    BulkCacheSupport.putAll(delegate, entries);
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      long weight = weigher.weigh(entry.getKey(), entry.getValue());
+      Long previous = weights.put(entry.getKey(), weight);
+      totalWeight += previous == null ? weight : weight - previous;
+    }
+    evict(); //整批放入后再淘汰
+  }
+
+  @Override
+  public void removeAll(Collection<?> keys) {
+    for (Object key : keys) {
+      Long weight = weights.remove(key);
+      if (weight != null) {
+        totalWeight -= weight;
+      }
+    }
+    BulkCacheSupport.removeAll(delegate, keys);
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<Object, Long>> eldest = weights.entrySet().iterator();
+    while (totalWeight > maxBytes && eldest.hasNext()) { //超过上限时从最久未使用的开始移除
+      Map.Entry<Object, Long> entry = eldest.next();
+      eldest.remove();
+      totalWeight -= entry.getValue();
+      delegate.removeObject(entry.getKey());
+    }
+  }
+
+}
@@ -0,0 +1,165 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ibatis.cache.ReflectiveWeigher;
+import org.apache.ibatis.cache.Weigher;
+
+/**
+ * First level (session) cache bounded by a number of entries and/or their estimated size in bytes.
+ * <p>
+ * Entries are not evicted as they are put, because nested queries and deferred loads rely on the entries of the
+ * statement being executed. The executor calls {@link #evict()} once the outermost statement completed, which
+ * removes the least recently used entries until the cache is within its limits.
+ */
+public class LocalCache extends PerpetualCache { //有上限的一级缓存
+
+  private final Map<Object, Object> entries; //按访问顺序
+  private final int maxSize; //条目数上限，0表示不限
+  private final long maxBytes; //字节数上限，0表示不限
+  private final Weigher weigher;
+  private final Map<Object, Long> weights; //每个key的字节数，不限字节数时为空
+  private long totalWeight;
+  private long evictions;
+  private final AtomicLong evictionCounter; //所有会话共享的淘汰次数，可以为null
+
+  public LocalCache(String id, int maxSize, long maxBytes, AtomicLong evictionCounter) {
+    this(id, new LinkedHashMap<Object, Object>(16, .75F, true), maxSize, maxBytes, evictionCounter);
+  }
+
+  private LocalCache(String id, Map<Object, Object> entries, int maxSize, long maxBytes, AtomicLong evictionCounter) {
+    super(id, entries);
+    this.entries = entries;
+    this.maxSize = maxSize;
+    this.maxBytes = maxBytes;
+    this.weigher = maxBytes > 0 ? new ReflectiveWeigher() : null;
+    this.weights = new HashMap<Object, Long>();
+    this.evictionCounter = evictionCounter;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * @return The estimated size of all entries in bytes, 0 if the cache is not bounded in bytes
+   */
+  public long getWeight() {
+    return totalWeight;
+  }
+
+  /**
+   * @return The number of entries evicted from this cache
+   */
+  public long getEvictions() {
+    return evictions;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    super.putObject(key, value);
+    weigh(key, value);
+  }
+
+  @Override
+  public void putAll(Map<?, ?> entries) {
+    super.putAll(entries);
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      weigh(entry.getKey(), entry.getValue());
+    }
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    unweigh(key);
+    return super.removeObject(key);
+  }
+
+  @Override
+  public void removeAll(Collection<?> keys) {
+    for (Object key : keys) {
+      unweigh(key);
+    }
+    super.removeAll(keys);
+  }
+
+  @Override
+  public void clear() {
+    super.clear();
+    weights.clear();
+    totalWeight = 0;
+  }
+
+  /**
+   * Removes the least recently used entries beyond the limits.
+   *
+   * @return The evicted keys
+   */
+  public List<Object> evict() {
+    if (!isOverLimit()) {
+      return Collections.emptyList();
+    }
+    List<Object> evicted = new ArrayList<Object>();
+    Iterator<Object> eldest = entries.keySet().iterator();
+    while (isOverLimit() && eldest.hasNext()) {
+      Object key = eldest.next();
+      eldest.remove();
+      unweigh(key);
+      evicted.add(key);
+    }
+    evictions += evicted.size();
+    if (evictionCounter != null) {
+      evictionCounter.addAndGet(evicted.size());
+    }
+    return evicted;
+  }
+
+  private boolean isOverLimit() {
+    return (maxSize > 0 && entries.size() > maxSize) || (maxBytes > 0 && totalWeight > maxBytes);
+  }
+
+  private void weigh(Object key, Object value) {
+    if (weigher != null) {
+      long weight = weigher.weigh(key, value);
+      Long previous = weights.put(key, weight);
+      totalWeight += previous == null ? weight : weight - previous;
+    }
+  }
+
+  private void unweigh(Object key) {
+    if (weigher != null) {
+      Long weight = weights.remove(key);
+      if (weight != null) {
+        totalWeight -= weight;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,588 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.ibatis.builder.InitializingObject;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.CompactCacheKey;
+import org.apache.ibatis.cache.decorators.SerializedCache.CustomObjectInputStream;
+
+/**
+ * Cache persisted in a memory-mapped file so that its content survives a restart.
+ * <p>
+ * Entries are appended to the file as {@code [length][state][digest][key length][serialized key][serialized value]}
+ * records. The key is serialized in a form that does not change across JVMs: a
+ * {@link org.apache.ibatis.cache.CacheKey} is written as the list of its elements, because its hash code may come
+ * from identity hash codes, e.g. of enum parameters. The digest is the SHA-1 of the serialized key and only locates
+ * the record; a hit also compares the serialized keys. Keys with non-serializable elements are not persisted, and
+ * records whose value can no longer be deserialized (e.g. its class changed) are read as misses and marked dead.
+ * Removed or replaced records are marked dead in place. When the file is full the live records are compacted to
+ * the front, dropping the oldest ones if that is still not enough.
+ * <p>
+ * The header holds the namespace and the {@code version} property. When an existing file is opened with a
+ * different stamp (e.g. after the mapped tables or result classes changed) it is discarded. Since
+ * {@link org.apache.ibatis.cache.decorators.TransactionalCache} only writes to this cache on commit and calls
+ * {@link #clear()} on commit when a statement flushed the namespace, the file never holds uncommitted or flushed
+ * data. {@code null} values put for missed keys are not persisted.
+ * <pre>
+ * &lt;cache type="org.apache.ibatis.cache.impl.MappedFileCache"&gt;
+ *   &lt;property name="directory" value="/var/cache/myapp"/&gt;
+ *   &lt;property name="maxBytes" value="268435456"/&gt;
+ *   &lt;property name="version" value="2"/&gt;
+ * &lt;/cache&gt;
+ * </pre>
+ */
+public class MappedFileCache implements Cache, InitializingObject { //基于内存映射文件的持久化缓存
+
+  private static final int MAGIC = 0x4d424346;
+  private static final int FORMAT = 2;
+  private static final int POSITION_OFFSET = 8;
+  private static final int STAMP_OFFSET = 16;
+  private static final int DIGEST_LENGTH = 20;
+  private static final int KEY_OFFSET = 4 + 1 + DIGEST_LENGTH; //记录中key长度的位置
+  private static final byte LIVE = 1;
+  private static final byte DEAD = 0;
+
+  private static final ThreadLocal<MessageDigest> SHA1 = new ThreadLocal<MessageDigest>() {
+    @Override
+    protected MessageDigest initialValue() {
+      try {
+        return MessageDigest.getInstance("SHA-1");
+      } catch (NoSuchAlgorithmException e) {
+        throw new CacheException("SHA-1 is not available.  Cause: " + e, e);
+      }
+    }
+  };
+
+  private final String id; //Cache对象标识
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private String directory = System.getProperty("java.io.tmpdir"); //缓存文件所在目录
+  private long maxBytes = 64L * 1024 * 1024; //缓存文件大小
+  private String version = "1"; //缓存版本，变化后旧文件失效
+  private boolean forceOnWrite; //每次写入后是否刷盘
+
+  // guarded by lock
+  private final Map<ByteBuffer, Integer> index = new HashMap<ByteBuffer, Integer>(); //digest到记录位置的索引
+  private RandomAccessFile file;
+  private FileLock fileLock;
+  private volatile MappedByteBuffer buffer;
+  private int dataStart;
+  private int position;
+
+  public MappedFileCache(String id) {
+    this.id = id;
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  public String getDirectory() {
+    return directory;
+  }
+
+  public void setDirectory(String directory) {
+    this.directory = directory;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  public String getVersion() {
+    return version;
+  }
+
+  public void setVersion(String version) {
+    this.version = version;
+  }
+
+  public boolean isForceOnWrite() {
+    return forceOnWrite;
+  }
+
+  public void setForceOnWrite(boolean forceOnWrite) {
+    this.forceOnWrite = forceOnWrite;
+  }
+
+  public File getFile() {
+    return new File(directory, id.replaceAll("[^A-Za-z0-9._-]", "_") + ".cache");
+  }
+
+  @Override
+  public void initialize() {
+    if (maxBytes > Integer.MAX_VALUE || maxBytes < 1024) {
+      throw new CacheException("Invalid maxBytes " + maxBytes + " for mapped file cache '" + id + "'");
+    }
+    lock.writeLock().lock();
+    try {
+      close();
+      open();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Releases the file. The cache reopens it on next use.
+   */
+  public void close() {
+    lock.writeLock().lock();
+    try {
+      index.clear();
+      buffer = null;
+      if (file != null) {
+        try {
+          if (fileLock != null) {
+            fileLock.release();
+          }
+          file.close();
+        } catch (IOException e) {
+          throw new CacheException("Error closing mapped file cache '" + id + "'.  Cause: " + e, e);
+        } finally {
+          file = null;
+          fileLock = null;
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public int getSize() {
+    lock.readLock().lock();
+    try {
+      return index.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    if (value == null) {
+      return; //未命中的key不需要持久化
+    }
+    if (!(value instanceof Serializable)) {
+      throw new CacheException("MappedFileCache failed to store a non-serializable object: " + value);
+    }
+    byte[] keyBytes = keyBytes(key);
+    if (keyBytes == null) {
+      return; //key不能序列化时不持久化
+    }
+    ByteBuffer digest = digest(keyBytes);
+    byte[] bytes = serialize((Serializable) value);
+    int length = 1 + DIGEST_LENGTH + 4 + keyBytes.length + bytes.length;
+    lock.writeLock().lock();
+    try {
+      ensureOpen();
+      markDead(index.remove(digest));
+      if (4 + length > buffer.capacity() - dataStart) {
+        return; //超过文件容量的数据不缓存
+      }
+      if (4 + length > buffer.capacity() - position) {
+        compact(4 + length);
+      }
+      int offset = position;
+      ByteBuffer target = buffer.duplicate();
+      target.position(offset);
+      target.putInt(length);
+      target.put(LIVE);
+      target.put(digest.duplicate());
+      target.putInt(keyBytes.length);
+      target.put(keyBytes);
+      target.put(bytes);
+      updatePosition(target.position()); //记录写完后再移动位置，写一半的记录重启后会被忽略
+      index.put(digest, offset);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    byte[] keyBytes = keyBytes(key);
+    if (keyBytes == null) {
+      return null;
+    }
+    ByteBuffer digest = digest(keyBytes);
+    if (buffer == null) {
+      lock.writeLock().lock();
+      try {
+        ensureOpen();
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+    Integer offset;
+    lock.readLock().lock();
+    try {
+      if (buffer == null) {
+        return null; //并发关闭
+      }
+      offset = index.get(digest);
+      if (offset == null) {
+        return null;
+      }
+      ByteBuffer source = buffer.duplicate();
+      int length = source.getInt(offset);
+      source.limit(offset + 4 + length);
+      if (!hasKey(source, offset, keyBytes)) {
+        return null; //digest相同但key不同
+      }
+      source.position(offset + KEY_OFFSET + 4 + keyBytes.length);
+      try {
+        return deserialize(source);
+      } catch (CacheException e) {
+        //例如类在重新部署后已经改变 在下面标记为无效
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    lock.writeLock().lock();
+    try {
+      if (buffer != null && offset.equals(index.get(digest))) { //读不出的记录当作未命中并标记为无效
+        index.remove(digest);
+        markDead(offset);
+        force();
+      }
+      return null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    byte[] keyBytes = keyBytes(key);
+    if (keyBytes == null) {
+      return null;
+    }
+    ByteBuffer digest = digest(keyBytes);
+    lock.writeLock().lock();
+    try {
+      if (buffer != null) {
+        markDead(index.remove(digest));
+        force();
+      }
+      return null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void clear() {
+    lock.writeLock().lock();
+    try {
+      ensureOpen();
+      index.clear();
+      updatePosition(dataStart);
+      buffer.force(); //清空必须落盘，否则重启后会读到已失效的数据
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+
+    Cache otherCache = (Cache) o;
+    return getId().equals(otherCache.getId());
+  }
+
+  @Override
+  public int hashCode() {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    return getId().hashCode();
+  }
+
+  private void ensureOpen() {
+    if (buffer == null) {
+      open();
+    }
+  }
+
+  private void open() {
+    File target = getFile();
+    try {
+      File parent = target.getParentFile();
+      if (parent != null && !parent.exists() && !parent.mkdirs()) {
+        throw new CacheException("Could not create directory " + parent + " for mapped file cache '" + id + "'");
+      }
+      file = new RandomAccessFile(target, "rw");
+      FileChannel channel = file.getChannel();
+      try {
+        fileLock = channel.tryLock();
+      } catch (OverlappingFileLockException e) {
+        fileLock = null;
+      }
+      if (fileLock == null) {
+        file.close();
+        file = null;
+        throw new CacheException("Mapped file cache " + target + " is already in use by another cache instance");
+      }
+      boolean reset = file.length() != maxBytes;
+      if (reset) {
+        file.setLength(maxBytes);
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, maxBytes);
+      byte[] stamp = (id + '#' + version).getBytes("UTF-8");
+      dataStart = align(STAMP_OFFSET + 4 + stamp.length);
+      if (dataStart >= maxBytes) {
+        throw new CacheException("maxBytes " + maxBytes + " is too small for mapped file cache '" + id + "'");
+      }
+      if (reset || !hasStamp(stamp)) { //版本不一致时丢弃旧数据
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, FORMAT);
+        buffer.putInt(STAMP_OFFSET, stamp.length);
+        ByteBuffer header = buffer.duplicate();
+        header.position(STAMP_OFFSET + 4);
+        header.put(stamp);
+        updatePosition(dataStart);
+        buffer.force();
+      } else {
+        load();
+      }
+    } catch (IOException e) {
+      close();
+      throw new CacheException("Error opening mapped file cache " + target + ".  Cause: " + e, e);
+    }
+  }
+
+  private boolean hasStamp(byte[] stamp) {
+    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT || buffer.getInt(STAMP_OFFSET) != stamp.length) {
+      return false;
+    }
+    for (int i = 0; i < stamp.length; i++) {
+      if (buffer.get(STAMP_OFFSET + 4 + i) != stamp[i]) {
+        return false;
+      }
+    }
+    long stored = buffer.getLong(POSITION_OFFSET);
+    return stored >= dataStart && stored <= buffer.capacity();
+  }
+
+  private void load() { //重放文件中的记录重建索引
+    index.clear();
+    int end = (int) buffer.getLong(POSITION_OFFSET);
+    int offset = dataStart;
+    while (offset + 4 <= end) {
+      int length = buffer.getInt(offset);
+      if (length < 1 + DIGEST_LENGTH + 4 || offset + 4 + length > end) {
+        end = offset; //记录损坏，从这里截断
+        break;
+      }
+      if (buffer.get(offset + 4) == LIVE) {
+        index.put(readDigest(offset), offset);
+      }
+      offset += 4 + length;
+    }
+    updatePosition(Math.min(offset, end));
+  }
+
+  private void compact(int needed) {
+    int end = position;
+    updatePosition(dataStart); //整理期间崩溃时重启后得到空缓存而不是损坏的数据
+    int live = 0;
+    for (Integer offset : index.values()) {
+      live += 4 + buffer.getInt(offset);
+    }
+    int drop = Math.max(0, live + needed - (buffer.capacity() - dataStart));
+    int write = dataStart;
+    int read = dataStart;
+    while (read < end) {
+      int recordLength = 4 + buffer.getInt(read);
+      if (buffer.get(read + 4) == LIVE) {
+        ByteBuffer digest = readDigest(read);
+        if (drop > 0) { //空间仍不够时丢弃最早写入的记录
+          index.remove(digest);
+          drop -= recordLength;
+        } else {
+          if (write != read) {
+            byte[] record = new byte[recordLength];
+            ByteBuffer source = buffer.duplicate();
+            source.position(read);
+            source.get(record);
+            ByteBuffer target = buffer.duplicate();
+            target.position(write);
+            target.put(record);
+          }
+          index.put(digest, write);
+          write += recordLength;
+        }
+      }
+      read += recordLength;
+    }
+    updatePosition(write);
+  }
+
+  private ByteBuffer readDigest(int offset) {
+    byte[] digest = new byte[DIGEST_LENGTH];
+    ByteBuffer source = buffer.duplicate();
+    source.position(offset + 4 + 1);
+    source.get(digest);
+    return ByteBuffer.wrap(digest);
+  }
+
+  private boolean hasKey(ByteBuffer source, int offset, byte[] keyBytes) {
+    if (source.getInt(offset + KEY_OFFSET) != keyBytes.length) {
+      return false;
+    }
+    int start = offset + KEY_OFFSET + 4;
+    for (int i = 0; i < keyBytes.length; i++) {
+      if (source.get(start + i) != keyBytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void markDead(Integer offset) {
+    if (offset != null) {
+      buffer.put(offset + 4, DEAD);
+    }
+  }
+
+  private void updatePosition(int newPosition) {
+    position = newPosition;
+    buffer.putLong(POSITION_OFFSET, newPosition);
+    force();
+  }
+
+  private void force() {
+    if (forceOnWrite) {
+      buffer.force();
+    }
+  }
+
+  private static int align(int size) {
+    return (size + 7) & ~7;
+  }
+
+  /*
+   * @return the key in a form that is the same in every JVM, or null if it cannot be serialized
+   */
+  private byte[] keyBytes(Object key) {
+    Object stable = key;
+    if (key instanceof CacheKey && !(key instanceof CompactCacheKey)) { //CacheKey的hashcode可能来自identity hash code
+      stable = ((CacheKey) key).getUpdateList().toArray();
+    }
+    if (!(stable instanceof Serializable)) {
+      return null;
+    }
+    try {
+      return serialize((Serializable) stable);
+    } catch (CacheException e) { //含有不能序列化的参数
+      return null;
+    }
+  }
+
+  private ByteBuffer digest(byte[] keyBytes) {
+    MessageDigest sha1 = SHA1.get();
+    sha1.reset();
+    return ByteBuffer.wrap(sha1.digest(keyBytes));
+  }
+
+  private byte[] serialize(Serializable value) {
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      ObjectOutputStream oos = new ObjectOutputStream(bos);
+      oos.writeObject(value);
+      oos.flush();
+      oos.close();
+      return bos.toByteArray();
+    } catch (Exception e) {
+      throw new CacheException("Error serializing object.  Cause: " + e, e);
+    }
+  }
+
+  private Serializable deserialize(final ByteBuffer source) {
+    Serializable result;
+    try {
+      ObjectInputStream ois = new CustomObjectInputStream(new InputStream() {
+        @Override
+        public int read() {
+          return source.hasRemaining() ? source.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+          if (len == 0) {
+            return 0;
+          }
+          if (!source.hasRemaining()) {
+            return -1;
+          }
+          int count = Math.min(len, source.remaining());
+          source.get(bytes, off, count);
+          return count;
+        }
+      });
+      result = (Serializable) ois.readObject();
+      ois.close();
+    } catch (Exception e) {
+      throw new CacheException("Error deserializing object.  Cause: " + e, e);
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,471 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.ibatis.builder.InitializingObject;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.decorators.SerializedCache.CustomObjectInputStream;
+
+/**
+ * Cache that keeps serialized values outside of the Java heap.
+ * <p>
+ * Memory is taken from direct {@link ByteBuffer} slabs of {@code slabSize} bytes, up to {@code maxBytes} in total.
+ * Every slab is split into equally sized chunks of one size class and a value is stored in the smallest chunk it
+ * fits in. When a size class has no free chunk and the budget is spent, an entry of that class is evicted using
+ * the CLOCK (second chance) algorithm; a class that owns no slab at all takes one over from the class owning the most.
+ * Values larger than a slab are not cached, and putting a null value removes the entry.
+ * <p>
+ * Only the index (the key itself and the chunk coordinates) lives on the heap. Hits are deserialized directly from
+ * the slab, so every hit returns a new copy just like a read-write cache does.
+ * <p>
+ * Custom caches are not wrapped in {@link org.apache.ibatis.cache.decorators.SynchronizedCache} so this
+ * implementation is thread safe by itself. Configure it with properties, e.g.
+ * <pre>
+ * &lt;cache type="org.apache.ibatis.cache.impl.OffHeapCache"&gt;
+ *   &lt;property name="maxBytes" value="268435456"/&gt;
+ *   &lt;property name="slabSize" value="1048576"/&gt;
+ * &lt;/cache&gt;
+ * </pre>
+ */
+public class OffHeapCache implements Cache, InitializingObject { //堆外缓存
+
+  private final String id; //Cache对象标识
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private long maxBytes = 64L * 1024 * 1024; //堆外内存上限
+  private int slabSize = 1024 * 1024; //每个slab的大小
+  private int minChunkSize = 64; //最小的chunk大小
+  private double growthFactor = 1.25; //相邻size class的chunk增长因子
+
+  // guarded by lock
+  private final Map<Object, Entry> index = new HashMap<Object, Entry>(); //key到chunk的索引
+  private SlabClass[] slabClasses;
+  private long allocatedBytes; //已分配的堆外内存
+
+  public OffHeapCache(String id) {
+    this.id = id;
+    initialize();
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public int getSize() {
+    lock.readLock().lock();
+    try {
+      return index.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  public int getSlabSize() {
+    return slabSize;
+  }
+
+  public void setSlabSize(int slabSize) {
+    this.slabSize = slabSize;
+  }
+
+  public int getMinChunkSize() {
+    return minChunkSize;
+  }
+
+  public void setMinChunkSize(int minChunkSize) {
+    this.minChunkSize = minChunkSize;
+  }
+
+  public double getGrowthFactor() {
+    return growthFactor;
+  }
+
+  public void setGrowthFactor(double growthFactor) {
+    this.growthFactor = growthFactor;
+  }
+
+  /**
+   * @return The off-heap bytes currently reserved by slabs
+   */
+  public long getAllocatedBytes() {
+    lock.readLock().lock();
+    try {
+      return allocatedBytes;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void initialize() {
+    if (minChunkSize < 8 || slabSize < minChunkSize || maxBytes < slabSize || growthFactor <= 1.0) {
+      throw new CacheException("Invalid off-heap cache configuration for '" + id + "': maxBytes=" + maxBytes
+          + ", slabSize=" + slabSize + ", minChunkSize=" + minChunkSize + ", growthFactor=" + growthFactor);
+    }
+    lock.writeLock().lock();
+    try {
+      List<SlabClass> classes = new ArrayList<SlabClass>();
+      int chunkSize = align(minChunkSize);
+      while (chunkSize < slabSize / 2) {
+        classes.add(new SlabClass(chunkSize, slabSize / chunkSize));
+        chunkSize = align(Math.max(chunkSize + 8, (int) (chunkSize * growthFactor)));
+      }
+      classes.add(new SlabClass(slabSize, 1));
+      index.clear();
+      slabClasses = classes.toArray(new SlabClass[classes.size()]);
+      allocatedBytes = 0;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    if (value != null && !(value instanceof Serializable)) {
+      throw new CacheException("OffHeapCache failed to store a non-serializable object: " + value);
+    }
+    byte[] bytes = value == null ? null : serialize((Serializable) value);
+    lock.writeLock().lock();
+    try {
+      release(index.remove(key));
+      if (bytes == null) { //TransactionalCache会为未命中的key存入null 不占slab的条目不会被淘汰 按移除处理
+        return;
+      }
+      SlabClass slabClass = slabClassFor(bytes.length);
+      if (slabClass == null) {
+        return; //超过slab大小的数据不缓存
+      }
+      int chunk = allocate(slabClass);
+      if (chunk < 0) {
+        return;
+      }
+      Entry entry = new Entry(key, slabClass, chunk, bytes.length);
+      ByteBuffer target = slabClass.slabFor(chunk).duplicate();
+      target.position(slabClass.offsetOf(chunk));
+      target.put(bytes);
+      slabClass.chunks[chunk] = entry;
+      index.put(key, entry);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    lock.readLock().lock();
+    try {
+      Entry entry = index.get(key);
+      if (entry == null) {
+        return null;
+      }
+      entry.referenced = true; //CLOCK算法的访问标记
+      ByteBuffer source = entry.slabClass.slabFor(entry.chunk).duplicate();
+      int offset = entry.slabClass.offsetOf(entry.chunk);
+      source.limit(offset + entry.length);
+      source.position(offset);
+      return deserialize(source);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    lock.writeLock().lock();
+    try {
+      release(index.remove(key));
+      return null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void clear() {
+    lock.writeLock().lock();
+    try {
+      index.clear();
+      for (SlabClass slabClass : slabClasses) { //保留已分配的slab，只重置chunk
+        slabClass.reset();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+
+    Cache otherCache = (Cache) o;
+    return getId().equals(otherCache.getId());
+  }
+
+  @Override
+  public int hashCode() {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    return getId().hashCode();
+  }
+
+  private SlabClass slabClassFor(int length) {
+    int low = 0;
+    int high = slabClasses.length - 1;
+    if (length > slabClasses[high].chunkSize) {
+      return null;
+    }
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (slabClasses[mid].chunkSize < length) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return slabClasses[low];
+  }
+
+  private int allocate(SlabClass slabClass) {
+    if (slabClass.freeCount > 0) {
+      return slabClass.freeChunks[--slabClass.freeCount];
+    }
+    if (allocatedBytes + slabSize <= maxBytes) { //还有预算时分配新的slab
+      slabClass.addSlab(ByteBuffer.allocateDirect(slabSize));
+      allocatedBytes += slabSize;
+      return slabClass.freeChunks[--slabClass.freeCount];
+    }
+    if (slabClass.slabs.isEmpty()) { //从拥有slab最多的size class中借一个slab
+      SlabClass donor = null;
+      for (SlabClass candidate : slabClasses) {
+        if (donor == null || candidate.slabs.size() > donor.slabs.size()) {
+          donor = candidate;
+        }
+      }
+      if (donor == null || donor.slabs.isEmpty()) {
+        return -1;
+      }
+      slabClass.addSlab(releaseLastSlab(donor));
+      return slabClass.freeChunks[--slabClass.freeCount];
+    }
+    return evict(slabClass);
+  }
+
+  private int evict(SlabClass slabClass) {
+    Entry[] chunks = slabClass.chunks;
+    for (;;) {
+      if (slabClass.hand >= chunks.length) {
+        slabClass.hand = 0;
+      }
+      int chunk = slabClass.hand++;
+      Entry entry = chunks[chunk];
+      if (entry.referenced) { //最近被访问过，给第二次机会
+        entry.referenced = false;
+      } else {
+        index.remove(entry.key);
+        chunks[chunk] = null;
+        return chunk;
+      }
+    }
+  }
+
+  private ByteBuffer releaseLastSlab(SlabClass donor) {
+    int start = (donor.slabs.size() - 1) * donor.chunksPerSlab;
+    for (int i = start; i < donor.chunks.length; i++) {
+      Entry entry = donor.chunks[i];
+      if (entry != null) {
+        index.remove(entry.key);
+      }
+    }
+    donor.chunks = Arrays.copyOf(donor.chunks, start);
+    int kept = 0;
+    for (int i = 0; i < donor.freeCount; i++) {
+      if (donor.freeChunks[i] < start) {
+        donor.freeChunks[kept++] = donor.freeChunks[i];
+      }
+    }
+    donor.freeCount = kept;
+    donor.hand = 0;
+    return donor.slabs.remove(donor.slabs.size() - 1);
+  }
+
+  private void release(Entry entry) {
+    if (entry == null) {
+      return;
+    }
+    SlabClass slabClass = entry.slabClass;
+    slabClass.chunks[entry.chunk] = null;
+    slabClass.freeChunks[slabClass.freeCount++] = entry.chunk;
+  }
+
+  private static int align(int size) {
+    return (size + 7) & ~7;
+  }
+
+  private byte[] serialize(Serializable value) {
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      ObjectOutputStream oos = new ObjectOutputStream(bos);
+      oos.writeObject(value);
+      oos.flush();
+      oos.close();
+      return bos.toByteArray();
+    } catch (Exception e) {
+      throw new CacheException("Error serializing object.  Cause: " + e, e);
+    }
+  }
+
+  private Serializable deserialize(ByteBuffer source) {
+    Serializable result;
+    try {
+      ObjectInputStream ois = new CustomObjectInputStream(new ByteBufferInputStream(source));
+      result = (Serializable) ois.readObject();
+      ois.close();
+    } catch (Exception e) {
+      throw new CacheException("Error deserializing object.  Cause: " + e, e);
+    }
+    return result;
+  }
+
+  private static final class Entry {
+    final Object key;
+    final SlabClass slabClass;
+    final int chunk;
+    final int length;
+    volatile boolean referenced;
+
+    Entry(Object key, SlabClass slabClass, int chunk, int length) {
+      this.key = key;
+      this.slabClass = slabClass;
+      this.chunk = chunk;
+      this.length = length;
+    }
+  }
+
+  private static final class SlabClass {
+    final int chunkSize;
+    final int chunksPerSlab;
+    final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+    Entry[] chunks = new Entry[0]; //chunk编号到占用它的Entry
+    int[] freeChunks = new int[0]; //空闲chunk编号栈
+    int freeCount;
+    int hand; //CLOCK算法的指针
+
+    SlabClass(int chunkSize, int chunksPerSlab) {
+      this.chunkSize = chunkSize;
+      this.chunksPerSlab = chunksPerSlab;
+    }
+
+    ByteBuffer slabFor(int chunk) {
+      return slabs.get(chunk / chunksPerSlab);
+    }
+
+    int offsetOf(int chunk) {
+      return (chunk % chunksPerSlab) * chunkSize;
+    }
+
+    void addSlab(ByteBuffer slab) {
+      int first = slabs.size() * chunksPerSlab;
+      slabs.add(slab);
+      chunks = Arrays.copyOf(chunks, first + chunksPerSlab);
+      if (freeChunks.length < chunks.length) {
+        freeChunks = Arrays.copyOf(freeChunks, chunks.length);
+      }
+      for (int chunk = first + chunksPerSlab - 1; chunk >= first; chunk--) {
+        freeChunks[freeCount++] = chunk;
+      }
+    }
+
+    void reset() {
+      Arrays.fill(chunks, null);
+      freeCount = 0;
+      for (int chunk = chunks.length - 1; chunk >= 0; chunk--) {
+        freeChunks[freeCount++] = chunk;
+      }
+      hand = 0;
+    }
+  }
+
+  private static final class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(len, buffer.remaining());
+      buffer.get(bytes, off, count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+
+}
@@ -15,24 +15,37 @@
  */
 package org.apache.ibatis.cache.impl;
 
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 
+import org.apache.ibatis.cache.BulkCache;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.EnumerableCache;
 
 /**
  * @author Clinton Begin
  */
-public class PerpetualCache implements Cache {
+public class PerpetualCache implements BulkCache, EnumerableCache {
 
   private final String id; //Cache对象标识
 
-  private Map<Object, Object> cache = new HashMap<Object, Object>(); //记录缓存
+  private final Map<Object, Object> cache; //记录缓存
 
   public PerpetualCache(String id) {
+    this(id, new HashMap<Object, Object>());
+  }
+
+  /**
+   * @param cache The map holding the entries, e.g. an access ordered map for subclasses that evict
+   */
+  protected PerpetualCache(String id, Map<Object, Object> cache) {
     this.id = id;
+    this.cache = cache;
   }
 
   @Override
@@ -65,6 +78,35 @@ public class PerpetualCache implements Cache {
     cache.clear();
   }
 
+  @Override
+  public Map<Object, Object> getAll(Collection<?> keys) {
+    Map<Object, Object> values = new HashMap<Object, Object>();
+    for (Object key : keys) {
+      Object value = cache.get(key);
+      if (value != null) {
+        values.put(key, value);
+      }
+    }
+    return values;
+  }
+
+  @Override
+  public void putAll(Map<?, ?> entries) {
+    cache.putAll(entries);
+  }
+
+  @Override
+  public void removeAll(Collection<?> keys) {
+    for (Object key : keys) {
+      cache.remove(key);
+    }
+  }
+
+  @Override
+  public Set<Object> keys() {
+    return new HashSet<Object>(cache.keySet());
+  }
+
   @Override
   public ReadWriteLock getReadWriteLock() {
     return null;
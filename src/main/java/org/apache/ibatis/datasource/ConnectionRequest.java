@@ -0,0 +1,74 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource;
+
+/**
+ * Describes the connection requests the current thread makes, for data sources that can use it, e.g. the
+ * {@link org.apache.ibatis.datasource.pooled.PooledDataSource}. Executors set it around the connection requests of a
+ * mapped statement so that they need not know which data source serves them.
+ */
+public final class ConnectionRequest { //当前线程获取连接的上下文
+
+  private static final ThreadLocal<ConnectionRequest> current = new ThreadLocal<ConnectionRequest>();
+
+  private final String statementId; //正在执行的语句id
+  private final Integer timeout; //获取连接的超时毫秒数
+
+  /**
+   * @param statementId The id of the mapped statement requesting connections, or null
+   * @param timeout The longest time in milliseconds to wait for a connection, or null for the data source default
+   */
+  public ConnectionRequest(String statementId, Integer timeout) {
+    this.statementId = statementId;
+    this.timeout = timeout;
+  }
+
+  /**
+   * Makes the request the current one of the thread.
+   *
+   * @param request The request, null to clear
+   * @return The previous request, to be restored with {@link #restore(ConnectionRequest)}
+   */
+  public static ConnectionRequest begin(ConnectionRequest request) {
+    ConnectionRequest previous = current.get();
+    restore(request);
+    return previous;
+  }
+
+  public static void restore(ConnectionRequest previous) {
+    if (previous == null) {
+      current.remove();
+    } else {
+      current.set(previous);
+    }
+  }
+
+  /**
+   * @return The request of the current thread, or null
+   */
+  public static ConnectionRequest current() {
+    return current.get();
+  }
+
+  public String getStatementId() {
+    return statementId;
+  }
+
+  public Integer getTimeout() {
+    return timeout;
+  }
+
+}
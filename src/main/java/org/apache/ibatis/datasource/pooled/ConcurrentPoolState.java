@@ -0,0 +1,423 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * State and borrowing logic of the {@link PoolEngine#CONCURRENT} pool. Connections live in a
+ * {@link ConnectionBag}, counters are atomics, and nothing on the borrow or return path takes a
+ * lock, so the getters inherited from {@link PoolState} are overridden to read the atomics.
+ */
+class ConcurrentPoolState extends PoolState { //无锁连接池状态
+
+  private static final Log log = LogFactory.getLog(ConcurrentPoolState.class);
+
+  private final ConnectionBag bag = new ConnectionBag();
+  private final AtomicInteger totalCount = new AtomicInteger(); //连接总数
+  private final AtomicInteger activeCount = new AtomicInteger(); //借出的连接数
+  private final AtomicLong requestCounter = new AtomicLong();
+  private final AtomicLong requestTime = new AtomicLong();
+  private final AtomicLong checkoutTime = new AtomicLong();
+  private final AtomicLong claimedOverdueCounter = new AtomicLong();
+  private final AtomicLong checkoutTimeOfOverdue = new AtomicLong();
+  private final AtomicLong waitTime = new AtomicLong();
+  private final AtomicLong hadToWaitCounter = new AtomicLong();
+  private final AtomicLong badConnectionCounter = new AtomicLong();
+  private final AtomicLong rejectedCounter = new AtomicLong();
+  private final AtomicLong timedOutCounter = new AtomicLong();
+  private final AtomicInteger waitingCount = new AtomicInteger(); //排队等待的线程数
+
+  ConcurrentPoolState(PooledDataSource dataSource) {
+    super(dataSource);
+  }
+
+  /*
+   * @param deadline The time by which a connection must be found, 0 for none
+   */
+  PooledConnection borrow(String username, String password, long deadline) throws SQLException { //借出连接
+    boolean countedWait = false;
+    long t = System.currentTimeMillis();
+    int localBadConnectionCount = 0;
+
+    while (true) {
+      PoolEntry entry = borrowEntry(0);
+      if (entry == null) {
+        entry = createEntry(); //池未满时新建
+      }
+      if (entry == null) { //池已满 排队等待归还的连接
+        long wait = dataSource.poolTimeToWait;
+        if (deadline > 0) { //本次获取有截止时间
+          long remaining = deadline - System.currentTimeMillis();
+          if (remaining <= 0) {
+            timedOutCounter.incrementAndGet();
+            throw dataSource.timedOut(deadline - t);
+          }
+          wait = Math.min(wait, remaining);
+        }
+        if (waitingCount.incrementAndGet() > dataSource.poolMaximumWaitingThreads) { //排队线程过多 立即失败
+          waitingCount.decrementAndGet();
+          rejectedCounter.incrementAndGet();
+          throw dataSource.rejected();
+        }
+        if (!countedWait) {
+          hadToWaitCounter.incrementAndGet();
+          countedWait = true;
+        }
+        if (log.isDebugEnabled()) {
+          log.debug("Waiting as long as " + wait + " milliseconds for connection.");
+        }
+        long wt = System.currentTimeMillis();
+        dataSource.getPoolMetrics().waitStarted();
+        try {
+          entry = borrowEntry(wait); //按到达顺序交接
+        } finally {
+          waitingCount.decrementAndGet();
+          dataSource.getPoolMetrics().waitEnded();
+        }
+        waitTime.addAndGet(System.currentTimeMillis() - wt);
+        if (entry == null) {
+          entry = claimOverdueEntry();
+        }
+        if (entry == null) {
+          continue;
+        }
+      }
+
+      PooledConnection conn = entry.checkout(dataSource);
+      if (conn.isValid(PoolValidation.BORROW)) {
+        conn.setConnectionTypeCode(dataSource.assembleConnectionTypeCode(dataSource.getUrl(), username, password));
+        conn.setLastUsedTimestamp(System.currentTimeMillis());
+        activeCount.incrementAndGet();
+        requestCounter.incrementAndGet();
+        requestTime.addAndGet(System.currentTimeMillis() - t);
+        return conn;
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
+      }
+      conn.invalidate();
+      discard(entry);
+      badConnectionCounter.incrementAndGet();
+      localBadConnectionCount++;
+      if (localBadConnectionCount > (dataSource.poolMaximumIdleConnections + dataSource.poolMaximumLocalBadConnectionTolerance)) {
+        if (log.isDebugEnabled()) {
+          log.debug("PooledDataSource: Could not get a good connection to the database.");
+        }
+        throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
+      }
+    }
+  }
+
+  void release(PooledConnection conn) throws SQLException { //归还连接
+    PoolEntry entry = conn.getEntry();
+    if (entry == null || !entry.checkin(conn)) { //已被回收或池已关闭
+      conn.invalidate();
+      return;
+    }
+    activeCount.decrementAndGet();
+    checkoutTime.addAndGet(conn.getCheckoutTime());
+    dataSource.getPoolMetrics().recordCheckout(conn.getCheckoutNanos());
+    boolean valid = conn.isValid(PoolValidation.RETURN);
+    entry.setLastValidatedTimestamp(conn.getLastValidatedTimestamp());
+    conn.invalidate(); //旧代理作废 下次借出时重新创建
+    if (!valid) {
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+      }
+      badConnectionCounter.incrementAndGet();
+      discard(entry);
+      replenish();
+      return;
+    }
+    try {
+      if (!conn.getRealConnection().getAutoCommit()) {
+        conn.getRealConnection().rollback();
+      }
+    } catch (SQLException e) {
+      discard(entry);
+      replenish();
+      throw e;
+    }
+    if (conn.getConnectionTypeCode() != dataSource.getExpectedConnectionTypeCode()
+        || dataSource.isPastMaximumLifetime(entry.getCreatedTimestamp(), conn.getRealHashCode())
+        || (bag.getWaitingCount() == 0 && getIdleConnectionCount() > dataSource.poolMaximumIdleConnections)) {
+      discard(entry); //空闲连接已满(归还的连接已计入空闲数)、超过存活时间或连接属性已变
+      if (log.isDebugEnabled()) {
+        log.debug("Closed connection " + conn.getRealHashCode() + ".");
+      }
+      replenish();
+      return;
+    }
+    bag.requite(entry);
+    if (log.isDebugEnabled()) {
+      log.debug("Returned connection " + conn.getRealHashCode() + " to pool.");
+    }
+  }
+
+  void closeAll() { //关闭所有连接
+    for (PoolEntry entry : bag.values()) {
+      PooledConnection owner = entry.clearOwner();
+      if (owner != null) {
+        owner.invalidate();
+        activeCount.decrementAndGet();
+      }
+      discard(entry);
+    }
+  }
+
+  void housekeep() { //后台维护 见PooledDataSource.housekeep
+    int minimumIdle = Math.min(dataSource.poolMinimumIdle, dataSource.poolMaximumIdleConnections);
+    for (PoolEntry entry : bag.values()) {
+      if (entry.getState() != PoolEntry.STATE_NOT_IN_USE) {
+        continue;
+      }
+      long unused = System.currentTimeMillis() - entry.getLastUsedTimestamp();
+      boolean retire = dataSource.isPastMaximumLifetime(entry.getCreatedTimestamp(), entry.getRealConnection().hashCode())
+          || (dataSource.poolIdleTimeout > 0 && unused > dataSource.poolIdleTimeout && getIdleConnectionCount() > minimumIdle);
+      boolean validate = dataSource.poolPingEnabled
+          && dataSource.isValidationDue(entry.getLastUsedTimestamp(), entry.getLastValidatedTimestamp());
+      if (!(retire || validate) || !entry.compareAndSetState(PoolEntry.STATE_NOT_IN_USE, PoolEntry.STATE_IN_USE)) {
+        continue; //无需处理或已被借出
+      }
+      if (retire) {
+        discard(entry);
+        if (log.isDebugEnabled()) {
+          log.debug("Retired idle connection " + entry.getRealConnection().hashCode() + ".");
+        }
+        continue;
+      }
+      PooledConnection probe = new PooledConnection(entry.getRealConnection(), dataSource); //不登记为借出 避免被当作超时连接回收
+      probe.setLastUsedTimestamp(entry.getLastUsedTimestamp());
+      probe.setLastValidatedTimestamp(entry.getLastValidatedTimestamp());
+      if (probe.isValid()) {
+        entry.setLastValidatedTimestamp(probe.getLastValidatedTimestamp());
+        bag.requite(entry);
+      } else {
+        badConnectionCounter.incrementAndGet();
+        discard(entry);
+      }
+    }
+    try {
+      while (getIdleConnectionCount() < minimumIdle) { //补足最小空闲连接
+        PoolEntry entry = createEntry();
+        if (entry == null) {
+          break;
+        }
+        bag.requite(entry);
+      }
+    } catch (SQLException e) {
+      log.warn("Could not create an idle connection. Cause: " + e);
+    }
+  }
+
+  @Override
+  List<PooledConnection> activeConnectionsSnapshot() {
+    List<PooledConnection> active = new ArrayList<PooledConnection>();
+    for (PoolEntry entry : bag.values()) {
+      PooledConnection owner = entry.getOwner();
+      if (owner != null) {
+        active.add(owner);
+      }
+    }
+    return active;
+  }
+
+  private PoolEntry borrowEntry(long timeout) throws SQLException {
+    try {
+      PoolEntry entry = bag.borrow(timeout);
+      if (entry != null && log.isDebugEnabled()) {
+        log.debug("Checked out connection " + entry.getRealConnection().hashCode() + " from pool.");
+      }
+      return entry;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("PooledDataSource: Interrupted while waiting for a connection.", e);
+    }
+  }
+
+  private PoolEntry createEntry() throws SQLException { //未达到最大连接数时新建连接
+    int count;
+    do {
+      count = totalCount.get();
+      if (count >= dataSource.poolMaximumActiveConnections) {
+        return null;
+      }
+    } while (!totalCount.compareAndSet(count, count + 1));
+    try {
+      PoolEntry entry = new PoolEntry(dataSource.openConnection());
+      bag.add(entry);
+      if (log.isDebugEnabled()) {
+        log.debug("Created connection " + entry.getRealConnection().hashCode() + ".");
+      }
+      return entry;
+    } catch (SQLException e) {
+      totalCount.decrementAndGet();
+      throw e;
+    } catch (RuntimeException e) {
+      totalCount.decrementAndGet();
+      throw e;
+    }
+  }
+
+  private PoolEntry claimOverdueEntry() { //回收借出超时最久的连接
+    PooledConnection oldest = null;
+    for (PoolEntry entry : bag.values()) {
+      PooledConnection owner = entry.getOwner();
+      if (owner != null && owner.getCheckoutTimestamp() != 0 //没有借出时间的连接还未借出完成
+          && (oldest == null || owner.getCheckoutTimestamp() < oldest.getCheckoutTimestamp())) {
+        oldest = owner;
+      }
+    }
+    if (oldest == null) {
+      return null;
+    }
+    long longestCheckoutTime = oldest.getCheckoutTime();
+    if (longestCheckoutTime <= dataSource.poolMaximumCheckoutTime) {
+      return null;
+    }
+    PoolEntry entry = oldest.getEntry();
+    if (!entry.reclaim(oldest)) { //刚好被归还或已被其他线程回收
+      return null;
+    }
+    oldest.invalidate();
+    activeCount.decrementAndGet();
+    claimedOverdueCounter.incrementAndGet();
+    checkoutTimeOfOverdue.addAndGet(longestCheckoutTime);
+    checkoutTime.addAndGet(longestCheckoutTime);
+    try {
+      if (!entry.getRealConnection().getAutoCommit()) {
+        entry.getRealConnection().rollback();
+      }
+    } catch (SQLException e) {
+      log.debug("Bad connection. Could not roll back");
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Claimed overdue connection " + oldest.getRealHashCode() + ".");
+    }
+    return entry;
+  }
+
+  private void discard(PoolEntry entry) { //移出并关闭连接
+    if (!entry.markRemoved()) {
+      return;
+    }
+    bag.remove(entry);
+    totalCount.decrementAndGet();
+    Connection realConn = entry.getRealConnection();
+    try {
+      if (!realConn.getAutoCommit()) {
+        realConn.rollback();
+      }
+    } catch (SQLException e) {
+      // ignore
+    }
+    try {
+      realConn.close();
+    } catch (SQLException e) {
+      // ignore
+    }
+  }
+
+  private void replenish() { //连接被关闭时若有线程在等待 为其补充一个新连接
+    if (bag.getWaitingCount() == 0) {
+      return;
+    }
+    try {
+      PoolEntry entry = createEntry();
+      if (entry != null) {
+        bag.requite(entry);
+      }
+    } catch (SQLException e) {
+      if (log.isDebugEnabled()) {
+        log.debug("Could not replenish the pool: " + e.getMessage());
+      }
+    }
+  }
+
+  @Override
+  public long getRequestCount() {
+    return requestCounter.get();
+  }
+
+  @Override
+  public long getAverageRequestTime() {
+    long requests = requestCounter.get();
+    return requests == 0 ? 0 : requestTime.get() / requests;
+  }
+
+  @Override
+  public long getAverageWaitTime() {
+    long waits = hadToWaitCounter.get();
+    return waits == 0 ? 0 : waitTime.get() / waits;
+  }
+
+  @Override
+  public long getHadToWaitCount() {
+    return hadToWaitCounter.get();
+  }
+
+  @Override
+  public long getBadConnectionCount() {
+    return badConnectionCounter.get();
+  }
+
+  @Override
+  public long getRejectedRequestCount() {
+    return rejectedCounter.get();
+  }
+
+  @Override
+  public long getTimedOutRequestCount() {
+    return timedOutCounter.get();
+  }
+
+  @Override
+  public long getClaimedOverdueConnectionCount() {
+    return claimedOverdueCounter.get();
+  }
+
+  @Override
+  public long getAverageOverdueCheckoutTime() {
+    long claimed = claimedOverdueCounter.get();
+    return claimed == 0 ? 0 : checkoutTimeOfOverdue.get() / claimed;
+  }
+
+  @Override
+  public long getAverageCheckoutTime() {
+    long requests = requestCounter.get();
+    return requests == 0 ? 0 : checkoutTime.get() / requests;
+  }
+
+  @Override
+  public int getIdleConnectionCount() {
+    return Math.max(0, totalCount.get() - activeCount.get());
+  }
+
+  @Override
+  public int getActiveConnectionCount() {
+    return activeCount.get();
+  }
+
+}
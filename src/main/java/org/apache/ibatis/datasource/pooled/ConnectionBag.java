@@ -0,0 +1,131 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free container of the {@link PoolEntry}s of the {@link PoolEngine#CONCURRENT} pool.
+ * <p>
+ * A borrow first looks at the entries the calling thread returned itself, then scans the shared
+ * list, and finally waits on a fair handoff queue. Entries change hands by a compare-and-set on
+ * their state, so returning one is O(1) and never takes a lock.
+ */
+class ConnectionBag {
+
+  private static final int MAX_THREAD_LOCAL_ENTRIES = 16;
+
+  private final CopyOnWriteArrayList<PoolEntry> sharedList = new CopyOnWriteArrayList<PoolEntry>(); //全部连接
+  private final SynchronousQueue<PoolEntry> handoffQueue = new SynchronousQueue<PoolEntry>(true); //公平的直接交接队列
+  private final AtomicInteger waiters = new AtomicInteger(); //正在借用的线程数
+  private final ThreadLocal<List<WeakReference<PoolEntry>>> threadList = new ThreadLocal<List<WeakReference<PoolEntry>>>() {
+    @Override
+    protected List<WeakReference<PoolEntry>> initialValue() {
+      return new ArrayList<WeakReference<PoolEntry>>(MAX_THREAD_LOCAL_ENTRIES);
+    }
+  }; //当前线程归还过的连接
+
+  /*
+   * Borrows an idle entry
+   *
+   * @param timeout milliseconds to wait for an entry to be handed off, 0 to return immediately
+   * @return the entry, already in use, or null if none became available in time
+   */
+  PoolEntry borrow(long timeout) throws InterruptedException {
+    List<WeakReference<PoolEntry>> list = threadList.get();
+    for (int i = list.size() - 1; i >= 0; i--) { //先取本线程最近归还的连接
+      PoolEntry entry = list.remove(i).get();
+      if (entry != null && entry.compareAndSetState(PoolEntry.STATE_NOT_IN_USE, PoolEntry.STATE_IN_USE)) {
+        return entry;
+      }
+    }
+
+    waiters.incrementAndGet(); //先登记等待再扫描 之后归还的连接都会走交接队列
+    try {
+      for (PoolEntry entry : sharedList) {
+        if (entry.compareAndSetState(PoolEntry.STATE_NOT_IN_USE, PoolEntry.STATE_IN_USE)) {
+          return entry;
+        }
+      }
+      long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+      long deadline = System.nanoTime() + remaining;
+      while (remaining > 0) {
+        PoolEntry entry = handoffQueue.poll(remaining, TimeUnit.NANOSECONDS);
+        if (entry == null) {
+          return null;
+        }
+        if (entry.compareAndSetState(PoolEntry.STATE_NOT_IN_USE, PoolEntry.STATE_IN_USE)) {
+          return entry;
+        }
+        remaining = deadline - System.nanoTime();
+      }
+      return null;
+    } finally {
+      waiters.decrementAndGet();
+    }
+  }
+
+  /*
+   * Returns a borrowed entry, handing it straight to a waiting thread if there is one
+   */
+  void requite(PoolEntry entry) {
+    entry.setState(PoolEntry.STATE_NOT_IN_USE);
+    for (int i = 0; waiters.get() > 0; i++) {
+      if (entry.getState() != PoolEntry.STATE_NOT_IN_USE || handoffQueue.offer(entry)) {
+        return; //已被扫描的线程取走或已交接
+      } else if ((i & 0xff) == 0xff) {
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+      } else {
+        Thread.yield();
+      }
+    }
+    List<WeakReference<PoolEntry>> list = threadList.get();
+    if (list.size() < MAX_THREAD_LOCAL_ENTRIES) {
+      list.add(new WeakReference<PoolEntry>(entry));
+    }
+  }
+
+  void add(PoolEntry entry) {
+    sharedList.add(entry);
+  }
+
+  void remove(PoolEntry entry) {
+    sharedList.remove(entry);
+  }
+
+  /*
+   * A snapshot of all entries, whatever their state
+   */
+  List<PoolEntry> values() {
+    return new ArrayList<PoolEntry>(sharedList);
+  }
+
+  int size() {
+    return sharedList.size();
+  }
+
+  int getWaitingCount() {
+    return waiters.get();
+  }
+
+}
@@ -0,0 +1,93 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * A snapshot of a connection currently borrowed from a {@link PooledDataSource}, used to find out
+ * who holds connections and for how long.
+ */
+public class ConnectionHolder { //借出连接的持有者
+
+  private final int connectionHashCode;
+  private final String threadName; //借出连接的线程名
+  private final String statementId; //借出连接的语句id
+  private final long checkoutTimestamp;
+  private final long heldTime; //已占用的毫秒数
+  private final StackTraceElement[] borrowStackTrace; //借出时的调用栈
+  private final boolean leakReported;
+
+  ConnectionHolder(PooledConnection conn) {
+    this.connectionHashCode = conn.getRealHashCode();
+    this.threadName = conn.getBorrowThread();
+    this.statementId = conn.getBorrowStatementId();
+    this.checkoutTimestamp = conn.getCheckoutTimestamp();
+    this.heldTime = conn.getCheckoutTime();
+    Throwable stack = conn.getBorrowStack();
+    this.borrowStackTrace = stack == null ? null : stack.getStackTrace();
+    this.leakReported = conn.isLeakReported();
+  }
+
+  public int getConnectionHashCode() {
+    return connectionHashCode;
+  }
+
+  public String getThreadName() {
+    return threadName;
+  }
+
+  /*
+   * @return the id of the mapped statement that borrowed the connection, or null if unknown
+   */
+  public String getStatementId() {
+    return statementId;
+  }
+
+  public long getCheckoutTimestamp() {
+    return checkoutTimestamp;
+  }
+
+  public long getHeldTime() {
+    return heldTime;
+  }
+
+  /*
+   * @return where the connection was borrowed, or null if leak detection did not capture it
+   */
+  public StackTraceElement[] getBorrowStackTrace() {
+    return borrowStackTrace;
+  }
+
+  public boolean isLeakReported() {
+    return leakReported;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("Connection ").append(connectionHashCode).append(" held for ").append(heldTime)
+        .append(" ms by thread ").append(threadName);
+    if (statementId != null) {
+      builder.append(" (statement ").append(statementId).append(")");
+    }
+    if (borrowStackTrace != null) {
+      for (StackTraceElement element : borrowStackTrace) {
+        builder.append("\n\tat ").append(element);
+      }
+    }
+    return builder.toString();
+  }
+
+}
@@ -0,0 +1,36 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Checks that a pooled connection still works, see {@link PooledDataSource#setPoolValidator(String)}.
+ * <p>
+ * Implementations must have a public no-arg constructor and be thread safe.
+ */
+public interface ConnectionValidator {
+
+  /**
+   * @param connection The real connection, never the pool's proxy
+   * @param dataSource The pool, to read settings such as the ping query or validation timeout
+   * @return false if the connection must be discarded
+   * @throws SQLException Treated as an invalid connection
+   */
+  boolean isValid(Connection connection, PooledDataSource dataSource) throws SQLException;
+
+}
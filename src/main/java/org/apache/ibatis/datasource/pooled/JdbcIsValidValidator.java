@@ -0,0 +1,32 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Uses {@link Connection#isValid(int)} with {@code poolValidationTimeout}. Most drivers answer it
+ * with a protocol-level ping, which is cheaper than a query and needs no rollback.
+ */
+public class JdbcIsValidValidator implements ConnectionValidator {
+
+  @Override
+  public boolean isValid(Connection connection, PooledDataSource dataSource) throws SQLException {
+    return connection.isValid(dataSource.getPoolValidationTimeout());
+  }
+
+}
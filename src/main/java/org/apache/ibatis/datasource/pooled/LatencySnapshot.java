@@ -0,0 +1,116 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Point-in-time summary of a {@link LatencyHistogram}, in microseconds. Usable as an MXBean
+ * attribute.
+ */
+public class LatencySnapshot {
+
+  private final long count;
+  private final long mean;
+  private final long p50;
+  private final long p90;
+  private final long p99;
+  private final long p999;
+  private final long max;
+  private final long[] counts; //桶计数 MXBean重建时为null 只在计算百分位时使用
+
+  @ConstructorProperties({ "count", "mean", "p50", "p90", "p99", "p999", "max" })
+  public LatencySnapshot(long count, long mean, long p50, long p90, long p99, long p999, long max) {
+    this.count = count;
+    this.mean = mean;
+    this.p50 = p50;
+    this.p90 = p90;
+    this.p99 = p99;
+    this.p999 = p999;
+    this.max = max;
+    this.counts = null;
+  }
+
+  LatencySnapshot(long[] counts, long total, long max) {
+    long n = 0;
+    for (long c : counts) {
+      n += c;
+    }
+    this.counts = counts;
+    this.count = n;
+    this.mean = n == 0 ? 0 : total / n;
+    this.max = max;
+    this.p50 = getValueAtPercentile(50);
+    this.p90 = getValueAtPercentile(90);
+    this.p99 = getValueAtPercentile(99);
+    this.p999 = getValueAtPercentile(99.9);
+  }
+
+  /*
+   * Only called on snapshots taken by LatencyHistogram, which carry the bucket counts
+   *
+   * @param percentile Between 0 and 100
+   * @return The highest value of the bucket the percentile falls in, never more than the maximum
+   */
+  long getValueAtPercentile(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(LatencyHistogram.highestValueOf(i), max);
+      }
+    }
+    return max;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public long getMean() {
+    return mean;
+  }
+
+  public long getP50() {
+    return p50;
+  }
+
+  public long getP90() {
+    return p90;
+  }
+
+  public long getP99() {
+    return p99;
+  }
+
+  public long getP999() {
+    return p999;
+  }
+
+  public long getMax() {
+    return max;
+  }
+
+  @Override
+  public String toString() {
+    return "count=" + count + " mean=" + mean + " p50=" + p50 + " p90=" + p90 + " p99=" + p99 + " p99.9=" + p999 + " max=" + max;
+  }
+
+}
@@ -0,0 +1,43 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Runs {@code poolPingQuery} and rolls back. The default validator.
+ */
+public class PingQueryValidator implements ConnectionValidator {
+
+  @Override
+  public boolean isValid(Connection connection, PooledDataSource dataSource) throws SQLException {
+    Statement statement = connection.createStatement();
+    try {
+      ResultSet rs = statement.executeQuery(dataSource.getPoolPingQuery());
+      rs.close();
+    } finally {
+      statement.close();
+    }
+    if (!connection.getAutoCommit()) { //如果没有开启自动提交进行回滚
+      connection.rollback();
+    }
+    return true;
+  }
+
+}
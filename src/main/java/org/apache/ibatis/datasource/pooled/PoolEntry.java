@@ -0,0 +1,131 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A physical connection held by the {@link PoolEngine#CONCURRENT} pool. The entry outlives the
+ * {@link PooledConnection}s handed out for it: every borrow gets a fresh proxy, so a proxy that has
+ * been closed stays unusable exactly as with the classic pool.
+ */
+class PoolEntry {
+
+  static final int STATE_NOT_IN_USE = 0; //空闲
+  static final int STATE_IN_USE = 1; //已借出
+  static final int STATE_REMOVED = -1; //已移出池
+
+  private final AtomicInteger state = new AtomicInteger(STATE_IN_USE); //新建的连接直接交给创建它的线程
+  private final AtomicReference<PooledConnection> owner = new AtomicReference<PooledConnection>(); //当前借出的代理
+  private final Connection realConnection;
+  private final long createdTimestamp;
+  private volatile long lastUsedTimestamp;
+  private volatile long lastValidatedTimestamp;
+
+  PoolEntry(Connection realConnection) {
+    this.realConnection = realConnection;
+    this.createdTimestamp = System.currentTimeMillis();
+    this.lastUsedTimestamp = createdTimestamp;
+  }
+
+  boolean compareAndSetState(int expect, int update) {
+    return state.compareAndSet(expect, update);
+  }
+
+  int getState() {
+    return state.get();
+  }
+
+  void setState(int update) {
+    state.set(update);
+  }
+
+  /*
+   * Marks the entry as removed
+   *
+   * @return false if some other thread removed it first
+   */
+  boolean markRemoved() {
+    return state.getAndSet(STATE_REMOVED) != STATE_REMOVED;
+  }
+
+  /*
+   * Wraps the real connection in a new proxy for the borrowing thread, stamped with the checkout time before it is
+   * published as the owner, so that other threads never see an owner without one
+   */
+  PooledConnection checkout(PooledDataSource dataSource) {
+    PooledConnection conn = new PooledConnection(realConnection, dataSource);
+    conn.setEntry(this);
+    conn.setCreatedTimestamp(createdTimestamp);
+    conn.setLastUsedTimestamp(lastUsedTimestamp);
+    conn.setLastValidatedTimestamp(lastValidatedTimestamp);
+    conn.setCheckoutTimestamp(System.currentTimeMillis());
+    owner.set(conn); //volatile写 发布上面设置的时间戳
+    return conn;
+  }
+
+  /*
+   * Detaches the proxy being closed from the entry
+   *
+   * @return false if the proxy no longer owns the entry (it was reclaimed or the pool was closed)
+   */
+  boolean checkin(PooledConnection conn) {
+    if (!owner.compareAndSet(conn, null)) {
+      return false;
+    }
+    lastUsedTimestamp = conn.getLastUsedTimestamp();
+    lastValidatedTimestamp = conn.getLastValidatedTimestamp();
+    return true;
+  }
+
+  /*
+   * Takes the entry away from the given proxy, see {@link #checkin(PooledConnection)}
+   */
+  boolean reclaim(PooledConnection conn) {
+    return owner.compareAndSet(conn, null);
+  }
+
+  PooledConnection clearOwner() {
+    return owner.getAndSet(null);
+  }
+
+  PooledConnection getOwner() {
+    return owner.get();
+  }
+
+  Connection getRealConnection() {
+    return realConnection;
+  }
+
+  long getCreatedTimestamp() {
+    return createdTimestamp;
+  }
+
+  long getLastUsedTimestamp() {
+    return lastUsedTimestamp;
+  }
+
+  long getLastValidatedTimestamp() {
+    return lastValidatedTimestamp;
+  }
+
+  void setLastValidatedTimestamp(long lastValidatedTimestamp) {
+    this.lastValidatedTimestamp = lastValidatedTimestamp;
+  }
+
+}
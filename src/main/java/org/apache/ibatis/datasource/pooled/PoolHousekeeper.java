@@ -0,0 +1,83 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Periodically runs {@link PooledDataSource#housekeep()} on a daemon thread shared by all pools.
+ * Only a weak reference to the data source is kept, so an unreachable pool is still finalized and
+ * its task cancels itself.
+ */
+class PoolHousekeeper implements Runnable { //连接池后台维护任务
+
+  private static final Log log = LogFactory.getLog(PoolHousekeeper.class);
+
+  private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "mybatis-pool-housekeeper");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  private final WeakReference<PooledDataSource> dataSource;
+  private volatile ScheduledFuture<?> future;
+
+  private PoolHousekeeper(PooledDataSource dataSource) {
+    this.dataSource = new WeakReference<PooledDataSource>(dataSource);
+  }
+
+  /*
+   * Starts housekeeping right away and then every interval milliseconds
+   */
+  static PoolHousekeeper schedule(PooledDataSource dataSource, long interval) {
+    PoolHousekeeper housekeeper = new PoolHousekeeper(dataSource);
+    housekeeper.future = executor.scheduleWithFixedDelay(housekeeper, 0, interval, TimeUnit.MILLISECONDS);
+    return housekeeper;
+  }
+
+  @Override
+  public void run() {
+    PooledDataSource ds = dataSource.get();
+    if (ds == null) { //数据源已被回收
+      cancel();
+      return;
+    }
+    try {
+      ds.housekeep();
+    } catch (Throwable t) { //异常会终止定时任务 这里只记录
+      log.error("Pool housekeeping failed. Cause: " + t, t);
+    }
+  }
+
+  void cancel() {
+    ScheduledFuture<?> f = future;
+    if (f != null) {
+      f.cancel(false);
+    }
+  }
+
+}
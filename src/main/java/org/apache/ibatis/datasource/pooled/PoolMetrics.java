@@ -0,0 +1,197 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live metrics of a {@link PooledDataSource}: latency histograms recorded without locks and gauges
+ * of the pool. Every getter returns a fresh snapshot.
+ * <p>
+ * The pool is only weakly referenced, so that registering the metrics as an MBean does not keep
+ * a discarded pool from being collected. The gauges of a collected pool read as empty.
+ */
+public class PoolMetrics implements PoolMetricsMXBean { //连接池指标
+
+  private final WeakReference<PooledDataSource> dataSource; //MBean注册不能阻止连接池被回收
+  private final LatencyHistogram borrowWait = new LatencyHistogram(); //获取连接的耗时
+  private final LatencyHistogram checkout = new LatencyHistogram(); //连接被占用的时长
+  private final LatencyHistogram creation = new LatencyHistogram(); //新建连接的耗时
+  private final LatencyHistogram validation = new LatencyHistogram(); //校验连接的耗时
+  private final AtomicInteger waitingThreads = new AtomicInteger(); //等待连接的线程数
+  private final AtomicLong leakedConnections = new AtomicLong(); //报告为泄漏的连接数
+
+  PoolMetrics(PooledDataSource dataSource) {
+    this.dataSource = new WeakReference<PooledDataSource>(dataSource);
+  }
+
+  void recordBorrowWait(long nanos) {
+    borrowWait.record(nanos / 1000);
+  }
+
+  void recordCheckout(long nanos) {
+    checkout.record(nanos / 1000);
+  }
+
+  void recordCreation(long nanos) {
+    creation.record(nanos / 1000);
+  }
+
+  void recordValidation(long nanos) {
+    validation.record(nanos / 1000);
+  }
+
+  void recordLeak() {
+    leakedConnections.incrementAndGet();
+  }
+
+  void waitStarted() {
+    waitingThreads.incrementAndGet();
+  }
+
+  void waitEnded() {
+    waitingThreads.decrementAndGet();
+  }
+
+  @Override
+  public int getActiveConnections() {
+    PoolState state = state();
+    return state == null ? 0 : state.getActiveConnectionCount();
+  }
+
+  @Override
+  public int getIdleConnections() {
+    PoolState state = state();
+    return state == null ? 0 : state.getIdleConnectionCount();
+  }
+
+  @Override
+  public int getWaitingThreads() {
+    return waitingThreads.get();
+  }
+
+  @Override
+  public long getRequestCount() {
+    PoolState state = state();
+    return state == null ? 0 : state.getRequestCount();
+  }
+
+  @Override
+  public long getBadConnectionCount() {
+    PoolState state = state();
+    return state == null ? 0 : state.getBadConnectionCount();
+  }
+
+  @Override
+  public long getClaimedOverdueConnectionCount() {
+    PoolState state = state();
+    return state == null ? 0 : state.getClaimedOverdueConnectionCount();
+  }
+
+  @Override
+  public long getRejectedRequestCount() {
+    PoolState state = state();
+    return state == null ? 0 : state.getRejectedRequestCount();
+  }
+
+  @Override
+  public long getTimedOutRequestCount() {
+    PoolState state = state();
+    return state == null ? 0 : state.getTimedOutRequestCount();
+  }
+
+  @Override
+  public long getLeakedConnectionCount() {
+    return leakedConnections.get();
+  }
+
+  @Override
+  public String[] getConnectionHolders() {
+    PooledDataSource pool = dataSource.get();
+    if (pool == null) {
+      return new String[0];
+    }
+    List<ConnectionHolder> holders = pool.getConnectionHolders();
+    String[] result = new String[holders.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = holders.get(i).toString();
+    }
+    return result;
+  }
+
+  @Override
+  public LatencySnapshot getBorrowWaitTime() {
+    return borrowWait.snapshot();
+  }
+
+  @Override
+  public LatencySnapshot getCheckoutTime() {
+    return checkout.snapshot();
+  }
+
+  @Override
+  public LatencySnapshot getConnectionCreationTime() {
+    return creation.snapshot();
+  }
+
+  @Override
+  public LatencySnapshot getValidationTime() {
+    return validation.snapshot();
+  }
+
+  public LatencyHistogram getBorrowWaitHistogram() {
+    return borrowWait;
+  }
+
+  public LatencyHistogram getCheckoutHistogram() {
+    return checkout;
+  }
+
+  public LatencyHistogram getConnectionCreationHistogram() {
+    return creation;
+  }
+
+  public LatencyHistogram getValidationHistogram() {
+    return validation;
+  }
+
+  @Override
+  public void reset() {
+    borrowWait.reset();
+    checkout.reset();
+    creation.reset();
+    validation.reset();
+    leakedConnections.set(0);
+  }
+
+  @Override
+  public String toString() {
+    return "active=" + getActiveConnections() + " idle=" + getIdleConnections() + " waiting=" + getWaitingThreads()
+        + "\n borrowWait  " + getBorrowWaitTime()
+        + "\n checkout    " + getCheckoutTime()
+        + "\n creation    " + getConnectionCreationTime()
+        + "\n validation  " + getValidationTime();
+  }
+
+  private PoolState state() {
+    PooledDataSource pool = dataSource.get();
+    return pool == null ? null : pool.getPoolState();
+  }
+
+}
@@ -0,0 +1,59 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * Management interface of {@link PoolMetrics}. Latencies are in microseconds.
+ */
+public interface PoolMetricsMXBean {
+
+  int getActiveConnections();
+
+  int getIdleConnections();
+
+  int getWaitingThreads();
+
+  long getRequestCount();
+
+  long getBadConnectionCount();
+
+  long getClaimedOverdueConnectionCount();
+
+  /** Requests that failed at once because too many threads were waiting */
+  long getRejectedRequestCount();
+
+  /** Requests that failed because their borrow timeout elapsed */
+  long getTimedOutRequestCount();
+
+  /** Connections held longer than poolLeakDetectionThreshold */
+  long getLeakedConnectionCount();
+
+  /** The connections currently borrowed, with their holder and borrow stack trace when captured */
+  String[] getConnectionHolders();
+
+  /** From the call to getConnection until a connection is handed out */
+  LatencySnapshot getBorrowWaitTime();
+
+  /** From borrow until close, i.e. how long connections are held */
+  LatencySnapshot getCheckoutTime();
+
+  LatencySnapshot getConnectionCreationTime();
+
+  LatencySnapshot getValidationTime();
+
+  void reset();
+
+}
@@ -16,7 +16,9 @@
 package org.apache.ibatis.datasource.pooled;
 
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
 
 /**
  * @author Clinton Begin
@@ -35,6 +37,10 @@ public class PoolState { //数据池状态 作用于整个连接池
   protected long accumulatedWaitTime = 0; //总等待时间
   protected long hadToWaitCount = 0; //要等待的次数
   protected long badConnectionCount = 0;//坏的连接次数
+  protected long rejectedRequestCount = 0; //排队线程过多被拒绝的请求数
+  protected long timedOutRequestCount = 0; //等待超时的请求数
+  protected final Queue<PoolWaiter> waiters = new LinkedList<PoolWaiter>(); //排队等待连接的线程 先进先出
+  protected int reservedCount = 0; //维护线程在锁外侦测或创建的连接 不在两个列表中但计入连接上限
 
   public PoolState(PooledDataSource dataSource) {
     this.dataSource = dataSource;
@@ -61,6 +67,14 @@ public class PoolState { //数据池状态 作用于整个连接池
     return badConnectionCount;
   }
 
+  public synchronized long getRejectedRequestCount() {
+    return rejectedRequestCount;
+  }
+
+  public synchronized long getTimedOutRequestCount() {
+    return timedOutRequestCount;
+  }
+
   public synchronized long getClaimedOverdueConnectionCount() {
     return claimedOverdueConnectionCount;
   }
@@ -82,6 +96,10 @@ public class PoolState { //数据池状态 作用于整个连接池
     return activeConnections.size();
   }
 
+  synchronized List<PooledConnection> activeConnectionsSnapshot() { //借出连接的副本 用于泄漏检测
+    return new ArrayList<PooledConnection>(activeConnections);
+  }
+
   @Override
   public synchronized String toString() {
     StringBuilder builder = new StringBuilder();
@@ -108,6 +126,8 @@ public class PoolState { //数据池状态 作用于整个连接池
     builder.append("\n hadToWait                      ").append(getHadToWaitCount());
     builder.append("\n averageWaitTime                ").append(getAverageWaitTime());
     builder.append("\n badConnectionCount             ").append(getBadConnectionCount());
+    builder.append("\n rejectedRequests               ").append(getRejectedRequestCount());
+    builder.append("\n timedOutRequests               ").append(getTimedOutRequestCount());
     builder.append("\n===============================================================");
     return builder.toString();
   }
@@ -0,0 +1,59 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * A thread queued for a connection of the {@link PoolEngine#CLASSIC} pool. Returning threads hand
+ * their connection to the oldest waiter instead of waking every waiting thread.
+ */
+class PoolWaiter { //排队等待连接的线程
+
+  private PooledConnection connection; //交接过来的连接 为null表示只是被唤醒重试
+  private boolean signalled;
+
+  /*
+   * @return false if the timeout elapsed without a signal
+   */
+  synchronized boolean await(long timeout) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeout;
+    while (!signalled) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        return false;
+      }
+      wait(remaining);
+    }
+    return true;
+  }
+
+  /*
+   * Wakes the waiter, handing it a connection or null to make it retry
+   */
+  synchronized void signal(PooledConnection connection) {
+    this.connection = connection;
+    this.signalled = true;
+    notify();
+  }
+
+  synchronized boolean isSignalled() {
+    return signalled;
+  }
+
+  synchronized PooledConnection getConnection() {
+    return connection;
+  }
+
+}
@@ -36,10 +36,17 @@ class PooledConnection implements InvocationHandler { //池型连接
   private final Connection realConnection; //真正的连接
   private final Connection proxyConnection; //代理连接
   private long checkoutTimestamp; //检查时间戳
+  private long checkoutNanoTime; //借出时的System.nanoTime 用于统计占用时长
   private long createdTimestamp; //创建时间戳
   private long lastUsedTimestamp; //最后使用的时间戳
+  private long lastValidatedTimestamp; //最后校验成功的时间戳
   private int connectionTypeCode; //数据库连接的类型编码，格式为：url+username+password
-  private boolean valid;//是否检验
+  private volatile boolean valid;//是否检验
+  private PoolEntry entry; //无锁连接池中对应的物理连接 经典连接池下为null
+  private volatile String borrowThread; //借出连接的线程名
+  private volatile String borrowStatementId; //借出连接的语句id 未知时为null
+  private volatile Throwable borrowStack; //借出时的调用栈 未开启泄漏检测或未被采样时为null
+  private volatile boolean leakReported; //是否已报告为泄漏
 
   /*
    * Constructor for SimplePooledConnection that uses the Connection and PooledDataSource passed in
@@ -73,6 +80,18 @@ class PooledConnection implements InvocationHandler { //池型连接
     return valid && realConnection != null && dataSource.pingConnection(this);
   }
 
+  /*
+   * Method to see if the connection is usable, running the validator only if the pool validates
+   * connections at this moment
+   *
+   * @param phase BORROW or RETURN
+   * @return True if the connection is usable
+   */
+  public boolean isValid(PoolValidation phase) {
+    PoolValidation validation = dataSource.getPoolValidation();
+    return valid && realConnection != null && dataSource.pingConnection(this, validation == PoolValidation.ALWAYS || validation == phase);
+  }
+
   /*
    * Getter for the *real* connection that this wraps
    *
@@ -100,6 +119,19 @@ class PooledConnection implements InvocationHandler { //池型连接
     return realConnection == null ? 0 : realConnection.hashCode();
   }
 
+  /*
+   * Getter for the entry of the concurrent pool this connection was borrowed from
+   *
+   * @return The entry, or null if the connection belongs to the classic pool
+   */
+  PoolEntry getEntry() {
+    return entry;
+  }
+
+  void setEntry(PoolEntry entry) {
+    this.entry = entry;
+  }
+
   /*
    * Getter for the connection type (based on url + user + password)
    *
@@ -154,6 +186,19 @@ class PooledConnection implements InvocationHandler { //池型连接
     this.lastUsedTimestamp = lastUsedTimestamp;
   }
 
+  /*
+   * Getter for the time that the connection was last validated successfully
+   *
+   * @return - the timestamp, 0 if never
+   */
+  public long getLastValidatedTimestamp() {
+    return lastValidatedTimestamp;
+  }
+
+  public void setLastValidatedTimestamp(long lastValidatedTimestamp) {
+    this.lastValidatedTimestamp = lastValidatedTimestamp;
+  }
+
   /*
    * Getter for the time since this connection was last used
    *
@@ -188,6 +233,7 @@ class PooledConnection implements InvocationHandler { //池型连接
    */
   public void setCheckoutTimestamp(long timestamp) {
     this.checkoutTimestamp = timestamp;
+    this.checkoutNanoTime = System.nanoTime();
   }
 
   /*
@@ -199,6 +245,48 @@ class PooledConnection implements InvocationHandler { //池型连接
     return System.currentTimeMillis() - checkoutTimestamp;
   }
 
+  /*
+   * Getter for the time that this connection has been checked out, in nanoseconds
+   *
+   * @return the time
+   */
+  long getCheckoutNanos() {
+    return System.nanoTime() - checkoutNanoTime;
+  }
+
+  /*
+   * Records who borrowed this connection, for leak detection
+   *
+   * @param thread the name of the borrowing thread
+   * @param statementId the id of the mapped statement, or null if unknown
+   * @param stack where the connection was borrowed, or null if not captured
+   */
+  void setBorrower(String thread, String statementId, Throwable stack) {
+    this.borrowThread = thread;
+    this.borrowStatementId = statementId;
+    this.borrowStack = stack;
+  }
+
+  String getBorrowThread() {
+    return borrowThread;
+  }
+
+  String getBorrowStatementId() {
+    return borrowStatementId;
+  }
+
+  Throwable getBorrowStack() {
+    return borrowStack;
+  }
+
+  boolean isLeakReported() {
+    return leakReported;
+  }
+
+  void setLeakReported(boolean leakReported) {
+    this.leakReported = leakReported;
+  }
+
   @Override
   public int hashCode() {
     return hashCode;
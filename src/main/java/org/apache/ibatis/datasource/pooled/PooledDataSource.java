@@ -16,24 +16,36 @@
 package org.apache.ibatis.datasource.pooled;
 
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.sql.DataSource;
 
+import org.apache.ibatis.datasource.ConnectionRequest;
+import org.apache.ibatis.datasource.DataSourceException;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.io.Resources;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
 /**
  * This is a simple, synchronous, thread-safe database connection pool.
+ * Setting {@code poolEngine} to {@link PoolEngine#CONCURRENT} swaps in a lock-free implementation.
  *
  * @author Clinton Begin
  */
@@ -41,7 +53,7 @@ public class PooledDataSource implements DataSource { //池型数据源
 
   private static final Log log = LogFactory.getLog(PooledDataSource.class);
 
-  private final PoolState state = new PoolState(this); //池状态
+  private volatile PoolState state = new PoolState(this); //池状态 随连接池实现切换
 
   private final UnpooledDataSource dataSource; //具体的数据源还是非池型的
 
@@ -54,8 +66,27 @@ public class PooledDataSource implements DataSource { //池型数据源
   protected String poolPingQuery = "NO PING QUERY SET"; //在验证连接是否有效的时候，对数据库执行查询，查询内容为该设置内容。整个目的就是为了得知这个数据库连接还是否能够使用（未关闭，并处于正常状态），这是一个侦测查询。
   protected boolean poolPingEnabled;//这是一个开关，表示是否打开侦测查询功能，默认为false，表示关闭该功能。
   protected int poolPingConnectionsNotUsedFor; //如果一个连接在限定的时间内一直未被使用 该值就是限定时间默认值为0
-
-  private int expectedConnectionTypeCode; //连接的类型编码他的组装需要从数据源中获取连接的url、username、password三个值
+  protected PoolEngine poolEngine = PoolEngine.CLASSIC; //连接池实现
+  protected int poolMinimumIdle; //后台维护的最小空闲连接数 默认0
+  protected int poolMaximumLifetime; //连接的最长存活时间 超过后在空闲或归还时关闭 默认0不限
+  protected int poolIdleTimeout; //空闲连接超过该时间未使用则关闭 保留最小空闲连接数 默认0不限
+  protected int poolHousekeepingInterval = 30000; //后台维护的间隔时间
+  protected PoolValidation poolValidation = PoolValidation.ALWAYS; //何时校验连接
+  protected int poolValidationWindow; //连接在该时间内校验过则不再校验 默认0
+  protected int poolValidationTimeout = 5; //Connection.isValid的超时秒数
+  protected ConnectionValidator connectionValidator = new PingQueryValidator(); //连接校验策略
+  protected int poolBorrowTimeout; //获取连接的最长等待时间 默认0表示一直等到能回收超时连接为止
+  protected int poolMaximumWaitingThreads = Integer.MAX_VALUE; //最多允许排队的线程数 超过后立即失败
+  protected int poolLeakDetectionThreshold; //连接被占用超过该时间则报告为泄漏 默认0关闭
+  protected int poolLeakDetectionSampleRate = 1; //每N次借出记录一次调用栈
+
+  private final AtomicLong borrowSequence = new AtomicLong(); //借出次数 用于调用栈采样
+
+  private volatile PoolHousekeeper housekeeper; //后台维护任务 首次获取连接时启动
+  private final PoolMetrics metrics = new PoolMetrics(this); //连接池指标
+  private ObjectName mbeanName; //注册的JMX名称
+
+  private volatile int expectedConnectionTypeCode; //连接的类型编码他的组装需要从数据源中获取连接的url、username、password三个值
 
   public PooledDataSource() {
     dataSource = new UnpooledDataSource();
@@ -87,12 +118,31 @@ public class PooledDataSource implements DataSource { //池型数据源
 
   @Override
   public Connection getConnection() throws SQLException { //获取连接
-    return popConnection(dataSource.getUsername(), dataSource.getPassword()).getProxyConnection();
+    return checkoutConnection(dataSource.getUsername(), dataSource.getPassword());
   }
 
   @Override
   public Connection getConnection(String username, String password) throws SQLException {
-    return popConnection(username, password).getProxyConnection();
+    return checkoutConnection(username, password);
+  }
+
+  private Connection checkoutConnection(String username, String password) throws SQLException {
+    startHousekeeper();
+    long start = System.nanoTime();
+    PooledConnection conn = popConnection(username, password);
+    metrics.recordBorrowWait(System.nanoTime() - start);
+    recordBorrower(conn);
+    return conn.getProxyConnection();
+  }
+
+  private void recordBorrower(PooledConnection conn) { //登记借出连接的线程和语句 开启泄漏检测时按采样率记录调用栈
+    Throwable stack = null;
+    if (poolLeakDetectionThreshold > 0
+        && (poolLeakDetectionSampleRate <= 1 || borrowSequence.getAndIncrement() % poolLeakDetectionSampleRate == 0)) {
+      stack = new Throwable("Connection borrowed here");
+    }
+    ConnectionRequest request = ConnectionRequest.current(); //记录是哪个语句借出的连接
+    conn.setBorrower(Thread.currentThread().getName(), request == null ? null : request.getStatementId(), stack);
   }
 
   @Override
@@ -236,6 +286,138 @@ public class PooledDataSource implements DataSource { //池型数据源
     forceCloseAll();
   }
 
+  /*
+   * Selects the pool implementation. Switching closes all connections of the previous one.
+   *
+   * @param poolEngine CLASSIC (the default) or CONCURRENT
+   */
+  public void setPoolEngine(PoolEngine poolEngine) {
+    forceCloseAll();
+    this.poolEngine = poolEngine;
+    this.state = poolEngine == PoolEngine.CONCURRENT ? new ConcurrentPoolState(this) : new PoolState(this);
+  }
+
+  /*
+   * The number of idle connections the housekeeper keeps ready, capped by poolMaximumIdleConnections
+   *
+   * @param poolMinimumIdle The minimum number of idle connections
+   */
+  public void setPoolMinimumIdle(int poolMinimumIdle) {
+    this.poolMinimumIdle = poolMinimumIdle;
+  }
+
+  /*
+   * The time after which a connection is closed, idle ones by the housekeeper and active ones when
+   * they are returned. Each connection retires up to 2.5% earlier so connections created together
+   * do not all reconnect at the same moment.
+   *
+   * @param poolMaximumLifetime The maximum lifetime in milliseconds, 0 for unlimited
+   */
+  public void setPoolMaximumLifetime(int poolMaximumLifetime) {
+    this.poolMaximumLifetime = poolMaximumLifetime;
+  }
+
+  /*
+   * The time an idle connection may stay unused before the housekeeper closes it
+   *
+   * @param poolIdleTimeout The idle timeout in milliseconds, 0 for never
+   */
+  public void setPoolIdleTimeout(int poolIdleTimeout) {
+    this.poolIdleTimeout = poolIdleTimeout;
+  }
+
+  /*
+   * How often the housekeeper runs
+   *
+   * @param poolHousekeepingInterval The interval in milliseconds
+   */
+  public void setPoolHousekeepingInterval(int poolHousekeepingInterval) {
+    this.poolHousekeepingInterval = poolHousekeepingInterval;
+    stopHousekeeper();
+  }
+
+  /*
+   * The validator used when poolPingEnabled is true
+   *
+   * @param validatorClassName Name of a {@link ConnectionValidator}, e.g. JdbcIsValidValidator
+   */
+  public void setPoolValidator(String validatorClassName) {
+    try {
+      setConnectionValidator((ConnectionValidator) Resources.classForName(validatorClassName).newInstance());
+    } catch (Exception e) {
+      throw new DataSourceException("Error creating connection validator " + validatorClassName + ".  Cause: " + e, e);
+    }
+  }
+
+  public void setConnectionValidator(ConnectionValidator connectionValidator) {
+    this.connectionValidator = connectionValidator;
+  }
+
+  /*
+   * When the validator runs
+   *
+   * @param poolValidation ALWAYS (borrow and return, the default), BORROW, RETURN or BACKGROUND
+   */
+  public void setPoolValidation(PoolValidation poolValidation) {
+    this.poolValidation = poolValidation;
+  }
+
+  /*
+   * A connection validated less than this many milliseconds ago is not validated again
+   *
+   * @param poolValidationWindow The window in milliseconds, 0 to validate every time
+   */
+  public void setPoolValidationWindow(int poolValidationWindow) {
+    this.poolValidationWindow = poolValidationWindow;
+  }
+
+  /*
+   * @param poolValidationTimeout Seconds passed to Connection.isValid, 0 for no timeout
+   */
+  public void setPoolValidationTimeout(int poolValidationTimeout) {
+    this.poolValidationTimeout = poolValidationTimeout;
+  }
+
+  /*
+   * The longest a request waits for a connection before failing with a
+   * {@link SQLTransientConnectionException}
+   *
+   * @param poolBorrowTimeout The timeout in milliseconds, 0 to wait until an overdue connection can be claimed
+   */
+  public void setPoolBorrowTimeout(int poolBorrowTimeout) {
+    this.poolBorrowTimeout = poolBorrowTimeout;
+  }
+
+  /*
+   * The number of threads that may wait for a connection. Further requests fail at once with a
+   * {@link SQLTransientConnectionException}.
+   *
+   * @param poolMaximumWaitingThreads The maximum number of waiting threads
+   */
+  public void setPoolMaximumWaitingThreads(int poolMaximumWaitingThreads) {
+    this.poolMaximumWaitingThreads = poolMaximumWaitingThreads;
+  }
+
+  /*
+   * Connections held longer than this are logged as leaked, with the stack trace of the borrower
+   * when it was captured. Enables the housekeeper, which checks every poolHousekeepingInterval.
+   *
+   * @param poolLeakDetectionThreshold The threshold in milliseconds, 0 to disable
+   */
+  public void setPoolLeakDetectionThreshold(int poolLeakDetectionThreshold) {
+    this.poolLeakDetectionThreshold = poolLeakDetectionThreshold;
+  }
+
+  /*
+   * Captures the stack trace of one borrow in every poolLeakDetectionSampleRate, as capturing it
+   * on every borrow is expensive
+   *
+   * @param poolLeakDetectionSampleRate 1 to capture every borrow
+   */
+  public void setPoolLeakDetectionSampleRate(int poolLeakDetectionSampleRate) {
+    this.poolLeakDetectionSampleRate = poolLeakDetectionSampleRate;
+  }
+
   public String getDriver() {
     return dataSource.getDriver();
   }
@@ -296,10 +478,71 @@ public class PooledDataSource implements DataSource { //池型数据源
     return poolPingConnectionsNotUsedFor;
   }
 
+  public PoolEngine getPoolEngine() {
+    return poolEngine;
+  }
+
+  public int getPoolMinimumIdle() {
+    return poolMinimumIdle;
+  }
+
+  public int getPoolMaximumLifetime() {
+    return poolMaximumLifetime;
+  }
+
+  public int getPoolIdleTimeout() {
+    return poolIdleTimeout;
+  }
+
+  public int getPoolHousekeepingInterval() {
+    return poolHousekeepingInterval;
+  }
+
+  public int getPoolBorrowTimeout() {
+    return poolBorrowTimeout;
+  }
+
+  public int getPoolLeakDetectionThreshold() {
+    return poolLeakDetectionThreshold;
+  }
+
+  public int getPoolLeakDetectionSampleRate() {
+    return poolLeakDetectionSampleRate;
+  }
+
+  public int getPoolMaximumWaitingThreads() {
+    return poolMaximumWaitingThreads;
+  }
+
+  public ConnectionValidator getConnectionValidator() {
+    return connectionValidator;
+  }
+
+  public PoolValidation getPoolValidation() {
+    return poolValidation;
+  }
+
+  public int getPoolValidationWindow() {
+    return poolValidationWindow;
+  }
+
+  public int getPoolValidationTimeout() {
+    return poolValidationTimeout;
+  }
+
   /*
    * Closes all active and idle connections in the pool
    */
   public void forceCloseAll() { //关闭所有活跃和空闲的连接
+    PoolState state = this.state;
+    if (state instanceof ConcurrentPoolState) {
+      expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
+      ((ConcurrentPoolState) state).closeAll();
+      if (log.isDebugEnabled()) {
+        log.debug("PooledDataSource forcefully closed/removed all connections.");
+      }
+      return;
+    }
     synchronized (state) {
       expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
       for (int i = state.activeConnections.size(); i > 0; i--) {
@@ -316,6 +559,9 @@ public class PooledDataSource implements DataSource { //池型数据源
           // ignore
         }
       }
+      for (PoolWaiter waiter = state.waiters.poll(); waiter != null; waiter = state.waiters.poll()) { //唤醒排队的线程重新获取
+        waiter.signal(null);
+      }
       for (int i = state.idleConnections.size(); i > 0; i--) {
         try {
           PooledConnection conn = state.idleConnections.remove(i - 1);
@@ -340,31 +586,95 @@ public class PooledDataSource implements DataSource { //池型数据源
     return state;
   }
 
-  private int assembleConnectionTypeCode(String url, String username, String password) {
+  /*
+   * The connections currently borrowed from the pool and who holds them
+   */
+  public List<ConnectionHolder> getConnectionHolders() {
+    List<ConnectionHolder> holders = new ArrayList<ConnectionHolder>();
+    for (PooledConnection conn : state.activeConnectionsSnapshot()) {
+      if (conn.getBorrowThread() != null) { //尚未登记借出者的连接跳过
+        holders.add(new ConnectionHolder(conn));
+      }
+    }
+    return holders;
+  }
+
+  /*
+   * Live latency histograms and gauges of the pool
+   */
+  public PoolMetrics getPoolMetrics() {
+    return metrics;
+  }
+
+  /*
+   * Registers the pool metrics with the platform MBean server as
+   * org.apache.ibatis.datasource:type=PooledDataSource,name=&lt;poolMBeanName&gt;. The MBean does
+   * not keep the pool from being collected; it is unregistered when the pool is finalized, or
+   * explicitly by calling this method with null when the pool is discarded
+   *
+   * @param poolMBeanName The name, null to unregister
+   */
+  public synchronized void setPoolMBeanName(String poolMBeanName) {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      if (mbeanName != null && server.isRegistered(mbeanName)) {
+        server.unregisterMBean(mbeanName);
+      }
+      mbeanName = null;
+      if (poolMBeanName != null) {
+        ObjectName name = new ObjectName("org.apache.ibatis.datasource:type=PooledDataSource,name=" + poolMBeanName);
+        server.registerMBean(metrics, name);
+        mbeanName = name;
+      }
+    } catch (JMException e) { //JMX不可用不影响连接池
+      log.warn("Could not register the pool metrics MBean " + poolMBeanName + ". Cause: " + e);
+    }
+  }
+
+  int assembleConnectionTypeCode(String url, String username, String password) {
     return ("" + url + username + password).hashCode();
   }
 
+  int getExpectedConnectionTypeCode() {
+    return expectedConnectionTypeCode;
+  }
+
   protected void pushConnection(PooledConnection conn) throws SQLException { //将连接加入空闲列表
+    if (conn.isLeakReported()) {
+      log.warn("Previously reported leaked connection " + conn.getRealHashCode() + " was returned after "
+          + conn.getCheckoutTime() + " ms.");
+    }
+    PoolState state = this.state;
+    if (state instanceof ConcurrentPoolState) {
+      ((ConcurrentPoolState) state).release(conn);
+      return;
+    }
 
     synchronized (state) { //锁定
-      state.activeConnections.remove(conn); //活跃的线程列表移除该链接
-      if (conn.isValid()) { //如果检查连接ok
+      if (state.activeConnections.remove(conn)) { //活跃的线程列表移除该链接
+        metrics.recordCheckout(conn.getCheckoutNanos());
+      }
+      if (conn.isValid(PoolValidation.RETURN)) { //如果检查连接ok
         //如果空闲连接总数小于默认的连接总数并且连接Code等于当前俩呢及的
-        if (state.idleConnections.size() < poolMaximumIdleConnections && conn.getConnectionTypeCode() == expectedConnectionTypeCode) {
+        if ((state.idleConnections.size() < poolMaximumIdleConnections || !state.waiters.isEmpty()) //空闲未满或有线程在等待
+            && conn.getConnectionTypeCode() == expectedConnectionTypeCode
+            && !isPastMaximumLifetime(conn.getCreatedTimestamp(), conn.getRealHashCode())) {
           state.accumulatedCheckoutTime += conn.getCheckoutTime(); //连接检查时间添加
           if (!conn.getRealConnection().getAutoCommit()) { //回滚？？
             conn.getRealConnection().rollback();
           }
           PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this); //使用原有连接创建
-          state.idleConnections.add(newConn); //空闲队列添加该链接
           newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
           newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
+          newConn.setLastValidatedTimestamp(conn.getLastValidatedTimestamp());
           conn.invalidate(); //设置无效？？
-          if (log.isDebugEnabled()) {
-            log.debug("Returned connection " + newConn.getRealHashCode() + " to pool.");
+          if (!handOff(state, newConn)) { //优先直接交给等待最久的线程
+            state.idleConnections.add(newConn); //空闲队列添加该链接
+            if (log.isDebugEnabled()) {
+              log.debug("Returned connection " + newConn.getRealHashCode() + " to pool.");
+            }
           }
-          state.notifyAll();//唤醒挂起的线程
-        } else { //如果空闲队列满了直接关闭连接
+        } else { //如果空闲队列满了或连接已超过最长存活时间直接关闭连接
           state.accumulatedCheckoutTime += conn.getCheckoutTime();
           if (!conn.getRealConnection().getAutoCommit()) {
             conn.getRealConnection().rollback();
@@ -374,25 +684,113 @@ public class PooledDataSource implements DataSource { //池型数据源
             log.debug("Closed connection " + conn.getRealHashCode() + ".");
           }
           conn.invalidate();
+          wakeWaiter(state); //腾出了位置 让等待的线程新建连接
         }
       } else { //检查连接失败
         if (log.isDebugEnabled()) {
           log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
         }
         state.badConnectionCount++; //连接错误数加1  不需要关闭因为连接已坏
+        wakeWaiter(state);
       }
     }
   }
 
+  /*
+   * Hands a connection to the thread that has been waiting longest. Must hold the state lock.
+   *
+   * @return false if no thread is waiting
+   */
+  private boolean handOff(PoolState state, PooledConnection conn) {
+    PoolWaiter waiter = state.waiters.poll();
+    if (waiter == null) {
+      return false;
+    }
+    conn.setCheckoutTimestamp(System.currentTimeMillis()); //交接期间计入活跃连接 避免超出最大连接数或被当作超时连接回收
+    state.activeConnections.add(conn);
+    waiter.signal(conn);
+    if (log.isDebugEnabled()) {
+      log.debug("Handed connection " + conn.getRealHashCode() + " to a waiting thread.");
+    }
+    return true;
+  }
+
+  /*
+   * Wakes the thread that has been waiting longest without a connection so it can retry. Must hold
+   * the state lock.
+   */
+  private void wakeWaiter(PoolState state) {
+    PoolWaiter waiter = state.waiters.poll();
+    if (waiter != null) {
+      waiter.signal(null);
+    }
+  }
+
+  /*
+   * Waits outside the state lock until a returning thread signals the waiter or the wait slice ends
+   *
+   * @return the connection handed off, already counted as active, or null to retry
+   */
+  private PooledConnection awaitHandOff(PoolState state, PoolWaiter waiter, long wait) throws SQLException {
+    if (log.isDebugEnabled()) {
+      log.debug("Waiting as long as " + wait + " milliseconds for connection.");
+    }
+    long wt = System.currentTimeMillis();
+    boolean interrupted = false;
+    metrics.waitStarted();
+    try {
+      waiter.await(wait);
+    } catch (InterruptedException e) {
+      interrupted = true;
+    } finally {
+      metrics.waitEnded();
+    }
+    synchronized (state) {
+      state.accumulatedWaitTime += System.currentTimeMillis() - wt; //总等待时间等于被唤醒时间减去等待的时间
+      if (!waiter.isSignalled()) { //超时 离开队列
+        state.waiters.remove(waiter);
+      }
+      PooledConnection conn = waiter.getConnection();
+      if (interrupted) { //线程被中断 交接来的连接转给下一个等待者或放回空闲列表
+        if (conn != null) {
+          state.activeConnections.remove(conn);
+          if (!handOff(state, conn)) {
+            state.idleConnections.add(conn);
+          }
+        }
+        Thread.currentThread().interrupt();
+        throw new SQLException("PooledDataSource: Interrupted while waiting for a connection.");
+      }
+      return conn;
+    }
+  }
+
   private PooledConnection popConnection(String username, String password) throws SQLException { //从池中取出一个连接
+    PoolState state = this.state;
+    long t = System.currentTimeMillis();
+    long deadline = getBorrowDeadline(t);
+    if (state instanceof ConcurrentPoolState) {
+      return ((ConcurrentPoolState) state).borrow(username, password, deadline);
+    }
     boolean countedWait = false; //
     PooledConnection conn = null; //
-    long t = System.currentTimeMillis();
     int localBadConnectionCount = 0;
+    PoolWaiter waiter = null; //排队时的等待者
+    long wait = 0; //本次排队的等待时间
 
     while (conn == null) { //如果连接为空
+      boolean handedOff = false;
+      if (waiter != null) { //在锁外排队等待交接
+        conn = awaitHandOff(state, waiter, wait);
+        handedOff = conn != null;
+        waiter = null;
+      }
       synchronized (state) { //获取连接的时候锁定state 保证不会有其他线程同时来获取该链接
-        if (!state.idleConnections.isEmpty()) { //如果空闲连接池不为空
+        if (handedOff) {
+          if (log.isDebugEnabled()) {
+            log.debug("Received connection " + conn.getRealHashCode() + " from a returning thread.");
+          }
+        } else if (!state.idleConnections.isEmpty()) { //如果空闲连接池不为空
           // Pool has available connection
           conn = state.idleConnections.remove(0); //从空闲连接池中获取第一个
           if (log.isDebugEnabled()) {
@@ -400,9 +798,9 @@ public class PooledDataSource implements DataSource { //池型数据源
           }
         } else { //如果空闲连接池为空，说明没有连接了
           // Pool does not have available connection
-          if (state.activeConnections.size() < poolMaximumActiveConnections) { //判断是否需要扩容 state中活跃连接大小是否小于设置的最大活跃连接数 如果小于
+          if (state.activeConnections.size() + state.reservedCount < poolMaximumActiveConnections) { //判断是否需要扩容 state中活跃连接大小是否小于设置的最大活跃连接数 如果小于
             // Can create new connection
-            conn = new PooledConnection(dataSource.getConnection(), this);  //创建一个新连接
+            conn = new PooledConnection(openConnection(), this);  //创建一个新连接
             if (log.isDebugEnabled()) {
               log.debug("Created connection " + conn.getRealHashCode() + ".");
             }
@@ -434,45 +832,56 @@ public class PooledDataSource implements DataSource { //池型数据源
               conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this); //创建一个新的连接
               conn.setCreatedTimestamp(oldestActiveConnection.getCreatedTimestamp()); //设置创建时间为被移除连接的创建时间
               conn.setLastUsedTimestamp(oldestActiveConnection.getLastUsedTimestamp()); //最后使用时候也设置为被移除连接的时间戳
+              conn.setLastValidatedTimestamp(oldestActiveConnection.getLastValidatedTimestamp());
               oldestActiveConnection.invalidate();
               if (log.isDebugEnabled()) {
                 log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
               }
             } else { //如果超时时间检查小于默认的检查超时时间，还未超时
               // Must wait
-              try {
-                if (!countedWait) { //
-                  state.hadToWaitCount++; //等待的数量加1
-                  countedWait = true; //设置正在等待
+              wait = poolTimeToWait;
+              if (deadline > 0) { //本次获取有截止时间
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                  state.timedOutRequestCount++;
+                  throw timedOut(deadline - t);
                 }
-                if (log.isDebugEnabled()) {
-                  log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
-                }
-                long wt = System.currentTimeMillis();
-                state.wait(poolTimeToWait); //挂起当前线程并释放state锁资源
-                state.accumulatedWaitTime += System.currentTimeMillis() - wt; //总等待时间等于被唤醒时间减去等待的时间
-              } catch (InterruptedException e) { //线程被中断直接结束循环
-                break;
+                wait = Math.min(wait, remaining);
+              }
+              if (state.waiters.size() >= poolMaximumWaitingThreads) { //排队线程过多 立即失败
+                state.rejectedRequestCount++;
+                throw rejected();
               }
+              if (!countedWait) { //
+                state.hadToWaitCount++; //等待的数量加1
+                countedWait = true; //设置正在等待
+              }
+              waiter = new PoolWaiter();
+              state.waiters.add(waiter); //按先来后到排队 出锁后等待
             }
           }
         }
         if (conn != null) { //如果获取连接成功
           // ping to server and check the connection is valid or not
-          if (conn.isValid()) { //如果检查成功
+          if (conn.isValid(PoolValidation.BORROW)) { //如果检查成功
             if (!conn.getRealConnection().getAutoCommit()) { //回滚 ？？为什么老是回滚
               conn.getRealConnection().rollback();
             }
             conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password)); //设置连接code
             conn.setCheckoutTimestamp(System.currentTimeMillis());//设置检查时间戳
             conn.setLastUsedTimestamp(System.currentTimeMillis());//设置使用时间戳
-            state.activeConnections.add(conn); //添加连接进活跃列表
+            if (!handedOff) { //交接来的连接已在活跃列表中
+              state.activeConnections.add(conn); //添加连接进活跃列表
+            }
             state.requestCount++; //请求数加q
             state.accumulatedRequestTime += System.currentTimeMillis() - t;//总请求时间添加
           } else { //如果检查失败
             if (log.isDebugEnabled()) {
               log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
             }
+            if (handedOff) {
+              state.activeConnections.remove(conn);
+            }
             state.badConnectionCount++; //坏连接加1
             localBadConnectionCount++;
             conn = null; //conn至为空
@@ -498,6 +907,219 @@ public class PooledDataSource implements DataSource { //池型数据源
     return conn;
   }
 
+  /*
+   * Whether a connection has outlived poolMaximumLifetime, less a jitter of up to 2.5% derived from
+   * the connection itself
+   */
+  boolean isPastMaximumLifetime(long createdTimestamp, int realHashCode) {
+    int lifetime = poolMaximumLifetime;
+    if (lifetime <= 0) {
+      return false;
+    }
+    long jitter = (realHashCode & Integer.MAX_VALUE) % (lifetime / 40 + 1); //错开同时创建的连接的关闭时间
+    return System.currentTimeMillis() - createdTimestamp > lifetime - jitter;
+  }
+
+  /*
+   * @return the time by which the current request must get a connection, 0 for none. The
+   * timeout of the current ConnectionRequest, if any, overrides poolBorrowTimeout
+   */
+  private long getBorrowDeadline(long now) {
+    ConnectionRequest request = ConnectionRequest.current();
+    Integer timeout = request == null ? null : request.getTimeout();
+    int millis = timeout != null ? timeout : poolBorrowTimeout;
+    return millis > 0 ? now + millis : 0;
+  }
+
+  SQLException timedOut(long waited) {
+    if (log.isDebugEnabled()) {
+      log.debug("PooledDataSource: Timed out after " + waited + " milliseconds waiting for a connection.");
+    }
+    return new SQLTransientConnectionException("PooledDataSource: Timed out after " + waited + " milliseconds waiting for a connection.");
+  }
+
+  SQLException rejected() {
+    if (log.isDebugEnabled()) {
+      log.debug("PooledDataSource: Too many threads waiting for a connection.");
+    }
+    return new SQLTransientConnectionException("PooledDataSource: Too many threads (" + poolMaximumWaitingThreads
+        + ") waiting for a connection.");
+  }
+
+  /*
+   * Opens a new physical connection, timing it
+   */
+  Connection openConnection() throws SQLException {
+    long start = System.nanoTime();
+    Connection connection = dataSource.getConnection();
+    metrics.recordCreation(System.nanoTime() - start);
+    return connection;
+  }
+
+  private boolean isHousekeepingEnabled() {
+    return poolMinimumIdle > 0 || poolMaximumLifetime > 0 || poolIdleTimeout > 0
+        || (poolPingEnabled && poolValidation == PoolValidation.BACKGROUND) || poolLeakDetectionThreshold > 0;
+  }
+
+  private void startHousekeeper() {
+    if (housekeeper == null && isHousekeepingEnabled()) {
+      synchronized (this) {
+        if (housekeeper == null) {
+          housekeeper = PoolHousekeeper.schedule(this, poolHousekeepingInterval);
+        }
+      }
+    }
+  }
+
+  private synchronized void stopHousekeeper() {
+    if (housekeeper != null) {
+      housekeeper.cancel();
+      housekeeper = null;
+    }
+  }
+
+  /*
+   * Background maintenance run by the housekeeper: closes idle connections past their lifetime or
+   * idle timeout, validates idle connections when pinging is enabled and tops the pool up to
+   * poolMinimumIdle. Connections are validated and created outside the pool lock, reserved in
+   * PoolState.reservedCount so that popConnection does not exceed poolMaximumActiveConnections meanwhile.
+   */
+  void housekeep() { //后台维护
+    detectLeaks();
+    PoolState state = this.state;
+    if (state instanceof ConcurrentPoolState) {
+      ((ConcurrentPoolState) state).housekeep();
+      return;
+    }
+    int minimumIdle = Math.min(poolMinimumIdle, poolMaximumIdleConnections);
+    int typeCode = expectedConnectionTypeCode; //维护期间连接属性被修改则不再放回连接
+    List<PooledConnection> retired = new ArrayList<PooledConnection>();
+    List<PooledConnection> unchecked = new ArrayList<PooledConnection>();
+    synchronized (state) {
+      int idle = state.idleConnections.size();
+      for (Iterator<PooledConnection> it = state.idleConnections.iterator(); it.hasNext();) {
+        PooledConnection conn = it.next();
+        long unused = conn.getTimeElapsedSinceLastUse();
+        if (isPastMaximumLifetime(conn.getCreatedTimestamp(), conn.getRealHashCode())
+            || (poolIdleTimeout > 0 && unused > poolIdleTimeout && idle > minimumIdle)) { //超过存活时间或空闲超时
+          it.remove();
+          retired.add(conn);
+          idle--;
+        } else if (poolPingEnabled && isValidationDue(conn.getLastUsedTimestamp(), conn.getLastValidatedTimestamp())) { //需要侦测的连接先取出 锁外侦测
+          it.remove();
+          unchecked.add(conn);
+          state.reservedCount++;
+        }
+      }
+    }
+    for (PooledConnection conn : retired) {
+      closeQuietly(conn);
+      if (log.isDebugEnabled()) {
+        log.debug("Retired idle connection " + conn.getRealHashCode() + ".");
+      }
+    }
+    for (PooledConnection conn : unchecked) {
+      boolean valid = conn.isValid();
+      synchronized (state) {
+        state.reservedCount--;
+        if (valid && typeCode == expectedConnectionTypeCode
+            && (state.idleConnections.size() < poolMaximumIdleConnections || !state.waiters.isEmpty())) {
+          if (!handOff(state, conn)) {
+            state.idleConnections.add(conn);
+          }
+          continue;
+        }
+        if (!valid) {
+          state.badConnectionCount++;
+        }
+      }
+      closeQuietly(conn);
+    }
+    while (true) { //补足最小空闲连接
+      synchronized (state) {
+        if (state.idleConnections.size() >= minimumIdle
+            || state.idleConnections.size() + state.activeConnections.size() + state.reservedCount >= poolMaximumActiveConnections) {
+          return;
+        }
+        state.reservedCount++; //锁外创建期间占用一个名额
+      }
+      PooledConnection conn = null;
+      try {
+        conn = new PooledConnection(openConnection(), this);
+      } catch (SQLException e) {
+        log.warn("Could not create an idle connection. Cause: " + e);
+      } finally {
+        if (conn == null) { //创建失败时释放名额
+          synchronized (state) {
+            state.reservedCount--;
+          }
+        }
+      }
+      if (conn == null) {
+        return;
+      }
+      synchronized (state) {
+        state.reservedCount--;
+        if (typeCode == expectedConnectionTypeCode && state.idleConnections.size() < minimumIdle
+            && state.idleConnections.size() + state.activeConnections.size() < poolMaximumActiveConnections) {
+          if (log.isDebugEnabled()) {
+            log.debug("Created idle connection " + conn.getRealHashCode() + ".");
+          }
+          if (!handOff(state, conn)) {
+            state.idleConnections.add(conn);
+          }
+          continue;
+        }
+      }
+      closeQuietly(conn);
+      return;
+    }
+  }
+
+  /*
+   * Reports each connection held longer than poolLeakDetectionThreshold once
+   */
+  private void detectLeaks() { //泄漏检测
+    int threshold = poolLeakDetectionThreshold;
+    if (threshold <= 0) {
+      return;
+    }
+    for (PooledConnection conn : state.activeConnectionsSnapshot()) {
+      if (conn.getBorrowThread() == null || conn.isLeakReported() || conn.getCheckoutTime() <= threshold) {
+        continue;
+      }
+      conn.setLeakReported(true);
+      metrics.recordLeak();
+      StringBuilder message = new StringBuilder();
+      message.append("Connection leak detection triggered for connection ").append(conn.getRealHashCode())
+          .append(", held for ").append(conn.getCheckoutTime()).append(" ms by thread ").append(conn.getBorrowThread());
+      if (conn.getBorrowStatementId() != null) {
+        message.append(" (statement ").append(conn.getBorrowStatementId()).append(")");
+      }
+      if (conn.getBorrowStack() != null) {
+        StringWriter stack = new StringWriter();
+        conn.getBorrowStack().printStackTrace(new PrintWriter(stack));
+        message.append(": ").append(stack);
+      } else {
+        message.append(".");
+      }
+      log.warn(message.toString());
+    }
+  }
+
+  private void closeQuietly(PooledConnection conn) {
+    conn.invalidate();
+    try {
+      Connection realConn = conn.getRealConnection();
+      if (!realConn.getAutoCommit()) {
+        realConn.rollback();
+      }
+      realConn.close();
+    } catch (SQLException e) {
+      // ignore
+    }
+  }
+
   /*
    * Method to check to see if a connection is still usable
    *
@@ -505,6 +1127,13 @@ public class PooledDataSource implements DataSource { //池型数据源
    * @return True if the connection is still usable
    */
   protected boolean pingConnection(PooledConnection conn) { //检查连接
+    return pingConnection(conn, true);
+  }
+
+  /*
+   * @param validate false to only check the connection is not closed
+   */
+  boolean pingConnection(PooledConnection conn, boolean validate) {
     boolean result = true;
 
     try {
@@ -516,43 +1145,52 @@ public class PooledDataSource implements DataSource { //池型数据源
       result = false;
     }
 
-    if (result) { //如果是活跃
-      if (poolPingEnabled) { //打开了侦查功能
-        if (poolPingConnectionsNotUsedFor >= 0 && conn.getTimeElapsedSinceLastUse() > poolPingConnectionsNotUsedFor) { //如果未使用时间大于限定使用的时间，且限定未使用时间大于0
-          try {
-            if (log.isDebugEnabled()) {
-              log.debug("Testing connection " + conn.getRealHashCode() + " ...");
-            }
-            Connection realConn = conn.getRealConnection(); //获取真实连接
-            Statement statement = realConn.createStatement(); //创建一个语句
-            ResultSet rs = statement.executeQuery(poolPingQuery); //执行
-            rs.close();
-            statement.close();
-            if (!realConn.getAutoCommit()) { //如果没有开启自动提交进行回滚
-              realConn.rollback();
-            }
-            result = true; //检查成功
-            if (log.isDebugEnabled()) {
-              log.debug("Connection " + conn.getRealHashCode() + " is GOOD!");
-            }
-          } catch (Exception e) { //如果异常关闭连接结果返回false
-            log.warn("Execution of ping query '" + poolPingQuery + "' failed: " + e.getMessage());
-            try {
-              conn.getRealConnection().close();
-            } catch (Exception e2) {
-              //ignore
-            }
-            result = false;
-            if (log.isDebugEnabled()) {
-              log.debug("Connection " + conn.getRealHashCode() + " is BAD: " + e.getMessage());
-            }
-          }
+    if (result && validate && poolPingEnabled //打开了侦查功能
+        && isValidationDue(conn.getLastUsedTimestamp(), conn.getLastValidatedTimestamp())) { //未使用时间超过限定时间且最近未校验过
+      try {
+        if (log.isDebugEnabled()) {
+          log.debug("Testing connection " + conn.getRealHashCode() + " ...");
+        }
+        long start = System.nanoTime();
+        try {
+          result = connectionValidator.isValid(conn.getRealConnection(), this);
+        } finally {
+          metrics.recordValidation(System.nanoTime() - start);
+        }
+      } catch (Exception e) { //如果异常结果返回false
+        log.warn("Validation of connection " + conn.getRealHashCode() + " with " + connectionValidator.getClass().getSimpleName()
+            + " failed: " + e.getMessage());
+        result = false;
+      }
+      if (result) { //检查成功
+        conn.setLastValidatedTimestamp(System.currentTimeMillis());
+        if (log.isDebugEnabled()) {
+          log.debug("Connection " + conn.getRealHashCode() + " is GOOD!");
+        }
+      } else { //检查失败关闭连接
+        try {
+          conn.getRealConnection().close();
+        } catch (Exception e2) {
+          //ignore
+        }
+        if (log.isDebugEnabled()) {
+          log.debug("Connection " + conn.getRealHashCode() + " is BAD.");
         }
       }
     }
     return result;
   }
 
+  /*
+   * Whether a connection must be validated: it has not been used for poolPingConnectionsNotUsedFor
+   * and not validated within poolValidationWindow
+   */
+  boolean isValidationDue(long lastUsedTimestamp, long lastValidatedTimestamp) {
+    long now = System.currentTimeMillis();
+    return poolPingConnectionsNotUsedFor >= 0 && now - lastUsedTimestamp > poolPingConnectionsNotUsedFor
+        && now - lastValidatedTimestamp >= poolValidationWindow;
+  }
+
   /*
    * Unwraps a pooled connection to get to the 'real' connection
    *
@@ -570,6 +1208,8 @@ public class PooledDataSource implements DataSource { //池型数据源
   }
 
   protected void finalize() throws Throwable {
+    stopHousekeeper();
+    setPoolMBeanName(null);
     forceCloseAll();
     super.finalize();
   }
@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.datasource.unpooled;
 
+import java.util.Locale;
 import java.util.Properties;
 
 import javax.sql.DataSource;
@@ -74,8 +75,15 @@ public class UnpooledDataSourceFactory implements DataSourceFactory { //非池
       convertedValue = Long.valueOf(value);
     } else if (targetType == Boolean.class || targetType == boolean.class) {
       convertedValue = Boolean.valueOf(value);
+    } else if (targetType.isEnum()) {
+      convertedValue = toEnum(targetType, value);
     }
     return convertedValue;
   }
 
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static Object toEnum(Class<?> enumType, String value) {
+    return Enum.valueOf((Class<? extends Enum>) enumType, value.toUpperCase(Locale.ENGLISH));
+  }
+
 }
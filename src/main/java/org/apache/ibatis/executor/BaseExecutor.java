@@ -24,8 +24,11 @@ import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.CompactCacheKey;
+import org.apache.ibatis.cache.impl.LocalCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.datasource.ConnectionRequest;
 import org.apache.ibatis.executor.statement.StatementUtil;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
@@ -34,11 +37,13 @@ import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.ResultMap;
 import org.apache.ibatis.mapping.StatementType;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.LocalCacheScope;
+import org.apache.ibatis.session.QueryCoalescing;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
@@ -61,12 +66,14 @@ public abstract class BaseExecutor implements Executor { //基础Executor
 
   protected int queryStack;//记录嵌套的层数
   private boolean closed; //是否关闭
+  private boolean dirty; //事务中有未提交的修改，不能与其他会话合并查询
+  private MappedStatement currentStatement; //当前执行的语句 用于限制从连接池获取连接的等待时间并登记连接的使用者
 
   protected BaseExecutor(Configuration configuration, Transaction transaction) {
     this.transaction = transaction;
     this.deferredLoads = new ConcurrentLinkedQueue<DeferredLoad>();
-    this.localCache = new PerpetualCache("LocalCache");
-    this.localOutputParameterCache = new PerpetualCache("LocalOutputParameterCache");
+    this.localCache = configuration != null ? configuration.newLocalCache("LocalCache") : new PerpetualCache("LocalCache");
+    this.localOutputParameterCache = new PerpetualCache("LocalOutputParameterCache"); //只保存localCache中存在的key
     this.closed = false;
     this.configuration = configuration;
     this.wrapper = this;
@@ -114,6 +121,8 @@ public abstract class BaseExecutor implements Executor { //基础Executor
       throw new ExecutorException("Executor was closed.");
     }
     clearLocalCache(); //清理缓存
+    dirty = true;
+    currentStatement = ms;
     return doUpdate(ms, parameter);
   }
 
@@ -146,6 +155,7 @@ public abstract class BaseExecutor implements Executor { //基础Executor
     if (queryStack == 0 && ms.isFlushCacheRequired()) { //非嵌套查询 ，且配置了刷新缓存属性
       clearLocalCache(); //清空缓存
     }
+    currentStatement = ms;
     List<E> list;
     try {
       queryStack++; //增加查询层数
@@ -167,6 +177,10 @@ public abstract class BaseExecutor implements Executor { //基础Executor
       if (configuration.getLocalCacheScope() == LocalCacheScope.STATEMENT) {//根据localCacheScope 配置决定是否清空一级缓存， lo calCacheScope 配置是影响一级缓存存活时间
         // issue #482
         clearLocalCache();
+      } else if (localCache instanceof LocalCache) { //最外层查询结束后才能淘汰，嵌套查询和延迟加载依赖其中的条目
+        for (Object evicted : ((LocalCache) localCache).evict()) {
+          localOutputParameterCache.removeObject(evicted);
+        }
       }
     }
     return list;
@@ -175,6 +189,7 @@ public abstract class BaseExecutor implements Executor { //基础Executor
   @Override
   public <E> Cursor<E> queryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException {
     BoundSql boundSql = ms.getBoundSql(parameter);
+    currentStatement = ms;
     return doQueryCursor(ms, parameter, rowBounds, boundSql);
   }
 
@@ -197,7 +212,7 @@ public abstract class BaseExecutor implements Executor { //基础Executor
     if (closed) {
       throw new ExecutorException("Executor was closed.");
     }
-    CacheKey cacheKey = new CacheKey(); //创建CacheKey对象
+    CacheKey cacheKey = configuration.isCompactCacheKeys() ? new CompactCacheKey(configuration.isVerifyCacheKeys()) : new CacheKey(); //创建CacheKey对象
     cacheKey.update(ms.getId());//将MappedStatement的id添加到CacheKey对象
     cacheKey.update(rowBounds.getOffset());//将offset添加到CacheKey对象中
     cacheKey.update(rowBounds.getLimit());//将将limit 添加到CacheKey对象中
@@ -244,6 +259,7 @@ public abstract class BaseExecutor implements Executor { //基础Executor
     if (required) {
       transaction.commit(); //提交事务
     }
+    dirty = false;
   }
 
   @Override
@@ -256,6 +272,7 @@ public abstract class BaseExecutor implements Executor { //基础Executor
         if (required) {
           transaction.rollback(); //回滚事务
         }
+        dirty = false;
       }
     }
   }
@@ -322,7 +339,13 @@ public abstract class BaseExecutor implements Executor { //基础Executor
     List<E> list;
     localCache.putObject(key, EXECUTION_PLACEHOLDER); //添加占位符
     try {
-      list = doQuery(ms, parameter, rowBounds, resultHandler, boundSql);
+      if (isCoalescing(ms, resultHandler)) { //与其他会话的相同查询合并执行
+        Integer timeout = getStatementTimeout(ms);
+        list = configuration.getQueryCoalescer().execute(key, configuration.getQueryCoalescing() == QueryCoalescing.COPY,
+            timeout == null ? 0 : timeout * 1000L, this.<E> newQuery(ms, parameter, rowBounds, boundSql));
+      } else {
+        list = doQuery(ms, parameter, rowBounds, resultHandler, boundSql);
+      }
     } finally {
       localCache.removeObject(key); //移除key
     }
@@ -333,8 +356,37 @@ public abstract class BaseExecutor implements Executor { //基础Executor
     return list;
   }
 
+  /**
+   * Only selects whose results are not bound to this session can be shared: no result handler, no output parameters,
+   * no nested selects that may be loaded lazily, and no uncommitted changes that other sessions must not read.
+   * Selects that flush the caches are not shared either, as they usually must read the current rows, e.g.
+   * {@code SELECT ... FOR UPDATE}.
+   */
+  private boolean isCoalescing(MappedStatement ms, ResultHandler resultHandler) {
+    if (configuration.getQueryCoalescing() == QueryCoalescing.NONE || resultHandler != null || dirty
+        || ms.getStatementType() == StatementType.CALLABLE || ms.isFlushCacheRequired()) {
+      return false;
+    }
+    for (ResultMap resultMap : ms.getResultMaps()) {
+      if (resultMap.hasNestedQueries()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private <E> QueryCoalescer.Query<E> newQuery(final MappedStatement ms, final Object parameter,
+      final RowBounds rowBounds, final BoundSql boundSql) {
+    return new QueryCoalescer.Query<E>() {
+      @Override
+      public List<E> run() throws SQLException {
+        return doQuery(ms, parameter, rowBounds, Executor.NO_RESULT_HANDLER, boundSql);
+      }
+    };
+  }
+
   protected Connection getConnection(Log statementLog) throws SQLException {
-    Connection connection = transaction.getConnection();
+    Connection connection = openConnection();
     if (statementLog.isDebugEnabled()) {
       return ConnectionLogger.newInstance(connection, statementLog, queryStack);
     } else {
@@ -342,6 +394,24 @@ public abstract class BaseExecutor implements Executor { //基础Executor
     }
   }
 
+  private Connection openConnection() throws SQLException { //连接池等待连接的时间不超过语句的超时时间 并记录是哪个语句借出的连接
+    if (currentStatement == null) {
+      return transaction.getConnection();
+    }
+    Integer timeout = getStatementTimeout(currentStatement);
+    ConnectionRequest previous = ConnectionRequest.begin(
+        new ConnectionRequest(currentStatement.getId(), timeout == null ? null : timeout * 1000));
+    try {
+      return transaction.getConnection();
+    } finally {
+      ConnectionRequest.restore(previous);
+    }
+  }
+
+  private Integer getStatementTimeout(MappedStatement ms) {
+    return ms.getTimeout() != null ? ms.getTimeout() : configuration.getDefaultStatementTimeout();
+  }
+
   @Override
   public void setExecutorWrapper(Executor wrapper) {
     this.wrapper = wrapper;
@@ -16,21 +16,36 @@
 package org.apache.ibatis.executor;
 
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.EntityKeyIndex;
+import org.apache.ibatis.cache.InvalidationBus;
+import org.apache.ibatis.cache.TableDependencies;
 import org.apache.ibatis.cache.TransactionalCacheManager;
+import org.apache.ibatis.cache.decorators.ExpiringCache;
 import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
 import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.FlushScope;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.mapping.Environment;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.type.TypeHandlerRegistry;
 
 /**
  * @author Clinton Begin
@@ -38,11 +53,27 @@ import org.apache.ibatis.transaction.Transaction;
  */
 public class CachingExecutor implements Executor { //二级缓存相关执行器
 
+  private static final Log log = LogFactory.getLog(CachingExecutor.class);
+
   private final Executor delegate; //底层封装的Executor
-  private final TransactionalCacheManager tcm = new TransactionalCacheManager();
+  private final TableDependencies tableDependencies; //按表失效二级缓存，为null时不支持
+  private final EntityKeyIndex entityKeyIndex; //按主键失效二级缓存，为null时不支持
+  private final TransactionalCacheManager tcm;
 
   public CachingExecutor(Executor delegate) {
+    this(delegate, null, null);
+  }
+
+  public CachingExecutor(Executor delegate, TableDependencies tableDependencies, EntityKeyIndex entityKeyIndex) {
+    this(delegate, tableDependencies, entityKeyIndex, null);
+  }
+
+  public CachingExecutor(Executor delegate, TableDependencies tableDependencies, EntityKeyIndex entityKeyIndex,
+      InvalidationBus invalidationBus) {
     this.delegate = delegate;
+    this.tableDependencies = tableDependencies;
+    this.entityKeyIndex = entityKeyIndex;
+    this.tcm = new TransactionalCacheManager(tableDependencies, entityKeyIndex, invalidationBus);
     delegate.setExecutorWrapper(this);
   }
 
@@ -72,7 +103,7 @@ public class CachingExecutor implements Executor { //二级缓存相关执行器
 
   @Override
   public int update(MappedStatement ms, Object parameterObject) throws SQLException {
-    flushCacheIfRequired(ms);
+    flushCacheIfRequired(ms, parameterObject);
     return delegate.update(ms, parameterObject);
   }
 
@@ -97,11 +128,33 @@ public class CachingExecutor implements Executor { //二级缓存相关执行器
       flushCacheIfRequired(ms); //判断是否要清空缓存
       if (ms.isUseCache() && resultHandler == null) { //检测SQL 节点的useCache 配置以及是否使用了resultHandler 配置
         ensureNoOutParams(ms, parameterObject, boundSql); //校验参数类型不能为输出类型
+        Set<String> readTables = isTrackingTables() ? tableDependencies.getReadTables(ms, boundSql) : null;
+        if (readTables != null && tcm.isInvalidated(readTables)) { //本事务修改过读的表，缓存中的数据已过时
+          return delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+        }
         @SuppressWarnings("unchecked")
         List<E> list = (List<E>) tcm.getObject(cache, key); //查询二级缓存
         if (list == null) { //没有查询到结果
-          list = delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql); //执行SQL
-          tcm.putObject(cache, key, list); // issue #578 and #116 加入二级缓存
+          boolean loaded = false;
+          long start = System.nanoTime();
+          try {
+            list = queryMissed(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+            loaded = true;
+            if (ms.getConfiguration().isCacheStatisticsEnabled()) { //统计加载耗时
+              ms.getConfiguration().getCacheStatsRegistry().recordLoad(cache.getId(), System.nanoTime() - start);
+            }
+          } finally {
+            if (!loaded) { //查询失败时不让等待该key的其他会话一直阻塞
+              tcm.releaseMissedEntry(cache, key);
+            }
+          }
+          if (readTables != null) {
+            tcm.putObject(cache, key, list, readTables);
+          } else {
+            tcm.putObject(cache, key, list); // issue #578 and #116 加入二级缓存
+          }
+        } else if (ExpiringCache.takeRefreshRequest(key)) { //命中即将过期或已被清空的数据，后台重新加载
+          refreshInBackground(ms, parameterObject, rowBounds, key, boundSql);
         }
         return list;
       }
@@ -109,6 +162,24 @@ public class CachingExecutor implements Executor { //二级缓存相关执行器
     return delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
   }
 
+  private <E> List<E> queryMissed(MappedStatement ms, Object parameterObject, RowBounds rowBounds, ResultHandler resultHandler, CacheKey key, BoundSql boundSql)
+      throws SQLException {
+    Cache cache = ms.getCache();
+    String[] keyProperties = entityKeyIndex != null ? entityKeyIndex.getKeyProperties(cache) : null;
+    if (keyProperties == null) {
+      return delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql); //执行SQL
+    }
+    EntityKeyIndex.Collector collector = entityKeyIndex.startCollecting(keyProperties); //记录结果包含的实体主键
+    List<E> list;
+    try {
+      list = delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+    } finally {
+      entityKeyIndex.stopCollecting(collector);
+    }
+    tcm.putEntityKeys(cache, key, collector.getEntityKeys(list));
+    return list;
+  }
+
   @Override
   public List<BatchResult> flushStatements() throws SQLException {
     return delegate.flushStatements();
@@ -161,6 +232,101 @@ public class CachingExecutor implements Executor { //二级缓存相关执行器
     delegate.clearLocalCache();
   }
 
+  private void refreshInBackground(final MappedStatement ms, final Object parameterObject, final RowBounds rowBounds,
+      final CacheKey key, final BoundSql boundSql) {
+    final Configuration configuration = ms.getConfiguration();
+    final Environment environment = configuration.getEnvironment();
+    if (environment == null) {
+      return;
+    }
+    final BoundSql snapshot; //调用方之后可能修改参数对象 提交时先记下绑定的参数值
+    try {
+      snapshot = snapshotParameters(configuration, boundSql);
+    } catch (RuntimeException e) {
+      log.warn("Error refreshing cache entry of " + ms.getId() + " in the background.  Cause: " + e);
+      return;
+    }
+    configuration.getCacheRefresher().submit(Arrays.asList(ms.getCache().getId(), key), new Runnable() {
+      @Override
+      public void run() {
+        // a session of its own, the reloaded value is committed data so it goes straight to the cache
+        Transaction transaction = environment.getTransactionFactory().newTransaction(environment.getDataSource(), null, false);
+        Executor executor = new SimpleExecutor(configuration, transaction);
+        String[] keyProperties = entityKeyIndex != null ? entityKeyIndex.getKeyProperties(ms.getCache()) : null;
+        EntityKeyIndex.Collector collector = keyProperties != null ? entityKeyIndex.startCollecting(keyProperties) : null;
+        try {
+          List<Object> list = executor.query(ms, parameterObject, rowBounds, Executor.NO_RESULT_HANDLER, key, snapshot);
+          ms.getCache().putObject(key, list);
+          if (isTrackingTables()) {
+            tableDependencies.register(ms.getCache(), key, tableDependencies.getReadTables(ms, snapshot));
+          }
+          if (collector != null) {
+            entityKeyIndex.register(ms.getCache(), key, collector.getEntityKeys(list));
+          }
+        } catch (Exception e) {
+          // the entry will simply expire and be reloaded by the next reader
+          log.warn("Error refreshing cache entry of " + ms.getId() + " in the background.  Cause: " + e);
+        } finally {
+          if (collector != null) {
+            entityKeyIndex.stopCollecting(collector);
+          }
+          executor.close(false);
+        }
+      }
+    });
+  }
+
+  /*
+   * Resolves the values of the parameters as DefaultParameterHandler does
+   */
+  private static BoundSql snapshotParameters(Configuration configuration, BoundSql boundSql) {
+    TypeHandlerRegistry typeHandlerRegistry = configuration.getTypeHandlerRegistry();
+    Object parameterObject = boundSql.getParameterObject();
+    MetaObject metaObject = null;
+    Map<String, Object> values = new HashMap<String, Object>();
+    for (ParameterMapping parameterMapping : boundSql.getParameterMappings()) {
+      String propertyName = parameterMapping.getProperty();
+      Object value;
+      if (boundSql.hasAdditionalParameter(propertyName)) {
+        value = boundSql.getAdditionalParameter(propertyName);
+      } else if (parameterObject == null) {
+        value = null;
+      } else if (typeHandlerRegistry.hasTypeHandler(parameterObject.getClass())) {
+        value = parameterObject;
+      } else {
+        if (metaObject == null) {
+          metaObject = configuration.newMetaObject(parameterObject);
+        }
+        value = metaObject.getValue(propertyName);
+      }
+      values.put(propertyName, value);
+    }
+    return new ParameterSnapshot(configuration, boundSql, values);
+  }
+
+  private boolean isTrackingTables() {
+    return tableDependencies != null && tableDependencies.isEnabled();
+  }
+
+  private void flushCacheIfRequired(MappedStatement ms, Object parameterObject) {
+    if (ms.getFlushScope() == FlushScope.KEY && ms.isFlushCacheRequired() && ms.getCache() != null
+        && ms.getSqlCommandType() != SqlCommandType.INSERT && entityKeyIndex != null) {
+      Set<Object> entityKeys = entityKeyIndex.getModifiedKeys(ms, parameterObject);
+      if (entityKeys != null) {
+        tcm.removeEntities(ms.getCache(), entityKeys); //只移除包含这些主键的条目
+        return;
+      }
+    }
+    if (ms.getFlushScope() == FlushScope.TABLE && ms.isFlushCacheRequired() && isTrackingTables()) {
+      Set<String> tables = tableDependencies.getWrittenTables(ms, ms.getBoundSql(parameterObject));
+      if (!tables.isEmpty()) {
+        tcm.invalidate(tables); //只失效读过这些表的缓存，包括其他命名空间的
+        return;
+      }
+    }
+    flushCacheIfRequired(ms); //写的表未知时清空整个命名空间
+  }
+
   private void flushCacheIfRequired(MappedStatement ms) {
     Cache cache = ms.getCache();
     if (cache != null && ms.isFlushCacheRequired()) {       //
@@ -173,4 +339,27 @@ public class CachingExecutor implements Executor { //二级缓存相关执行器
     throw new UnsupportedOperationException("This method should not be called");
   }
 
+  /*
+   * BoundSql whose parameters are read from values captured when the refresh was submitted
+   */
+  private static class ParameterSnapshot extends BoundSql {
+
+    private final Map<String, Object> values;
+
+    ParameterSnapshot(Configuration configuration, BoundSql boundSql, Map<String, Object> values) {
+      super(configuration, boundSql.getSql(), boundSql.getParameterMappings(), boundSql.getParameterObject());
+      this.values = values;
+    }
+
+    @Override
+    public boolean hasAdditionalParameter(String name) {
+      return values.containsKey(name);
+    }
+
+    @Override
+    public Object getAdditionalParameter(String name) {
+      return values.get(name);
+    }
+  }
+
 }
@@ -0,0 +1,183 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ibatis.cache.CacheCodec;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.DeepCopyCodec;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Lets sessions running the same select with the same parameters at the same time share one database execution.
+ * <p>
+ * The first session to run a select executes it, the others wait for its result. Copies of the result are made by the
+ * executing session before it returns, so that it may modify its list, and each waiting session decodes a copy of its
+ * own. When the execution fails, its result cannot be copied or it is not done within the timeout of the waiting
+ * session, the waiting sessions run the select themselves.
+ * Waiting sessions receive rows read by another transaction, as they would from a second level cache.
+ */
+public class QueryCoalescer { //合并并发的相同查询
+
+  private static final Log log = LogFactory.getLog(QueryCoalescer.class);
+
+  private final CacheCodec codec = new DeepCopyCodec();
+  private final ConcurrentMap<CacheKey, Flight> flights = new ConcurrentHashMap<CacheKey, Flight>(); //正在执行的查询
+  private final AtomicLong executions = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicInteger waiting = new AtomicInteger();
+
+  /**
+   * Runs the query unless the same one is already running, in which case its result is awaited with no time limit.
+   *
+   * @param copy true to give waiting sessions copies of the result, false to share it
+   */
+  public <E> List<E> execute(CacheKey key, boolean copy, Query<E> query) throws SQLException {
+    return execute(key, copy, 0, query);
+  }
+
+  /**
+   * Runs the query unless the same one is already running, in which case its result is awaited for at most
+   * {@code timeoutMillis} milliseconds, after which the query is run by the current session too.
+   *
+   * @param copy true to give waiting sessions copies of the result, false to share it
+   * @param timeoutMillis The longest time to wait for the result of another session, 0 for no limit
+   */
+  @SuppressWarnings("unchecked")
+  public <E> List<E> execute(CacheKey key, boolean copy, long timeoutMillis, Query<E> query) throws SQLException {
+    while (true) {
+      Flight flight = new Flight();
+      Flight current = flights.putIfAbsent(key, flight);
+      if (current == null) { //由当前会话执行
+        return lead(key, flight, copy, query);
+      }
+      if (!current.join()) { //刚刚执行完，已不能加入
+        continue;
+      }
+      waiting.incrementAndGet();
+      Object result;
+      try {
+        result = current.await(timeoutMillis);
+      } finally {
+        waiting.decrementAndGet();
+      }
+      if (result == null) { //执行失败、无法复制、等待超时或被中断
+        return query.run();
+      }
+      coalesced.incrementAndGet();
+      return (List<E>) (copy ? codec.decode(result) : result);
+    }
+  }
+
+  /**
+   * @return The number of selects that were executed on behalf of waiting sessions too, or alone
+   */
+  public long getExecutions() {
+    return executions.get();
+  }
+
+  /**
+   * @return The number of selects that were answered with the result of another session
+   */
+  public long getCoalesced() {
+    return coalesced.get();
+  }
+
+  /**
+   * @return The number of sessions currently waiting for the result of another one
+   */
+  public int getWaiting() {
+    return waiting.get();
+  }
+
+  private <E> List<E> lead(CacheKey key, Flight flight, boolean copy, Query<E> query) throws SQLException {
+    executions.incrementAndGet();
+    List<E> list = null;
+    try {
+      list = query.run();
+      return list;
+    } finally {
+      flights.remove(key, flight);
+      Object result = null;
+      if (flight.finish() > 0 && list != null) { //有会话在等待结果
+        try {
+          result = copy ? codec.encode(list) : list;
+        } catch (RuntimeException e) {
+          if (log.isDebugEnabled()) {
+            log.debug("Could not copy coalesced query result, waiting sessions will run it.  Cause: " + e);
+          }
+        }
+      }
+      flight.publish(result);
+    }
+  }
+
+  /**
+   * A select run by {@link QueryCoalescer}.
+   */
+  public interface Query<E> {
+    List<E> run() throws SQLException;
+  }
+
+  private static final class Flight {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private int waiters;
+    private boolean finished;
+    private volatile Object result;
+
+    synchronized boolean join() {
+      if (finished) {
+        return false;
+      }
+      waiters++;
+      return true;
+    }
+
+    synchronized int finish() {
+      finished = true;
+      return waiters;
+    }
+
+    void publish(Object result) {
+      this.result = result;
+      done.countDown();
+    }
+
+    Object await(long timeoutMillis) {
+      try {
+        if (timeoutMillis <= 0) {
+          done.await();
+        } else if (!done.await(timeoutMillis, TimeUnit.MILLISECONDS)) { //不超过语句的超时时间
+          return null;
+        }
+        return result;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      }
+    }
+  }
+
+}
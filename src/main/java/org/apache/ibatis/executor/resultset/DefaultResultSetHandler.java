@@ -402,6 +402,9 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       foundValues = applyPropertyMappings(rsw, resultMap, metaObject, lazyLoader, null) || foundValues;
       foundValues = lazyLoader.size() > 0 || foundValues;
       rowValue = (foundValues || configuration.isReturnInstanceForEmptyRow()) ? rowValue : null;
+      if (rowValue != null) {
+        configuration.getEntityKeyIndex().collect(metaObject); //记录二级缓存条目包含的实体主键
+      }
     }
     return rowValue;
   }
@@ -918,6 +921,9 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         ancestorObjects.remove(resultMapId);
         foundValues = lazyLoader.size() > 0 || foundValues;
         rowValue = (foundValues || configuration.isReturnInstanceForEmptyRow()) ? rowValue : null;
+        if (rowValue != null) {
+          configuration.getEntityKeyIndex().collect(metaObject); //记录二级缓存条目包含的实体主键
+        }
       }
       if (combinedKey != CacheKey.NULL_CACHE_KEY) {
         nestedResultObjects.put(combinedKey, rowValue);
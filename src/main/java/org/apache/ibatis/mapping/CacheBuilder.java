@@ -23,13 +23,25 @@ import java.util.Properties;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheSnapshots;
+import org.apache.ibatis.cache.CacheStatsRegistry;
+import org.apache.ibatis.cache.EnumerableCache;
 import org.apache.ibatis.builder.InitializingObject;
 import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.decorators.CompressedCache;
+import org.apache.ibatis.cache.decorators.ExpiringCache;
+import org.apache.ibatis.cache.decorators.FifoCache;
 import org.apache.ibatis.cache.decorators.LoggingCache;
 import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.NearCache;
+import org.apache.ibatis.cache.decorators.ReferenceCache;
+import org.apache.ibatis.cache.decorators.RevalidatingCache;
 import org.apache.ibatis.cache.decorators.ScheduledCache;
 import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.decorators.StatisticsCache;
 import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
+import org.apache.ibatis.cache.decorators.WeightedLruCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.SystemMetaObject;
@@ -42,10 +54,13 @@ public class CacheBuilder { //缓存建造者
   private Class<? extends Cache> implementation; //cache真正的实现接口
   private final List<Class<? extends Cache>> decorators;//装饰器集合
   private Integer size;//Cache大小
+  private Long maxBytes;//Cache字节数上限
   private Long clearInterval;//清理时间周期
   private boolean readWrite;//是否可读写
   private Properties properties;//属性
   private boolean blocking; //是否堵塞
+  private CacheStatsRegistry statsRegistry; //为null时不统计
+  private CacheSnapshots snapshots; //为null时不支持快照
 
   public CacheBuilder(String id) {
     this.id = id;
@@ -69,6 +84,11 @@ public class CacheBuilder { //缓存建造者
     return this;
   }
 
+  public CacheBuilder maxBytes(Long maxBytes) {
+    this.maxBytes = maxBytes;
+    return this;
+  }
+
   public CacheBuilder clearInterval(Long clearInterval) {
     this.clearInterval = clearInterval;
     return this;
@@ -84,6 +104,16 @@ public class CacheBuilder { //缓存建造者
     return this;
   }
   
+  public CacheBuilder statistics(CacheStatsRegistry statsRegistry) {
+    this.statsRegistry = statsRegistry;
+    return this;
+  }
+
+  public CacheBuilder snapshots(CacheSnapshots snapshots) {
+    this.snapshots = snapshots;
+    return this;
+  }
+
   public CacheBuilder properties(Properties properties) {
     this.properties = properties;
     return this;
@@ -95,13 +125,29 @@ public class CacheBuilder { //缓存建造者
     setCacheProperties(cache); //初始化cache对象
     // issue #352, do not apply decorators to custom caches
     if (PerpetualCache.class.equals(cache.getClass())) { //如果是默认类添加装饰器类
+      EnumerableCache store = (EnumerableCache) cache; //保存条目的Cache
+      StatisticsCache.Evictions evictions = null;
+      if (statsRegistry != null) { //在淘汰策略之下统计被淘汰的条目
+        evictions = new StatisticsCache.Evictions(cache);
+        cache = evictions;
+      }
       for (Class<? extends Cache> decorator : decorators) {
+        if (maxBytes != null && (decorator == LruCache.class || decorator == FifoCache.class)) { //按条目数淘汰的策略由按字节数淘汰的取代
+          decorator = WeightedLruCache.class;
+        }
         cache = newCacheDecoratorInstance(decorator, cache); //添加装饰器
         setCacheProperties(cache);
+        setEvictionListener(cache, evictions);
+        if (cache instanceof EnumerableCache) { //自己保存条目的淘汰策略，例如TinyLfuCache
+          store = (EnumerableCache) cache;
+        }
       }
-      cache = setStandardDecorators(cache); //添加标准装饰器
+      cache = setStandardDecorators(cache, evictions); //添加标准装饰器
+      registerSnapshots(cache, store);
     } else if (!LoggingCache.class.isAssignableFrom(cache.getClass())) { //如采不是LoggingCache 的子类，则添加LoggingCache 装饰器
-      cache = new LoggingCache(cache);
+      EnumerableCache store = cache instanceof EnumerableCache ? (EnumerableCache) cache : null;
+      cache = new LoggingCache(statistics(setNearCache(cache), null));
+      registerSnapshots(cache, store);
     }
     return cache;
   }
@@ -115,23 +161,84 @@ public class CacheBuilder { //缓存建造者
     }
   }
 
-  private Cache setStandardDecorators(Cache cache) {
+  private void registerSnapshots(Cache cache, EnumerableCache store) {
+    if (snapshots != null && store != null) {
+      snapshots.register(cache, store);
+    }
+  }
+
+  private Cache setNearCache(Cache cache) {
+    if (properties == null || !properties.containsKey("nearSize")) {
+      return cache;
+    }
+    cache = new NearCache(cache); //在共享缓存之上添加本地近缓存
+    setCacheProperties(cache);
+    if (readWrite) { //本地层不能把同一个对象交给多个调用方
+      cache = new SerializedCache(cache);
+      setCacheProperties(cache);
+    }
+    return cache;
+  }
+
+  private Cache statistics(Cache cache, StatisticsCache.Evictions evictions) {
+    if (statsRegistry == null) {
+      return cache;
+    }
+    StatisticsCache statisticsCache = new StatisticsCache(cache, evictions);
+    statsRegistry.register(statisticsCache);
+    return statisticsCache;
+  }
+
+  private Cache setStandardDecorators(Cache cache, StatisticsCache.Evictions evictions) {
     try {
       MetaObject metaCache = SystemMetaObject.forObject(cache);
       if (size != null && metaCache.hasSetter("size")) {
         metaCache.setValue("size", size);
       }
+      if (maxBytes != null) {
+        if (!metaCache.hasSetter("maxBytes")) { //淘汰策略不支持按字节数淘汰时再加一层
+          WeightedLruCache weighted = new WeightedLruCache(cache);
+          setCacheProperties(weighted);
+          if (metaCache.hasSetter("evictionListener")) { //下层策略自己淘汰的条目通知给WeightedLruCache 再由它通知统计
+            weighted.setEvictionListener(evictions);
+            metaCache.setValue("evictionListener", weighted);
+          }
+          cache = weighted;
+          metaCache = SystemMetaObject.forObject(cache);
+        }
+        metaCache.setValue("maxBytes", maxBytes);
+      }
+      boolean concurrent = cache instanceof TinyLfuCache || cache instanceof ReferenceCache; //并发安全的淘汰策略不需要再加同步 其上的装饰器也都是线程安全的
+      if (properties != null
+          && (properties.containsKey("timeToLive") || properties.containsKey("timeToIdle"))) { //按条目过期
+        cache = new ExpiringCache(cache);
+        setCacheProperties(cache);
+      }
       if (clearInterval != null) {
         cache = new ScheduledCache(cache);
         ((ScheduledCache) cache).setClearInterval(clearInterval);
       }
+      if (properties != null && properties.containsKey("staleWindow")) { //清空后继续返回旧数据
+        cache = new RevalidatingCache(cache);
+        setCacheProperties(cache);
+      }
+      if (properties != null
+          && (properties.containsKey("compressionThreshold") || properties.containsKey("compressor"))) { //压缩序列化后的值
+        cache = new CompressedCache(cache);
+        setCacheProperties(cache);
+      }
       if (readWrite) {
         cache = new SerializedCache(cache);
+        setCacheProperties(cache);
+      }
+      cache = new LoggingCache(statistics(cache, evictions));
+      if (!concurrent) {
+        cache = new SynchronizedCache(cache);
       }
-      cache = new LoggingCache(cache);
-      cache = new SynchronizedCache(cache);
       if (blocking) {
         cache = new BlockingCache(cache);
+        ((BlockingCache) cache).setShareValues(!readWrite); //读写缓存的等待线程各自读取副本
+        setCacheProperties(cache);
       }
       return cache;
     } catch (Exception e) {
@@ -139,6 +246,15 @@ public class CacheBuilder { //缓存建造者
     }
   }
 
+  private void setEvictionListener(Cache cache, StatisticsCache.Evictions evictions) { //自己保存条目的淘汰策略不经过Evictions移除
+    if (evictions != null) {
+      MetaObject metaCache = SystemMetaObject.forObject(cache);
+      if (metaCache.hasSetter("evictionListener")) {
+        metaCache.setValue("evictionListener", evictions);
+      }
+    }
+  }
+
   private void setCacheProperties(Cache cache) {
     if (properties != null) {
       MetaObject metaCache = SystemMetaObject.forObject(cache);
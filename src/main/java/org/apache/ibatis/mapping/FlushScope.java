@@ -0,0 +1,28 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.mapping;
+
+/**
+ * What an insert, update or delete statement flushes from the second level cache.
+ */
+public enum FlushScope {
+  /** The whole cache of the namespace, the default. */
+  NAMESPACE,
+  /** Only the entries, of any namespace, read from the tables the statement writes. */
+  TABLE,
+  /** Only the entries of the namespace holding the rows whose {@code keyProperty} values the parameter carries. */
+  KEY
+}
@@ -17,7 +17,10 @@ package org.apache.ibatis.mapping;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
@@ -56,6 +59,8 @@ public final class MappedStatement { //Mapper中SQL语句
   private Log statementLog;
   private LanguageDriver lang;
   private String[] resultSets;
+  private FlushScope flushScope; //insert/update/delete清空二级缓存的范围
+  private Set<String> tables; //声明的读或写的表，为null时从SQL中解析
 
   MappedStatement() {
     // constructor disabled
@@ -79,6 +84,7 @@ public final class MappedStatement { //Mapper中SQL语句
       }
       mappedStatement.statementLog = LogFactory.getLog(logId);
       mappedStatement.lang = configuration.getDefaultScriptingLanguageInstance();
+      mappedStatement.flushScope = FlushScope.NAMESPACE;
     }
 
     public Builder resource(String resource) {
@@ -179,6 +185,25 @@ public final class MappedStatement { //Mapper中SQL语句
       mappedStatement.resultSets = delimitedStringToArray(resultSet);
       return this;
     }
+
+    public Builder flushScope(FlushScope flushScope) {
+      mappedStatement.flushScope = flushScope;
+      return this;
+    }
+
+    public Builder tables(String tables) {
+      String[] names = delimitedStringToArray(tables);
+      if (names == null) {
+        mappedStatement.tables = null;
+      } else {
+        Set<String> set = new HashSet<String>();
+        for (String name : names) {
+          set.add(name.trim().toLowerCase(Locale.ENGLISH));
+        }
+        mappedStatement.tables = Collections.unmodifiableSet(set);
+      }
+      return this;
+    }
     
     public MappedStatement build() {
       assert mappedStatement.configuration != null;
@@ -287,6 +312,18 @@ public final class MappedStatement { //Mapper中SQL语句
   public String[] getResulSets() {
     return resultSets;
   }
+
+  public FlushScope getFlushScope() {
+    return flushScope;
+  }
+
+  /**
+   * @return The tables a select reads or an insert, update or delete writes as declared in the mapper, or null if
+   *     they are to be found in the SQL
+   */
+  public Set<String> getTables() {
+    return tables;
+  }
   
   public BoundSql getBoundSql(Object parameterObject) {
     BoundSql boundSql = sqlSource.getBoundSql(parameterObject);
@@ -0,0 +1,166 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.mapping.MappedStatement;
+
+/**
+ * Populates the second level caches of a configuration when the application starts.
+ * <p>
+ * The caches that have a snapshot in the {@code cacheSnapshotDirectory} are restored from it. Then the warm-up
+ * selects declared with {@link Configuration#addCacheWarmUp(String, Object)} or the {@code <warm-up>} elements of the
+ * mapper {@code <cache>} elements are run in parallel, each in a session
+ * of its own that is committed so that its results are cached, except for the namespaces already restored.
+ * A warm-up select that does not exist or fails is logged and skipped. {@link SqlSessionFactoryBuilder} runs it when anything is
+ * declared.
+ */
+public class CacheWarmer {
+
+  private static final Log log = LogFactory.getLog(CacheWarmer.class);
+
+  private final SqlSessionFactory sqlSessionFactory;
+  private final Configuration configuration;
+
+  public CacheWarmer(SqlSessionFactory sqlSessionFactory) {
+    this.sqlSessionFactory = sqlSessionFactory;
+    this.configuration = sqlSessionFactory.getConfiguration();
+  }
+
+  /**
+   * @return The number of warm-up selects that were run successfully
+   */
+  public int warmUp() {
+    Set<String> restored = restoreSnapshots();
+    List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+    for (Map.Entry<String, List<Object>> entry : configuration.getCacheWarmUps().entrySet()) {
+      if (!configuration.hasStatement(entry.getKey())) {
+        log.warn("Cache warm-up select " + entry.getKey() + " does not exist.");
+        continue;
+      }
+      MappedStatement ms = configuration.getMappedStatement(entry.getKey());
+      Cache cache = ms.getCache();
+      if (cache == null || !ms.isUseCache()) {
+        log.warn("Cache warm-up select " + ms.getId() + " does not use a second level cache.");
+        continue;
+      }
+      if (restored.contains(cache.getId())) {
+        continue;
+      }
+      for (Object parameter : entry.getValue()) {
+        tasks.add(newTask(ms.getId(), parameter));
+      }
+    }
+    if (tasks.isEmpty()) {
+      return 0;
+    }
+    if (configuration.getEnvironment() == null) {
+      log.warn("Cache warm-up skipped, no environment is configured.");
+      return 0;
+    }
+    return runAll(tasks);
+  }
+
+  /**
+   * Saves every cache to the {@code cacheSnapshotDirectory}, e.g. when the application shuts down.
+   *
+   * @return The number of entries saved
+   */
+  public int saveSnapshots() {
+    String directory = configuration.getCacheSnapshotDirectory();
+    if (directory == null) {
+      throw new CacheException("No cacheSnapshotDirectory is configured.");
+    }
+    return configuration.getCacheSnapshots().saveAll(new File(directory));
+  }
+
+  private Set<String> restoreSnapshots() {
+    String directory = configuration.getCacheSnapshotDirectory();
+    if (directory == null || !new File(directory).isDirectory()) {
+      return Collections.emptySet();
+    }
+    return configuration.getCacheSnapshots().restoreAll(new File(directory));
+  }
+
+  private Callable<Boolean> newTask(final String statementId, final Object parameter) {
+    return new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        SqlSession session = sqlSessionFactory.openSession();
+        try {
+          session.selectList(statementId, parameter);
+          session.commit(); //提交后结果才进入二级缓存
+          return true;
+        } catch (Exception e) {
+          log.warn("Error running cache warm-up select " + statementId + ".  Cause: " + e);
+          return false;
+        } finally {
+          session.close();
+        }
+      }
+    };
+  }
+
+  private int runAll(List<Callable<Boolean>> tasks) {
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.max(1, Math.min(configuration.getCacheWarmUpThreads(), tasks.size())), new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "mybatis-cache-warmer-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    int succeeded = 0;
+    try {
+      for (Future<Boolean> future : executor.invokeAll(tasks)) {
+        if (future.get()) {
+          succeeded++;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      log.warn("Error running cache warm-up.  Cause: " + e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Cache warm-up ran " + succeeded + " of " + tasks.size() + " selects.");
+    }
+    return succeeded;
+  }
+
+}
@@ -15,15 +15,18 @@
  */
 package org.apache.ibatis.session;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.ibatis.binding.MapperRegistry;
 import org.apache.ibatis.builder.CacheRefResolver;
@@ -31,10 +34,23 @@ import org.apache.ibatis.builder.ResultMapResolver;
 import org.apache.ibatis.builder.annotation.MethodResolver;
 import org.apache.ibatis.builder.xml.XMLStatementBuilder;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheRefresher;
+import org.apache.ibatis.cache.CacheSnapshots;
+import org.apache.ibatis.cache.CacheStats;
+import org.apache.ibatis.cache.CacheStatsRegistry;
+import org.apache.ibatis.cache.EntityKeyIndex;
+import org.apache.ibatis.cache.InvalidationBus;
+import org.apache.ibatis.cache.Invalidations;
+import org.apache.ibatis.cache.MulticastInvalidationBus;
+import org.apache.ibatis.cache.TableDependencies;
 import org.apache.ibatis.cache.decorators.FifoCache;
 import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.NearCache;
 import org.apache.ibatis.cache.decorators.SoftCache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
 import org.apache.ibatis.cache.decorators.WeakCache;
+import org.apache.ibatis.cache.decorators.WeightedLruCache;
+import org.apache.ibatis.cache.impl.LocalCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.datasource.jndi.JndiDataSourceFactory;
 import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
@@ -42,6 +58,7 @@ import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
 import org.apache.ibatis.executor.BatchExecutor;
 import org.apache.ibatis.executor.CachingExecutor;
 import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.QueryCoalescer;
 import org.apache.ibatis.executor.ReuseExecutor;
 import org.apache.ibatis.executor.SimpleExecutor;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
@@ -65,9 +82,11 @@ import org.apache.ibatis.logging.slf4j.Slf4jImpl;
 import org.apache.ibatis.logging.stdout.StdOutImpl;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.FlushScope;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMap;
 import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.mapping.VendorDatabaseIdProvider;
 import org.apache.ibatis.parsing.XNode;
 import org.apache.ibatis.plugin.Interceptor;
@@ -109,11 +128,20 @@ public class Configuration { //全局配置类
   protected boolean callSettersOnNulls;
   protected boolean useActualParamName = true;
   protected boolean returnInstanceForEmptyRow;
+  protected boolean compactCacheKeys; //使用CompactCacheKey
+  protected boolean verifyCacheKeys; //CompactCacheKey是否保留所有元素用于比较
+  protected boolean cacheStatisticsEnabled; //统计二级缓存的使用情况
+  protected String cacheSnapshotDirectory; //启动时从该目录恢复二级缓存
+  protected int cacheWarmUpThreads = 4; //并行执行预热语句的线程数
 
   protected String logPrefix;
   protected Class <? extends Log> logImpl;
   protected Class <? extends VFS> vfsImpl;
   protected LocalCacheScope localCacheScope = LocalCacheScope.SESSION;
+  protected QueryCoalescing queryCoalescing = QueryCoalescing.NONE; //并发的相同查询是否合并执行
+  protected Integer localCacheSize; //一级缓存的条目数上限
+  protected Long localCacheMaxBytes; //一级缓存的字节数上限
+  protected final AtomicLong localCacheEvictions = new AtomicLong(); //一级缓存的淘汰次数
   protected JdbcType jdbcTypeForNull = JdbcType.OTHER;
   protected Set<String> lazyLoadTriggerMethods = new HashSet<String>(Arrays.asList(new String[] { "equals", "clone", "hashCode", "toString" }));
   protected Integer defaultStatementTimeout;
@@ -144,6 +172,14 @@ public class Configuration { //全局配置类
   protected final TypeHandlerRegistry typeHandlerRegistry = new TypeHandlerRegistry();//类型转换器
   protected final TypeAliasRegistry typeAliasRegistry = new TypeAliasRegistry(); //别名注册器
   protected final LanguageDriverRegistry languageRegistry = new LanguageDriverRegistry();
+  protected final TableDependencies tableDependencies = new TableDependencies(); //二级缓存条目读过的表
+  protected final EntityKeyIndex entityKeyIndex = new EntityKeyIndex(); //二级缓存条目包含的实体主键
+  protected final CacheStatsRegistry cacheStatsRegistry = new CacheStatsRegistry(); //二级缓存的统计
+  protected InvalidationBus invalidationBus; //与其他实例互相广播二级缓存的失效
+  protected final CacheSnapshots cacheSnapshots = new CacheSnapshots(tableDependencies, entityKeyIndex); //二级缓存的快照
+  protected final CacheRefresher cacheRefresher = new CacheRefresher(); //后台刷新二级缓存
+  protected final QueryCoalescer queryCoalescer = new QueryCoalescer(); //正在执行的查询
+  protected final Map<String, List<Object>> cacheWarmUps = new LinkedHashMap<String, List<Object>>(); //预热语句 -> 参数
 
   protected final Map<String, MappedStatement> mappedStatements = new StrictMap<MappedStatement>("Mapped Statements collection"); //SQL语句
   protected final Map<String, Cache> caches = new StrictMap<Cache>("Caches collection"); //存储cache
@@ -184,6 +220,9 @@ public class Configuration { //全局配置类
     typeAliasRegistry.registerAlias("LRU", LruCache.class);
     typeAliasRegistry.registerAlias("SOFT", SoftCache.class);
     typeAliasRegistry.registerAlias("WEAK", WeakCache.class);
+    typeAliasRegistry.registerAlias("MULTICAST", MulticastInvalidationBus.class);
+    typeAliasRegistry.registerAlias("TINYLFU", TinyLfuCache.class);
+    typeAliasRegistry.registerAlias("WEIGHTED", WeightedLruCache.class);
 
     typeAliasRegistry.registerAlias("DB_VENDOR", VendorDatabaseIdProvider.class);
 
@@ -259,6 +298,54 @@ public class Configuration { //全局配置类
     this.returnInstanceForEmptyRow = returnEmptyInstance;
   }
 
+  public boolean isCompactCacheKeys() {
+    return compactCacheKeys;
+  }
+
+  public void setCompactCacheKeys(boolean compactCacheKeys) {
+    this.compactCacheKeys = compactCacheKeys;
+  }
+
+  public boolean isVerifyCacheKeys() {
+    return verifyCacheKeys;
+  }
+
+  public void setVerifyCacheKeys(boolean verifyCacheKeys) {
+    this.verifyCacheKeys = verifyCacheKeys;
+  }
+
+  public boolean isCacheStatisticsEnabled() {
+    return cacheStatisticsEnabled;
+  }
+
+  public void setCacheStatisticsEnabled(boolean cacheStatisticsEnabled) {
+    this.cacheStatisticsEnabled = cacheStatisticsEnabled;
+  }
+
+  public String getCacheSnapshotDirectory() {
+    return cacheSnapshotDirectory;
+  }
+
+  public void setCacheSnapshotDirectory(String cacheSnapshotDirectory) {
+    this.cacheSnapshotDirectory = cacheSnapshotDirectory;
+  }
+
+  public long getCacheSnapshotMaxAge() {
+    return cacheSnapshots.getMaxAge();
+  }
+
+  public void setCacheSnapshotMaxAge(long cacheSnapshotMaxAge) {
+    cacheSnapshots.setMaxAge(cacheSnapshotMaxAge);
+  }
+
+  public int getCacheWarmUpThreads() {
+    return cacheWarmUpThreads;
+  }
+
+  public void setCacheWarmUpThreads(int cacheWarmUpThreads) {
+    this.cacheWarmUpThreads = cacheWarmUpThreads;
+  }
+
   public String getDatabaseId() {
     return databaseId;
   }
@@ -442,6 +529,53 @@ public class Configuration { //全局配置类
     this.localCacheScope = localCacheScope;
   }
 
+  public QueryCoalescing getQueryCoalescing() {
+    return queryCoalescing;
+  }
+
+  public void setQueryCoalescing(QueryCoalescing queryCoalescing) {
+    this.queryCoalescing = queryCoalescing;
+  }
+
+  public QueryCoalescer getQueryCoalescer() {
+    return queryCoalescer;
+  }
+
+  public Integer getLocalCacheSize() {
+    return localCacheSize;
+  }
+
+  public void setLocalCacheSize(Integer localCacheSize) {
+    this.localCacheSize = localCacheSize;
+  }
+
+  public Long getLocalCacheMaxBytes() {
+    return localCacheMaxBytes;
+  }
+
+  public void setLocalCacheMaxBytes(Long localCacheMaxBytes) {
+    this.localCacheMaxBytes = localCacheMaxBytes;
+  }
+
+  /**
+   * @return The number of entries evicted from the local caches of all sessions because of their limits
+   */
+  public long getLocalCacheEvictions() {
+    return localCacheEvictions.get();
+  }
+
+  /**
+   * Creates a local cache, bounded when a localCacheSize or localCacheMaxBytes is set.
+   */
+  public PerpetualCache newLocalCache(String id) {
+    int maxSize = localCacheSize != null ? localCacheSize : 0;
+    long maxBytes = localCacheMaxBytes != null ? localCacheMaxBytes : 0;
+    if (maxSize <= 0 && maxBytes <= 0) {
+      return new PerpetualCache(id);
+    }
+    return new LocalCache(id, maxSize, maxBytes, localCacheEvictions);
+  }
+
   public JdbcType getJdbcTypeForNull() {
     return jdbcTypeForNull;
   }
@@ -462,6 +596,130 @@ public class Configuration { //全局配置类
     return typeHandlerRegistry;
   }
 
+  public TableDependencies getTableDependencies() {
+    return tableDependencies;
+  }
+
+  public EntityKeyIndex getEntityKeyIndex() {
+    return entityKeyIndex;
+  }
+
+  public CacheStatsRegistry getCacheStatsRegistry() {
+    return cacheStatsRegistry;
+  }
+
+  /**
+   * @return The statistics of the second level cache of the namespace, or null if it is not collected
+   */
+  public CacheStats getCacheStats(String namespace) {
+    return cacheStatsRegistry.getStats(namespace);
+  }
+
+  public List<CacheStats> getCacheStats() {
+    return cacheStatsRegistry.getAllStats();
+  }
+
+  public CacheSnapshots getCacheSnapshots() {
+    return cacheSnapshots;
+  }
+
+  public CacheRefresher getCacheRefresher() {
+    return cacheRefresher;
+  }
+
+  /**
+   * Releases the resources held by this configuration, e.g. the threads refreshing the second level caches and the
+   * invalidation bus. Call it
+   * when the application shuts down or discards the configuration.
+   */
+  public void close() {
+    cacheRefresher.shutdown();
+    cacheStatsRegistry.unregisterMBeans();
+    setInvalidationBus(null); //关闭组播socket和接收线程
+  }
+
+  /**
+   * Declares a select run with a null parameter by {@link CacheWarmer} to populate the second level cache.
+   */
+  public void addCacheWarmUp(String statementId) {
+    addCacheWarmUp(statementId, null);
+  }
+
+  /**
+   * Declares a select run with the parameter by {@link CacheWarmer} to populate the second level cache. A statement
+   * may be declared with several parameters.
+   */
+  public void addCacheWarmUp(String statementId, Object parameter) {
+    List<Object> parameters = cacheWarmUps.get(statementId);
+    if (parameters == null) {
+      parameters = new ArrayList<Object>();
+      cacheWarmUps.put(statementId, parameters);
+    }
+    parameters.add(parameter);
+  }
+
+  public Map<String, List<Object>> getCacheWarmUps() {
+    return cacheWarmUps;
+  }
+
+  public InvalidationBus getInvalidationBus() {
+    return invalidationBus;
+  }
+
+  /**
+   * Starts the bus, which broadcasts the second level cache invalidations committed by this configuration and
+   * applies the ones committed by the others. Closes the previous bus, if any.
+   */
+  public void setInvalidationBus(InvalidationBus invalidationBus) {
+    if (this.invalidationBus != null) {
+      this.invalidationBus.close();
+    }
+    this.invalidationBus = invalidationBus;
+    if (invalidationBus != null) {
+      invalidationBus.start(new InvalidationBus.Listener() {
+        @Override
+        public void onInvalidations(Invalidations invalidations) {
+          applyInvalidations(invalidations);
+        }
+      });
+    }
+  }
+
+  /**
+   * Applies the invalidations committed by another instance. Clears only drop the local entries of near caches, as
+   * the committing instance already cleared the shared tier. Removals also apply to the shared tier, because the
+   * entries to remove are known from the entity key and table indexes of this instance only.
+   */
+  public void applyInvalidations(Invalidations invalidations) {
+    NearCache.setNearOnly(true); //共享层已由提交的实例清空
+    try {
+      for (String id : invalidations.getClearedCaches()) {
+        Cache cache = getInvalidatedCache(id);
+        if (cache != null) {
+          cache.clear();
+          entityKeyIndex.clear(cache);
+        }
+      }
+    } finally {
+      NearCache.setNearOnly(false);
+    }
+    for (Map.Entry<String, Set<Object>> entry : invalidations.getRemovedEntities().entrySet()) {
+      Cache cache = getInvalidatedCache(entry.getKey());
+      if (cache != null) {
+        entityKeyIndex.remove(cache, entry.getValue());
+      }
+    }
+    if (!invalidations.getWrittenTables().isEmpty()) {
+      tableDependencies.invalidate(invalidations.getWrittenTables());
+    }
+  }
+
+  private Cache getInvalidatedCache(String id) {
+    synchronized (caches) {
+      return caches.containsKey(id) ? caches.get(id) : null;
+    }
+  }
+
   /**
    * Set a default {@link TypeHandler} class for {@link Enum}.
    * A default {@link TypeHandler} is {@link org.apache.ibatis.type.EnumTypeHandler}.
@@ -576,7 +834,7 @@ public class Configuration { //全局配置类
       executor = new SimpleExecutor(this, transaction);
     }
     if (cacheEnabled) {
-      executor = new CachingExecutor(executor);
+      executor = new CachingExecutor(executor, tableDependencies, entityKeyIndex, invalidationBus);
     }
     executor = (Executor) interceptorChain.pluginAll(executor);
     return executor;
@@ -603,7 +861,9 @@ public class Configuration { //全局配置类
   }
 
   public void addCache(Cache cache) {
-    caches.put(cache.getId(), cache);
+    synchronized (caches) { //总线的接收线程可能在解析期间读取
+      caches.put(cache.getId(), cache);
+    }
   }
 
   public Collection<String> getCacheNames() {
@@ -666,6 +926,12 @@ public class Configuration { //全局配置类
 
   public void addMappedStatement(MappedStatement ms) {
     mappedStatements.put(ms.getId(), ms);
+    if (ms.getFlushScope() == FlushScope.TABLE) { //开始记录二级缓存条目读过的表
+      tableDependencies.setEnabled(true);
+    } else if (ms.getFlushScope() == FlushScope.KEY && ms.getCache() != null && ms.getKeyProperties() != null
+        && ms.getSqlCommandType() != SqlCommandType.INSERT) { //开始记录命名空间缓存条目包含的实体主键
+      entityKeyIndex.addKeyProperties(ms.getCache(), ms.getKeyProperties());
+    }
   }
 
   public Collection<String> getMappedStatementNames() {
@@ -0,0 +1,29 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+/**
+ * Whether sessions running the same select at the same time share one execution, see
+ * {@link org.apache.ibatis.executor.QueryCoalescer}.
+ */
+public enum QueryCoalescing {
+  /** Every session runs its own selects */
+  NONE,
+  /** Waiting sessions receive the very list the executing session read */
+  SHARE,
+  /** Waiting sessions receive deep copies of the list the executing session read */
+  COPY
+}
@@ -89,7 +89,11 @@ public class SqlSessionFactoryBuilder { //解析配置文件创建session工厂
   }
     
   public SqlSessionFactory build(Configuration config) {
-    return new DefaultSqlSessionFactory(config);
+    SqlSessionFactory sqlSessionFactory = new DefaultSqlSessionFactory(config);
+    if (config.getCacheSnapshotDirectory() != null || !config.getCacheWarmUps().isEmpty()) { //预热二级缓存
+      new CacheWarmer(sqlSessionFactory).warmUp();
+    }
+    return sqlSessionFactory;
   }
 
 }
@@ -23,7 +23,9 @@ import org.apache.ibatis.io.Resources;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ResultSetType;
 import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.session.CacheWarmer;
 import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
 import org.apache.ibatis.type.TypeHandler;
 import org.junit.Test;
 
@@ -62,6 +64,24 @@ public class XmlMapperBuilderTest {
     inputStream.close();
   }
 
+  @Test
+  public void shouldDeclareWarmUpSelectsOfCache() throws Exception {
+    Configuration configuration = new Configuration();
+    String resource = "org/apache/ibatis/builder/WarmUpAuthorMapper.xml";
+    InputStream inputStream = Resources.getResourceAsStream(resource);
+    XMLMapperBuilder builder = new XMLMapperBuilder(inputStream, configuration, resource, configuration.getSqlFragments());
+    builder.parse();
+    inputStream.close();
+
+    assertThat(configuration.getCacheWarmUps().get("org.apache.ibatis.builder.WarmUpAuthorMapper.selectAllAuthors"))
+        .containsExactly((Object) null);
+    assertThat(configuration.getCacheWarmUps().get("org.apache.ibatis.builder.WarmUpAuthorMapper.selectAuthor"))
+        .containsExactly("101");
+    assertThat(configuration.getCache("org.apache.ibatis.builder.WarmUpAuthorMapper").getSize()).isEqualTo(0);
+    // the missing select is skipped, the others need an environment
+    assertThat(new CacheWarmer(new DefaultSqlSessionFactory(configuration)).warmUp()).isEqualTo(0);
+  }
+
   @Test
   public void parseExpression() {
     BaseBuilder builder = new BaseBuilder(new Configuration()){{}};
@@ -0,0 +1,140 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class BlockingCacheTest {
+
+  @Test
+  public void shouldHandLoadedValueToWaitingThreads() throws Exception {
+    BlockingCache cache = new BlockingCache(new DiscardingCache());
+    assertNull(cache.getObject(0));
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Future<?>[] waiters = new Future<?>[4];
+      for (int i = 0; i < waiters.length; i++) {
+        waiters[i] = executor.submit(get(cache, 0));
+      }
+      Thread.sleep(100);
+      assertFalse(waiters[0].isDone());
+      cache.putObject(0, "loaded");
+      for (Future<?> waiter : waiters) {
+        assertEquals("loaded", waiter.get(1, TimeUnit.SECONDS));
+      }
+      assertEquals(0, cache.getLoadCount());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void shouldLetWaitingThreadLoadWhenLoadFails() throws Exception {
+    BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject(0));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Object> waiter = executor.submit(get(cache, 0));
+      Thread.sleep(100);
+      cache.removeObject(0);
+      assertNull(waiter.get(1, TimeUnit.SECONDS));
+      assertEquals(1, cache.getLoadCount()); //the waiting thread is loading now
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void shouldReadDatabaseAfterTimeout() throws Exception {
+    BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    cache.setTimeout(50);
+    assertNull(cache.getObject(0));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      assertNull(executor.submit(get(cache, 0)).get(1, TimeUnit.SECONDS));
+      cache.putObject(0, "loaded");
+      assertEquals(0, cache.getLoadCount());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void shouldReadCopyFromCacheWhenValuesAreNotShared() throws Exception {
+    BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    cache.setShareValues(false);
+    assertNull(cache.getObject(0));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Object> waiter = executor.submit(get(cache, 0));
+      Thread.sleep(100);
+      cache.putObject(0, "loaded");
+      assertEquals("loaded", waiter.get(1, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void shouldNotBlockThreadLoadingTheKey() {
+    BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(0));
+    cache.putObject(0, "loaded");
+    assertEquals("loaded", cache.getObject(0));
+    assertEquals(0, cache.getLoadCount());
+  }
+
+  @Test
+  public void shouldForgetKeysOnceLoaded() {
+    BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    for (int i = 0; i < 1000; i++) {
+      cache.getObject(i);
+      cache.putObject(i, i);
+    }
+    assertEquals(0, cache.getLoadCount());
+  }
+
+  private Callable<Object> get(final Cache cache, final Object key) {
+    return new Callable<Object>() {
+      @Override
+      public Object call() {
+        return cache.getObject(key);
+      }
+    };
+  }
+
+  // a cache that never keeps a value, like one whose admission policy rejects it
+  private static class DiscardingCache extends PerpetualCache {
+    DiscardingCache() {
+      super("discarding");
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+    }
+  }
+
+}
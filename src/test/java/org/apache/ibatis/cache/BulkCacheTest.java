@@ -0,0 +1,173 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.locks.ReadWriteLock;
+
+public class BulkCacheTest {
+
+  @Test
+  public void shouldPutGetAndRemoveAllThroughStandardDecorators() {
+    Properties properties = new Properties();
+    properties.setProperty("timeToLive", "60000");
+    properties.setProperty("staleWindow", "1000");
+    CacheStatsRegistry registry = new CacheStatsRegistry();
+    Cache cache = new CacheBuilder("bulk").size(50).readWrite(true).properties(properties)
+        .statistics(registry).build();
+    assertTrue(cache instanceof BulkCache);
+    Map<Object, Object> entries = new LinkedHashMap<Object, Object>();
+    for (int i = 0; i < 100; i++) {
+      entries.put(i, new ArrayList<Integer>(Arrays.asList(i)));
+    }
+    entries.put(100, null);
+    BulkCacheSupport.putAll(cache, entries);
+    assertEquals(50, cache.getSize());
+
+    Map<Object, Object> values = BulkCacheSupport.getAll(cache, Arrays.asList(0, 98, 99, 100));
+    assertEquals(2, values.size());
+    assertEquals(Arrays.asList(99), values.get(99));
+    assertNotSame(values.get(99), BulkCacheSupport.getAll(cache, Arrays.asList(99)).get(99));
+
+    BulkCacheSupport.removeAll(cache, Arrays.asList(98, 99));
+    assertNull(cache.getObject(99));
+    CacheStats stats = registry.getStats("bulk");
+    assertEquals(100, stats.getPuts());
+    assertEquals(3, stats.getHits());
+    assertEquals(2, stats.getRemovals());
+  }
+
+  @Test
+  public void shouldEvictLikeSingleEntryPuts() {
+    LruCache bulk = new LruCache(new PerpetualCache("bulk"));
+    LruCache single = new LruCache(new PerpetualCache("single"));
+    Map<Object, Object> entries = new LinkedHashMap<Object, Object>();
+    for (int i = 0; i < 3; i++) {
+      bulk.putObject(i, i);
+      single.putObject(i, i);
+    }
+    entries.put(3, 3);
+    entries.put(0, 0);
+    entries.put(4, 4);
+    bulk.putAll(entries);
+    for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+      single.putObject(entry.getKey(), entry.getValue());
+    }
+    for (int i = 0; i < 5; i++) {
+      assertEquals(single.getObject(i), bulk.getObject(i));
+    }
+    assertEquals(3, bulk.getSize());
+  }
+
+  @Test
+  public void shouldApplyOperationsOneByOneOnCustomCaches() {
+    Cache cache = new CustomCache();
+    Map<Object, Object> entries = new LinkedHashMap<Object, Object>();
+    entries.put(0, 0);
+    entries.put(1, 1);
+    BulkCacheSupport.putAll(cache, entries);
+    assertEquals(entries, BulkCacheSupport.getAll(cache, Arrays.asList(0, 1, 2)));
+    BulkCacheSupport.removeAll(cache, Arrays.asList(0, 1));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldFlushTransactionWithOneBulkPut() {
+    CountingCache counting = new CountingCache();
+    TransactionalCache cache = new TransactionalCache(counting);
+    for (int i = 0; i < 100; i++) {
+      cache.getObject(i);
+      cache.putObject(i, i);
+    }
+    cache.getObject(100);
+    cache.commit();
+    assertEquals(1, counting.bulkPuts);
+    assertEquals(101, counting.getSize());
+    assertNull(counting.getObject(100));
+  }
+
+  private static class CustomCache implements Cache {
+    private final Map<Object, Object> map = new HashMap<Object, Object>();
+
+    @Override
+    public String getId() {
+      return "custom";
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+      map.put(key, value);
+    }
+
+    @Override
+    public Object getObject(Object key) {
+      return map.get(key);
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+      return map.remove(key);
+    }
+
+    @Override
+    public void clear() {
+      map.clear();
+    }
+
+    @Override
+    public int getSize() {
+      return map.size();
+    }
+
+    @Override
+    public ReadWriteLock getReadWriteLock() {
+      return null;
+    }
+  }
+
+  private static class CountingCache extends PerpetualCache {
+    private int bulkPuts;
+
+    CountingCache() {
+      super("counting");
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+      fail("should put in bulk");
+    }
+
+    @Override
+    public void putAll(Map<?, ?> entries) {
+      bulkPuts++;
+      super.putAll(entries);
+    }
+  }
+
+}
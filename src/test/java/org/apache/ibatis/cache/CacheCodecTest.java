@@ -0,0 +1,157 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Blog;
+import org.apache.ibatis.domain.blog.Post;
+import org.apache.ibatis.domain.blog.Section;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CacheCodecTest {
+
+  @Test
+  public void shouldCopyBeansWithBinaryCodec() {
+    assertCopiesBeans(new BinaryCodec());
+  }
+
+  @Test
+  public void shouldCopyBeansWithDeepCopyCodec() {
+    assertCopiesBeans(new DeepCopyCodec());
+  }
+
+  @Test
+  public void shouldKeepSharedAndCyclicReferencesWithBinaryCodec() {
+    assertKeepsReferences(new BinaryCodec());
+  }
+
+  @Test
+  public void shouldKeepSharedAndCyclicReferencesWithDeepCopyCodec() {
+    assertKeepsReferences(new DeepCopyCodec());
+  }
+
+  @Test
+  public void shouldCopyValueTypesWithBinaryCodec() {
+    assertCopiesValueTypes(new BinaryCodec());
+  }
+
+  @Test
+  public void shouldCopyValueTypesWithDeepCopyCodec() {
+    assertCopiesValueTypes(new DeepCopyCodec());
+  }
+
+  @Test
+  public void shouldEncodeSmallerThanSerialization() {
+    List<Author> authors = new ArrayList<Author>();
+    for (int i = 0; i < 100; i++) {
+      authors.add(new Author(i, "user" + i, "password" + i, "user" + i + "@ibatis.apache.org", "bio " + i, Section.NEWS));
+    }
+    byte[] binary = (byte[]) new BinaryCodec().encode(authors);
+    byte[] serialized = (byte[]) new SerializationCodec().encode(authors);
+    assertTrue(binary.length < serialized.length);
+  }
+
+  @Test(expected = CacheException.class)
+  public void shouldRejectNonSerializableObjectsByDefault() {
+    Cache cache = new SerializedCache(new PerpetualCache("default"));
+    cache.putObject(0, new Blog());
+  }
+
+  @Test
+  public void shouldUseConfiguredCodec() {
+    SerializedCache cache = new SerializedCache(new PerpetualCache("default"));
+    cache.setCodec(BinaryCodec.class.getName());
+    Blog blog = new Blog(1, "Jim Business", null, null);
+    cache.putObject(0, blog);
+    Blog copy = (Blog) cache.getObject(0);
+    assertNotSame(blog, copy);
+    assertEquals("Jim Business", copy.getTitle());
+    cache.putObject(1, null);
+    assertNull(cache.getObject(1));
+  }
+
+  private void assertCopiesBeans(CacheCodec codec) {
+    Author author = new Author(101, "jim", "********", "jim@ibatis.apache.org", "Something...", Section.NEWS);
+    List<Author> authors = new ArrayList<Author>();
+    authors.add(author);
+    authors.add(null);
+    Object encoded = codec.encode(authors);
+    author.setUsername("changed");
+    @SuppressWarnings("unchecked")
+    List<Author> copy = (List<Author>) codec.decode(encoded);
+    assertEquals(2, copy.size());
+    assertNull(copy.get(1));
+    assertEquals("jim", copy.get(0).getUsername());
+    assertEquals(101, copy.get(0).getId());
+    assertEquals(Section.NEWS, copy.get(0).getFavouriteSection());
+    assertNotSame(copy.get(0), ((List<?>) codec.decode(encoded)).get(0));
+  }
+
+  private void assertKeepsReferences(CacheCodec codec) {
+    Author author = new Author(101, "jim", "********", "jim@ibatis.apache.org", "Something...", Section.NEWS);
+    Blog blog = new Blog(1, "Jim Business", author, new ArrayList<Post>());
+    for (int i = 0; i < 2; i++) {
+      Post post = new Post();
+      post.setId(i);
+      post.setAuthor(author);
+      post.setBlog(blog);
+      post.setCreatedOn(new Date(1000L * i));
+      blog.getPosts().add(post);
+    }
+    Blog copy = (Blog) codec.decode(codec.encode(blog));
+    assertNotSame(blog, copy);
+    assertEquals(2, copy.getPosts().size());
+    assertSame(copy, copy.getPosts().get(0).getBlog());
+    assertSame(copy.getAuthor(), copy.getPosts().get(1).getAuthor());
+    assertNotSame(author, copy.getAuthor());
+    assertEquals(new Date(1000L), copy.getPosts().get(1).getCreatedOn());
+  }
+
+  private void assertCopiesValueTypes(CacheCodec codec) {
+    Timestamp timestamp = new Timestamp(123456789L);
+    timestamp.setNanos(123456789);
+    Map<String, Object> row = new HashMap<String, Object>();
+    row.put("decimal", new BigDecimal("-1234.5678"));
+    row.put("timestamp", timestamp);
+    row.put("bytes", new byte[] { 1, 2, 3 });
+    row.put("array", new String[] { "a", null });
+    row.put("list", Arrays.asList(1L, 2.5D, 'c', true));
+    row.put("string", "中文");
+    @SuppressWarnings("unchecked")
+    Map<String, Object> copy = (Map<String, Object>) codec.decode(codec.encode(row));
+    assertNotSame(row, copy);
+    assertEquals(new BigDecimal("-1234.5678"), copy.get("decimal"));
+    assertEquals(timestamp, copy.get("timestamp"));
+    assertNotSame(timestamp, copy.get("timestamp"));
+    assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) copy.get("bytes"));
+    assertTrue(Arrays.equals(new String[] { "a", null }, (String[]) copy.get("array")));
+    assertEquals(Arrays.asList(1L, 2.5D, 'c', true), copy.get("list"));
+    assertEquals("中文", copy.get("string"));
+  }
+
+}
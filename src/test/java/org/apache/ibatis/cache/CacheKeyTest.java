@@ -80,4 +80,13 @@ public class CacheKeyTest {
     assertTrue(key1.equals(key2));
   }
 
+  @Test
+  public void shouldCompareElementsAfterDeserialization() {
+    CacheKey key = new CacheKey(new Object[] { "select", 1 });
+    CacheKey restored = (CacheKey) new SerializationCodec().decode(new SerializationCodec().encode(key));
+    assertTrue(restored.equals(key));
+    assertTrue(key.equals(restored));
+    assertFalse(restored.equals(new CacheKey(new Object[] { "select", 2 })));
+  }
+
 }
@@ -0,0 +1,107 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class CacheRefresherTest {
+
+  @Test
+  public void shouldRefreshAKeyOnlyOnceAtATime() throws Exception {
+    CacheRefresher refresher = new CacheRefresher();
+    refresher.setThreads(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger runs = new AtomicInteger();
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        runs.incrementAndGet();
+        await(release);
+      }
+    };
+    try {
+      assertTrue(refresher.submit("key", task));
+      assertFalse(refresher.submit("key", task));
+      release.countDown();
+      waitUntilIdle(refresher);
+      assertTrue(refresher.submit("key", task));
+      waitUntilIdle(refresher);
+      assertEquals(2, runs.get());
+    } finally {
+      refresher.shutdown();
+    }
+  }
+
+  @Test
+  public void shouldDropRefreshesWhenTheQueueIsFull() throws Exception {
+    CacheRefresher refresher = new CacheRefresher();
+    refresher.setThreads(1);
+    refresher.setQueueSize(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        await(release);
+      }
+    };
+    try {
+      assertTrue(refresher.submit(1, task));
+      assertTrue(refresher.submit(2, task));
+      assertFalse(refresher.submit(3, task));
+      assertEquals(2, refresher.getPendingCount());
+      release.countDown();
+      waitUntilIdle(refresher);
+    } finally {
+      refresher.shutdown();
+    }
+  }
+
+  @Test
+  public void shouldDropRefreshesAfterShutdown() {
+    CacheRefresher refresher = new CacheRefresher();
+    refresher.shutdown();
+    assertFalse(refresher.submit("key", new Runnable() {
+      @Override
+      public void run() {
+        fail("The refresher is shut down");
+      }
+    }));
+    assertEquals(0, refresher.getPendingCount());
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void waitUntilIdle(CacheRefresher refresher) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (refresher.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(0, refresher.getPendingCount());
+  }
+
+}
@@ -0,0 +1,131 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.After;
+import org.junit.Before;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class CacheSnapshotsTest {
+
+  private File directory;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = File.createTempFile("mybatis", "snapshots");
+    directory.delete();
+    directory.mkdirs();
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void shouldRestoreSavedEntriesIntoNewCache() {
+    CacheSnapshots snapshots = new CacheSnapshots();
+    Cache cache = new CacheBuilder("org.apache.ibatis.Snapshot").snapshots(snapshots).build();
+    cache.putObject("a", Arrays.asList(1, 2, 3));
+    cache.putObject("b", Collections.singletonList("x"));
+    cache.putObject("skipped", Collections.singletonList(new Object()));
+    assertEquals(2, snapshots.saveAll(directory));
+
+    CacheSnapshots restarted = new CacheSnapshots();
+    Cache restored = new CacheBuilder("org.apache.ibatis.Snapshot").readWrite(true).snapshots(restarted).build();
+    assertEquals(Collections.singleton("org.apache.ibatis.Snapshot"), restarted.restoreAll(directory));
+    assertEquals(Arrays.asList(1, 2, 3), restored.getObject("a"));
+    assertEquals(Collections.singletonList("x"), restored.getObject("b"));
+    assertNull(restored.getObject("skipped"));
+  }
+
+  @Test
+  public void shouldRestoreEntriesUnderCacheKeys() {
+    CacheSnapshots snapshots = new CacheSnapshots();
+    Cache cache = new CacheBuilder("org.apache.ibatis.Snapshot").snapshots(snapshots).build();
+    cache.putObject(new CacheKey(new Object[] { "select", 1 }), Collections.singletonList("one"));
+    cache.putObject(new CompactCacheKey(new Object[] { "select", 2 }), Collections.singletonList("two"));
+    assertEquals(2, snapshots.saveAll(directory));
+
+    CacheSnapshots restarted = new CacheSnapshots();
+    Cache restored = new CacheBuilder("org.apache.ibatis.Snapshot").snapshots(restarted).build();
+    restarted.restoreAll(directory);
+    assertEquals(Collections.singletonList("one"), restored.getObject(new CacheKey(new Object[] { "select", 1 })));
+    assertEquals(Collections.singletonList("two"), restored.getObject(new CompactCacheKey(new Object[] { "select", 2 })));
+    assertNull(restored.getObject(new CacheKey(new Object[] { "select", 2 })));
+  }
+
+  @Test
+  public void shouldListEntriesKeptByEvictionPolicy() {
+    CacheSnapshots snapshots = new CacheSnapshots();
+    Cache cache = new CacheBuilder("tinylfu").addDecorator(TinyLfuCache.class).snapshots(snapshots).build();
+    cache.putObject(1, new Row("one"));
+    File file = CacheSnapshots.getFile(directory, "tinylfu");
+    assertEquals(1, snapshots.save("tinylfu", file));
+    cache.clear();
+    assertEquals(1, snapshots.restore("tinylfu", file));
+    assertEquals("one", ((Row) cache.getObject(1)).name);
+  }
+
+  @Test
+  public void shouldSkipSnapshotsOlderThanMaxAge() throws Exception {
+    CacheSnapshots snapshots = new CacheSnapshots();
+    Cache cache = new CacheBuilder("aged").snapshots(snapshots).build();
+    cache.putObject("a", "one");
+    assertEquals(1, snapshots.saveAll(directory));
+    Thread.sleep(50);
+
+    CacheSnapshots restarted = new CacheSnapshots();
+    restarted.setMaxAge(10);
+    Cache restored = new CacheBuilder("aged").snapshots(restarted).build();
+    assertTrue(restarted.restoreAll(directory).isEmpty());
+    assertNull(restored.getObject("a"));
+    restarted.setMaxAge(60000);
+    assertEquals(Collections.singleton("aged"), restarted.restoreAll(directory));
+    assertEquals("one", restored.getObject("a"));
+  }
+
+  @Test
+  public void shouldSkipNamespacesWithoutSnapshot() {
+    CacheSnapshots snapshots = new CacheSnapshots();
+    new CacheBuilder("none").snapshots(snapshots).build();
+    assertTrue(snapshots.restoreAll(directory).isEmpty());
+  }
+
+  static class Row implements Serializable {
+    private static final long serialVersionUID = 1L;
+    final String name;
+
+    Row(String name) {
+      this.name = name;
+    }
+  }
+
+}
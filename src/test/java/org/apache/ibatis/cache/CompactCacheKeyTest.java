@@ -0,0 +1,150 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+public class CompactCacheKeyTest {
+
+  @Test
+  public void shouldTestCacheKeysEqual() {
+    Date date = new Date();
+    CacheKey key1 = new CompactCacheKey(new Object[] { 1, "hello", null, new Date(date.getTime()), new byte[] { 1 } });
+    CacheKey key2 = new CompactCacheKey(new Object[] { 1, "hello", null, new Date(date.getTime()), new byte[] { 1 } });
+    assertTrue(key1.equals(key2));
+    assertTrue(key2.equals(key1));
+    assertTrue(key1.hashCode() == key2.hashCode());
+    assertTrue(key1.toString().equals(key2.toString()));
+  }
+
+  @Test
+  public void shouldTestCacheKeysNotEqualDueToOrder() {
+    CacheKey key1 = new CompactCacheKey(new Object[] { 1, "hello", null });
+    CacheKey key2 = new CompactCacheKey(new Object[] { 1, null, "hello" });
+    assertFalse(key1.equals(key2));
+    assertFalse(key1.hashCode() == key2.hashCode());
+  }
+
+  @Test
+  public void shouldNotMatchEqualNumbersOfDifferentTypes() {
+    CacheKey key1 = new CompactCacheKey();
+    key1.update(1);
+    CacheKey key2 = new CompactCacheKey();
+    key2.update(1L);
+    CacheKey key3 = new CompactCacheKey(new Object[] { Integer.valueOf(1) });
+    assertFalse(key1.equals(key2));
+    assertTrue(key1.equals(key3));
+    assertFalse(new CompactCacheKey(new Object[] { new BigDecimal("1.0") })
+        .equals(new CompactCacheKey(new Object[] { new BigDecimal("1.00") })));
+  }
+
+  @Test
+  public void shouldNotMatchStringsSharingAPrefix() {
+    assertFalse(new CompactCacheKey(new Object[] { "abcd" }).equals(new CompactCacheKey(new Object[] { "abcde" })));
+    assertFalse(new CompactCacheKey(new Object[] { "ab", "c" }).equals(new CompactCacheKey(new Object[] { "a", "bc" })));
+  }
+
+  @Test
+  public void shouldCompareElementsWithoutContentHashWithEquals() {
+    CacheKey key1 = new CompactCacheKey(new Object[] { new Collider("a") });
+    CacheKey key2 = new CompactCacheKey(new Object[] { new Collider("b") });
+    CacheKey key3 = new CompactCacheKey(new Object[] { new Collider("a") });
+    assertFalse(key1.equals(key2));
+    assertTrue(key1.equals(key3));
+  }
+
+  @Test
+  public void shouldNotEqualStandardCacheKeys() {
+    assertFalse(new CompactCacheKey().equals(new CacheKey()));
+    assertFalse(new CacheKey().equals(new CompactCacheKey()));
+  }
+
+  @Test
+  public void shouldKeepEveryElementWhenVerifying() throws Exception {
+    CompactCacheKey key = new CompactCacheKey(true);
+    key.update("select");
+    key.update(10);
+    assertTrue(key.toString().endsWith(":select:10"));
+    assertEquals(key, key.clone());
+    assertEquals(2, key.getUpdateCount());
+  }
+
+  @Test
+  public void shouldCompareElementsWithoutContentHashAfterDeserialization() throws Exception {
+    CacheKey key = new CompactCacheKey(new Object[] { "select", new Collider("a") });
+    CacheKey restored = (CacheKey) new SerializationCodec().decode(new SerializationCodec().encode(key));
+    assertTrue(restored.equals(key));
+    assertTrue(key.equals(restored));
+    CacheKey collision = new CompactCacheKey(new Object[] { "select", new Collider("b") });
+    assertEquals(collision.hashCode(), restored.hashCode());
+    assertFalse(restored.equals(collision));
+    assertFalse(collision.equals(restored));
+  }
+
+  @Test
+  public void shouldListOnlyTheElementsItKeeps() {
+    assertTrue(new CompactCacheKey(new Object[] { "select", 1 }).getUpdateList().isEmpty());
+    Object other = new Object();
+    assertEquals(Arrays.asList(other), new CompactCacheKey(new Object[] { "select", other }).getUpdateList());
+    CompactCacheKey verifying = new CompactCacheKey(true);
+    verifying.updateAll(new Object[] { "select", 1 });
+    assertEquals(Arrays.<Object>asList("select", 1), verifying.getUpdateList());
+  }
+
+  @Test
+  public void shouldDistributeKeysOfPointLookups() {
+    Map<Integer, Integer> hashes = new HashMap<Integer, Integer>();
+    for (int i = 0; i < 100000; i++) {
+      CacheKey key = new CompactCacheKey();
+      key.update("org.apache.ibatis.domain.blog.mappers.AuthorMapper.selectAuthor");
+      key.update(0);
+      key.update(Integer.MAX_VALUE);
+      key.update("select * from author where id = ?");
+      key.update(Integer.valueOf(i));
+      hashes.put(key.hashCode(), i);
+    }
+    assertTrue(hashes.size() > 99990);
+  }
+
+  private static class Collider implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String value;
+
+    Collider(String value) {
+      this.value = value;
+    }
+
+    @Override
+    public int hashCode() {
+      return 1;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+      return object instanceof Collider && ((Collider) object).value.equals(value);
+    }
+  }
+
+}
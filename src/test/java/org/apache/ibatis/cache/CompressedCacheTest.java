@@ -0,0 +1,101 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.ibatis.cache.decorators.CompressedCache;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class CompressedCacheTest {
+
+  @Test
+  public void shouldCompressLargeValuesAndReturnCopies() {
+    PerpetualCache base = new PerpetualCache("default");
+    CompressedCache compressed = new CompressedCache(base);
+    Cache cache = new SerializedCache(compressed);
+    List<String> rows = rows(500);
+    cache.putObject(0, rows);
+    assertFalse(base.getObject(0) instanceof byte[]);
+    Object copy = cache.getObject(0);
+    assertEquals(rows, copy);
+    assertNotSame(rows, copy);
+    assertEquals(1, compressed.getCompressions());
+    assertEquals(1, compressed.getDecompressions());
+    assertTrue(compressed.getCompressionRatio() > 3);
+  }
+
+  @Test
+  public void shouldKeepSmallValuesAsTheyAre() {
+    PerpetualCache base = new PerpetualCache("default");
+    CompressedCache cache = new CompressedCache(base);
+    cache.setCompressionThreshold(4096);
+    List<String> rows = rows(2);
+    cache.putObject(0, rows);
+    assertSame(rows, base.getObject(0));
+    assertSame(rows, cache.getObject(0));
+    assertEquals(0, cache.getCompressions());
+  }
+
+  @Test
+  public void shouldSerializeLargeValuesOfReadOnlyCaches() {
+    CompressedCache cache = new CompressedCache(new PerpetualCache("default"));
+    List<String> rows = rows(500);
+    cache.putObject(0, rows);
+    assertEquals(rows, cache.getObject(0));
+    assertEquals(1, cache.getCompressions());
+  }
+
+  @Test
+  public void shouldKeepValuesThatCannotBeSerialized() {
+    PerpetualCache base = new PerpetualCache("default");
+    CompressedCache cache = new CompressedCache(base);
+    cache.setCompressionThreshold(16);
+    List<Object> rows = new ArrayList<Object>();
+    for (int i = 0; i < 100; i++) {
+      rows.add(new Object());
+    }
+    cache.putObject(0, rows);
+    assertSame(rows, cache.getObject(0));
+    assertEquals(0, cache.getCompressions());
+  }
+
+  @Test
+  public void shouldBeAddedByCompressionThresholdProperty() {
+    Properties properties = new Properties();
+    properties.setProperty("compressionThreshold", "256");
+    Cache cache = new CacheBuilder("compressed").properties(properties).build();
+    List<String> rows = rows(500);
+    cache.putObject(0, rows);
+    assertEquals(rows, cache.getObject(0));
+    assertNotSame(rows, cache.getObject(0));
+  }
+
+  private List<String> rows(int count) {
+    List<String> rows = new ArrayList<String>();
+    for (int i = 0; i < count; i++) {
+      rows.add("report row " + (i % 10) + " with a fairly repetitive description");
+    }
+    return rows;
+  }
+
+}
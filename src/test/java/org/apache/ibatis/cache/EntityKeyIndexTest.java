@@ -0,0 +1,141 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class EntityKeyIndexTest {
+
+  @Test
+  public void shouldRemoveOnlyEntriesHoldingModifiedKeys() {
+    EntityKeyIndex index = new EntityKeyIndex();
+    Cache cache = new PerpetualCache("default");
+    put(index, cache, "all", keys(1L, 2L, 3L));
+    put(index, cache, "one", keys(1L));
+    put(index, cache, "two", keys(2L));
+    put(index, cache, "empty", keys());
+    index.remove(cache, keys(1L));
+    assertNull(cache.getObject("all"));
+    assertNull(cache.getObject("one"));
+    assertNotNull(cache.getObject("two"));
+    assertNotNull(cache.getObject("empty"));
+  }
+
+  @Test
+  public void shouldRemoveEntriesWithUnknownKeysOnAnyWrite() {
+    EntityKeyIndex index = new EntityKeyIndex();
+    Cache cache = new PerpetualCache("default");
+    put(index, cache, "unknown", null);
+    put(index, cache, "two", keys(2L));
+    index.remove(cache, keys(1L));
+    assertNull(cache.getObject("unknown"));
+    assertNotNull(cache.getObject("two"));
+  }
+
+  @Test
+  public void shouldTreatEqualNumbersOfDifferentTypesAsSameKey() {
+    EntityKeyIndex index = new EntityKeyIndex();
+    Cache cache = new PerpetualCache("default");
+    Configuration configuration = new Configuration();
+    EntityKeyIndex.Collector collector = index.startCollecting(new String[] { "id" });
+    index.addKeyProperties(cache, new String[] { "id" });
+    index.collect(configuration.newMetaObject(author(1)));
+    index.stopCollecting(collector);
+    put(index, cache, "one", collector.getEntityKeys(Collections.singletonList("one")));
+    index.remove(cache, index.getModifiedKeys(updateAuthor(configuration), new BigDecimal("1.00")));
+    assertNull(cache.getObject("one"));
+  }
+
+  @Test
+  public void shouldClearWholeCacheWhenTooManyKeys() {
+    EntityKeyIndex index = new EntityKeyIndex();
+    index.setMaxKeys(2);
+    Cache cache = new PerpetualCache("default");
+    for (long i = 0; i < 3; i++) {
+      put(index, cache, i, keys(i));
+    }
+    index.remove(cache, keys(5L));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldReadModifiedKeysFromParameter() {
+    MappedStatement ms = updateAuthor(new Configuration());
+    EntityKeyIndex index = new EntityKeyIndex();
+    assertEquals(keys(1L), index.getModifiedKeys(ms, 1));
+    assertEquals(keys(2L), index.getModifiedKeys(ms, author(2)));
+    List<Integer> ids = new ArrayList<Integer>(Arrays.asList(3, 4));
+    assertEquals(keys(3L, 4L), index.getModifiedKeys(ms, Collections.singletonMap("id", ids)));
+    assertNull(index.getModifiedKeys(ms, Collections.singletonMap("name", "jim")));
+  }
+
+  @Test
+  public void shouldHideEntriesHoldingKeysModifiedByTransaction() {
+    EntityKeyIndex index = new EntityKeyIndex();
+    Cache cache = new PerpetualCache("default");
+    TransactionalCache reader = new TransactionalCache(cache, index);
+    reader.putObject("one", "one");
+    reader.putEntityKeys("one", keys(1L));
+    reader.putObject("two", "two");
+    reader.putEntityKeys("two", keys(2L));
+    reader.commit();
+    TransactionalCache writer = new TransactionalCache(cache, index);
+    writer.removeEntities(keys(1L));
+    assertNull(writer.getObject("one"));
+    assertEquals("two", writer.getObject("two"));
+    assertEquals("one", reader.getObject("one"));
+    writer.commit();
+    assertNull(cache.getObject("one"));
+    assertEquals("two", cache.getObject("two"));
+  }
+
+  private void put(EntityKeyIndex index, Cache cache, Object key, Set<Object> entityKeys) {
+    cache.putObject(key, key);
+    index.register(cache, key, entityKeys);
+  }
+
+  private MappedStatement updateAuthor(Configuration configuration) {
+    return new MappedStatement.Builder(configuration, "updateAuthor",
+        new StaticSqlSource(configuration, "update author set bio = ? where id = ?"), SqlCommandType.UPDATE)
+        .keyProperty("id").build();
+  }
+
+  private Author author(int id) {
+    return new Author(id, "jim", "secret", "jim@ibatis.apache.org", "bio", Section.NEWS);
+  }
+
+  private Set<Object> keys(Object... keys) {
+    return new HashSet<Object>(Arrays.asList(keys));
+  }
+
+}
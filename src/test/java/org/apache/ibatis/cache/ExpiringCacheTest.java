@@ -0,0 +1,128 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.ExpiringCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ExpiringCacheTest {
+
+  @Test
+  public void shouldExpireEachEntryAfterTimeToLive() throws Exception {
+    ExpiringCache cache = new ExpiringCache(new PerpetualCache("default"));
+    cache.setTimeToLive(100);
+    cache.putObject(0, 0);
+    Thread.sleep(60);
+    cache.putObject(1, 1);
+    Thread.sleep(60);
+    assertNull(cache.getObject(0));
+    assertEquals(1, cache.getObject(1));
+  }
+
+  @Test
+  public void shouldKeepValuePutWhileReadingAnExpiredEntry() throws Exception {
+    final ExpiringCache[] cache = new ExpiringCache[1];
+    final boolean[] interleave = new boolean[1];
+    cache[0] = new ExpiringCache(new PerpetualCache("default") {
+      @Override
+      public Object getObject(Object key) {
+        Object value = super.getObject(key);
+        if (interleave[0]) { //模拟另一个线程在过期检查期间放入新值
+          interleave[0] = false;
+          cache[0].putObject(key, "fresh");
+        }
+        return value;
+      }
+    });
+    cache[0].setTimeToLive(10);
+    cache[0].putObject(0, "stale");
+    Thread.sleep(20);
+    interleave[0] = true;
+    assertNull(cache[0].getObject(0));
+    assertEquals("fresh", cache[0].getObject(0));
+  }
+
+  @Test
+  public void shouldExpireEntriesNotReadWithinTimeToIdle() throws Exception {
+    ExpiringCache cache = new ExpiringCache(new PerpetualCache("default"));
+    cache.setTimeToIdle(100);
+    cache.putObject(0, 0);
+    cache.putObject(1, 1);
+    for (int i = 0; i < 3; i++) {
+      Thread.sleep(50);
+      assertEquals(0, cache.getObject(0));
+    }
+    assertNull(cache.getObject(1));
+  }
+
+  @Test
+  public void shouldSpreadExpirationWithJitter() throws Exception {
+    ExpiringCache cache = new ExpiringCache(new PerpetualCache("default"));
+    cache.setTimeToLive(200);
+    cache.setJitter(50);
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, i);
+    }
+    Thread.sleep(150);
+    int alive = 0;
+    for (int i = 0; i < 100; i++) {
+      if (cache.getObject(i) != null) {
+        alive++;
+      }
+    }
+    assertTrue(alive > 0 && alive < 100);
+  }
+
+  @Test
+  public void shouldRequestOneRefreshNearExpiration() throws Exception {
+    ExpiringCache cache = new ExpiringCache(new PerpetualCache("default"));
+    cache.setTimeToLive(200);
+    cache.setRefreshAhead(100);
+    cache.putObject(0, 0);
+    assertEquals(0, cache.getObject(0));
+    assertFalse(ExpiringCache.takeRefreshRequest(0));
+    Thread.sleep(120);
+    assertEquals(0, cache.getObject(0));
+    assertTrue(ExpiringCache.takeRefreshRequest(0));
+    assertEquals(0, cache.getObject(0));
+    assertFalse(ExpiringCache.takeRefreshRequest(0));
+  }
+
+  @Test
+  public void shouldRemoveItemOnDemand() {
+    Cache cache = new ExpiringCache(new PerpetualCache("default"));
+    cache.putObject(0, 0);
+    assertNotNull(cache.getObject(0));
+    assertEquals(0, cache.removeObject(0));
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldFlushAllItemsOnDemand() {
+    Cache cache = new ExpiringCache(new PerpetualCache("default"));
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertNotNull(cache.getObject(0));
+    assertNotNull(cache.getObject(4));
+    cache.clear();
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(4));
+  }
+
+}
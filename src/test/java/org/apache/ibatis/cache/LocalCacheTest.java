@@ -0,0 +1,82 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.impl.LocalCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.session.Configuration;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LocalCacheTest {
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedEntriesOnlyWhenAsked() {
+    AtomicLong counter = new AtomicLong();
+    LocalCache cache = new LocalCache("local", 3, 0, counter);
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(5, cache.getSize());
+    cache.getObject(0);
+    assertEquals(Arrays.<Object>asList(1, 2), cache.evict());
+    assertEquals(3, cache.getSize());
+    assertNotNull(cache.getObject(0));
+    assertNull(cache.getObject(1));
+    assertEquals(2, cache.getEvictions());
+    assertEquals(2, counter.get());
+    assertTrue(cache.evict().isEmpty());
+  }
+
+  @Test
+  public void shouldEvictBeyondMaxBytes() {
+    LocalCache cache = new LocalCache("local", 0, 10000, null);
+    for (int i = 0; i < 10; i++) {
+      List<String> rows = new ArrayList<String>();
+      for (int j = 0; j < 100; j++) {
+        rows.add("row" + i + "-" + j);
+      }
+      cache.putObject(i, rows);
+    }
+    assertTrue(cache.getWeight() > 10000);
+    cache.evict();
+    assertTrue(cache.getWeight() <= 10000);
+    assertTrue(cache.getSize() > 0 && cache.getSize() < 10);
+    assertNotNull(cache.getObject(9));
+    cache.removeObject(9);
+    cache.clear();
+    assertEquals(0, cache.getWeight());
+  }
+
+  @Test
+  public void shouldCreateBoundedLocalCacheOnlyWhenConfigured() {
+    Configuration configuration = new Configuration();
+    assertEquals(PerpetualCache.class, configuration.newLocalCache("local").getClass());
+    configuration.setLocalCacheSize(2);
+    LocalCache cache = (LocalCache) configuration.newLocalCache("local");
+    for (int i = 0; i < 3; i++) {
+      cache.putObject(i, i);
+    }
+    cache.evict();
+    assertEquals(1, configuration.getLocalCacheEvictions());
+  }
+
+}
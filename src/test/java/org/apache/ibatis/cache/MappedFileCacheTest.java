@@ -0,0 +1,205 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.impl.MappedFileCache;
+import org.junit.After;
+import org.junit.Before;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+
+public class MappedFileCacheTest {
+
+  private File directory;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = File.createTempFile("mybatis", "cache");
+    directory.delete();
+    directory.mkdirs();
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void shouldServeEntriesAfterRestart() {
+    MappedFileCache cache = newCache("1");
+    cache.putObject(key("select", 1), "one");
+    cache.putObject(key("select", 2), "two");
+    cache.close();
+
+    MappedFileCache restarted = newCache("1");
+    assertEquals(2, restarted.getSize());
+    assertEquals("one", restarted.getObject(key("select", 1)));
+    assertEquals("two", restarted.getObject(key("select", 2)));
+    restarted.close();
+  }
+
+  @Test
+  public void shouldDiscardEntriesWhenVersionChanges() {
+    MappedFileCache cache = newCache("1");
+    cache.putObject(key("select", 1), "one");
+    cache.close();
+
+    MappedFileCache restarted = newCache("2");
+    assertNull(restarted.getObject(key("select", 1)));
+    assertEquals(0, restarted.getSize());
+    restarted.close();
+  }
+
+  @Test
+  public void shouldPersistClear() {
+    MappedFileCache cache = newCache("1");
+    cache.putObject(key("select", 1), "one");
+    cache.clear();
+    cache.close();
+
+    MappedFileCache restarted = newCache("1");
+    assertNull(restarted.getObject(key("select", 1)));
+    restarted.close();
+  }
+
+  @Test
+  public void shouldPersistReplacedAndRemovedEntries() {
+    MappedFileCache cache = newCache("1");
+    cache.putObject(key("select", 1), "one");
+    cache.putObject(key("select", 1), "uno");
+    cache.putObject(key("select", 2), "two");
+    cache.removeObject(key("select", 2));
+    cache.close();
+
+    MappedFileCache restarted = newCache("1");
+    assertEquals(1, restarted.getSize());
+    assertEquals("uno", restarted.getObject(key("select", 1)));
+    assertNull(restarted.getObject(key("select", 2)));
+    restarted.close();
+  }
+
+  @Test
+  public void shouldCompactAndDropOldestEntriesWhenFull() {
+    MappedFileCache cache = newCache("1");
+    cache.setMaxBytes(16 * 1024);
+    cache.initialize();
+    for (int i = 0; i < 200; i++) {
+      cache.putObject(key("select", i), new byte[500]);
+    }
+    assertNotNull(cache.getObject(key("select", 199)));
+    assertNull(cache.getObject(key("select", 0)));
+    assertTrue(cache.getSize() < 200);
+    cache.close();
+  }
+
+  @Test
+  public void shouldNotPersistNullValues() {
+    MappedFileCache cache = newCache("1");
+    cache.putObject(key("select", 1), null);
+    assertEquals(0, cache.getSize());
+    cache.close();
+  }
+
+  @Test
+  public void shouldFindEntriesWhoseKeyHashCodeChangedAfterRestart() throws Exception {
+    MappedFileCache cache = newCache("1");
+    CacheKey key = key("select", 1);
+    key.update(Thread.State.NEW); //enum的hashCode每次启动都不同
+    cache.putObject(key, "one");
+    cache.close();
+
+    CacheKey restartedKey = key("select", 1);
+    restartedKey.update(Thread.State.NEW);
+    Field hashcode = CacheKey.class.getDeclaredField("hashcode");
+    hashcode.setAccessible(true);
+    hashcode.setInt(restartedKey, hashcode.getInt(restartedKey) + 1);
+    MappedFileCache restarted = newCache("1");
+    assertEquals("one", restarted.getObject(restartedKey));
+    restarted.close();
+  }
+
+  @Test
+  public void shouldNotPersistKeysWithNonSerializableElements() {
+    MappedFileCache cache = newCache("1");
+    CacheKey key = key("select", 1);
+    key.update(new Object());
+    cache.putObject(key, "one");
+    assertEquals(0, cache.getSize());
+    assertNull(cache.getObject(key));
+    cache.close();
+  }
+
+  @Test
+  public void shouldTreatUnreadableEntriesAsMisses() {
+    MappedFileCache cache = newCache("1");
+    cache.putObject(key("select", 1), new Unreadable());
+    assertNull(cache.getObject(key("select", 1)));
+    assertEquals(0, cache.getSize());
+    cache.close();
+
+    MappedFileCache restarted = newCache("1");
+    assertEquals(0, restarted.getSize());
+    restarted.close();
+  }
+
+  @Test(expected = CacheException.class)
+  public void shouldNotOpenTheSameFileTwice() {
+    MappedFileCache cache = newCache("1");
+    try {
+      newCache("1");
+    } finally {
+      cache.close();
+    }
+  }
+
+  private MappedFileCache newCache(String version) {
+    MappedFileCache cache = new MappedFileCache("org.apache.ibatis.domain.blog.mappers.AuthorMapper");
+    cache.setDirectory(directory.getAbsolutePath());
+    cache.setMaxBytes(1024 * 1024);
+    cache.setVersion(version);
+    cache.initialize();
+    return cache;
+  }
+
+  private CacheKey key(String statement, int id) {
+    CacheKey key = new CacheKey();
+    key.update(statement);
+    key.update(id);
+    return key;
+  }
+
+  static class Unreadable implements Serializable { //模拟重新部署后已经改变的类
+    private static final long serialVersionUID = 1L;
+
+    private void readObject(ObjectInputStream in) throws IOException {
+      throw new InvalidClassException(Unreadable.class.getName(), "class changed");
+    }
+  }
+
+}
@@ -0,0 +1,177 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.ibatis.cache.decorators.NearCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.session.Configuration;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NearCacheTest {
+
+  private Cache shared;
+  private NearCache nearA;
+  private NearCache nearB;
+  private Configuration configurationA;
+  private Configuration configurationB;
+
+  @Before
+  public void setUp() {
+    shared = new PerpetualCache("near.ns");
+    nearA = new NearCache(shared);
+    nearB = new NearCache(shared);
+    configurationA = new Configuration();
+    configurationA.addCache(nearA);
+    configurationB = new Configuration();
+    configurationB.addCache(nearB);
+  }
+
+  @After
+  public void tearDown() {
+    configurationA.setInvalidationBus(null);
+    configurationB.setInvalidationBus(null);
+  }
+
+  @Test
+  public void shouldServeSharedHitsFromNearTier() {
+    nearA.putObject(0, "zero");
+    assertEquals(0, nearB.getNearCount());
+    assertEquals("zero", nearB.getObject(0));
+    assertEquals(1, nearB.getNearCount());
+    shared.removeObject(0);
+    assertEquals("zero", nearB.getObject(0));
+  }
+
+  @Test
+  public void shouldBoundNearTier() throws Exception {
+    nearA.setNearSize(2);
+    nearA.setNearTimeToLive(100);
+    for (int i = 0; i < 5; i++) {
+      nearA.putObject(i, i);
+    }
+    assertEquals(2, nearA.getNearCount());
+    assertEquals(5, shared.getSize());
+    shared.clear();
+    assertEquals(4, nearA.getObject(4));
+    Thread.sleep(150);
+    assertNull(nearA.getObject(4));
+  }
+
+  @Test
+  public void shouldNotCopySharedValueReadDuringInvalidation() {
+    shared.putObject(0, "stale");
+    final NearCache[] near = new NearCache[1];
+    near[0] = new NearCache(new PerpetualCache("near.race") {
+      @Override
+      public Object getObject(Object key) {
+        Object value = shared.getObject(key);
+        NearCache.setNearOnly(true); //另一个实例的失效在读取期间到达
+        try {
+          near[0].clear();
+        } finally {
+          NearCache.setNearOnly(false);
+        }
+        return value;
+      }
+    });
+    assertEquals("stale", near[0].getObject(0));
+    assertEquals(0, near[0].getNearCount());
+  }
+
+  @Test
+  public void shouldInvalidateNearTierOnlyWhenAskedTo() {
+    nearA.putObject(0, 0);
+    nearA.putObject(1, 1);
+    NearCache.setNearOnly(true);
+    try {
+      nearA.removeObject(0);
+      nearA.clear();
+    } finally {
+      NearCache.setNearOnly(false);
+    }
+    assertEquals(0, nearA.getNearCount());
+    assertEquals(2, shared.getSize());
+    nearA.removeObject(0);
+    nearA.clear();
+    assertEquals(0, shared.getSize());
+  }
+
+  @Test
+  public void shouldEncodeInvalidations() {
+    Invalidations invalidations = new Invalidations();
+    invalidations.setOrigin("a");
+    invalidations.clear("cleared");
+    invalidations.removeEntities("removed", new HashSet<Object>(Arrays.<Object>asList(1L, "x", new BigDecimal("1.5"))));
+    invalidations.removeEntities("unknown", Collections.<Object>singleton(new Object()));
+    invalidations.invalidate(Collections.singleton("blog"));
+    byte[] data = invalidations.toBytes();
+    Invalidations decoded = Invalidations.fromBytes(data, 0, data.length);
+    assertEquals("a", decoded.getOrigin());
+    assertEquals(new HashSet<String>(Arrays.asList("cleared", "unknown")), decoded.getClearedCaches());
+    assertEquals(new HashSet<Object>(Arrays.<Object>asList(1L, "x", new BigDecimal("1.5"))), decoded.getRemovedEntities().get("removed"));
+    assertEquals(Collections.singleton("blog"), decoded.getWrittenTables());
+  }
+
+  @Test
+  public void shouldBroadcastCommittedClearsAndRemovalsOverMulticast() throws Exception {
+    int port = 40000 + (int) (Math.random() * 10000);
+    configurationA.setInvalidationBus(newBus(port));
+    configurationB.setInvalidationBus(newBus(port));
+    TransactionalCacheManager tcm = new TransactionalCacheManager(null, configurationA.getEntityKeyIndex(), configurationA.getInvalidationBus());
+
+    nearB.putObject(0, "zero");
+    nearB.putObject(1, "one");
+    configurationB.getEntityKeyIndex().register(nearB, 1, Collections.<Object>singleton(7L));
+    tcm.removeEntities(nearA, Collections.<Object>singleton(7L));
+    tcm.commit();
+    assertTrue(waitUntilRemoved(nearB, 1));
+    assertNull(shared.getObject(1));
+    assertEquals("zero", nearB.getObject(0));
+
+    tcm.clear(nearA);
+    tcm.commit();
+    assertTrue(waitUntilRemoved(nearB, 0));
+  }
+
+  private InvalidationBus newBus(int port) {
+    InvalidationBus bus = new MulticastInvalidationBus();
+    Properties properties = new Properties();
+    properties.setProperty("port", String.valueOf(port));
+    bus.setProperties(properties);
+    return bus;
+  }
+
+  private boolean waitUntilRemoved(Cache cache, Object key) throws InterruptedException {
+    for (int i = 0; i < 200; i++) {
+      if (cache.getObject(key) == null) {
+        return true;
+      }
+      Thread.sleep(10);
+    }
+    return false;
+  }
+
+}
@@ -0,0 +1,130 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.impl.OffHeapCache;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class OffHeapCacheTest {
+
+  @Test
+  public void shouldReturnCopiesOfStoredObjects() {
+    Cache cache = new OffHeapCache("default");
+    List<String> value = new ArrayList<String>();
+    value.add("a");
+    value.add("b");
+    cache.putObject(0, value);
+    Object copy = cache.getObject(0);
+    assertEquals(value, copy);
+    assertNotSame(value, copy);
+  }
+
+  @Test
+  public void shouldStayWithinByteBudget() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setMaxBytes(64 * 1024);
+    cache.setSlabSize(16 * 1024);
+    cache.initialize();
+    for (int i = 0; i < 1000; i++) {
+      cache.putObject(i, new byte[500]);
+    }
+    assertTrue(cache.getAllocatedBytes() <= 64 * 1024);
+    assertTrue(cache.getSize() < 1000);
+    assertNotNull(cache.getObject(999));
+  }
+
+  @Test
+  public void shouldGiveSecondChanceToReferencedEntries() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setMaxBytes(16 * 1024);
+    cache.setSlabSize(16 * 1024);
+    cache.initialize();
+    cache.putObject("hot", new byte[500]);
+    for (int i = 0; i < 100; i++) {
+      assertNotNull(cache.getObject("hot"));
+      cache.putObject(i, new byte[500]);
+    }
+    assertNotNull(cache.getObject("hot"));
+  }
+
+  @Test
+  public void shouldMoveSlabsBetweenSizeClasses() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setMaxBytes(32 * 1024);
+    cache.setSlabSize(16 * 1024);
+    cache.initialize();
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, new byte[100]);
+    }
+    cache.putObject("large", new byte[5000]);
+    assertNotNull(cache.getObject("large"));
+    assertTrue(cache.getAllocatedBytes() <= 32 * 1024);
+  }
+
+  @Test
+  public void shouldNotCacheObjectsLargerThanSlab() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setMaxBytes(64 * 1024);
+    cache.setSlabSize(16 * 1024);
+    cache.initialize();
+    cache.putObject(0, new byte[20 * 1024]);
+    assertNull(cache.getObject(0));
+  }
+
+  @Test(expected = CacheException.class)
+  public void shouldRejectNonSerializableObjects() {
+    Cache cache = new OffHeapCache("default");
+    cache.putObject(0, new Object());
+  }
+
+  @Test
+  public void shouldRemoveEntryWhenNullIsPut() {
+    Cache cache = new OffHeapCache("default");
+    cache.putObject(0, "zero");
+    cache.putObject(0, null);
+    cache.putObject(1, null);
+    assertNull(cache.getObject(0));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldRemoveItemOnDemand() {
+    Cache cache = new OffHeapCache("default");
+    cache.putObject(0, 0);
+    assertNotNull(cache.getObject(0));
+    cache.removeObject(0);
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldFlushAllItemsOnDemand() {
+    Cache cache = new OffHeapCache("default");
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertNotNull(cache.getObject(0));
+    assertNotNull(cache.getObject(4));
+    cache.clear();
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(4));
+    assertEquals(0, cache.getSize());
+  }
+
+}
@@ -0,0 +1,76 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.ExpiringCache;
+import org.apache.ibatis.cache.decorators.RevalidatingCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class RevalidatingCacheTest {
+
+  @Test
+  public void shouldServeStaleEntryAndRequestOneRefreshAfterClear() {
+    RevalidatingCache cache = new RevalidatingCache(new PerpetualCache("default"));
+    cache.setStaleWindow(1000);
+    cache.putObject(0, 0);
+    assertEquals(0, cache.getObject(0));
+    assertFalse(ExpiringCache.takeRefreshRequest(0));
+    cache.clear();
+    assertEquals(0, cache.getObject(0));
+    assertTrue(ExpiringCache.takeRefreshRequest(0));
+    assertEquals(0, cache.getObject(0));
+    assertFalse(ExpiringCache.takeRefreshRequest(0));
+    cache.putObject(0, 1);
+    assertEquals(1, cache.getObject(0));
+    assertFalse(ExpiringCache.takeRefreshRequest(0));
+  }
+
+  @Test
+  public void shouldNotServeStaleEntryAfterWindow() throws Exception {
+    RevalidatingCache cache = new RevalidatingCache(new PerpetualCache("default"));
+    cache.setStaleWindow(100);
+    cache.putObject(0, 0);
+    cache.clear();
+    Thread.sleep(60);
+    cache.putObject(1, 1);
+    cache.clear();
+    Thread.sleep(60);
+    assertNull(cache.getObject(0));
+    assertEquals(1, cache.getObject(1));
+    ExpiringCache.takeRefreshRequest(1);
+  }
+
+  @Test
+  public void shouldClearAtOnceWithoutStaleWindow() {
+    Cache cache = new RevalidatingCache(new PerpetualCache("default"));
+    cache.putObject(0, 0);
+    cache.clear();
+    assertNull(cache.getObject(0));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldRemoveItemOnDemand() {
+    RevalidatingCache cache = new RevalidatingCache(new PerpetualCache("default"));
+    cache.setStaleWindow(1000);
+    cache.putObject(0, 0);
+    assertEquals(0, cache.removeObject(0));
+    assertNull(cache.getObject(0));
+  }
+
+}
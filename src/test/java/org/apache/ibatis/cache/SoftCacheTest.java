@@ -15,9 +15,15 @@
  */
 package org.apache.ibatis.cache;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.apache.ibatis.cache.decorators.SerializedCache;
 import org.apache.ibatis.cache.decorators.SoftCache;
+import org.apache.ibatis.cache.decorators.SynchronizedCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
@@ -74,4 +80,37 @@ public class SoftCacheTest {
     assertNull(cache.getObject(4));
   }
 
-}
\ No newline at end of file
+  @Test
+  public void shouldServeConcurrentReadersAndWritersWithoutSynchronization() throws Exception {
+    final Cache cache = new CacheBuilder("soft").addDecorator(SoftCache.class).build();
+    assertFalse(cache instanceof SynchronizedCache);
+    final AtomicInteger wrongValues = new AtomicInteger();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 4; t++) {
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 10000; i++) {
+            int key = i % 100;
+            cache.putObject(key, key);
+            Object value = cache.getObject(key);
+            if (value != null && !value.equals(key)) {
+              wrongValues.incrementAndGet();
+            }
+            if (i % 10 == 0) {
+              cache.removeObject(key);
+            }
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, wrongValues.get());
+    assertTrue(cache.getSize() <= 100);
+  }
+
+}
@@ -0,0 +1,119 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.StatisticsCache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+public class StatisticsCacheTest {
+
+  @Test
+  public void shouldCountHitsMissesAndPuts() {
+    StatisticsCache cache = new StatisticsCache(new PerpetualCache("default"));
+    cache.putObject(0, 0);
+    assertEquals(0, cache.getObject(0));
+    assertNull(cache.getObject(1));
+    cache.recordLoad(2000000);
+    CacheStats stats = cache.getStats();
+    assertEquals(1, stats.getHits());
+    assertEquals(1, stats.getMisses());
+    assertEquals(0.5, stats.getHitRatio(), 0);
+    assertEquals(1, stats.getPuts());
+    assertEquals(1, stats.getLoads());
+    assertEquals(2.0, stats.getAverageLoadMillis(), 0);
+    assertEquals(1, stats.getSize());
+    assertTrue(stats.getEstimatedBytes() > 0);
+  }
+
+  @Test
+  public void shouldTellEvictionsFromRemovalsAndClears() {
+    CacheStatsRegistry registry = new CacheStatsRegistry();
+    Cache cache = new CacheBuilder("evictions").size(2).statistics(registry).build();
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    cache.removeObject(4);
+    cache.removeObject(0);
+    cache.clear();
+    CacheStats stats = registry.getStats("evictions");
+    assertEquals(5, stats.getPuts());
+    assertEquals(3, stats.getEvictions());
+    assertEquals(1, stats.getRemovals());
+    assertEquals(1, stats.getClears());
+    assertEquals(0, stats.getSize());
+  }
+
+  @Test
+  public void shouldCountEvictionsOfPoliciesKeepingTheirEntries() {
+    CacheStatsRegistry registry = new CacheStatsRegistry();
+    Cache cache = new CacheBuilder("tinylfu").addDecorator(TinyLfuCache.class).size(10).statistics(registry).build();
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, i);
+    }
+    CacheStats stats = registry.getStats("tinylfu");
+    assertEquals(100, stats.getPuts());
+    assertEquals(90, stats.getEvictions());
+    assertEquals(0, stats.getRemovals());
+  }
+
+  @Test
+  public void shouldRegisterMBeanPerNamespace() throws Exception {
+    CacheStatsRegistry registry = new CacheStatsRegistry();
+    Cache cache = new CacheBuilder("org.apache.ibatis.jmx").statistics(registry).build();
+    cache.putObject(0, 0);
+    cache.getObject(0);
+    ObjectName name = new ObjectName("org.apache.ibatis:type=CacheStatistics,name=\"org.apache.ibatis.jmx\"");
+    try {
+      assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Hits"));
+      assertEquals(1, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Size"));
+    } finally {
+      registry.unregisterMBeans();
+    }
+    assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+  }
+
+  @Test
+  public void shouldRegisterSecondFactoryUnderItsOwnName() throws Exception {
+    CacheStatsRegistry first = new CacheStatsRegistry();
+    CacheStatsRegistry second = new CacheStatsRegistry();
+    Cache firstCache = new CacheBuilder("org.apache.ibatis.jmx2").statistics(first).build();
+    Cache secondCache = new CacheBuilder("org.apache.ibatis.jmx2").statistics(second).build();
+    firstCache.putObject(0, 0);
+    secondCache.putObject(0, 0);
+    secondCache.putObject(1, 1);
+    try {
+      assertEquals("org.apache.ibatis:type=CacheStatistics,name=\"org.apache.ibatis.jmx2\"",
+          first.getMBeanName("org.apache.ibatis.jmx2").toString());
+      assertEquals("org.apache.ibatis:type=CacheStatistics,name=\"org.apache.ibatis.jmx2\",instance=2",
+          second.getMBeanName("org.apache.ibatis.jmx2").toString());
+      assertEquals(1, ManagementFactory.getPlatformMBeanServer().getAttribute(first.getMBeanName("org.apache.ibatis.jmx2"), "Size"));
+      assertEquals(2, ManagementFactory.getPlatformMBeanServer().getAttribute(second.getMBeanName("org.apache.ibatis.jmx2"), "Size"));
+    } finally {
+      second.unregisterMBeans();
+      first.unregisterMBeans();
+    }
+    assertNull(first.getMBeanName("org.apache.ibatis.jmx2"));
+  }
+
+}
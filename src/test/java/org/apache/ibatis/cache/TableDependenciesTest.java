@@ -0,0 +1,112 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+public class TableDependenciesTest {
+
+  @Test
+  public void shouldFindTablesReadBySelect() {
+    SqlTables tables = SqlTables.parse("select b.id, a.username from blog b join \"Author\" a on b.author_id = a.id"
+        + " left outer join post p on p.blog_id = b.id, comment c, mydb.tag t"
+        + " where b.title = 'from nowhere' and exists (select 1 from post_tag pt where pt.post_id = p.id)");
+    assertEquals(tables("blog", "author", "post", "comment", "tag", "post_tag"), tables.getReadTables());
+    assertTrue(tables.getWrittenTables().isEmpty());
+  }
+
+  @Test
+  public void shouldFindTablesReadFromSubqueriesInFromList() {
+    SqlTables tables = SqlTables.parse("SELECT * FROM (SELECT id FROM blog) b, author a -- from comment\n"
+        + "/* join post */ WHERE a.id = b.id");
+    assertEquals(tables("blog", "author"), tables.getReadTables());
+  }
+
+  @Test
+  public void shouldFindTablesWritten() {
+    assertEquals(tables("author"), SqlTables.parse("insert into Author (id, username) values (?, ?)").getWrittenTables());
+    assertEquals(tables("author"), SqlTables.parse("UPDATE author SET bio = 'it''s an update' WHERE id = ?").getWrittenTables());
+    assertEquals(tables("author"), SqlTables.parse("delete from `author` where id = ?").getWrittenTables());
+    assertEquals(tables("author"), SqlTables.parse("insert into author (id) values (?) on duplicate key update id = ?").getWrittenTables());
+    SqlTables copy = SqlTables.parse("insert into blog_archive (id, title) select id, title from blog where id = ?");
+    assertEquals(tables("blog_archive"), copy.getWrittenTables());
+    assertEquals(tables("blog"), copy.getReadTables());
+  }
+
+  @Test
+  public void shouldRemoveOnlyEntriesReadFromWrittenTables() {
+    TableDependencies dependencies = new TableDependencies();
+    Cache blogs = new PerpetualCache("blogs");
+    Cache authors = new PerpetualCache("authors");
+    put(dependencies, blogs, "blogWithAuthor", tables("blog", "author"));
+    put(dependencies, blogs, "blog", tables("blog"));
+    put(dependencies, authors, "author", tables("author"));
+    put(dependencies, authors, "unknown", Collections.<String>emptySet());
+    dependencies.invalidate(tables("author"));
+    assertNull(blogs.getObject("blogWithAuthor"));
+    assertNotNull(blogs.getObject("blog"));
+    assertNull(authors.getObject("author"));
+    assertNull(authors.getObject("unknown"));
+  }
+
+  @Test
+  public void shouldClearWholeCacheWhenTooManyKeysReadTable() {
+    TableDependencies dependencies = new TableDependencies();
+    dependencies.setMaxKeysPerTable(2);
+    Cache cache = new PerpetualCache("default");
+    put(dependencies, cache, "blog", tables("blog"));
+    for (int i = 0; i < 3; i++) {
+      put(dependencies, cache, i, tables("author"));
+    }
+    dependencies.invalidate(tables("author"));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldInvalidateTablesOnCommitOnly() {
+    TableDependencies dependencies = new TableDependencies();
+    Cache cache = new PerpetualCache("default");
+    TransactionalCacheManager reader = new TransactionalCacheManager(dependencies, null);
+    reader.putObject(cache, new CacheKey(new Object[] { "author" }), "jim", tables("author"));
+    reader.commit();
+    TransactionalCacheManager writer = new TransactionalCacheManager(dependencies, null);
+    writer.invalidate(tables("author"));
+    assertTrue(writer.isInvalidated(tables("author", "blog")));
+    assertFalse(writer.isInvalidated(tables("blog")));
+    assertFalse(reader.isInvalidated(tables("author")));
+    assertEquals("jim", cache.getObject(new CacheKey(new Object[] { "author" })));
+    writer.commit();
+    assertNull(cache.getObject(new CacheKey(new Object[] { "author" })));
+    assertFalse(writer.isInvalidated(tables("author")));
+  }
+
+  private void put(TableDependencies dependencies, Cache cache, Object key, Set<String> tables) {
+    cache.putObject(key, key);
+    dependencies.register(cache, key, tables);
+  }
+
+  private Set<String> tables(String... names) {
+    return new HashSet<String>(Arrays.asList(names));
+  }
+
+}
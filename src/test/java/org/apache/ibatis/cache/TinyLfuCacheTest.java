@@ -0,0 +1,144 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TinyLfuCacheTest {
+
+  @Test
+  public void shouldNotExceedMaximumSize() {
+    TinyLfuCache cache = new TinyLfuCache(new PerpetualCache("default"));
+    cache.setSize(100);
+    for (int i = 0; i < 1000; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(100, cache.getSize());
+  }
+
+  @Test
+  public void shouldKeepFrequentlyUsedItemsDuringScan() {
+    TinyLfuCache cache = new TinyLfuCache(new PerpetualCache("default"));
+    cache.setSize(100);
+    for (int i = 0; i < 50; i++) {
+      cache.putObject(i, i);
+    }
+    for (int round = 0; round < 10; round++) {
+      for (int i = 0; i < 50; i++) {
+        assertEquals(i, cache.getObject(i));
+      }
+    }
+    for (int i = 1000; i < 2000; i++) {
+      cache.putObject(i, i);
+    }
+    int survivors = 0;
+    for (int i = 0; i < 50; i++) {
+      if (cache.getObject(i) != null) {
+        survivors++;
+      }
+    }
+    assertTrue("only " + survivors + " hot entries survived the scan", survivors >= 45);
+  }
+
+  @Test
+  public void shouldReplaceExistingValue() {
+    Cache cache = new TinyLfuCache(new PerpetualCache("default"));
+    cache.putObject(0, 0);
+    cache.putObject(0, 1);
+    assertEquals(1, cache.getObject(0));
+    assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  public void shouldStoreNullValues() {
+    Cache cache = new TinyLfuCache(new PerpetualCache("default"));
+    cache.putObject(0, null);
+    assertNull(cache.getObject(0));
+    assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  public void shouldRemoveItemOnDemand() {
+    Cache cache = new TinyLfuCache(new PerpetualCache("default"));
+    cache.putObject(0, 0);
+    assertNotNull(cache.getObject(0));
+    cache.removeObject(0);
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldFlushAllItemsOnDemand() {
+    Cache cache = new TinyLfuCache(new PerpetualCache("default"));
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertNotNull(cache.getObject(0));
+    assertNotNull(cache.getObject(4));
+    cache.clear();
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(4));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldStayBoundedUnderConcurrentAccess() throws Exception {
+    final TinyLfuCache cache = new TinyLfuCache(new PerpetualCache("default"));
+    cache.setSize(64);
+    final int threads = 8;
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    for (int t = 0; t < threads; t++) {
+      final int seed = t;
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int i = 0; i < 20000; i++) {
+              Integer key = (i * 31 + seed) % 512;
+              Object value = cache.getObject(key);
+              if (value == null) {
+                cache.putObject(key, key);
+              } else {
+                assertEquals(key, value);
+              }
+              if (i % 1000 == 0) {
+                cache.removeObject(key);
+              }
+            }
+          } catch (Throwable e) {
+            failure.set(e);
+          } finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    start.countDown();
+    done.await();
+    assertNull(failure.get());
+    cache.putObject(-1, -1);
+    assertTrue(cache.getSize() <= 64);
+  }
+
+}
@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.cache;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -78,4 +79,15 @@ public class WeakCacheTest {
     assertNull(cache.getObject(4));
   }
 
+  @Test
+  public void shouldKeepRecentlyHitValues() {
+    WeakCache cache = new WeakCache(new PerpetualCache("default"));
+    cache.setSize(2);
+    cache.putObject(0, new StringBuilder("zero"));
+    assertNotNull(cache.getObject(0));
+    System.gc();
+    assertEquals("zero", cache.getObject(0).toString());
+    assertEquals(1, cache.getSize());
+  }
+
 }
@@ -0,0 +1,152 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
+import org.apache.ibatis.cache.decorators.WeightedLruCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.mapping.CacheBuilder;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class WeightedLruCacheTest {
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedItemsBeyondMaxBytes() {
+    WeightedLruCache cache = new WeightedLruCache(new PerpetualCache("default"));
+    cache.setWeigher(LengthWeigher.class.getName());
+    cache.setMaxBytes(1000);
+    cache.putObject(0, new byte[400]);
+    cache.putObject(1, new byte[400]);
+    assertNotNull(cache.getObject(0));
+    cache.putObject(2, new byte[400]);
+    assertNotNull(cache.getObject(0));
+    assertNull(cache.getObject(1));
+    assertEquals(800, cache.getWeight());
+  }
+
+  @Test
+  public void shouldNotKeepItemLargerThanMaxBytes() {
+    WeightedLruCache cache = new WeightedLruCache(new PerpetualCache("default"));
+    cache.setWeigher(LengthWeigher.class.getName());
+    cache.setMaxBytes(1000);
+    cache.putObject(0, new byte[2000]);
+    assertNull(cache.getObject(0));
+    assertEquals(0, cache.getWeight());
+  }
+
+  @Test
+  public void shouldWeighLargerResultListsHeavier() {
+    Weigher weigher = new ReflectiveWeigher();
+    long small = weigher.weigh(0, authors(10));
+    long large = weigher.weigh(0, authors(1000));
+    assertTrue(small > 10 * 64);
+    assertTrue(large > 50 * small);
+  }
+
+  @Test
+  public void shouldCountSharedObjectsOnce() {
+    Weigher weigher = new ReflectiveWeigher();
+    Author author = new Author(1, "jim", "secret", "jim@ibatis.apache.org", "a bio that is rather long", Section.NEWS);
+    List<Author> distinct = new ArrayList<Author>();
+    List<Author> shared = new ArrayList<Author>();
+    for (int i = 0; i < 100; i++) {
+      distinct.add(new Author(i, "jim", "secret", "jim@ibatis.apache.org", "a bio that is rather long", Section.NEWS));
+      shared.add(author);
+    }
+    assertTrue(weigher.weigh(0, shared) < weigher.weigh(0, distinct));
+  }
+
+  @Test
+  public void shouldRemoveItemOnDemand() {
+    WeightedLruCache cache = new WeightedLruCache(new PerpetualCache("default"));
+    cache.putObject(0, 0);
+    assertNotNull(cache.getObject(0));
+    cache.removeObject(0);
+    assertNull(cache.getObject(0));
+    assertEquals(0, cache.getWeight());
+  }
+
+  @Test
+  public void shouldFlushAllItemsOnDemand() {
+    WeightedLruCache cache = new WeightedLruCache(new PerpetualCache("default"));
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertNotNull(cache.getObject(0));
+    assertNotNull(cache.getObject(4));
+    cache.clear();
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(4));
+    assertEquals(0, cache.getWeight());
+  }
+
+  @Test
+  public void shouldReplaceEntryCountedPolicyWhenMaxBytesIsSet() {
+    Cache cache = new CacheBuilder("weighted").maxBytes(64L * 1024 * 1024).build();
+    for (int i = 0; i < 2000; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(2000, cache.getSize());
+    assertNotNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldForgetEntriesEvictedBelow() {
+    TinyLfuCache policy = new TinyLfuCache(new PerpetualCache("default"));
+    policy.setSize(10);
+    WeightedLruCache cache = new WeightedLruCache(policy);
+    cache.setWeigher(LengthWeigher.class.getName());
+    policy.setEvictionListener(cache);
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, new byte[10]);
+    }
+    assertEquals(10, policy.getSize());
+    assertEquals(100, cache.getWeight());
+  }
+
+  @Test
+  public void shouldPassEvictionsBelowOnToStatistics() {
+    CacheStatsRegistry registry = new CacheStatsRegistry();
+    Cache cache = new CacheBuilder("weighted.tinylfu").addDecorator(TinyLfuCache.class).size(10)
+        .maxBytes(64L * 1024 * 1024).statistics(registry).build();
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(90, registry.getStats("weighted.tinylfu").getEvictions());
+  }
+
+  private List<Author> authors(int count) {
+    List<Author> authors = new ArrayList<Author>();
+    for (int i = 0; i < count; i++) {
+      authors.add(new Author(i, "user" + i, "password" + i, "user" + i + "@ibatis.apache.org", "bio " + i, Section.NEWS));
+    }
+    return authors;
+  }
+
+  public static class LengthWeigher implements Weigher {
+    @Override
+    public long weigh(Object key, Object value) {
+      return ((byte[]) value).length;
+    }
+  }
+
+}
@@ -0,0 +1,83 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void shouldPlaceEveryValueInABucketThatContainsIt() {
+    long[] values = { 0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789, Long.MAX_VALUE };
+    for (long value : values) {
+      int index = LatencyHistogram.indexOf(value);
+      assertTrue(value <= LatencyHistogram.highestValueOf(index));
+      assertTrue(index == 0 || value > LatencyHistogram.highestValueOf(index - 1));
+    }
+  }
+
+  @Test
+  public void shouldReportPercentilesWithinBucketPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i);
+    }
+    LatencySnapshot snapshot = histogram.snapshot();
+    assertEquals(1000, snapshot.getCount());
+    assertEquals(500, snapshot.getMean());
+    assertEquals(1000, snapshot.getMax());
+    assertEquals(500, snapshot.getP50(), 500 / 16);
+    assertEquals(990, snapshot.getP99(), 990 / 16);
+    assertEquals(1000, snapshot.getP999());
+    assertTrue(snapshot.getP50() <= snapshot.getP90() && snapshot.getP90() <= snapshot.getP99());
+  }
+
+  @Test
+  public void shouldBeEmptyAfterReset() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(42);
+    histogram.reset();
+    LatencySnapshot snapshot = histogram.snapshot();
+    assertEquals(0, snapshot.getCount());
+    assertEquals(0, snapshot.getP99());
+    assertEquals(0, snapshot.getMax());
+  }
+
+  @Test
+  public void shouldRecordFromManyThreads() throws Exception {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 10000; j++) {
+            histogram.record(j);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(40000, histogram.snapshot().getCount());
+    assertEquals(9999, histogram.snapshot().getMax());
+  }
+
+}
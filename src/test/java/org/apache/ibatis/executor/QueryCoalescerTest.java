@@ -0,0 +1,148 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.junit.Assert.*;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.junit.Test;
+
+public class QueryCoalescerTest {
+
+  @Test
+  public void shouldRunConcurrentIdenticalQueriesOnce() throws Exception {
+    final QueryCoalescer coalescer = new QueryCoalescer();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger runs = new AtomicInteger();
+    final QueryCoalescer.Query<String> query = new QueryCoalescer.Query<String>() {
+      @Override
+      public List<String> run() throws SQLException {
+        runs.incrementAndGet();
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new SQLException(e);
+        }
+        return new ArrayList<String>(Arrays.asList("a", "b"));
+      }
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+      results.add(executor.submit(newCall(coalescer, query)));
+      assertTrue(started.await(5, TimeUnit.SECONDS));
+      for (int i = 0; i < 3; i++) {
+        results.add(executor.submit(newCall(coalescer, query)));
+      }
+      while (coalescer.getWaiting() < 3) {
+        Thread.sleep(10);
+      }
+      release.countDown();
+      List<String> leaderResult = results.get(0).get(5, TimeUnit.SECONDS);
+      for (Future<List<String>> result : results) {
+        assertEquals(Arrays.asList("a", "b"), result.get(5, TimeUnit.SECONDS));
+        if (result != results.get(0)) {
+          assertNotSame(leaderResult, result.get());
+        }
+      }
+      assertEquals(1, runs.get());
+      assertEquals(1, coalescer.getExecutions());
+      assertEquals(3, coalescer.getCoalesced());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void shouldRunQueryAgainWhenNobodyIsRunningIt() throws Exception {
+    QueryCoalescer coalescer = new QueryCoalescer();
+    final AtomicInteger runs = new AtomicInteger();
+    QueryCoalescer.Query<Integer> query = new QueryCoalescer.Query<Integer>() {
+      @Override
+      public List<Integer> run() {
+        return Arrays.asList(runs.incrementAndGet());
+      }
+    };
+    assertEquals(Arrays.asList(1), coalescer.execute(key(), false, query));
+    assertEquals(Arrays.asList(2), coalescer.execute(key(), false, query));
+    assertEquals(0, coalescer.getCoalesced());
+  }
+
+  @Test
+  public void shouldRunQueryItselfWhenWaitTimesOut() throws Exception {
+    final QueryCoalescer coalescer = new QueryCoalescer();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger runs = new AtomicInteger();
+    QueryCoalescer.Query<Integer> stuck = new QueryCoalescer.Query<Integer>() {
+      @Override
+      public List<Integer> run() throws SQLException {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new SQLException(e);
+        }
+        return Arrays.asList(runs.incrementAndGet());
+      }
+    };
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<List<Integer>> leader = executor.submit(newCall(coalescer, stuck));
+      assertTrue(started.await(5, TimeUnit.SECONDS));
+      List<Integer> result = coalescer.execute(key(), false, 50, new QueryCoalescer.Query<Integer>() {
+        @Override
+        public List<Integer> run() {
+          return Arrays.asList(-1);
+        }
+      });
+      assertEquals(Arrays.asList(-1), result);
+      assertEquals(0, coalescer.getCoalesced());
+      release.countDown();
+      assertEquals(Arrays.asList(1), leader.get(5, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static <E> Callable<List<E>> newCall(final QueryCoalescer coalescer, final QueryCoalescer.Query<E> query) {
+    return new Callable<List<E>>() {
+      @Override
+      public List<E> call() throws Exception {
+        return coalescer.execute(key(), true, query);
+      }
+    };
+  }
+
+  private static CacheKey key() {
+    return new CacheKey(new Object[] { "selectAuthor", 101 });
+  }
+
+}
@@ -17,17 +17,36 @@ package org.apache.ibatis.jdbc;
 
 import static org.junit.Assert.*;
 
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
 
 import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.datasource.ConnectionRequest;
+import org.apache.ibatis.datasource.pooled.ConnectionHolder;
+import org.apache.ibatis.datasource.pooled.ConnectionValidator;
+import org.apache.ibatis.datasource.pooled.JdbcIsValidValidator;
+import org.apache.ibatis.datasource.pooled.PoolEngine;
+import org.apache.ibatis.datasource.pooled.PoolMetrics;
+import org.apache.ibatis.datasource.pooled.PoolValidation;
 import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
 import org.hsqldb.jdbc.JDBCConnection;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -75,6 +94,480 @@ public class PooledDataSourceTest extends BaseDataTest {
     }
   }
 
+  @Test
+  public void shouldProperlyMaintainConcurrentPoolOf3ActiveAnd2IdleConnections() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      runScript(ds, JPETSTORE_DDL);
+      ds.setPoolEngine(PoolEngine.CONCURRENT);
+      ds.setDefaultAutoCommit(false);
+      ds.setPoolMaximumActiveConnections(3);
+      ds.setPoolMaximumIdleConnections(2);
+      ds.setPoolPingConnectionsNotUsedFor(1);
+      ds.setPoolPingEnabled(true);
+      ds.setPoolPingQuery("SELECT * FROM PRODUCT");
+      List<Connection> connections = new ArrayList<Connection>();
+      for (int i = 0; i < 3; i++) {
+        connections.add(ds.getConnection());
+      }
+      assertEquals(3, ds.getPoolState().getActiveConnectionCount());
+      for (Connection c : connections) {
+        c.close();
+      }
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+      assertEquals(3, ds.getPoolState().getRequestCount());
+      assertEquals(0, ds.getPoolState().getBadConnectionCount());
+      assertEquals(0, ds.getPoolState().getHadToWaitCount());
+      assertNotNull(ds.getPoolState().toString());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldNotReuseAClosedProxyOfTheConcurrentPool() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    ds.setPoolEngine(PoolEngine.CONCURRENT);
+    try {
+      Connection first = ds.getConnection();
+      Connection realConnection = PooledDataSource.unwrapConnection(first);
+      first.close();
+      Connection second = ds.getConnection();
+      assertSame(realConnection, PooledDataSource.unwrapConnection(second));
+      try {
+        first.getAutoCommit();
+        fail("A closed connection should not be usable");
+      } catch (SQLException e) {
+        // expected
+      }
+      second.getAutoCommit();
+      second.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldHandOffConnectionsBetweenThreadsOfTheConcurrentPool() throws Exception {
+    final PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    ds.setPoolEngine(PoolEngine.CONCURRENT);
+    ds.setPoolMaximumActiveConnections(2);
+    ds.setPoolMaximumIdleConnections(2);
+    try {
+      final AtomicInteger failures = new AtomicInteger();
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int i = 0; i < 8; i++) {
+        Thread thread = new Thread() {
+          @Override
+          public void run() {
+            try {
+              for (int j = 0; j < 50; j++) {
+                Connection c = ds.getConnection();
+                c.getAutoCommit();
+                c.close();
+              }
+            } catch (SQLException e) {
+              failures.incrementAndGet();
+            }
+          }
+        };
+        threads.add(thread);
+        thread.start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      assertEquals(0, failures.get());
+      assertEquals(400, ds.getPoolState().getRequestCount());
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      assertTrue(ds.getPoolState().getIdleConnectionCount() <= 2);
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldSelectPoolEngineFromFactoryProperties() throws Exception {
+    PooledDataSourceFactory factory = new PooledDataSourceFactory();
+    Properties properties = new Properties();
+    properties.setProperty("poolEngine", "concurrent");
+    factory.setProperties(properties);
+    assertEquals(PoolEngine.CONCURRENT, ((PooledDataSource) factory.getDataSource()).getPoolEngine());
+  }
+
+  @Test
+  public void shouldKeepMinimumIdleConnectionsReady() throws Exception {
+    for (PoolEngine engine : PoolEngine.values()) {
+      PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+      ds.setPoolEngine(engine);
+      ds.setPoolMinimumIdle(3);
+      ds.setPoolHousekeepingInterval(50);
+      try {
+        Connection c = ds.getConnection();
+        awaitIdleConnections(ds, 3);
+        assertEquals(1, ds.getPoolState().getActiveConnectionCount());
+        c.close();
+      } finally {
+        ds.setPoolHousekeepingInterval(30000);
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldRetireConnectionsIdleForTooLong() throws Exception {
+    for (PoolEngine engine : PoolEngine.values()) {
+      PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+      ds.setPoolEngine(engine);
+      ds.setPoolMinimumIdle(1);
+      ds.setPoolIdleTimeout(100);
+      ds.setPoolHousekeepingInterval(50);
+      try {
+        Connection first = ds.getConnection();
+        Connection second = ds.getConnection();
+        first.close();
+        second.close();
+        awaitIdleConnections(ds, 1);
+      } finally {
+        ds.setPoolHousekeepingInterval(30000);
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldCloseConnectionsPastTheirLifetimeOnReturn() throws Exception {
+    for (PoolEngine engine : PoolEngine.values()) {
+      PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+      ds.setPoolEngine(engine);
+      ds.setPoolMaximumLifetime(100);
+      ds.setPoolHousekeepingInterval(60000);
+      try {
+        Connection c = ds.getConnection();
+        Connection realConnection = PooledDataSource.unwrapConnection(c);
+        Thread.sleep(150);
+        c.close();
+        assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+        assertTrue(realConnection.isClosed());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldValidateWithConnectionIsValid() throws Exception {
+    PooledDataSourceFactory factory = new PooledDataSourceFactory();
+    Properties properties = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    Properties poolProperties = new Properties();
+    poolProperties.setProperty("driver", properties.getProperty("driver"));
+    poolProperties.setProperty("url", properties.getProperty("url"));
+    poolProperties.setProperty("username", properties.getProperty("username"));
+    poolProperties.setProperty("password", properties.getProperty("password"));
+    poolProperties.setProperty("poolPingEnabled", "true");
+    poolProperties.setProperty("poolValidator", JdbcIsValidValidator.class.getName());
+    poolProperties.setProperty("poolValidation", "borrow");
+    factory.setProperties(poolProperties);
+    PooledDataSource ds = (PooledDataSource) factory.getDataSource();
+    try {
+      Connection c = ds.getConnection();
+      Thread.sleep(5);
+      c.close();
+      Thread.sleep(5);
+      ds.getConnection().close();
+      assertEquals(0, ds.getPoolState().getBadConnectionCount());
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldSkipValidationOfRecentlyValidatedConnections() throws Exception {
+    for (PoolEngine engine : PoolEngine.values()) {
+      PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+      CountingValidator validator = new CountingValidator();
+      ds.setPoolEngine(engine);
+      ds.setPoolPingEnabled(true);
+      ds.setConnectionValidator(validator);
+      ds.setPoolValidationWindow(60000);
+      try {
+        for (int i = 0; i < 5; i++) {
+          Thread.sleep(5);
+          Connection c = ds.getConnection();
+          Thread.sleep(5);
+          c.close();
+        }
+        assertEquals(1, validator.count.get());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldValidateOnReturnOnly() throws Exception {
+    for (PoolEngine engine : PoolEngine.values()) {
+      PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+      CountingValidator validator = new CountingValidator();
+      ds.setPoolEngine(engine);
+      ds.setPoolPingEnabled(true);
+      ds.setConnectionValidator(validator);
+      ds.setPoolValidation(PoolValidation.RETURN);
+      ds.setPoolPingConnectionsNotUsedFor(50);
+      try {
+        ds.getConnection().close();
+        Thread.sleep(100);
+        Connection c = ds.getConnection();
+        assertEquals(0, validator.count.get());
+        Thread.sleep(100);
+        c.close();
+        assertEquals(1, validator.count.get());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldRecordPoolMetricsAndExposeThemThroughJmx() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    ds.setPoolPingEnabled(true);
+    ds.setPoolValidator(JdbcIsValidValidator.class.getName());
+    ds.setPoolMBeanName("metricsTest");
+    try {
+      Connection c = ds.getConnection();
+      Thread.sleep(5);
+      c.close();
+      Thread.sleep(5);
+      ds.getConnection().close();
+      PoolMetrics metrics = ds.getPoolMetrics();
+      assertEquals(2, metrics.getBorrowWaitTime().getCount());
+      assertEquals(2, metrics.getCheckoutTime().getCount());
+      assertTrue(metrics.getCheckoutTime().getMax() >= 5000);
+      assertEquals(1, metrics.getConnectionCreationTime().getCount());
+      assertTrue(metrics.getValidationTime().getCount() > 0);
+      assertEquals(0, metrics.getWaitingThreads());
+
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName("org.apache.ibatis.datasource:type=PooledDataSource,name=metricsTest");
+      assertEquals(1, server.getAttribute(name, "IdleConnections"));
+      CompositeData borrowWait = (CompositeData) server.getAttribute(name, "BorrowWaitTime");
+      assertEquals(2L, borrowWait.get("count"));
+      ds.setPoolMBeanName(null);
+      assertFalse(server.isRegistered(name));
+    } finally {
+      ds.setPoolMBeanName(null);
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldNotKeepAPoolRegisteredAsMBeanFromBeingCollected() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    ds.setPoolMBeanName("collectedTest");
+    ds.getConnection().close();
+    WeakReference<PooledDataSource> reference = new WeakReference<PooledDataSource>(ds);
+    ds = null;
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName("org.apache.ibatis.datasource:type=PooledDataSource,name=collectedTest");
+    for (int i = 0; i < 50 && (reference.get() != null || server.isRegistered(name)); i++) {
+      System.gc();
+      System.runFinalization();
+      Thread.sleep(20);
+    }
+    assertNull(reference.get());
+    assertFalse(server.isRegistered(name));
+  }
+
+  @Test
+  public void shouldFailWhenTheBorrowTimeoutElapses() throws Exception {
+    for (PoolEngine engine : PoolEngine.values()) {
+      PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+      ds.setPoolEngine(engine);
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolBorrowTimeout(100);
+      try {
+        Connection c = ds.getConnection();
+        long start = System.currentTimeMillis();
+        try {
+          ds.getConnection();
+          fail("The pool is exhausted");
+        } catch (SQLTransientConnectionException e) {
+          assertTrue(System.currentTimeMillis() - start >= 100);
+        }
+        ConnectionRequest previous = ConnectionRequest.begin(new ConnectionRequest(null, 10));
+        try {
+          ds.getConnection();
+          fail("The pool is exhausted");
+        } catch (SQLTransientConnectionException e) {
+          // expected
+        } finally {
+          ConnectionRequest.restore(previous);
+        }
+        assertEquals(2, ds.getPoolState().getTimedOutRequestCount());
+        c.close();
+        ds.getConnection().close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldRejectRequestsBeyondTheMaximumWaitingThreads() throws Exception {
+    for (PoolEngine engine : PoolEngine.values()) {
+      PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+      ds.setPoolEngine(engine);
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolMaximumWaitingThreads(0);
+      try {
+        Connection c = ds.getConnection();
+        try {
+          ds.getConnection();
+          fail("No thread may wait");
+        } catch (SQLTransientConnectionException e) {
+          // expected
+        }
+        assertEquals(1, ds.getPoolState().getRejectedRequestCount());
+        assertEquals(1, ds.getPoolMetrics().getRejectedRequestCount());
+        c.close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldReportConnectionsHeldPastTheLeakDetectionThreshold() throws Exception {
+    for (PoolEngine engine : PoolEngine.values()) {
+      PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+      ds.setPoolEngine(engine);
+      ds.setPoolLeakDetectionThreshold(50);
+      ds.setPoolHousekeepingInterval(20);
+      try {
+        ConnectionRequest previous = ConnectionRequest.begin(new ConnectionRequest("org.apache.ibatis.LeakMapper.select", null));
+        Connection leaked;
+        try {
+          leaked = ds.getConnection();
+        } finally {
+          ConnectionRequest.restore(previous);
+        }
+        ds.getConnection().close();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ds.getPoolMetrics().getLeakedConnectionCount() == 0 && System.currentTimeMillis() < deadline) {
+          Thread.sleep(10);
+        }
+        assertEquals(1, ds.getPoolMetrics().getLeakedConnectionCount());
+        List<ConnectionHolder> holders = ds.getConnectionHolders();
+        assertEquals(1, holders.size());
+        ConnectionHolder holder = holders.get(0);
+        assertEquals(Thread.currentThread().getName(), holder.getThreadName());
+        assertEquals("org.apache.ibatis.LeakMapper.select", holder.getStatementId());
+        assertTrue(holder.isLeakReported());
+        assertTrue(holder.getHeldTime() > 50);
+        boolean borrowedHere = false;
+        for (StackTraceElement element : holder.getBorrowStackTrace()) {
+          borrowedHere |= "shouldReportConnectionsHeldPastTheLeakDetectionThreshold".equals(element.getMethodName());
+        }
+        assertTrue(borrowedHere);
+        assertEquals(1, ds.getPoolMetrics().getConnectionHolders().length);
+        Thread.sleep(50);
+        assertEquals(1, ds.getPoolMetrics().getLeakedConnectionCount());
+        leaked.close();
+        assertTrue(ds.getConnectionHolders().isEmpty());
+      } finally {
+        ds.setPoolHousekeepingInterval(30000);
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldSampleBorrowStackTraces() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    ds.setPoolLeakDetectionThreshold(60000);
+    ds.setPoolLeakDetectionSampleRate(2);
+    try {
+      Connection first = ds.getConnection();
+      Connection second = ds.getConnection();
+      int captured = 0;
+      for (ConnectionHolder holder : ds.getConnectionHolders()) {
+        if (holder.getBorrowStackTrace() != null) {
+          captured++;
+        }
+      }
+      assertEquals(1, captured);
+      first.close();
+      second.close();
+    } finally {
+      ds.setPoolHousekeepingInterval(30000);
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldHandReturnedConnectionsToWaitersInArrivalOrder() throws Exception {
+    for (PoolEngine engine : PoolEngine.values()) {
+      final PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+      ds.setPoolEngine(engine);
+      ds.setPoolMaximumActiveConnections(1);
+      try {
+        Connection c = ds.getConnection();
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 3; i++) {
+          final String name = "waiter" + i;
+          Thread thread = new Thread() {
+            @Override
+            public void run() {
+              try {
+                Connection connection = ds.getConnection();
+                order.add(name);
+                connection.close();
+              } catch (SQLException e) {
+                order.add(e.getMessage());
+              }
+            }
+          };
+          threads.add(thread);
+          thread.start();
+          while (ds.getPoolMetrics().getWaitingThreads() < i + 1) {
+            Thread.sleep(5);
+          }
+          Thread.sleep(20);
+        }
+        c.close();
+        for (Thread thread : threads) {
+          thread.join();
+        }
+        assertEquals(Arrays.asList("waiter0", "waiter1", "waiter2"), order);
+        assertEquals(3, ds.getPoolState().getHadToWaitCount());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  public static class CountingValidator implements ConnectionValidator {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public boolean isValid(Connection connection, PooledDataSource dataSource) throws SQLException {
+      count.incrementAndGet();
+      return true;
+    }
+  }
+
+  private void awaitIdleConnections(PooledDataSource ds, int expected) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (ds.getPoolState().getIdleConnectionCount() != expected && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(expected, ds.getPoolState().getIdleConnectionCount());
+  }
+
   @Test
   public void shouldNotFailCallingToStringOverAnInvalidConnection() throws Exception {
     PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);